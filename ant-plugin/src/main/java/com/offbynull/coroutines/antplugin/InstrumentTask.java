@@ -16,14 +16,18 @@
  */
 package com.offbynull.coroutines.antplugin;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationCache;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.apache.commons.io.FileUtils;
 import org.apache.tools.ant.BuildException;
@@ -56,6 +60,16 @@ public final class InstrumentTask extends Task {
 
     private boolean autoSerializable = true;
 
+    private boolean pruneDeadLocals = false;
+
+    private boolean skipUnmodifiedArguments = false;
+
+    private boolean recycleMethodStates = false;
+
+    private int threads = 1;
+
+    private File cacheDirectory;
+
     private String classpath;
 
     private File sourceDirectory;
@@ -93,6 +107,46 @@ public final class InstrumentTask extends Task {
         this.autoSerializable = autoSerializable;
     }
 
+    /**
+     * Sets the prune dead locals flag. Defaults to {@code false}.
+     * @param pruneDeadLocals prune dead locals
+     */
+    public void setPruneDeadLocals(boolean pruneDeadLocals) {
+        this.pruneDeadLocals = pruneDeadLocals;
+    }
+
+    /**
+     * Sets the skip unmodified arguments flag. Defaults to {@code false}.
+     * @param skipUnmodifiedArguments skip unmodified arguments
+     */
+    public void setSkipUnmodifiedArguments(boolean skipUnmodifiedArguments) {
+        this.skipUnmodifiedArguments = skipUnmodifiedArguments;
+    }
+
+    /**
+     * Sets the recycle method states flag. Defaults to {@code false}.
+     * @param recycleMethodStates recycle method states
+     */
+    public void setRecycleMethodStates(boolean recycleMethodStates) {
+        this.recycleMethodStates = recycleMethodStates;
+    }
+
+    /**
+     * Sets the number of threads to instrument with. Defaults to {@code 1}.
+     * @param threads number of threads to instrument with
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the directory to cache instrumentation results in. Defaults to {@code null} (no caching).
+     * @param cacheDirectory cache directory
+     */
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
     /**
      * Sets the classpath -- required by instrumenter when instrumenting class files.
      * @param classpath semicolon delimited classpath
@@ -146,6 +200,9 @@ public final class InstrumentTask extends Task {
         if (markerType == null) {
             throw new BuildException("Marker type not set");
         }
+        if (threads <= 0) {
+            throw new BuildException("Threads must be greater than 0: " + threads);
+        }
 
         List<File> combinedClasspath;
         try {
@@ -161,15 +218,26 @@ public final class InstrumentTask extends Task {
             throw new BuildException("Unable to get compile classpath elements", ex);
         }
 
-        Instrumenter instrumenter;
-        try {
-            log("Creating instrumenter...", Project.MSG_DEBUG);
+        log("Creating instrumenter...", Project.MSG_DEBUG);
+        File indexDirectory = cacheDirectory == null ? null : new File(cacheDirectory, "classpath-index");
+        try (Instrumenter instrumenter = new Instrumenter(combinedClasspath, indexDirectory)) {
             MarkerType markerTypeEnum = MarkerType.valueOf(markerType);
-            instrumenter = new Instrumenter(combinedClasspath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerTypeEnum, debugMode, autoSerializable);
+            Set<Optimization> optimizations = EnumSet.noneOf(Optimization.class);
+            if (pruneDeadLocals) {
+                optimizations.add(Optimization.PRUNE_DEAD_LOCALS);
+            }
+            if (skipUnmodifiedArguments) {
+                optimizations.add(Optimization.SKIP_UNMODIFIED_ARGUMENTS);
+            }
+            if (recycleMethodStates) {
+                optimizations.add(Optimization.RECYCLE_METHOD_STATES);
+            }
+            InstrumentationSettings settings = new InstrumentationSettings(markerTypeEnum, debugMode, autoSerializable, optimizations);
+            
+            InstrumentationCache cache = cacheDirectory == null ? null : new InstrumentationCache(cacheDirectory);
             
             log("Processing " + sourceDirectory.getAbsolutePath() + " ... ", Project.MSG_DEBUG);
-            PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, this::log);
+            PluginHelper.instrument(instrumenter, settings, sourceDirectory, targetDirectory, this::log, threads, cache);
         } catch (Exception ex) {
             throw new BuildException("Failed to instrument", ex);
         }
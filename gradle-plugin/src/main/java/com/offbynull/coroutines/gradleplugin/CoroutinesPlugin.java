@@ -16,13 +16,16 @@
  */
 package com.offbynull.coroutines.gradleplugin;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationCache;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -137,12 +140,30 @@ public class CoroutinesPlugin implements Plugin<Project> {
             MarkerType markerType = MarkerType.valueOf(config.getMarkerType());
             boolean debugMode = config.isDebugMode();
             boolean autoSerializable = config.isAutoSerializable();
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-            Instrumenter instrumenter = new Instrumenter(classpath);
+            boolean pruneDeadLocals = config.isPruneDeadLocals();
+            boolean skipUnmodifiedArguments = config.isSkipUnmodifiedArguments();
+            boolean recycleMethodStates = config.isRecycleMethodStates();
+            int threads = config.getThreads();
+            String cacheDirectory = config.getCacheDirectory();
+            Set<Optimization> optimizations = EnumSet.noneOf(Optimization.class);
+            if (pruneDeadLocals) {
+                optimizations.add(Optimization.PRUNE_DEAD_LOCALS);
+            }
+            if (skipUnmodifiedArguments) {
+                optimizations.add(Optimization.SKIP_UNMODIFIED_ARGUMENTS);
+            }
+            if (recycleMethodStates) {
+                optimizations.add(Optimization.RECYCLE_METHOD_STATES);
+            }
+            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable, optimizations);
+            File indexDirectory = cacheDirectory == null ? null : new File(cacheDirectory, "classpath-index");
+            try (Instrumenter instrumenter = new Instrumenter(classpath, indexDirectory)) {
+                InstrumentationCache cache = cacheDirectory == null ? null : new InstrumentationCache(new File(cacheDirectory));
 
-            // This logs to info by default, but info won't show up unless you pass -i to gradle. If you want logs to show up by default,
-            // pass in log::lifecycle instead.
-            PluginHelper.instrument(instrumenter, settings, classesDir, classesDir, log::info);
+                // This logs to info by default, but info won't show up unless you pass -i to gradle. If you want logs to show up by
+                // default, pass in log::lifecycle instead.
+                PluginHelper.instrument(instrumenter, settings, classesDir, classesDir, log::info, threads, cache);
+            }
         } catch (IOException ioe) {
             throw new IllegalStateException("Failed to instrument", ioe);
         }
@@ -27,6 +27,11 @@ public final class CoroutinesPluginConfiguration {
     private String markerType;
     private boolean debugMode;
     private boolean autoSerializable;
+    private boolean pruneDeadLocals;
+    private boolean skipUnmodifiedArguments;
+    private boolean recycleMethodStates;
+    private int threads;
+    private String cacheDirectory;
 
     /**
      * Constructs a {@link CoroutinesPluginConfiguration} object.
@@ -35,6 +40,11 @@ public final class CoroutinesPluginConfiguration {
         markerType = "NONE";
         debugMode = false;
         autoSerializable = true;
+        pruneDeadLocals = false;
+        skipUnmodifiedArguments = false;
+        recycleMethodStates = false;
+        threads = 1;
+        cacheDirectory = null;
     }
 
     /**
@@ -90,5 +100,87 @@ public final class CoroutinesPluginConfiguration {
     public void setAutoSerializable(boolean autoSerializable) {
         this.autoSerializable = autoSerializable;
     }
+
+    /**
+     * Get prune dead locals.
+     * @return prune dead locals
+     */
+    public boolean isPruneDeadLocals() {
+        return pruneDeadLocals;
+    }
+
+    /**
+     * Set prune dead locals.
+     * @param pruneDeadLocals prune dead locals
+     */
+    public void setPruneDeadLocals(boolean pruneDeadLocals) {
+        this.pruneDeadLocals = pruneDeadLocals;
+    }
+
+    /**
+     * Get skip unmodified arguments.
+     * @return skip unmodified arguments
+     */
+    public boolean isSkipUnmodifiedArguments() {
+        return skipUnmodifiedArguments;
+    }
+
+    /**
+     * Set skip unmodified arguments.
+     * @param skipUnmodifiedArguments skip unmodified arguments
+     */
+    public void setSkipUnmodifiedArguments(boolean skipUnmodifiedArguments) {
+        this.skipUnmodifiedArguments = skipUnmodifiedArguments;
+    }
+
+    /**
+     * Get recycle method states.
+     * @return recycle method states
+     */
+    public boolean isRecycleMethodStates() {
+        return recycleMethodStates;
+    }
+
+    /**
+     * Set recycle method states.
+     * @param recycleMethodStates recycle method states
+     */
+    public void setRecycleMethodStates(boolean recycleMethodStates) {
+        this.recycleMethodStates = recycleMethodStates;
+    }
+
+    /**
+     * Get number of threads to instrument with.
+     * @return number of threads to instrument with
+     */
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set number of threads to instrument with.
+     * @param threads number of threads to instrument with
+     * @throws IllegalArgumentException if {@code threads <= 0}
+     */
+    public void setThreads(int threads) {
+        Validate.isTrue(threads > 0);
+        this.threads = threads;
+    }
+
+    /**
+     * Get instrumentation cache directory.
+     * @return instrumentation cache directory ({@code null} if caching is disabled)
+     */
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    /**
+     * Set instrumentation cache directory.
+     * @param cacheDirectory instrumentation cache directory ({@code null} to disable caching)
+     */
+    public void setCacheDirectory(String cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
     
 }
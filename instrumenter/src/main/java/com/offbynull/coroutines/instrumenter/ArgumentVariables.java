@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2016, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.commons.collections4.list.UnmodifiableList;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Type;
+
+final class ArgumentVariables {
+    private final UnmodifiableList<Variable> intArgVars;
+    private final UnmodifiableList<Variable> longArgVars;
+    private final UnmodifiableList<Variable> floatArgVars;
+    private final UnmodifiableList<Variable> doubleArgVars;
+    private final UnmodifiableList<Variable> objectArgVars;
+    
+    ArgumentVariables(
+            List<Variable> intArgVars,
+            List<Variable> longArgVars,
+            List<Variable> floatArgVars,
+            List<Variable> doubleArgVars,
+            List<Variable> objectArgVars) {
+        // lists CAN BE EMPTY -- if they're empty it means it was determined that no invocation needs arguments of that type
+        Validate.notNull(intArgVars);
+        Validate.notNull(longArgVars);
+        Validate.notNull(floatArgVars);
+        Validate.notNull(doubleArgVars);
+        Validate.notNull(objectArgVars);
+        Validate.noNullElements(intArgVars);
+        Validate.noNullElements(longArgVars);
+        Validate.noNullElements(floatArgVars);
+        Validate.noNullElements(doubleArgVars);
+        Validate.noNullElements(objectArgVars);
+        intArgVars.forEach(x -> Validate.isTrue(x.getType().equals(Type.INT_TYPE)));
+        longArgVars.forEach(x -> Validate.isTrue(x.getType().equals(Type.LONG_TYPE)));
+        floatArgVars.forEach(x -> Validate.isTrue(x.getType().equals(Type.FLOAT_TYPE)));
+        doubleArgVars.forEach(x -> Validate.isTrue(x.getType().equals(Type.DOUBLE_TYPE)));
+        objectArgVars.forEach(x -> Validate.isTrue(x.getType().equals(Type.getType(Object.class))));
+        
+        this.intArgVars = (UnmodifiableList<Variable>) UnmodifiableList.unmodifiableList(new ArrayList<>(intArgVars));
+        this.longArgVars = (UnmodifiableList<Variable>) UnmodifiableList.unmodifiableList(new ArrayList<>(longArgVars));
+        this.floatArgVars = (UnmodifiableList<Variable>) UnmodifiableList.unmodifiableList(new ArrayList<>(floatArgVars));
+        this.doubleArgVars = (UnmodifiableList<Variable>) UnmodifiableList.unmodifiableList(new ArrayList<>(doubleArgVars));
+        this.objectArgVars = (UnmodifiableList<Variable>) UnmodifiableList.unmodifiableList(new ArrayList<>(objectArgVars));
+    }
+
+    public UnmodifiableList<Variable> getIntArgVars() {
+        return intArgVars;
+    }
+
+    public UnmodifiableList<Variable> getLongArgVars() {
+        return longArgVars;
+    }
+
+    public UnmodifiableList<Variable> getFloatArgVars() {
+        return floatArgVars;
+    }
+
+    public UnmodifiableList<Variable> getDoubleArgVars() {
+        return doubleArgVars;
+    }
+
+    public UnmodifiableList<Variable> getObjectArgVars() {
+        return objectArgVars;
+    }
+}
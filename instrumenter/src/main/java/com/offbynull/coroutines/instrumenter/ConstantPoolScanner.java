@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_MARKER_FIELD_NAME;
+import com.offbynull.coroutines.user.Continuation;
+import java.nio.charset.StandardCharsets;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+// Scans the constant pool of a raw class file to quickly reject classes that can't possibly need instrumentation, without building a tree
+// or computing frames. A method that takes a Continuation needs the Continuation descriptor in its method descriptor, and method
+// descriptors are constant pool UTF8 entries. If neither that descriptor nor the instrumented marker field name shows up, and the class
+// isn't an interface, the full passes would end up returning NO_INSTRUMENT anyways.
+final class ConstantPoolScanner {
+
+    private static final byte[] CONTINUATION_DESC = Type.getDescriptor(Continuation.class).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] MARKER_NAME = INSTRUMENTED_MARKER_FIELD_NAME.getBytes(StandardCharsets.UTF_8);
+
+    private ConstantPoolScanner() {
+        // do nothing
+    }
+
+    // Returns false only if the class definitely doesn't need instrumentation. Anything that doesn't look like a valid class file returns
+    // true, so that ASM gets a chance to fail on it like it normally would.
+    static boolean mayNeedInstrumentation(byte[] classData) {
+        try {
+            return scan(classData);
+        } catch (ArrayIndexOutOfBoundsException aioobe) {
+            return true; // truncated
+        }
+    }
+
+    private static boolean scan(byte[] data) {
+        if (readInt(data, 0) != 0xCAFEBABE) {
+            return true;
+        }
+
+        boolean found = false;
+        int count = readUnsignedShort(data, 8);
+        int offset = 10;
+        for (int i = 1; i < count; i++) {
+            int tag = data[offset];
+            switch (tag) {
+                case 1: { // Utf8
+                    int len = readUnsignedShort(data, offset + 1);
+                    int start = offset + 3;
+                    if (!found && (contains(data, start, len, CONTINUATION_DESC) || equals(data, start, len, MARKER_NAME))) {
+                        found = true;
+                    }
+                    offset = start + len;
+                    break;
+                }
+                case 7:  // Class
+                case 8:  // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    offset += 3;
+                    break;
+                case 15: // MethodHandle
+                    offset += 4;
+                    break;
+                case 3:  // Integer
+                case 4:  // Float
+                case 9:  // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    offset += 5;
+                    break;
+                case 5:  // Long
+                case 6:  // Double
+                    offset += 9;
+                    i++; // takes up 2 slots
+                    break;
+                default:
+                    return true; // unknown constant type (newer class file format?) -- let ASM deal with it
+            }
+        }
+
+        if (!found) {
+            return false;
+        }
+
+        int access = readUnsignedShort(data, offset);
+        return (access & Opcodes.ACC_INTERFACE) == 0;
+    }
+
+    private static boolean contains(byte[] data, int start, int len, byte[] needle) {
+        int end = start + len - needle.length;
+        for (int i = start; i <= end; i++) {
+            if (matches(data, i, needle)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(byte[] data, int start, int len, byte[] needle) {
+        return len == needle.length && matches(data, start, needle);
+    }
+
+    private static boolean matches(byte[] data, int start, byte[] needle) {
+        for (int j = 0; j < needle.length; j++) {
+            if (data[start + j] != needle[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int readUnsignedShort(byte[] data, int offset) {
+        return ((data[offset] & 0xFF) << 8) | (data[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (readUnsignedShort(data, offset) << 16) | readUnsignedShort(data, offset + 2);
+    }
+}
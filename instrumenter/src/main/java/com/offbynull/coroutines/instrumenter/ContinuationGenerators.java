@@ -68,7 +68,9 @@ import static com.offbynull.coroutines.instrumenter.SynchronizationGenerators.cr
 import static com.offbynull.coroutines.instrumenter.PackStateGenerators.packStorageArrays;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.lineNumber;
 import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.loadOperandStack;
+import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.loadOperandStackFromArguments;
 import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.saveOperandStack;
+import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.saveOperandStackToArguments;
 import static com.offbynull.coroutines.instrumenter.PackStateGenerators.unpackLocalsStorageArrays;
 import static com.offbynull.coroutines.instrumenter.PackStateGenerators.unpackOperandStackStorageArrays;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadStringConst;
@@ -91,6 +93,11 @@ final class ContinuationGenerators {
             = MethodUtils.getAccessibleMethod(Continuation.class, "unloadMethodStateToBefore", MethodState.class);
     private static final Method CONTINUATION_PUSHNEWMETHODSTATE_METHOD
             = MethodUtils.getAccessibleMethod(Continuation.class, "pushNewMethodState", MethodState.class);
+    private static final Method CONTINUATION_GETRECYCLABLEDATA_METHOD
+            = MethodUtils.getAccessibleMethod(Continuation.class, "getRecyclableData", MethodState.class, Integer.TYPE);
+    private static final Method CONTINUATION_PUSHRECYCLEDMETHODSTATE_METHOD
+            = MethodUtils.getAccessibleMethod(Continuation.class, "pushRecycledMethodState", MethodState.class, String.class,
+                    Integer.TYPE, Integer.TYPE, Object[].class, LockState.class);
 
     private static final Constructor<MethodState> METHODSTATE_INIT_METHOD
             = ConstructorUtils.getAccessibleConstructor(MethodState.class, String.class, Integer.TYPE, Integer.TYPE,
@@ -119,6 +126,7 @@ final class ContinuationGenerators {
         int numOfContinuationPoints = attrs.getContinuationPoints().size();
 
         MarkerType markerType = attrs.getSettings().getMarkerType();
+        boolean recycleMethodStates = attrs.getSettings().isRecycleMethodStates();
         String dbgSig = getLogPrefix(attrs);
         
         LabelNode startOfMethodLabelNode = new LabelNode();
@@ -140,6 +148,12 @@ final class ContinuationGenerators {
                                         debugMarker(markerType, "Creating monitors container"),
                                         createMonitorContainer(markerType, lockVars),
                                 }),
+                                // clear method state var if recycling method states -- nothing was loaded so there's nothing to recycle
+                                mergeIf(recycleMethodStates, () -> new Object[] {
+                                        debugMarker(markerType, dbgSig + "Clearing method state (nothing to recycle)"),
+                                        loadNull(),
+                                        saveVar(methodStateVar)
+                                }),
                                 debugMarker(markerType, dbgSig + "Jump to start of method point"),
                                 jumpTo(startOfMethodLabelNode)
                         ),
@@ -578,12 +592,10 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         SuspendContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, SuspendContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-        
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
         Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
@@ -597,6 +609,7 @@ final class ContinuationGenerators {
         LabelNode continueExecLabelNode = cp.getContinueExecutionLabel();
         
         MarkerType markerType = attrs.getSettings().getMarkerType();
+        boolean recycleMethodStates = attrs.getSettings().isRecycleMethodStates();
         String dbgSig = getLogPrefix(attrs);
         
         //          Object[] stack = saveOperandStack();
@@ -613,29 +626,22 @@ final class ContinuationGenerators {
                     lineNumber(lineNumber)
                 }),
                 debugMarker(markerType, dbgSig + "Saving SUSPEND " + idx),
+                // if recycling, try to get the storage container of the method state this method was restored from (null if not recyclable)
+                mergeIf(recycleMethodStates, () -> new Object[] {
+                    debugMarker(markerType, dbgSig + "Getting recyclable storage container"),
+                    call(CONTINUATION_GETRECYCLABLEDATA_METHOD, loadVar(contArg), loadVar(methodStateVar), loadIntConst(idx)),
+                    saveVar(storageContainerVar)
+                }),
                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT
-                                                                     // Continuation OBJECT WILL BE TOP ITEM, NEEDS TO BE DISCARDED ON LOAD
+                // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS. ALSO, DON'T FORGET THAT Continuation OBJECT WILL BE TOP ITEM, NEEDS TO BE
+                // DISCARDED ON LOAD
+                saveOperandStack(markerType, savedStackVars, frame, recycleMethodStates ? storageContainerVar : null),
                 debugMarker(markerType, dbgSig + "Saving locals"),
-                saveLocals(markerType, savedLocalsVars, frame),
+                saveLocals(markerType, savedLocalsVars, frame, recycleMethodStates ? storageContainerVar : null),
                 debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars, recycleMethodStates),
                 debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                        construct(METHODSTATE_INIT_METHOD,
-                                loadStringConst(friendlyClassName),
-                                loadIntConst(methodId),
-                                loadIntConst(idx),
-                                loadVar(storageContainerVar),
-                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                // (var != null if this were the case), otherwise load null for that arg
-                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                    loadVar(lockStateVar)
-                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                    loadNull()
-                                }).generate()
-                        )
-                ),
+                pushMethodState(attrs, idx, storageContainerVar),
                 debugMarker(markerType, dbgSig + "Setting mode to save"),
                 call(CONTINUATION_SETMODE_METHOD, loadVar(contArg), loadIntConst(MODE_SAVING)),
                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
@@ -658,14 +664,13 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         NormalInvokeContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, NormalInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
+        ArgumentVariables argVars = attrs.getCoreVariables().getArgumentVars();
         Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
@@ -678,15 +683,19 @@ final class ContinuationGenerators {
         LabelNode continueExecLabelNode = cp.getContinueExecutionLabel();
         
         MarkerType markerType = attrs.getSettings().getMarkerType();
+        boolean recycleMethodStates = attrs.getSettings().isRecycleMethodStates();
         String dbgSig = getLogPrefix(attrs);
         
-        //          Object[] duplicatedArgs = saveOperandStack(<method param count>); -- Why do we do this? because when we want to save the
-        //                                                                            -- args to this method when we call
-        //                                                                            -- saveOperandStack(). We need to save here becuase
-        //                                                                            -- once we invoke the method the args will be consumed
-        //                                                                            -- off the stack. The args need to be saved because
-        //                                                                            -- when we load, we need to call in to this method
-        //                                                                            -- again (see loading code generator above).
+        //          argVars = saveOperandStackToArguments(<method param count>); -- Why do we do this? because when we want to save the
+        //                                                                       -- args to this method when we call saveOperandStack(). We
+        //                                                                       -- need to save here becuase once we invoke the method the
+        //                                                                       -- args will be consumed off the stack. The args need to
+        //                                                                       -- be saved because when we load, we need to call in to
+        //                                                                       -- this method again (see loading code generator above).
+        //                                                                       -- They're kept in dedicated local variable slots so that
+        //                                                                       -- nothing gets allocated on the common path where the
+        //                                                                       -- invocation returns normally.
+        //          loadOperandStackFromArguments(<method param count>);
         //          <method invocation>
         //          if (continuation.getMode() == MODE_SAVING) {
         //              Object[] stack = saveOperandStack();
@@ -706,12 +715,9 @@ final class ContinuationGenerators {
                 }),
                 debugMarker(markerType, dbgSig + "Saving INVOKE " + idx),
                 debugMarker(markerType, dbgSig + "Saving top " + invokeArgCount + " items of operand stack (args for invoke)"),
-                saveOperandStack(markerType, savedStackVars, frame, invokeArgCount),
+                saveOperandStackToArguments(markerType, argVars, frame, invokeArgCount),
                 debugMarker(markerType, dbgSig + "Reloading invoke arguments back on to the stack (for invoke)"),
-                loadOperandStack(markerType, savedStackVars, frame,
-                        frame.getStackSize() - invokeArgCount,
-                        frame.getStackSize() - invokeArgCount,
-                        invokeArgCount),
+                loadOperandStackFromArguments(markerType, argVars, frame, invokeArgCount),
                 debugMarker(markerType, dbgSig + "Invoking"),
                 cloneInvokeNode(invokeNode), // invoke method  (ADDED MULTIPLE TIMES -- MUST BE CLONED)
                 ifIntegersEqual(// if we're saving after invoke
@@ -722,37 +728,30 @@ final class ContinuationGenerators {
                                 debugMarker(markerType, dbgSig + "Popping dummy return value off stack"),
                                 popMethodResult(invokeNode),
                                 debugMarker(markerType, dbgSig + "Reloading invoke arguments back on to the stack (for full save)"),
-                                loadOperandStack(markerType, savedStackVars, frame,
-                                        frame.getStackSize() - invokeArgCount,
-                                        frame.getStackSize() - invokeArgCount,
-                                        invokeArgCount),
+                                loadOperandStackFromArguments(markerType, argVars, frame, invokeArgCount),
+                                // if recycling, try to get the storage container of the method state this method was restored from (null if
+                                // not recyclable)
+                                mergeIf(recycleMethodStates, () -> new Object[] {
+                                    debugMarker(markerType, dbgSig + "Getting recyclable storage container"),
+                                    call(CONTINUATION_GETRECYCLABLEDATA_METHOD,
+                                            loadVar(contArg), loadVar(methodStateVar), loadIntConst(idx)),
+                                    saveVar(storageContainerVar)
+                                }),
                                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                saveOperandStack(markerType, savedStackVars, frame, // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                        recycleMethodStates ? storageContainerVar : null),
                                 debugMarker(markerType, dbgSig + "Saving locals"),
-                                saveLocals(markerType, savedLocalsVars, frame),
+                                saveLocals(markerType, savedLocalsVars, frame, recycleMethodStates ? storageContainerVar : null),
                                 debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars,
+                                        recycleMethodStates),
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[]{
                                     debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
                                 debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                                        construct(METHODSTATE_INIT_METHOD,
-                                                loadStringConst(friendlyClassName),
-                                                loadIntConst(methodId),
-                                                loadIntConst(idx),
-                                                loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    loadNull()
-                                                }).generate()
-                                        )
-                                ),
+                                pushMethodState(attrs, idx, storageContainerVar),
                                 debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -771,14 +770,13 @@ final class ContinuationGenerators {
         Validate.isTrue(idx >= 0);
         TryCatchInvokeContinuationPoint cp = validateAndGetContinuationPoint(attrs, idx, TryCatchInvokeContinuationPoint.class);
 
-        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
-        int methodId = attrs.getSignature().getMethodId();
-
         Integer lineNumber = cp.getLineNumber();
 
         Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
         StorageVariables savedLocalsVars = attrs.getLocalsStorageVariables();
         StorageVariables savedStackVars = attrs.getStackStorageVariables();
+        ArgumentVariables argVars = attrs.getCoreVariables().getArgumentVars();
         Variable storageContainerVar = attrs.getStorageContainerVariables().getContainerVar();
         
         LockVariables lockVars = attrs.getLockVariables();
@@ -794,6 +792,7 @@ final class ContinuationGenerators {
         LabelNode exceptionExecutionLabelNode = cp.getExceptionExecutionLabel();
         
         MarkerType markerType = attrs.getSettings().getMarkerType();
+        boolean recycleMethodStates = attrs.getSettings().isRecycleMethodStates();
         String dbgSig = getLogPrefix(attrs);
 
         int invokeArgCount = getArgumentCountRequiredForInvocation(invokeNode);
@@ -803,12 +802,9 @@ final class ContinuationGenerators {
                 }),
                 debugMarker(markerType, dbgSig + "Saving INVOKE WITHIN TRYCATCH " + idx),
                 debugMarker(markerType, dbgSig + "Saving top " + invokeArgCount + " items of operand stack (args for invoke)"),
-                saveOperandStack(markerType, savedStackVars, frame, invokeArgCount),
+                saveOperandStackToArguments(markerType, argVars, frame, invokeArgCount),
                 debugMarker(markerType, dbgSig + "Reloading invoke arguments back on to the stack (for invoke)"),
-                loadOperandStack(markerType, savedStackVars, frame,
-                        frame.getStackSize() - invokeArgCount,
-                        frame.getStackSize() - invokeArgCount,
-                        invokeArgCount),
+                loadOperandStackFromArguments(markerType, argVars, frame, invokeArgCount),
                 debugMarker(markerType, dbgSig + "Invoking"),
                 cloneInvokeNode(invokeNode), // invoke method  (ADDED MULTIPLE TIMES -- MUST BE CLONED)
                 ifIntegersEqual(// if we're saving after invoke, return dummy value
@@ -818,37 +814,30 @@ final class ContinuationGenerators {
                                 debugMarker(markerType, dbgSig + "Popping dummy return value off stack"),
                                 popMethodResult(invokeNode),
                                 debugMarker(markerType, dbgSig + "Reloading invoke arguments back on to the stack"),
-                                loadOperandStack(markerType, savedStackVars, frame,
-                                        frame.getStackSize() - invokeArgCount,
-                                        frame.getStackSize() - invokeArgCount,
-                                        invokeArgCount),
+                                loadOperandStackFromArguments(markerType, argVars, frame, invokeArgCount),
+                                // if recycling, try to get the storage container of the method state this method was restored from (null if
+                                // not recyclable)
+                                mergeIf(recycleMethodStates, () -> new Object[] {
+                                    debugMarker(markerType, dbgSig + "Getting recyclable storage container"),
+                                    call(CONTINUATION_GETRECYCLABLEDATA_METHOD,
+                                            loadVar(contArg), loadVar(methodStateVar), loadIntConst(idx)),
+                                    saveVar(storageContainerVar)
+                                }),
                                 debugMarker(markerType, dbgSig + "Saving operand stack"),
-                                saveOperandStack(markerType, savedStackVars, frame), // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                saveOperandStack(markerType, savedStackVars, frame, // REMEMBER: STACK IS TOTALLY EMPTY AFTER THIS
+                                        recycleMethodStates ? storageContainerVar : null),
                                 debugMarker(markerType, dbgSig + "Saving locals"),
-                                saveLocals(markerType, savedLocalsVars, frame),
+                                saveLocals(markerType, savedLocalsVars, frame, recycleMethodStates ? storageContainerVar : null),
                                 debugMarker(markerType, dbgSig + "Packing locals and operand stack in to container"),
-                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars),
+                                packStorageArrays(markerType, frame, storageContainerVar, savedLocalsVars, savedStackVars,
+                                        recycleMethodStates),
                                 // attempt to exit monitors only if method has monitorenter/exit in it (var != null if this were the case)
                                 mergeIf(lockStateVar != null, () -> new Object[]{
                                     debugMarker(markerType, dbgSig + "Exiting monitors"),
                                     exitStoredMonitors(markerType, lockVars),
                                 }),
                                 debugMarker(markerType, dbgSig + "Creating and pushing method state"),
-                                call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
-                                        construct(METHODSTATE_INIT_METHOD,
-                                                loadStringConst(friendlyClassName),
-                                                loadIntConst(methodId),
-                                                loadIntConst(idx),
-                                                loadVar(storageContainerVar),
-                                                // load lockstate for last arg if method actually has monitorenter/exit in it
-                                                // (var != null if this were the case), otherwise load null for that arg
-                                                mergeIf(lockStateVar != null, () -> new Object[] {
-                                                    loadVar(lockStateVar)
-                                                }).mergeIf(lockStateVar == null, () -> new Object[] {
-                                                    loadNull()
-                                                }).generate()
-                                        )
-                                ),
+                                pushMethodState(attrs, idx, storageContainerVar),
                                 debugMarker(markerType, dbgSig + "Returning (dummy return value if not void)"),
                                 returnDummy(returnType)
                         )
@@ -880,6 +869,51 @@ final class ContinuationGenerators {
     
     
     
+    private static InsnList pushMethodState(MethodAttributes attrs, int idx, Variable storageContainerVar) {
+        Validate.notNull(attrs);
+        Validate.notNull(storageContainerVar);
+        Validate.isTrue(idx >= 0);
+
+        String friendlyClassName = attrs.getSignature().getClassName().replace('/', '.'); // '/' -> '.'   because it's non-internal format
+        int methodId = attrs.getSignature().getMethodId();
+
+        Variable contArg = attrs.getCoreVariables().getContinuationArgVar();
+        Variable methodStateVar = attrs.getCoreVariables().getMethodStateVar();
+        Variable lockStateVar = attrs.getLockVariables().getLockStateVar();
+
+        boolean recycleMethodStates = attrs.getSettings().isRecycleMethodStates();
+
+        // load lockstate for last arg if method actually has monitorenter/exit in it (var != null if this were the case), otherwise load
+        // null for that arg
+        InsnList loadLockStateInsnList = mergeIf(lockStateVar != null, () -> new Object[] {
+            loadVar(lockStateVar)
+        }).mergeIf(lockStateVar == null, () -> new Object[] {
+            loadNull()
+        }).generate();
+
+        if (recycleMethodStates) {
+            // Continuation decides if the method state that this method was restored from can be pushed again as-is -- it can if the
+            // storage container being pushed is the one that was taken from it
+            return call(CONTINUATION_PUSHRECYCLEDMETHODSTATE_METHOD, loadVar(contArg),
+                    loadVar(methodStateVar),
+                    loadStringConst(friendlyClassName),
+                    loadIntConst(methodId),
+                    loadIntConst(idx),
+                    loadVar(storageContainerVar),
+                    loadLockStateInsnList);
+        } else {
+            return call(CONTINUATION_PUSHNEWMETHODSTATE_METHOD, loadVar(contArg),
+                    construct(METHODSTATE_INIT_METHOD,
+                            loadStringConst(friendlyClassName),
+                            loadIntConst(methodId),
+                            loadIntConst(idx),
+                            loadVar(storageContainerVar),
+                            loadLockStateInsnList
+                    )
+            );
+        }
+    }
+
     /**
      * Generates instructions that returns a dummy value. Return values are as follows:
      * <ul>
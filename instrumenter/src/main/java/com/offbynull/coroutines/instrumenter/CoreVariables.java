@@ -25,17 +25,21 @@ import org.objectweb.asm.Type;
 final class CoreVariables {
     private final Variable continuationArgVar;
     private final Variable methodStateVar;
+    private final ArgumentVariables argumentVars;
     
     CoreVariables(
             Variable continuationArgVar,
-            Variable methodStateVar) {
+            Variable methodStateVar,
+            ArgumentVariables argumentVars) {
         Validate.notNull(continuationArgVar);
         Validate.notNull(methodStateVar);
+        Validate.notNull(argumentVars);
         Validate.isTrue(continuationArgVar.getType().equals(Type.getType(Continuation.class)));
         Validate.isTrue(methodStateVar.getType().equals(Type.getType(MethodState.class)));
         
         this.continuationArgVar = continuationArgVar;
         this.methodStateVar = methodStateVar;
+        this.argumentVars = argumentVars;
     }
 
     public Variable getContinuationArgVar() {
@@ -45,4 +49,8 @@ final class CoreVariables {
     public Variable getMethodStateVar() {
         return methodStateVar;
     }
+
+    public ArgumentVariables getArgumentVars() {
+        return argumentVars;
+    }
 }
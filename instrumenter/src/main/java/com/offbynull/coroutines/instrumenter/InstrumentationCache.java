@@ -0,0 +1,374 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter;
+
+import static com.offbynull.coroutines.instrumenter.InternalFields.INSTRUMENTED_MARKER_FIELD_VALUE;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Persistent on-disk cache of instrumentation results, used to skip re-instrumenting classes that haven't changed between builds.
+ * <p>
+ * Entries are keyed by a hash of the input class file, the instrumentation settings, and the instrumenter itself (a hash of the JAR it
+ * was loaded from), so upgrading the instrumenter never reuses output from an older version. Each entry also records the class hierarchy
+ * information that instrumentation looked up (this is what stack map frame computation depends on). An entry only gets used if that
+ * information is still the same, so changing a superclass or interface causes the classes that depend on it to be re-instrumented.
+ * <p>
+ * Entries are never evicted -- delete the cache directory to clear it out. This class is thread-safe, and multiple processes may share the
+ * same cache directory.
+ * @author Kasra Faghihi
+ */
+public final class InstrumentationCache {
+
+    private static final int MAGIC = 0xC0CAC4E1;
+    private static final int VERSION = 1; // bump whenever the entry format changes
+
+    private final Path directory;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Constructs a {@link InstrumentationCache} object.
+     * @param directory directory to store cache entries in (created if it doesn't exist)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException on IO error
+     */
+    public InstrumentationCache(File directory) throws IOException {
+        Validate.notNull(directory);
+        this.directory = directory.toPath();
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        Files.createDirectories(this.directory);
+    }
+
+    /**
+     * Get the number of classes that were served from the cache (since this object was created).
+     * @return number of cache hits
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of classes that had to be instrumented because no usable entry was cached (since this object was created). Classes
+     * that obviously don't need instrumentation are rejected without going through the cache, and count as neither a hit nor a miss.
+     * @return number of cache misses
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Instruments a class, using a cached result if one is available.
+     * @param instrumenter instrumenter to use if no cached result is available
+     * @param input class file contents
+     * @param settings instrumentation settings
+     * @return instrumentation results
+     * @throws IllegalArgumentException if the class could not be instrumented for some reason
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException on IO error
+     */
+    public InstrumentationResult instrument(Instrumenter instrumenter, byte[] input, InstrumentationSettings settings) throws IOException {
+        Validate.notNull(instrumenter);
+        Validate.notNull(input);
+        Validate.notNull(settings);
+
+        // Classes rejected by the pre-scan are cheaper to reject again than to look up
+        if (!ConstantPoolScanner.mayNeedInstrumentation(input)) {
+            return new InstrumentationResult(input);
+        }
+
+        ClassInformationRepository classRepo = instrumenter.getClassInformationRepository();
+
+        Path entryFile = entryFile(input, settings);
+        InstrumentationResult result = readEntry(entryFile, input, classRepo);
+        if (result != null) {
+            hits.incrementAndGet();
+            return result;
+        }
+        misses.incrementAndGet();
+
+        RecordingClassInformationRepository recordingRepo = new RecordingClassInformationRepository(classRepo);
+        result = instrumenter.instrument(input, settings, recordingRepo);
+        writeEntry(entryFile, recordingRepo.lookups, result);
+
+        // Instrumenting an already instrumented class does nothing. Build tools usually instrument in place, so the next build will see the
+        // instrumented output as input -- add an entry for it as well.
+        if (result.isInstrumented()) {
+            byte[] output = result.getInstrumentedClass();
+            writeEntry(entryFile(output, settings), Collections.emptyMap(), new InstrumentationResult(output));
+        }
+
+        return result;
+    }
+
+    private Path entryFile(byte[] input, InstrumentationSettings settings) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae); // should never happen
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(VERSION);
+            dos.writeLong(INSTRUMENTED_MARKER_FIELD_VALUE);
+            dos.writeUTF(settings.getMarkerType().name());
+            dos.writeBoolean(settings.isDebugMode());
+            dos.writeBoolean(settings.isAutoSerializable());
+            dos.writeBoolean(settings.isPruneDeadLocals());
+            dos.writeBoolean(settings.isSkipUnmodifiedArguments());
+            dos.writeBoolean(settings.isRecycleMethodStates());
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        }
+        md.update(baos.toByteArray());
+        md.update(ImplementationId.VALUE);
+        md.update(input);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : md.digest()) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return directory.resolve(hex.substring(0, 2)).resolve(hex + ".entry");
+    }
+
+    private static InstrumentationResult readEntry(Path entryFile, byte[] input, ClassInformationRepository classRepo) {
+        byte[] data;
+        try {
+            data = Files.readAllBytes(entryFile);
+        } catch (IOException ioe) {
+            return null; // doesn't exist / can't be read
+        }
+
+        try (DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data))) {
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION) {
+                return null;
+            }
+
+            int lookupCount = dis.readInt();
+            for (int i = 0; i < lookupCount; i++) {
+                String name = dis.readUTF();
+                ClassInformation expected = dis.readBoolean() ? readClassInformation(dis, name) : null;
+                ClassInformation actual = classRepo.getInformation(name);
+                if (expected == null ? actual != null : !expected.equals(actual)) {
+                    return null; // class hierarchy changed
+                }
+            }
+
+            if (!dis.readBoolean()) {
+                return new InstrumentationResult(input);
+            }
+
+            byte[] instrumentedClass = readBytes(dis);
+            int extraFileCount = dis.readInt();
+            Map<String, byte[]> extraFiles = new LinkedHashMap<>();
+            for (int i = 0; i < extraFileCount; i++) {
+                String name = dis.readUTF();
+                extraFiles.put(name, readBytes(dis));
+            }
+            return new InstrumentationResult(instrumentedClass, extraFiles);
+        } catch (IOException | RuntimeException e) {
+            return null; // corrupt -- treat as a miss, it'll get overwritten
+        }
+    }
+
+    private static void writeEntry(Path entryFile, Map<String, ClassInformation> lookups, InstrumentationResult result)
+            throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+
+            dos.writeInt(lookups.size());
+            for (Entry<String, ClassInformation> lookup : lookups.entrySet()) {
+                dos.writeUTF(lookup.getKey());
+                ClassInformation info = lookup.getValue();
+                dos.writeBoolean(info != null);
+                if (info != null) {
+                    writeClassInformation(dos, info);
+                }
+            }
+
+            boolean instrumented = result.isInstrumented();
+            dos.writeBoolean(instrumented);
+            if (instrumented) {
+                writeBytes(dos, result.getInstrumentedClass());
+                Map<String, byte[]> extraFiles = result.getExtraFiles();
+                dos.writeInt(extraFiles.size());
+                for (Entry<String, byte[]> extraFile : extraFiles.entrySet()) {
+                    dos.writeUTF(extraFile.getKey());
+                    writeBytes(dos, extraFile.getValue());
+                }
+            }
+        }
+
+        // Write to a temp file and move it in place, so that a crash or another process never sees a partially written entry
+        Path parent = entryFile.getParent();
+        Files.createDirectories(parent);
+        Path tempFile = Files.createTempFile(parent, "entry", ".tmp");
+        try {
+            Files.write(tempFile, baos.toByteArray());
+            try {
+                Files.move(tempFile, entryFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile, entryFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private static ClassInformation readClassInformation(DataInputStream dis, String name) throws IOException {
+        String superClassName = dis.readBoolean() ? dis.readUTF() : null;
+        boolean interfaceMarker = dis.readBoolean();
+        int interfaceCount = dis.readInt();
+        List<String> interfaces = new ArrayList<>(Math.min(interfaceCount, 64));
+        for (int i = 0; i < interfaceCount; i++) {
+            interfaces.add(dis.readUTF());
+        }
+        return new ClassInformation(name, superClassName, interfaces, interfaceMarker);
+    }
+
+    private static void writeClassInformation(DataOutputStream dos, ClassInformation info) throws IOException {
+        String superClassName = info.getSuperClassName();
+        dos.writeBoolean(superClassName != null);
+        if (superClassName != null) {
+            dos.writeUTF(superClassName);
+        }
+        dos.writeBoolean(info.isInterface());
+        List<String> interfaces = info.getInterfaces();
+        dos.writeInt(interfaces.size());
+        for (String iface : interfaces) {
+            dos.writeUTF(iface);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        int length = dis.readInt();
+        Validate.isTrue(length >= 0 && length <= dis.available());
+        byte[] data = new byte[length];
+        dis.readFully(data);
+        return data;
+    }
+
+    private static void writeBytes(DataOutputStream dos, byte[] data) throws IOException {
+        dos.writeInt(data.length);
+        dos.write(data);
+    }
+
+    // Identifies the instrumenter implementation -- a hash of the JAR that the instrumenter was loaded from (or of every file in the
+    // directory it was loaded from, e.g. when running tests), falling back to the implementation version if neither can be read. Computed
+    // once, the first time the cache is used.
+    private static final class ImplementationId {
+        private static final byte[] VALUE = calculate();
+
+        private static byte[] calculate() {
+            MessageDigest md;
+            try {
+                md = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IllegalStateException(nsae); // should never happen
+            }
+
+            try {
+                CodeSource codeSource = Instrumenter.class.getProtectionDomain().getCodeSource();
+                URL location = codeSource == null ? null : codeSource.getLocation();
+                Path path = location == null ? null : Paths.get(location.toURI());
+                if (path != null && Files.isRegularFile(path)) {
+                    updateWithFile(md, path);
+                    return md.digest();
+                } else if (path != null && Files.isDirectory(path)) {
+                    List<Path> files;
+                    try (Stream<Path> stream = Files.walk(path)) {
+                        files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                    }
+                    for (Path file : files) {
+                        md.update(path.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+                        updateWithFile(md, file);
+                    }
+                    return md.digest();
+                }
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                md.reset(); // fall through
+            }
+
+            String version = Instrumenter.class.getPackage().getImplementationVersion();
+            md.update(String.valueOf(version).getBytes(StandardCharsets.UTF_8));
+            return md.digest();
+        }
+
+        private static void updateWithFile(MessageDigest md, Path file) throws IOException {
+            byte[] buffer = new byte[8192];
+            try (InputStream is = Files.newInputStream(file)) {
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    md.update(buffer, 0, read);
+                }
+            }
+        }
+    }
+
+    // Records every lookup (including ones that weren't found), along with what was returned. Only ever used by a single thread.
+    private static final class RecordingClassInformationRepository implements ClassInformationRepository {
+        private final ClassInformationRepository backing;
+        private final Map<String, ClassInformation> lookups = new LinkedHashMap<>();
+
+        RecordingClassInformationRepository(ClassInformationRepository backing) {
+            this.backing = backing;
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            if (lookups.containsKey(internalClassName)) {
+                return lookups.get(internalClassName);
+            }
+            ClassInformation info = backing.getInformation(internalClassName);
+            lookups.put(internalClassName, info);
+            return info;
+        }
+    }
+}
@@ -28,25 +28,44 @@ import org.apache.commons.lang3.Validate;
  * @author Kasra Faghihi
  */
 public final class InstrumentationResult {
+    private final boolean instrumented;
     private final byte[] instrumentedClass;
     private final UnmodifiableMap<String, byte[]> extraFiles;
 
-    InstrumentationResult(byte[] instrumentedClass) {
-        this(instrumentedClass, Collections.emptyMap());
+    // class didn't need instrumentation -- originalClass is passed through as-is
+    InstrumentationResult(byte[] originalClass) {
+        this(false, originalClass, Collections.emptyMap());
     }
 
     InstrumentationResult(
             byte[] instrumentedClass,
             Map<String, byte[]> extraFiles) {
+        this(true, instrumentedClass, extraFiles);
+    }
+
+    private InstrumentationResult(
+            boolean instrumented,
+            byte[] instrumentedClass,
+            Map<String, byte[]> extraFiles) {
         Validate.notNull(instrumentedClass);
         Validate.notNull(extraFiles);
         Validate.noNullElements(extraFiles.keySet());
         Validate.noNullElements(extraFiles.values());
 
+        this.instrumented = instrumented;
         this.instrumentedClass = Arrays.copyOf(instrumentedClass, instrumentedClass.length);
         this.extraFiles = (UnmodifiableMap<String, byte[]>) UnmodifiableMap.unmodifiableMap(new HashMap<>(extraFiles));
     }
 
+    /**
+     * Get whether or not the class was instrumented. If {@code false}, the class didn't need instrumentation (e.g. it doesn't use
+     * coroutines or it was already instrumented) and {@link #getInstrumentedClass() } returns the original class bytecode as-is.
+     * @return {@code true} if the class was instrumented, {@code false} otherwise
+     */
+    public boolean isInstrumented() {
+        return instrumented;
+    }
+
     /**
      * Get instrumented class bytecode.
      * @return instrumented class bytecode
@@ -18,6 +18,9 @@ package com.offbynull.coroutines.instrumenter;
 
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
 import org.apache.commons.lang3.Validate;
 
 /**
@@ -28,19 +31,37 @@ public final class InstrumentationSettings {
     private final MarkerType markerType;
     private final boolean debugMode;
     private final boolean autoSerializable;
+    private final Set<Optimization> optimizations;
 
     /**
-     * Constructs a {@link InstrumentationSettings} object.
+     * Constructs a {@link InstrumentationSettings} object. Equivalent to calling
+     * {@code new InstrumentationSettings(markerType, debugMode, autoSerializable, EnumSet.noneOf(Optimization.class))}.
      * @param markerType marker type
      * @param debugMode debug mode
      * @param autoSerializable auto-serializable
      * @throws NullPointerException if any argument is {@code null}
      */
     public InstrumentationSettings(MarkerType markerType, boolean debugMode, boolean autoSerializable) {
+        this(markerType, debugMode, autoSerializable, EnumSet.noneOf(Optimization.class));
+    }
+
+    /**
+     * Constructs a {@link InstrumentationSettings} object.
+     * @param markerType marker type
+     * @param debugMode debug mode
+     * @param autoSerializable auto-serializable
+     * @param optimizations optimizations to apply
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     */
+    public InstrumentationSettings(MarkerType markerType, boolean debugMode, boolean autoSerializable, Set<Optimization> optimizations) {
         Validate.notNull(markerType);
+        Validate.notNull(optimizations);
+        Validate.noNullElements(optimizations);
         this.markerType = markerType;
         this.debugMode = debugMode;
         this.autoSerializable = autoSerializable;
+        this.optimizations = Collections.unmodifiableSet(
+                optimizations.isEmpty() ? EnumSet.noneOf(Optimization.class) : EnumSet.copyOf(optimizations));
     }
 
     /**
@@ -73,4 +94,75 @@ public final class InstrumentationSettings {
         return autoSerializable;
     }
 
+    /**
+     * Get optimizations.
+     * @return optimizations to apply (unmodifiable)
+     */
+    public Set<Optimization> getOptimizations() {
+        return optimizations;
+    }
+
+    /**
+     * Get prune dead locals. Prune dead locals will run a liveness analysis on each method and only save/restore the local variables
+     * that are read after a continuation point, rather than every local variable that has been assigned a value. This cuts down on the
+     * size of the suspended method's state and stops it from holding on to objects that are never going to be looked at again.
+     * <p>
+     * Note that this changes which local variables end up in a serialized method state, so states serialized with this setting on aren't
+     * compatible with states serialized with this setting off (and vice versa). This setting is ignored in debug mode, because debug mode
+     * needs all local variables to be restored such that they're viewable in a debugger.
+     * @return prune dead locals
+     */
+    public boolean isPruneDeadLocals() {
+        return optimizations.contains(Optimization.PRUNE_DEAD_LOCALS);
+    }
+
+    /**
+     * Get skip unmodified arguments. Skip unmodified arguments will avoid saving/restoring the {@code this} pointer and any method
+     * arguments that are never assigned to within the method. When a suspended method is restored, it gets invoked again with the same
+     * {@code this} pointer and arguments, meaning that those variables will already contain the correct values without having to be
+     * loaded back in. This cuts down on the size of the suspended method's state.
+     * <p>
+     * Note that this changes which local variables end up in a serialized method state, so states serialized with this setting on aren't
+     * compatible with states serialized with this setting off (and vice versa).
+     * @return skip unmodified arguments
+     */
+    public boolean isSkipUnmodifiedArguments() {
+        return optimizations.contains(Optimization.SKIP_UNMODIFIED_ARGUMENTS);
+    }
+
+    /**
+     * Get recycle method states. Recycle method states will have a method that was restored and then suspends again at the same
+     * continuation point overwrite the method state (and its storage arrays) that it was restored from, rather than creating a new one.
+     * Coroutines that repeatedly suspend from the same place (e.g. a loop that suspends on each iteration) will generate far less garbage
+     * per suspend/resume cycle.
+     * <p>
+     * Note that this has no effect on the layout of a method state, so states serialized with this setting on are compatible with states
+     * serialized with this setting off (and vice versa). However, since method states are overwritten in place, the saved execution state
+     * can't be rolled back if an exception is thrown from the coroutine after a method state was recycled. If that happens, the coroutine
+     * refuses to execute (or be serialized) again until it's reset.
+     * @return recycle method states
+     */
+    public boolean isRecycleMethodStates() {
+        return optimizations.contains(Optimization.RECYCLE_METHOD_STATES);
+    }
+
+    /**
+     * Optional optimizations applied to instrumented code. Each of these is off by default. See the corresponding getter on
+     * {@link InstrumentationSettings} for what each one does.
+     */
+    public enum Optimization {
+        /**
+         * See {@link InstrumentationSettings#isPruneDeadLocals() }.
+         */
+        PRUNE_DEAD_LOCALS,
+        /**
+         * See {@link InstrumentationSettings#isSkipUnmodifiedArguments() }.
+         */
+        SKIP_UNMODIFIED_ARGUMENTS,
+        /**
+         * See {@link InstrumentationSettings#isRecycleMethodStates() }.
+         */
+        RECYCLE_METHOD_STATES
+    }
+
 }
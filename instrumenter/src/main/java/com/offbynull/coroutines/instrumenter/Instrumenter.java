@@ -24,6 +24,7 @@ import com.offbynull.coroutines.instrumenter.asm.FileSystemClassInformationRepos
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassWriter;
 import com.offbynull.coroutines.instrumenter.asm.SimpleClassNode;
 import com.offbynull.coroutines.instrumenter.asm.SimpleVerifier;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
@@ -46,11 +47,17 @@ import org.objectweb.asm.util.TraceMethodVisitor;
 /**
  * Instruments methods in Java classes that are intended to be run as coroutines. Tested with Java 1.4 and Java 8, so hopefully thing should
  * work with all versions of Java inbetween.
+ * <p>
+ * Instances can be used to instrument multiple classes at the same time, so long as the {@link ClassInformationRepository} supplied
+ * supports lookups from multiple threads (all built-in repositories do).
+ * <p>
+ * Instances created from a filesystem classpath hold on to open classpath JARs -- close them once done.
  * @author Kasra Faghihi
  */
-public final class Instrumenter {
+public final class Instrumenter implements Closeable {
 
-    private ClassInformationRepository classRepo;
+    private final ClassInformationRepository classRepo;
+    private final Closeable ownedClassRepo; // repository created by (and closed with) this instrumenter, or null
 
     /**
      * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs).
@@ -59,13 +66,28 @@ public final class Instrumenter {
      * @throws NullPointerException if any argument is {@code null} or contains {@code null}
      */
     public Instrumenter(List<File> classpath) throws IOException {
+        this(classpath, null);
+    }
+
+    /**
+     * Constructs a {@link Instrumenter} object from a filesystem classpath (folders and JARs), persisting the indexes of classpath JARs so
+     * that future instances can start up faster.
+     * @param classpath classpath JARs and folders to use for instrumentation (this is needed by ASM to generate stack map frames).
+     * @param indexDirectory directory to persist classpath JAR indexes to (or {@code null} to not persist them)
+     * @throws IOException if classes in the classpath could not be loaded up
+     * @throws NullPointerException if {@code classpath} is {@code null} or contains {@code null}
+     * @see FileSystemClassInformationRepository#create(java.util.List, java.io.File)
+     */
+    public Instrumenter(List<File> classpath, File indexDirectory) throws IOException {
         Validate.notNull(classpath);
         Validate.noNullElements(classpath);
 
+        FileSystemClassInformationRepository fileSystemClassRepo = FileSystemClassInformationRepository.create(classpath, indexDirectory);
         classRepo = new CompositeClassInformationRepository(
                 new ClassResourceClassInformationRepository(Instrumenter.class.getClassLoader()), // access to core JRE classes
-                FileSystemClassInformationRepository.create(classpath)                            // access to user classes
+                fileSystemClassRepo                                                                // access to user classes
         );
+        ownedClassRepo = fileSystemClassRepo;
     }
 
     /**
@@ -77,6 +99,20 @@ public final class Instrumenter {
         Validate.notNull(repo);
 
         classRepo = repo;
+        ownedClassRepo = null;
+    }
+
+    /**
+     * Releases the classpath JARs held open by this instrumenter, if it was created from a filesystem classpath. A repository passed in to
+     * {@link #Instrumenter(com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository) } is left open (it's owned by the
+     * caller).
+     * @throws IOException on IO error
+     */
+    @Override
+    public void close() throws IOException {
+        if (ownedClassRepo != null) {
+            ownedClassRepo.close();
+        }
     }
 
     /**
@@ -88,12 +124,25 @@ public final class Instrumenter {
      * @throws NullPointerException if any argument is {@code null}
      */
     public InstrumentationResult instrument(byte[] input, InstrumentationSettings settings) {
+        return instrument(input, settings, classRepo);
+    }
+
+    // Instruments using some other class information repository -- this is used to track which classes instrumentation depends on
+    InstrumentationResult instrument(byte[] input, InstrumentationSettings settings, ClassInformationRepository classRepo) {
         Validate.notNull(input);
         Validate.notNull(settings);
+        Validate.notNull(classRepo);
         Validate.isTrue(input.length > 0);
 
 
 
+        // Most classes don't need instrumentation -- skip them before doing any expensive parsing or frame computation
+        if (!ConstantPoolScanner.mayNeedInstrumentation(input)) {
+            return new InstrumentationResult(input);
+        }
+
+
+
         // Read class as tree model -- because we're using SimpleClassNode, JSR blocks get inlined
         ClassReader cr = new ClassReader(input);
         ClassNode classNode = new SimpleClassNode();
@@ -102,7 +151,7 @@ public final class Instrumenter {
         
         
         // Recompute stackmap frames.
-        classNode = reconstructStackMapFrames(classNode);
+        classNode = reconstructStackMapFrames(classNode, classRepo);
 
 
 
@@ -137,7 +186,7 @@ public final class Instrumenter {
         //                                             we're doing bad things with the stack. So, before writing the class out and returning
         //                                             it, we call verifyClassIntegrity() to check and make sure everything is okay.
         // RE-ENABLE ONLY IF JVM COMPLAINS ABOUT INSTRUMENTED CLASSES AND YOU NEED TO DEBUG, KEEP COMMENTED OUT FOR PRODUCTION
-        // verifyClassIntegrity(classNode);
+        // verifyClassIntegrity(classNode, classRepo);
 
         ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS | ClassWriter.COMPUTE_FRAMES, classRepo);
         classNode.accept(cw);
@@ -148,8 +197,12 @@ public final class Instrumenter {
         return new InstrumentationResult(classData, extraFiles);
     }
 
+    ClassInformationRepository getClassInformationRepository() {
+        return classRepo;
+    }
+
 
-    private void verifyClassIntegrity(ClassNode classNode) {
+    private void verifyClassIntegrity(ClassNode classNode, ClassInformationRepository classRepo) {
         // Do not COMPUTE_FRAMES. If you COMPUTE_FRAMES and you pop too many items off the stack or do other weird things that mess up the
         // stack map frames, it'll crash on classNode.accept(cw).
         ClassWriter cw = new SimpleClassWriter(ClassWriter.COMPUTE_MAXS/* | ClassWriter.COMPUTE_FRAMES*/, classRepo);
@@ -191,7 +244,7 @@ public final class Instrumenter {
         }
     }
     
-    private ClassNode reconstructStackMapFrames(ClassNode classNode) {
+    private ClassNode reconstructStackMapFrames(ClassNode classNode, ClassInformationRepository classRepo) {
         // Remove stackmap frames from method
         for (MethodNode methodNode : classNode.methods) {
             if (methodNode.instructions == null) {
@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.PackStateGenerators.createStorageArray;
 import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.generators.DebugGenerators.debugMarker;
@@ -156,7 +157,8 @@ final class LocalsStateGenerators {
     }
     
     /**
-     * Generates instructions to save the local variables table.
+     * Generates instructions to save the local variables table. Equivalent to calling
+     * {@code saveLocals(markerType, storageVars, frame, null)}.
      * @param markerType debug marker type
      * @param storageVars variables to store locals in to
      * @param frame execution frame at the instruction where the local variables table is to be saved
@@ -164,6 +166,22 @@ final class LocalsStateGenerators {
      * @throws NullPointerException if any argument is {@code null}
      */
     public static InsnList saveLocals(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame) {
+        return saveLocals(markerType, storageVars, frame, null);
+    }
+    
+    /**
+     * Generates instructions to save the local variables table.
+     * @param markerType debug marker type
+     * @param storageVars variables to store locals in to
+     * @param frame execution frame at the instruction where the local variables table is to be saved
+     * @param recycledContainerVar variable containing a storage container to take storage arrays from rather than creating new ones (if
+     * {@code null}, storage arrays will always be created -- if the variable itself is set to {@code null} at runtime, storage arrays will
+     * be created)
+     * @return instructions to save the local variables table in to an array
+     * @throws NullPointerException if any argument other than {@code recycledContainerVar} is {@code null}
+     */
+    public static InsnList saveLocals(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame,
+            Variable recycledContainerVar) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -190,33 +208,38 @@ final class LocalsStateGenerators {
                 debugMarker(markerType, "Saving locals"),
                 mergeIf(intsVar != null, () -> new Object[] {
                     debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 0, intsVar, storageSizes.getIntsSize(), merge(
+                            new LdcInsnNode(storageSizes.getIntsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT)
+                    ))
                 }),
                 mergeIf(floatsVar != null, () -> new Object[] {
                     debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 1, floatsVar, storageSizes.getFloatsSize(), merge(
+                            new LdcInsnNode(storageSizes.getFloatsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT)
+                    ))
                 }),
                 mergeIf(longsVar != null, () -> new Object[] {
                     debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 2, longsVar, storageSizes.getLongsSize(), merge(
+                            new LdcInsnNode(storageSizes.getLongsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG)
+                    ))
                 }),
                 mergeIf(doublesVar != null, () -> new Object[] {
                     debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 3, doublesVar, storageSizes.getDoublesSize(), merge(
+                            new LdcInsnNode(storageSizes.getDoublesSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE)
+                    ))
                 }),
                 mergeIf(objectsVar != null, () -> new Object[] {
                     debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 4, objectsVar, storageSizes.getObjectsSize(), merge(
+                            new LdcInsnNode(storageSizes.getObjectsSize()),
+                            new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object")
+                    ))
                 })
         ));
 
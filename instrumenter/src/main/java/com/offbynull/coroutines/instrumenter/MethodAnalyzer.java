@@ -17,6 +17,9 @@
 package com.offbynull.coroutines.instrumenter;
 
 import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
+import static com.offbynull.coroutines.instrumenter.OperandStackStateGenerators.computeSizes;
+import static com.offbynull.coroutines.instrumenter.asm.LivenessUtils.computeLiveLocals;
+import static com.offbynull.coroutines.instrumenter.asm.MethodInvokeUtils.getArgumentCountRequiredForInvocation;
 import static com.offbynull.coroutines.instrumenter.asm.MethodInvokeUtils.getReturnTypeOfInvocation;
 import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsOf;
 import static com.offbynull.coroutines.instrumenter.asm.SearchUtils.findInvocationsWithParameter;
@@ -30,6 +33,8 @@ import com.offbynull.coroutines.user.Continuation;
 import com.offbynull.coroutines.user.LockState;
 import com.offbynull.coroutines.user.MethodState;
 import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.LinkedList;
 import java.util.List;
 import static org.apache.commons.collections4.CollectionUtils.union;
@@ -39,11 +44,13 @@ import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AbstractInsnNode;
 import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnNode;
 import org.objectweb.asm.tree.InvokeDynamicInsnNode;
 import org.objectweb.asm.tree.LineNumberNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.VarInsnNode;
 import org.objectweb.asm.tree.analysis.Analyzer;
 import org.objectweb.asm.tree.analysis.AnalyzerException;
 import org.objectweb.asm.tree.analysis.BasicValue;
@@ -87,7 +94,7 @@ final class MethodAnalyzer {
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CREATE METHOD SIGNATURE
         ///////////////////////////////////////////////////////////////////////////////////////////
-        int methodId = new MethodHasher().generateMethodHash(classNode, methodNode);
+        int methodId = new MethodHasher().generateMethodHash(classNode, methodNode, settings);
         MethodSignature signature = new MethodSignature(methodId, classNode.name, methodNode.name,
                 Type.getMethodType(methodNode.desc));
         
@@ -136,6 +143,38 @@ final class MethodAnalyzer {
 
 
 
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // PRUNE LOCALS THAT DON'T NEED SAVING FROM FRAMES AT SUSPEND / CONTINUATION POINTS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // Pruned locals are marked as uninitialized, which means that they get skipped when saving/loading the locals (the same way locals
+        // that were never assigned get skipped).
+        //
+        // If enabled, remove locals that are never read after each suspend / continuation point from that point's frame. Not done in debug
+        // mode because debug mode needs all locals to be restored so they're viewable.
+        //
+        // If enabled, remove the 'this' pointer and arguments that are never written to from each suspend / continuation point's frame.
+        // When a method is restored it gets invoked again with the same 'this' pointer and arguments (the invocation is restored by the
+        // caller), so the slots for these already hold the correct values without being loaded.
+        boolean pruneDeadLocals = settings.isPruneDeadLocals() && !settings.isDebugMode();
+        boolean skipUnmodifiedArguments = settings.isSkipUnmodifiedArguments();
+        if (pruneDeadLocals || skipUnmodifiedArguments) {
+            int contArgIdxToKeep = getLocalVariableIndexOfContinuationParameter(methodNode);
+            BitSet[] liveLocals = pruneDeadLocals ? computeLiveLocals(methodNode) : null;
+            BitSet unmodifiedArgs = skipUnmodifiedArguments ? findUnmodifiedArgumentSlots(methodNode) : new BitSet();
+            for (AbstractInsnNode invokeInsnNode : union(contInvocationInsnNodes, suspendInvocationInsnNodes)) {
+                int instructionIndex = methodNode.instructions.indexOf(invokeInsnNode);
+                frames[instructionIndex] = pruneLocals(
+                        frames[instructionIndex],
+                        liveLocals != null ? liveLocals[instructionIndex] : null,
+                        unmodifiedArgs,
+                        contArgIdxToKeep);
+            }
+        }
+
+
+
+
         ///////////////////////////////////////////////////////////////////////////////////////////
         // CREATE SUSPEND/CONTINUATION/SYNCHRONIZATION OBJECTS
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -287,6 +326,34 @@ final class MethodAnalyzer {
 
 
 
+        ///////////////////////////////////////////////////////////////////////////////////////////
+        // DETERMINE TYPES OF INVOCATION ARGUMENTS AT CONTINUATION POINTS
+        ///////////////////////////////////////////////////////////////////////////////////////////
+
+        // For each non-suspend invocation node found, count the types of the arguments it takes off the operand stack.
+        //
+        // The instrumenter needs to keep a copy of the arguments of an invocation so that it can put them back on the operand stack if the
+        // invocation returns in saving mode. These copies are kept in extra variable slots rather than in freshly allocated storage arrays,
+        // so we need the maximum number of arguments of each type that any one invocation takes. The variable slots are assigned lower on
+        // in the code.
+        StorageSizes maxInvocationArgSizes = new StorageSizes(0, 0, 0, 0, 0);
+        for (AbstractInsnNode invokeInsnNode : contInvocationInsnNodes) {
+            int instructionIndex = methodNode.instructions.indexOf(invokeInsnNode);
+            Frame<BasicValue> frame = frames[instructionIndex];
+            int argCount = getArgumentCountRequiredForInvocation(invokeInsnNode);
+            
+            StorageSizes argSizes = computeSizes(frame, frame.getStackSize() - argCount, argCount);
+            maxInvocationArgSizes = new StorageSizes(
+                    Math.max(maxInvocationArgSizes.getIntsSize(), argSizes.getIntsSize()),
+                    Math.max(maxInvocationArgSizes.getLongsSize(), argSizes.getLongsSize()),
+                    Math.max(maxInvocationArgSizes.getFloatsSize(), argSizes.getFloatsSize()),
+                    Math.max(maxInvocationArgSizes.getDoublesSize(), argSizes.getDoublesSize()),
+                    Math.max(maxInvocationArgSizes.getObjectsSize(), argSizes.getObjectsSize()));
+        }
+
+
+
+
         ///////////////////////////////////////////////////////////////////////////////////////////
         // DETERMINE WHICH INDEX IN LOCAL VARIABLE TABLE CONTAINS CONTINUATION OBJECT
         ///////////////////////////////////////////////////////////////////////////////////////////
@@ -306,15 +373,19 @@ final class MethodAnalyzer {
         // Create variable for the continuation object passed in as arg + variable for storing/loading method state
         Variable continuationArgVar = varTable.getArgument(contArgIdx);
         Variable methodStateVar = varTable.acquireExtra(MethodState.class);
-        CoreVariables coreVars = new CoreVariables(
-                continuationArgVar,
-                methodStateVar);
         
         // Create variables for storing/loading locals -- only create ones we need
         StorageVariables localsStorageVars = allocateStorageVariableSlots(varTable, localsTypes);
 
         // Create variables for storing/loading operand stack -- only create ones we need
         StorageVariables stackStorageVars = allocateStorageVariableSlots(varTable, operandStackTypes);
+
+        // Create variables for holding on to invocation arguments -- only create ones we need
+        ArgumentVariables argVars = allocateArgumentVariableSlots(varTable, maxInvocationArgSizes);
+        CoreVariables coreVars = new CoreVariables(
+                continuationArgVar,
+                methodStateVar,
+                argVars);
         
         // Create variables to locals and operand stack storage containers -- these must exist
         StorageContainerVariables storageContainerVars = allocateStorageContainerVariableSlots(varTable);
@@ -346,6 +417,60 @@ final class MethodAnalyzer {
                 lockVars);
     }
     
+    private Frame<BasicValue> pruneLocals(Frame<BasicValue> frame, BitSet liveLocals, BitSet unmodifiedArgs, int contArgIdx) {
+        Frame<BasicValue> prunedFrame = new Frame<>(frame);
+        for (int i = 0; i < prunedFrame.getLocals(); i++) {
+            if (unmodifiedArgs.get(i)) {
+                prunedFrame.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+                continue;
+            }
+            
+            // The continuation object is always kept, even if the original code doesn't read it again. The instrumented code reads it
+            // directly after the continuation point.
+            if (liveLocals != null && i != contArgIdx && !liveLocals.get(i)) {
+                prunedFrame.setLocal(i, BasicValue.UNINITIALIZED_VALUE);
+            }
+        }
+        return prunedFrame;
+    }
+
+    private BitSet findUnmodifiedArgumentSlots(MethodNode methodNode) {
+        // Mark slots for the 'this' pointer (if not static) and the arguments
+        boolean isStatic = (methodNode.access & Opcodes.ACC_STATIC) == Opcodes.ACC_STATIC;
+        Type[] argumentTypes = Type.getMethodType(methodNode.desc).getArgumentTypes();
+
+        BitSet ret = new BitSet();
+        int slot = 0;
+        if (!isStatic) {
+            ret.set(slot);
+            slot++;
+        }
+        for (Type argumentType : argumentTypes) {
+            ret.set(slot);
+            slot += argumentType.getSize();
+        }
+
+        // Unmark slots that get written to anywhere in the method
+        for (AbstractInsnNode insnNode : methodNode.instructions.toArray()) {
+            switch (insnNode.getOpcode()) {
+                case Opcodes.ISTORE:
+                case Opcodes.LSTORE:
+                case Opcodes.FSTORE:
+                case Opcodes.DSTORE:
+                case Opcodes.ASTORE:
+                    ret.clear(((VarInsnNode) insnNode).var);
+                    break;
+                case Opcodes.IINC:
+                    ret.clear(((IincInsnNode) insnNode).var);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return ret;
+    }
+
     private int getLocalVariableIndexOfContinuationParameter(MethodNode methodNode) {
         // If it is NOT static, the first index in the local variables table is always the "this" pointer, followed by the arguments passed
         // in to the method.
@@ -439,6 +564,38 @@ final class MethodAnalyzer {
                 objectStorageVar);
     }
 
+    private ArgumentVariables allocateArgumentVariableSlots(
+            VariableTable varTable,
+            StorageSizes argSizes) {
+        List<Variable> intArgVars = new ArrayList<>();
+        List<Variable> longArgVars = new ArrayList<>();
+        List<Variable> floatArgVars = new ArrayList<>();
+        List<Variable> doubleArgVars = new ArrayList<>();
+        List<Variable> objectArgVars = new ArrayList<>();
+        for (int i = 0; i < argSizes.getIntsSize(); i++) {
+            intArgVars.add(varTable.acquireExtra(Type.INT_TYPE));
+        }
+        for (int i = 0; i < argSizes.getLongsSize(); i++) {
+            longArgVars.add(varTable.acquireExtra(Type.LONG_TYPE));
+        }
+        for (int i = 0; i < argSizes.getFloatsSize(); i++) {
+            floatArgVars.add(varTable.acquireExtra(Type.FLOAT_TYPE));
+        }
+        for (int i = 0; i < argSizes.getDoublesSize(); i++) {
+            doubleArgVars.add(varTable.acquireExtra(Type.DOUBLE_TYPE));
+        }
+        for (int i = 0; i < argSizes.getObjectsSize(); i++) {
+            objectArgVars.add(varTable.acquireExtra(Object.class));
+        }
+
+        return new ArgumentVariables(
+                intArgVars,
+                longArgVars,
+                floatArgVars,
+                doubleArgVars,
+                objectArgVars);
+    }
+
     private StorageContainerVariables allocateStorageContainerVariableSlots(
             VariableTable varTable) {
         Variable containerVar = varTable.acquireExtra(Object[].class);
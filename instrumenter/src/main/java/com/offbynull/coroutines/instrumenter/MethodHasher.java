@@ -38,12 +38,13 @@ import org.objectweb.asm.tree.MethodNode;
 
 final class MethodHasher {
 
-    int generateMethodHash(ClassNode classNode, MethodNode methodNode) {
+    int generateMethodHash(ClassNode classNode, MethodNode methodNode, InstrumentationSettings settings) {
         Validate.notNull(classNode);
         Validate.notNull(methodNode);
+        Validate.notNull(settings);
         Validate.isTrue(classNode.methods.contains(methodNode)); // sanity check
 
-        String signature = classNode.name + '\u0000' + methodNode.name + '\u0000' + methodNode.desc;
+        String signature = classNode.name + '\u0000' + methodNode.name + '\u0000' + methodNode.desc + dumpLayoutSettings(settings);
         byte[] signatureBytes = signature.getBytes(StandardCharsets.UTF_8);
         byte[] contentBytes = dumpBytecode(methodNode);
 
@@ -56,6 +57,19 @@ final class MethodHasher {
         return ByteBuffer.wrap(methodHash).getInt();
     }
 
+    // Takes into account settings that change which variables get saved. States saved with one layout can't be loaded with another, so
+    // the hash must differ between them. Nothing gets appended for default settings, meaning that hashes for those stay the same.
+    private static String dumpLayoutSettings(InstrumentationSettings settings) {
+        StringBuilder sb = new StringBuilder();
+        if (settings.isPruneDeadLocals() && !settings.isDebugMode()) {
+            sb.append("\u0000pruneDeadLocals");
+        }
+        if (settings.isSkipUnmodifiedArguments()) {
+            sb.append("\u0000skipUnmodifiedArguments");
+        }
+        return sb.toString();
+    }
+
     // Takes into account the instructions and operands, as well as the overall structure.
     private static byte[] dumpBytecode(MethodNode methodNode) {
         // Calculate label offsets -- required for hash calculation
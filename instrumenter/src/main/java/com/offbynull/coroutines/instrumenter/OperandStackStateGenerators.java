@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.PackStateGenerators.createStorageArray;
 import com.offbynull.coroutines.instrumenter.asm.VariableTable.Variable;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.generators.DebugGenerators.debugMarker;
@@ -295,6 +296,34 @@ final class OperandStackStateGenerators {
      * or if {@code count} is larger than {@code top} (or is negative)
      */
     public static InsnList saveOperandStack(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count) {
+        return saveOperandStack(markerType, storageVars, frame, count, null);
+    }
+
+    /**
+     * Generates instructions to save the entire operand stack, taking storage arrays from a recycled storage container rather than
+     * creating new ones (if available).
+     * <p>
+     * The instructions generated here expect the operand stack to be fully loaded. The stack items specified by {@code frame} must actually
+     * all be on the operand stack.
+     * <p>
+     * REMEMBER: The items aren't returned to the operand stack after they've been saved (they have been popped off the stack). If you want
+     * them back on the operand stack, reload using {@code loadOperandStack(markerType, storageVars, frame)}.
+     * @param markerType debug marker type
+     * @param storageVars variables to store operand stack in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @param recycledContainerVar variable containing a storage container to take storage arrays from rather than creating new ones (if
+     * {@code null}, storage arrays will always be created -- if the variable itself is set to {@code null} at runtime, storage arrays will
+     * be created)
+     * @return instructions to save the operand stack to the storage variables
+     * @throws NullPointerException if any argument other than {@code recycledContainerVar} is {@code null}
+     */
+    public static InsnList saveOperandStack(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame,
+            Variable recycledContainerVar) {
+        return saveOperandStack(markerType, storageVars, frame, frame.getStackSize(), recycledContainerVar);
+    }
+
+    private static InsnList saveOperandStack(MarkerType markerType, StorageVariables storageVars, Frame<BasicValue> frame, int count,
+            Variable recycledContainerVar) {
         Validate.notNull(markerType);
         Validate.notNull(storageVars);
         Validate.notNull(frame);
@@ -324,33 +353,38 @@ final class OperandStackStateGenerators {
                 debugMarker(markerType, "Saving operand stack (" + count + " items)"),
                 mergeIf(storageSizes.getIntsSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Generating ints container (" + storageSizes.getIntsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getIntsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT),
-                    new VarInsnNode(Opcodes.ASTORE, intsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 5, intsVar, storageSizes.getIntsSize(), merge(
+                            new LdcInsnNode(storageSizes.getIntsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_INT)
+                    ))
                 }),
                 mergeIf(storageSizes.getFloatsSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Generating floats container (" + storageSizes.getFloatsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getFloatsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT),
-                    new VarInsnNode(Opcodes.ASTORE, floatsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 6, floatsVar, storageSizes.getFloatsSize(), merge(
+                            new LdcInsnNode(storageSizes.getFloatsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_FLOAT)
+                    ))
                 }),
                 mergeIf(storageSizes.getLongsSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Generating longs container (" + storageSizes.getLongsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getLongsSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG),
-                    new VarInsnNode(Opcodes.ASTORE, longsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 7, longsVar, storageSizes.getLongsSize(), merge(
+                            new LdcInsnNode(storageSizes.getLongsSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_LONG)
+                    ))
                 }),
                 mergeIf(storageSizes.getDoublesSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Generating doubles container (" + storageSizes.getDoublesSize() + ")"),
-                    new LdcInsnNode(storageSizes.getDoublesSize()),
-                    new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE),
-                    new VarInsnNode(Opcodes.ASTORE, doublesVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 8, doublesVar, storageSizes.getDoublesSize(), merge(
+                            new LdcInsnNode(storageSizes.getDoublesSize()),
+                            new IntInsnNode(Opcodes.NEWARRAY, Opcodes.T_DOUBLE)
+                    ))
                 }),
                 mergeIf(storageSizes.getObjectsSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Generating objects container (" + storageSizes.getObjectsSize() + ")"),
-                    new LdcInsnNode(storageSizes.getObjectsSize()),
-                    new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
-                    new VarInsnNode(Opcodes.ASTORE, objectsVar.getIndex())
+                    createStorageArray(markerType, recycledContainerVar, 9, objectsVar, storageSizes.getObjectsSize(), merge(
+                            new LdcInsnNode(storageSizes.getObjectsSize()),
+                            new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object")
+                    ))
                 })
         ));
 
@@ -445,6 +479,203 @@ final class OperandStackStateGenerators {
     }
     
 
+    /**
+     * Generates instructions to save a certain number of items from the top of the operand stack to argument variables. Unlike
+     * {@link #saveOperandStack(com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType,
+     * com.offbynull.coroutines.instrumenter.StorageVariables, org.objectweb.asm.tree.analysis.Frame, int) }, this doesn't allocate any
+     * storage arrays -- each item is stored directly in its own variable slot.
+     * <p>
+     * The instructions generated here expect the operand stack to be fully loaded. The stack items specified by {@code frame} must actually
+     * all be on the operand stack.
+     * <p>
+     * REMEMBER: The items aren't returned to the operand stack after they've been saved (they have been popped off the stack). If you want
+     * them back on the operand stack, reload using {@code loadOperandStackFromArguments(markerType, argVars, frame, count)}.
+     * @param markerType debug marker type
+     * @param argVars variables to store operand stack items in to
+     * @param frame execution frame at the instruction where the operand stack is to be saved
+     * @param count number of items to store from the stack
+     * @return instructions to save the operand stack items to the argument variables
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code count} is larger than the number of items in the stack at {@code frame} (or is negative),
+     * or if {@code argVars} doesn't have enough variables to hold the items
+     */
+    public static InsnList saveOperandStackToArguments(MarkerType markerType, ArgumentVariables argVars, Frame<BasicValue> frame,
+            int count) {
+        Validate.notNull(markerType);
+        Validate.notNull(argVars);
+        Validate.notNull(frame);
+        Validate.isTrue(count >= 0);
+        Validate.isTrue(count <= frame.getStackSize());
+        
+        InsnList ret = new InsnList();
+        if (count == 0) {
+            return ret;
+        }
+        
+        StorageSizes storageSizes = computeSizes(frame, frame.getStackSize() - count, count);
+        Validate.isTrue(storageSizes.getIntsSize() <= argVars.getIntArgVars().size());
+        Validate.isTrue(storageSizes.getFloatsSize() <= argVars.getFloatArgVars().size());
+        Validate.isTrue(storageSizes.getLongsSize() <= argVars.getLongArgVars().size());
+        Validate.isTrue(storageSizes.getDoublesSize() <= argVars.getDoubleArgVars().size());
+        Validate.isTrue(storageSizes.getObjectsSize() <= argVars.getObjectArgVars().size());
+
+        int intsCounter = storageSizes.getIntsSize() - 1;
+        int floatsCounter = storageSizes.getFloatsSize() - 1;
+        int longsCounter = storageSizes.getLongsSize() - 1;
+        int doublesCounter = storageSizes.getDoublesSize() - 1;
+        int objectsCounter = storageSizes.getObjectsSize() - 1;
+        
+        ret.add(debugMarker(markerType, "Saving operand stack to argument variables (" + count + " items)"));
+        for (int i = frame.getStackSize() - 1; i >= frame.getStackSize() - count; i--) {
+            BasicValue basicValue = frame.getStack(i);
+            Type type = basicValue.getType();
+            
+            // If type is 'Lnull;', this means that the slot has been assigned null and that "there has been no merge yet that would 'raise'
+            // the type toward some class or interface type" (from ASM mailing list). We know this slot will always contain null at this
+            // point in the code so we can avoid saving it (but we still need to do a POP to get rid of it). When we load it back up, we can
+            // simply push a null in to that slot, thereby keeping the same 'Lnull;' type.
+            if ("Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Skipping null value at " + i));
+                ret.add(new InsnNode(Opcodes.POP));
+                continue;
+            }
+
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    ret.add(debugMarker(markerType, "Popping/storing int at " + i + " to argument variable " + intsCounter));
+                    ret.add(new VarInsnNode(Opcodes.ISTORE, argVars.getIntArgVars().get(intsCounter).getIndex()));
+                    intsCounter--;
+                    break;
+                case Type.FLOAT:
+                    ret.add(debugMarker(markerType, "Popping/storing float at " + i + " to argument variable " + floatsCounter));
+                    ret.add(new VarInsnNode(Opcodes.FSTORE, argVars.getFloatArgVars().get(floatsCounter).getIndex()));
+                    floatsCounter--;
+                    break;
+                case Type.LONG:
+                    ret.add(debugMarker(markerType, "Popping/storing long at " + i + " to argument variable " + longsCounter));
+                    ret.add(new VarInsnNode(Opcodes.LSTORE, argVars.getLongArgVars().get(longsCounter).getIndex()));
+                    longsCounter--;
+                    break;
+                case Type.DOUBLE:
+                    ret.add(debugMarker(markerType, "Popping/storing double at " + i + " to argument variable " + doublesCounter));
+                    ret.add(new VarInsnNode(Opcodes.DSTORE, argVars.getDoubleArgVars().get(doublesCounter).getIndex()));
+                    doublesCounter--;
+                    break;
+                case Type.ARRAY:
+                case Type.OBJECT:
+                    ret.add(debugMarker(markerType, "Popping/storing object at " + i + " to argument variable " + objectsCounter));
+                    ret.add(new VarInsnNode(Opcodes.ASTORE, argVars.getObjectArgVars().get(objectsCounter).getIndex()));
+                    objectsCounter--;
+                    break;
+                case Type.METHOD:
+                case Type.VOID:
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+        
+        return ret;
+    }
+
+    /**
+     * Generates instructions to load a certain number of items saved by
+     * {@link #saveOperandStackToArguments(com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType,
+     * com.offbynull.coroutines.instrumenter.ArgumentVariables, org.objectweb.asm.tree.analysis.Frame, int) } back on to the top of the
+     * operand stack. The argument variables are left untouched, so the items can be loaded more than once.
+     * @param markerType debug marker type
+     * @param argVars variables to load operand stack items from
+     * @param frame execution frame at the instruction where the operand stack is to be loaded
+     * @param count number of items to load on to the stack
+     * @return instructions to load the operand stack items from the argument variables
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code count} is larger than the number of items in the stack at {@code frame} (or is negative),
+     * or if {@code argVars} doesn't have enough variables to hold the items
+     */
+    public static InsnList loadOperandStackFromArguments(MarkerType markerType, ArgumentVariables argVars, Frame<BasicValue> frame,
+            int count) {
+        Validate.notNull(markerType);
+        Validate.notNull(argVars);
+        Validate.notNull(frame);
+        Validate.isTrue(count >= 0);
+        Validate.isTrue(count <= frame.getStackSize());
+        
+        InsnList ret = new InsnList();
+        if (count == 0) {
+            return ret;
+        }
+        
+        StorageSizes storageSizes = computeSizes(frame, frame.getStackSize() - count, count);
+        Validate.isTrue(storageSizes.getIntsSize() <= argVars.getIntArgVars().size());
+        Validate.isTrue(storageSizes.getFloatsSize() <= argVars.getFloatArgVars().size());
+        Validate.isTrue(storageSizes.getLongsSize() <= argVars.getLongArgVars().size());
+        Validate.isTrue(storageSizes.getDoublesSize() <= argVars.getDoubleArgVars().size());
+        Validate.isTrue(storageSizes.getObjectsSize() <= argVars.getObjectArgVars().size());
+
+        int intsCounter = 0;
+        int floatsCounter = 0;
+        int longsCounter = 0;
+        int doublesCounter = 0;
+        int objectsCounter = 0;
+        
+        ret.add(debugMarker(markerType, "Loading operand stack from argument variables (" + count + " items)"));
+        for (int i = frame.getStackSize() - count; i < frame.getStackSize(); i++) {
+            BasicValue basicValue = frame.getStack(i);
+            Type type = basicValue.getType();
+            
+            // If type is 'Lnull;', push a null in to that slot, thereby keeping the same 'Lnull;' type originally assigned to that slot
+            // (see comments in loadOperandStack()).
+            if (type.getSort() == Type.OBJECT && "Lnull;".equals(type.getDescriptor())) {
+                ret.add(debugMarker(markerType, "Loading null value at " + i));
+                ret.add(new InsnNode(Opcodes.ACONST_NULL));
+                continue;
+            }
+
+            switch (type.getSort()) {
+                case Type.BOOLEAN:
+                case Type.BYTE:
+                case Type.SHORT:
+                case Type.CHAR:
+                case Type.INT:
+                    ret.add(debugMarker(markerType, "Loading int at " + i + " from argument variable " + intsCounter));
+                    ret.add(new VarInsnNode(Opcodes.ILOAD, argVars.getIntArgVars().get(intsCounter).getIndex()));
+                    intsCounter++;
+                    break;
+                case Type.FLOAT:
+                    ret.add(debugMarker(markerType, "Loading float at " + i + " from argument variable " + floatsCounter));
+                    ret.add(new VarInsnNode(Opcodes.FLOAD, argVars.getFloatArgVars().get(floatsCounter).getIndex()));
+                    floatsCounter++;
+                    break;
+                case Type.LONG:
+                    ret.add(debugMarker(markerType, "Loading long at " + i + " from argument variable " + longsCounter));
+                    ret.add(new VarInsnNode(Opcodes.LLOAD, argVars.getLongArgVars().get(longsCounter).getIndex()));
+                    longsCounter++;
+                    break;
+                case Type.DOUBLE:
+                    ret.add(debugMarker(markerType, "Loading double at " + i + " from argument variable " + doublesCounter));
+                    ret.add(new VarInsnNode(Opcodes.DLOAD, argVars.getDoubleArgVars().get(doublesCounter).getIndex()));
+                    doublesCounter++;
+                    break;
+                case Type.ARRAY:
+                case Type.OBJECT:
+                    ret.add(debugMarker(markerType, "Loading object at " + i + " from argument variable " + objectsCounter));
+                    ret.add(new VarInsnNode(Opcodes.ALOAD, argVars.getObjectArgVars().get(objectsCounter).getIndex()));
+                    ret.add(new TypeInsnNode(Opcodes.CHECKCAST, basicValue.getType().getInternalName()));
+                    objectsCounter++;
+                    break;
+                case Type.METHOD:
+                case Type.VOID:
+                default:
+                    throw new IllegalArgumentException();
+            }
+        }
+        
+        return ret;
+    }
+
     /**
      * Compute sizes required for the storage arrays that will contain the operand stack at this frame.
      * @param frame frame to compute for
@@ -25,6 +25,8 @@ import org.apache.commons.lang3.Validate;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
 import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.TypeInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
@@ -55,6 +57,13 @@ final class PackStateGenerators {
     
     public static InsnList packStorageArrays(MarkerType markerType, Frame<BasicValue> frame, Variable containerVar,
             StorageVariables localsStorageVars, StorageVariables operandStackStorageVars) {
+        return packStorageArrays(markerType, frame, containerVar, localsStorageVars, operandStackStorageVars, false);
+    }
+    
+    // If reuseContainer is set, the container is only created if containerVar is null. Use this if containerVar was loaded with a recycled
+    // container (see createStorageArray() below).
+    public static InsnList packStorageArrays(MarkerType markerType, Frame<BasicValue> frame, Variable containerVar,
+            StorageVariables localsStorageVars, StorageVariables operandStackStorageVars, boolean reuseContainer) {
         Validate.notNull(markerType);
         Validate.notNull(frame);
         Validate.notNull(containerVar);
@@ -104,11 +113,20 @@ final class PackStateGenerators {
                 
         
         // Storage arrays in to locals container
+        LabelNode containerExistsLabelNode = new LabelNode();
         return merge(
                 debugMarker(markerType, "Packing storage arrays for locals and operand stack in to an Object[]"),
+                mergeIf(reuseContainer, () -> new Object[] {
+                    debugMarker(markerType, "Skipping container creation if recycled container exists"),
+                    new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
+                    new JumpInsnNode(Opcodes.IFNONNULL, containerExistsLabelNode), // []
+                }),
                 new LdcInsnNode(10),
                 new TypeInsnNode(Opcodes.ANEWARRAY, "java/lang/Object"),
                 new VarInsnNode(Opcodes.ASTORE, containerVar.getIndex()),
+                mergeIf(reuseContainer, () -> new Object[] {
+                    containerExistsLabelNode
+                }),
                 mergeIf(localsSizes.getIntsSize() > 0, () -> new Object[] {
                     debugMarker(markerType, "Putting locals ints in to container"),
                     new VarInsnNode(Opcodes.ALOAD, containerVar.getIndex()),       // [Object[]]
@@ -355,4 +373,43 @@ final class PackStateGenerators {
                 })
         );
     }
+    
+    // Generates instructions that place a storage array of some size in to storageVar. Normally this is just a case of creating the array
+    // (newArrayInsnList must leave the new array on the stack). But, if recycledContainerVar is non-null and the container it points to at
+    // runtime is non-null, the array is taken from that container's containerIdx rather than being created. The container is expected to
+    // be from a method state saved at the same continuation point, meaning that the array will be exactly the size needed.
+    public static InsnList createStorageArray(MarkerType markerType, Variable recycledContainerVar, int containerIdx, Variable storageVar,
+            int size, InsnList newArrayInsnList) {
+        Validate.notNull(markerType);
+        Validate.notNull(storageVar);
+        Validate.notNull(newArrayInsnList);
+        Validate.isTrue(containerIdx >= 0 && containerIdx < 10);
+        Validate.isTrue(size >= 0);
+        
+        // Nothing gets packed in to the container for arrays of size 0, so there's nothing to recycle
+        if (recycledContainerVar == null || size == 0) {
+            return merge(
+                    newArrayInsnList,
+                    new VarInsnNode(Opcodes.ASTORE, storageVar.getIndex())
+            );
+        }
+        
+        LabelNode createLabelNode = new LabelNode();
+        LabelNode doneLabelNode = new LabelNode();
+        return merge(
+                new VarInsnNode(Opcodes.ALOAD, recycledContainerVar.getIndex()),                    // [Object[]]
+                new JumpInsnNode(Opcodes.IFNULL, createLabelNode),                                  // []
+                debugMarker(markerType, "Recycling storage array from container"),
+                new VarInsnNode(Opcodes.ALOAD, recycledContainerVar.getIndex()),                    // [Object[]]
+                new LdcInsnNode(containerIdx),                                                      // [Object[], idx]
+                new InsnNode(Opcodes.AALOAD),                                                       // [val]
+                new TypeInsnNode(Opcodes.CHECKCAST, storageVar.getType().getInternalName()),        // [val] REQ BY JVM SO TYPE IS KNOWN
+                new VarInsnNode(Opcodes.ASTORE, storageVar.getIndex()),                             // []
+                new JumpInsnNode(Opcodes.GOTO, doneLabelNode),
+                createLabelNode,
+                newArrayInsnList,                                                                   // [val]
+                new VarInsnNode(Opcodes.ASTORE, storageVar.getIndex()),                             // []
+                doneLabelNode
+        );
+    }
 }
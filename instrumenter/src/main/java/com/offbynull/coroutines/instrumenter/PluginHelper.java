@@ -19,9 +19,19 @@ package com.offbynull.coroutines.instrumenter;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
@@ -32,6 +42,8 @@ import org.apache.commons.lang3.Validate;
  */
 public final class PluginHelper {
 
+    private static final int IN_FLIGHT_PER_THREAD = 4;
+
     private PluginHelper() {
         // do nothing
     }
@@ -74,7 +86,8 @@ public final class PluginHelper {
 
     /**
      * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
-     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * name but the extension will be changed to {@code .coroutinesinfo}. This method is equivalent to calling
+     * {@code instrument(instrumenter, settings, srcDstMapping, logger, 1)}.
      * @param instrumenter instrumenter
      * @param settings instrumentation settings
      * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
@@ -85,41 +98,170 @@ public final class PluginHelper {
      */
     public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
             Consumer<String> logger) throws IOException {
+        instrument(instrumenter, settings, srcDstMapping, logger, 1);
+    }
+
+    /**
+     * Instruments class files and generates detail files. Detail files are placed alongside destination class files -- they have the same
+     * name but the extension will be changed to {@code .coroutinesinfo}.
+     * <p>
+     * Class files are processed in order of their source path, spread across {@code threads} worker threads. Regardless of how many
+     * threads are used, the files written out are the same and messages are sent to {@code logger} in the same order (from the calling
+     * thread). If a class file fails to instrument, the exception for the first failing class file (in order of source path) is thrown.
+     * <p>
+     * At most {@code threads * 4} class files are in flight at any one time -- results are written out and released as soon as every class
+     * file before them has been written out, so memory use doesn't grow with the number of class files.
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param logger logger to dump messages to (if any)
+     * @param threads number of threads to instrument with (if {@code 1}, everything runs on the calling thread)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code threads <= 0}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            Consumer<String> logger, int threads) throws IOException {
+        instrument(instrumenter, settings, srcDstMapping, logger, threads, null);
+    }
+
+    /**
+     * Instruments class files and generates detail files, using an {@link InstrumentationCache} to skip over classes that were instrumented
+     * by a previous build. Other than caching, this method is the same as
+     * {@link #instrument(Instrumenter, InstrumentationSettings, Map, Consumer, int) }.
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDstMapping class files to instrument mapped to destination files where the final instrumented results will be placed
+     * @param logger logger to dump messages to (if any)
+     * @param threads number of threads to instrument with (if {@code 1}, everything runs on the calling thread)
+     * @param cache instrumentation cache (may be {@code null} -- if so, no caching is performed)
+     * @throws NullPointerException if any argument other than {@code cache} is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if a source class file doesn't exist, or if {@code threads <= 0}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, Map<File, File> srcDstMapping,
+            Consumer<String> logger, int threads, InstrumentationCache cache) throws IOException {
         Validate.notNull(instrumenter);
+        Validate.notNull(settings);
         Validate.notNull(srcDstMapping);
         Validate.notNull(logger);
+        Validate.isTrue(threads > 0);
 
-        for (Entry<File, File> e : srcDstMapping.entrySet()) {
-            File inputFile = e.getKey();
-            File outputFile = e.getValue();
-            File outputDir = outputFile.getParentFile();
-
-            Validate.notNull(inputFile);
-            Validate.notNull(outputFile);
-            Validate.isTrue(inputFile.isFile());
-            // output file may not exists or it may exist (e.g. if we're writing out to the same location)
-
-            byte[] input = FileUtils.readFileToByteArray(inputFile);
-            
-            InstrumentationResult result = instrumenter.instrument(input, settings);
-            
-            byte[] output = result.getInstrumentedClass();
-            Map<String, byte[]> extraOutputs = result.getExtraFiles();
-            
-            if (input.length == output.length) { // condition that determines if no instrumentation happened
-                continue;
+        List<Entry<File, File>> entries = new ArrayList<>(srcDstMapping.entrySet());
+        for (Entry<File, File> e : entries) {
+            Validate.notNull(e.getKey());
+            Validate.notNull(e.getValue());
+        }
+        entries.sort(Comparator.comparing(e -> e.getKey().getPath()));
+
+        if (threads == 1) {
+            for (Entry<File, File> e : entries) {
+                String message = writeFile(instrumentFile(instrumenter, settings, cache, e.getKey(), e.getValue()));
+                if (message != null) {
+                    logger.accept(message);
+                }
             }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "coroutines-instrumenter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            // Only a bounded window of files is in flight at any one time -- each pending result holds the input and instrumented bytes of
+            // a class, so submitting everything up front would keep the whole build in memory if the head of the queue was slow
+            int window = threads * IN_FLIGHT_PER_THREAD;
+            Iterator<Entry<File, File>> it = entries.iterator();
+            Deque<Future<InstrumentedFile>> futures = new ArrayDeque<>(window);
+            while (it.hasNext() || !futures.isEmpty()) {
+                while (it.hasNext() && futures.size() < window) {
+                    Entry<File, File> e = it.next();
+                    futures.addLast(executor.submit(() -> instrumentFile(instrumenter, settings, cache, e.getKey(), e.getValue())));
+                }
+
+                // Workers only instrument, outputs are written out here in submission order -- that way logging/failures are
+                // deterministic, and nothing past the first failure gets written out (same as when running on a single thread)
+                Future<InstrumentedFile> future = futures.removeFirst();
+                InstrumentedFile instrumentedFile;
+                try {
+                    instrumentedFile = getUninterruptibly(future);
+                } catch (ExecutionException ee) {
+                    Throwable cause = ee.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    } else if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    } else if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    throw new IllegalStateException(cause); // should never happen
+                }
+
+                String message = writeFile(instrumentedFile);
+                if (message != null) {
+                    logger.accept(message);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static InstrumentedFile instrumentFile(Instrumenter instrumenter, InstrumentationSettings settings,
+            InstrumentationCache cache, File inputFile, File outputFile) throws IOException {
+        Validate.isTrue(inputFile.isFile());
+
+        byte[] input = FileUtils.readFileToByteArray(inputFile);
+
+        InstrumentationResult result = cache == null
+                ? instrumenter.instrument(input, settings)
+                : cache.instrument(instrumenter, input, settings);
+
+        return new InstrumentedFile(inputFile, outputFile, input.length, result);
+    }
+
+    private static String writeFile(InstrumentedFile instrumentedFile) throws IOException {
+        File inputFile = instrumentedFile.inputFile;
+        File outputFile = instrumentedFile.outputFile;
+        File outputDir = outputFile.getParentFile();
+        // output file may not exists or it may exist (e.g. if we're writing out to the same location)
 
-            FileUtils.writeByteArrayToFile(outputFile, output);
-            for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
-                File extraFile = new File(outputDir, extraOutput.getKey());
-                byte[] extraData = extraOutput.getValue();
-                FileUtils.writeByteArrayToFile(extraFile, extraData);
+        InstrumentationResult result = instrumentedFile.result;
+        byte[] output = result.getInstrumentedClass();
+        Map<String, byte[]> extraOutputs = result.getExtraFiles();
+
+        if (!result.isInstrumented()) {
+            return null;
+        }
+
+        FileUtils.writeByteArrayToFile(outputFile, output);
+        for (Entry<String, byte[]> extraOutput : extraOutputs.entrySet()) {
+            File extraFile = new File(outputDir, extraOutput.getKey());
+            byte[] extraData = extraOutput.getValue();
+            FileUtils.writeByteArrayToFile(extraFile, extraData);
+        }
+
+        return "Instrumenting " + inputFile.getAbsolutePath()
+                + " (" + instrumentedFile.inputLength + " bytes -> " + output.length + " bytes)"
+                + (extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet());
+    }
+
+    private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
             }
-            
-            logger.accept("Instrumenting " + inputFile.getAbsolutePath()
-                    + " (" + input.length + " bytes -> " + output.length + " bytes)"
-                    + (extraOutputs.isEmpty() ? "" : " with extra files " + extraOutputs.keySet()));
         }
     }
 
@@ -127,7 +269,7 @@ public final class PluginHelper {
      * Instruments class files and generates detail files. This method is equivalent to calling...
      * <pre>
      * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
-     * instrument(instrumenter, settings, srcDstMapping, logger);
+     * instrument(instrumenter, settings, srcDstMapping, logger, 1);
      * </pre>
      * @param instrumenter instrumenter
      * @param settings instrumentation settings
@@ -141,7 +283,67 @@ public final class PluginHelper {
      */
     public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
             Consumer<String> logger) throws IOException {
+        instrument(instrumenter, settings, srcDir, dstDir, logger, 1);
+    }
+
+    /**
+     * Instruments class files and generates detail files using multiple threads. This method is equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, logger, threads);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param logger logger to dump messages to (if any)
+     * @param threads number of threads to instrument with (if {@code 1}, everything runs on the calling thread)
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code threads <= 0}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            Consumer<String> logger, int threads) throws IOException {
+        instrument(instrumenter, settings, srcDir, dstDir, logger, threads, null);
+    }
+
+    /**
+     * Instruments class files and generates detail files using multiple threads and an {@link InstrumentationCache}. This method is
+     * equivalent to calling...
+     * <pre>
+     * Map&lt;File, File&gt; srcDstMapping = mapPaths(srcDir, dstDir);
+     * instrument(instrumenter, settings, srcDstMapping, logger, threads, cache);
+     * </pre>
+     * @param instrumenter instrumenter
+     * @param settings instrumentation settings
+     * @param srcDir source directory
+     * @param dstDir destination directory
+     * @param logger logger to dump messages to (if any)
+     * @param threads number of threads to instrument with (if {@code 1}, everything runs on the calling thread)
+     * @param cache instrumentation cache (may be {@code null} -- if so, no caching is performed)
+     * @throws NullPointerException if any argument other than {@code cache} is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if either of the paths passed in are not directories (or if a file in {@code srcDir} was removed
+     * while this method is executing), or if {@code threads <= 0}
+     * @throws IOException on IO error
+     */
+    public static void instrument(Instrumenter instrumenter, InstrumentationSettings settings, File srcDir, File dstDir,
+            Consumer<String> logger, int threads, InstrumentationCache cache) throws IOException {
         Map<File, File> srcDstMapping = mapPaths(srcDir, dstDir);
-        instrument(instrumenter, settings, srcDstMapping, logger);
+        instrument(instrumenter, settings, srcDstMapping, logger, threads, cache);
+    }
+
+    private static final class InstrumentedFile {
+        private final File inputFile;
+        private final File outputFile;
+        private final int inputLength;
+        private final InstrumentationResult result;
+
+        InstrumentedFile(File inputFile, File outputFile, int inputLength, InstrumentationResult result) {
+            this.inputFile = inputFile;
+            this.outputFile = outputFile;
+            this.inputLength = inputLength;
+            this.result = result;
+        }
     }
 }
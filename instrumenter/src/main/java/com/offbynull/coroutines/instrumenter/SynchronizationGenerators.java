@@ -18,7 +18,6 @@ package com.offbynull.coroutines.instrumenter;
 
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.call;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.construct;
-import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.forEach;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.loadVar;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.merge;
 import static com.offbynull.coroutines.instrumenter.generators.GenericGenerators.saveVar;
@@ -33,8 +32,12 @@ import org.apache.commons.lang3.reflect.ConstructorUtils;
 import org.apache.commons.lang3.reflect.MethodUtils;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.IincInsnNode;
 import org.objectweb.asm.tree.InsnList;
 import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LdcInsnNode;
 import org.objectweb.asm.tree.MethodInsnNode;
 import org.objectweb.asm.tree.VarInsnNode;
 
@@ -46,8 +49,10 @@ final class SynchronizationGenerators {
             = MethodUtils.getAccessibleMethod(LockState.class, "enter", Object.class);
     private static final Method LOCKSTATE_EXIT_METHOD
             = MethodUtils.getAccessibleMethod(LockState.class, "exit", Object.class);
-    private static final Method LOCKSTATE_TOARRAY_METHOD
-            = MethodUtils.getAccessibleMethod(LockState.class, "toArray");
+    private static final Method LOCKSTATE_SIZE_METHOD
+            = MethodUtils.getAccessibleMethod(LockState.class, "size");
+    private static final Method LOCKSTATE_GET_METHOD
+            = MethodUtils.getAccessibleMethod(LockState.class, "get", Integer.TYPE);
 
     private SynchronizationGenerators() {
         // do nothing
@@ -94,14 +99,13 @@ final class SynchronizationGenerators {
         Validate.isTrue(counterVar != null);
         Validate.isTrue(arrayLenVar != null);
 
-        return forEach(counterVar, arrayLenVar,
-                merge(
-                        debugMarker(markerType, "Loading monitors to enter"),
-                        call(LOCKSTATE_TOARRAY_METHOD, loadVar(lockStateVar))
-                ),
-                merge(
-                        debugMarker(markerType, "Entering monitor"),
-                        new InsnNode(Opcodes.MONITORENTER)
+        return merge(
+                debugMarker(markerType, "Loading monitors to enter"),
+                forEachMonitor(lockStateVar, counterVar, arrayLenVar,
+                        merge(
+                                debugMarker(markerType, "Entering monitor"),
+                                new InsnNode(Opcodes.MONITORENTER)
+                        )
                 )
         );
     }
@@ -125,18 +129,56 @@ final class SynchronizationGenerators {
         Validate.isTrue(counterVar != null);
         Validate.isTrue(arrayLenVar != null);
 
-        return forEach(counterVar, arrayLenVar,
-                merge(
-                        debugMarker(markerType, "Loading monitors to exit"),
-                        call(LOCKSTATE_TOARRAY_METHOD, loadVar(lockStateVar))
-                ),
-                merge(
-                        debugMarker(markerType, "Exitting monitor"),
-                        new InsnNode(Opcodes.MONITOREXIT)
+        return merge(
+                debugMarker(markerType, "Loading monitors to exit"),
+                forEachMonitor(lockStateVar, counterVar, arrayLenVar,
+                        merge(
+                                debugMarker(markerType, "Exitting monitor"),
+                                new InsnNode(Opcodes.MONITOREXIT)
+                        )
                 )
         );
     }
 
+    // Walks over the monitors in the LockState object in lockStateVar by index, performing action on each one. The monitor is on top of
+    // the stack when action runs and action must consume it. Monitors are walked in place -- LockState.toArray() isn't used because it
+    // would allocate a new array every time a method is restored/saved.
+    private static InsnList forEachMonitor(Variable lockStateVar, Variable counterVar, Variable sizeVar, InsnList action) {
+        InsnList ret = new InsnList();
+        
+        LabelNode doneLabelNode = new LabelNode();
+        LabelNode loopLabelNode = new LabelNode();
+        
+        // put zero in to counterVar
+        ret.add(new LdcInsnNode(0)); // int
+        ret.add(new VarInsnNode(Opcodes.ISTORE, counterVar.getIndex())); //
+        
+        // put number of monitors in to sizeVar
+        ret.add(call(LOCKSTATE_SIZE_METHOD, loadVar(lockStateVar))); // int
+        ret.add(new VarInsnNode(Opcodes.ISTORE, sizeVar.getIndex())); //
+        
+        // loopLabelNode: test if counterVar == sizeVar, if it does then jump to doneLabelNode
+        ret.add(loopLabelNode);
+        ret.add(new VarInsnNode(Opcodes.ILOAD, counterVar.getIndex())); // int
+        ret.add(new VarInsnNode(Opcodes.ILOAD, sizeVar.getIndex())); // int, int
+        ret.add(new JumpInsnNode(Opcodes.IF_ICMPEQ, doneLabelNode)); //
+        
+        // load monitor from lockstate
+        ret.add(call(LOCKSTATE_GET_METHOD, loadVar(lockStateVar), loadVar(counterVar))); // object
+        
+        // call action
+        ret.add(action); //
+        
+        // increment counter var and goto loopLabelNode
+        ret.add(new IincInsnNode(counterVar.getIndex(), 1)); //
+        ret.add(new JumpInsnNode(Opcodes.GOTO, loopLabelNode)); //
+        
+        // doneLabelNode
+        ret.add(doneLabelNode);
+        
+        return ret;
+    }
+
     /**
      * Generates instruction to enter a monitor (top item on the stack) and store it in the {@link LockState} object sitting in the
      * lockstate variable.
@@ -17,36 +17,83 @@
 package com.offbynull.coroutines.instrumenter.asm;
 
 import static com.offbynull.coroutines.instrumenter.asm.InternalUtils.getClassInformation;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.compress.archivers.jar.JarArchiveEntry;
-import org.apache.commons.compress.archivers.jar.JarArchiveInputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.lang3.Validate;
 
 /**
- * Provides information on classes contained within JARs and folders.
+ * Provides information on classes contained within JARs and folders. Lookups are safe to perform from multiple threads.
+ * <p>
+ * Adding a classpath only indexes the names of the class files it contains -- a class file is read and parsed the first time information
+ * for it is requested. If an index directory is supplied, the index for each JAR is persisted in that directory (keyed by the JAR's path,
+ * size, and modification time) so that JARs that haven't changed don't have to be scanned again.
+ * <p>
+ * JARs are held open once a class has been read from them. Call {@link #close() } to release them.
  * @author Kasra Faghihi
  */
-public final class FileSystemClassInformationRepository implements ClassInformationRepository {
-    private final Map<String, ClassInformation> hierarchyMap = new HashMap<>();
+public final class FileSystemClassInformationRepository implements ClassInformationRepository, Closeable {
+    private static final int INDEX_MAGIC = 0xC0C1DE5C;
+    private static final int INDEX_VERSION = 1;
+
+    private final File indexDirectory; // null if not persisting indexes
+    private final Map<String, ClassFileSource> classFileMap = new ConcurrentHashMap<>();  // where to read each class from
+    private final Map<String, ClassInformation> hierarchyMap = new ConcurrentHashMap<>(); // classes already read (or added individually)
+    private final List<JarClassFileSource> jars = new CopyOnWriteArrayList<>();
+
+    private FileSystemClassInformationRepository(File indexDirectory) {
+        this.indexDirectory = indexDirectory;
+    }
 
     /**
-     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath.
+     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath. Equivalent to
+     * calling {@code create(initialClasspath, null)}.
      * @param initialClasspath classpath to scan for class information (can be JAR files and/or folders)
      * @return newly created {@link FileSystemClassInformationRepository} object
      * @throws NullPointerException if any argument is {@code null} or contains {@code null} elements
      * @throws IOException if an IO error occurs
      */
     public static FileSystemClassInformationRepository create(List<File> initialClasspath) throws IOException {
+        return create(initialClasspath, null);
+    }
+
+    /**
+     * Constructs a {@link FileSystemClassInformationRepository} object and loads it up with the classes in a classpath.
+     * @param initialClasspath classpath to scan for class information (can be JAR files and/or folders)
+     * @param indexDirectory directory to persist JAR indexes to (created if it doesn't exist), or {@code null} to not persist indexes
+     * @return newly created {@link FileSystemClassInformationRepository} object
+     * @throws NullPointerException if {@code initialClasspath} is {@code null} or contains {@code null} elements
+     * @throws IOException if an IO error occurs
+     */
+    public static FileSystemClassInformationRepository create(List<File> initialClasspath, File indexDirectory) throws IOException {
         Validate.notNull(initialClasspath);
         Validate.noNullElements(initialClasspath);
-        FileSystemClassInformationRepository repo = new FileSystemClassInformationRepository();
+        if (indexDirectory != null) {
+            FileUtils.forceMkdir(indexDirectory);
+        }
+        FileSystemClassInformationRepository repo = new FileSystemClassInformationRepository(indexDirectory);
         repo.addClasspath(initialClasspath);
         return repo;
     }
@@ -54,7 +101,31 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     @Override
     public ClassInformation getInformation(String internalClassName) {
         Validate.notNull(internalClassName);
-        return hierarchyMap.get(internalClassName);
+
+        ClassInformation ci = hierarchyMap.get(internalClassName);
+        if (ci != null) {
+            return ci;
+        }
+
+        ClassFileSource source = classFileMap.get(internalClassName);
+        if (source == null) {
+            return null;
+        }
+
+        try {
+            ci = source.read(internalClassName);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Unable to read " + internalClassName, ioe);
+        }
+
+        if (ci == null || !ci.getName().equals(internalClassName)) {
+            // class file is gone or it's named differently from the class it contains -- treat as not found from now on
+            classFileMap.remove(internalClassName, source);
+            return null;
+        }
+
+        ClassInformation existing = hierarchyMap.putIfAbsent(internalClassName, ci);
+        return existing != null ? existing : ci;
     }
 
     /**
@@ -67,9 +138,10 @@ public final class FileSystemClassInformationRepository implements ClassInformat
     public void addIndividual(String className, ClassInformation classInformation) {
         Validate.notNull(className);
         Validate.notNull(classInformation);
-        Validate.isTrue(!hierarchyMap.containsKey(className));
+        Validate.isTrue(!classFileMap.containsKey(className));
         
-        hierarchyMap.put(className, classInformation);
+        ClassInformation existing = hierarchyMap.putIfAbsent(className, classInformation);
+        Validate.isTrue(existing == null);
     }
 
     /**
@@ -92,45 +164,215 @@ public final class FileSystemClassInformationRepository implements ClassInformat
             }
         }
     }
+
+    /**
+     * Closes any JARs that have been opened to read classes. Lookups may still be performed after this method is invoked, but they'll
+     * re-open JARs as needed.
+     * @throws IOException if an IO error occurs
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (JarClassFileSource jar : jars) {
+            try {
+                jar.close();
+            } catch (IOException ioe) {
+                failure = ioe;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
     
     private void addDirectory(File directory) throws IOException {
         Validate.notNull(directory);
         Validate.isTrue(directory.isDirectory());
+        Path directoryPath = directory.toPath();
         for (File file : FileUtils.listFiles(directory, new String[] {"class"}, true)) {
             if (!file.getName().endsWith(".class")) {
                 continue;
             }
-            
-            try (InputStream is = new FileInputStream(file)) {
-                populateSuperClassMapping(is);
-            }
+
+            String relativePath = directoryPath.relativize(file.toPath()).toString().replace(File.separatorChar, '/');
+            String name = relativePath.substring(0, relativePath.length() - ".class".length());
+            classFileMap.putIfAbsent(name, new DirectoryClassFileSource(file)); // if duplicate encounter, ignore
         }
     }
 
     private void addJar(File file) throws IOException {
         Validate.notNull(file);
         Validate.isTrue(file.isFile());
-        try (FileInputStream fis = new FileInputStream(file);
-                JarArchiveInputStream jais = new JarArchiveInputStream(fis)) {
-            JarArchiveEntry entry;
-            while ((entry = jais.getNextJarEntry()) != null) {
-                if (!entry.getName().endsWith(".class") || entry.isDirectory()) {
-                    continue;
+
+        List<String> names = null;
+        Path indexFile = null;
+        if (indexDirectory != null) {
+            indexFile = indexFile(file);
+            names = readIndex(indexFile, file);
+        }
+
+        if (names == null) {
+            names = new ArrayList<>();
+            try (ZipFile zipFile = new ZipFile(file)) {
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    String entryName = entry.getName();
+                    if (!entryName.endsWith(".class") || entry.isDirectory() || entryName.startsWith("META-INF/")) {
+                        continue;
+                    }
+                    names.add(entryName.substring(0, entryName.length() - ".class".length()));
                 }
+            }
+            Collections.sort(names);
 
-                populateSuperClassMapping(jais);
+            if (indexFile != null) {
+                writeIndex(indexFile, file, names);
             }
         }
+
+        JarClassFileSource jar = new JarClassFileSource(file);
+        jars.add(jar);
+        for (String name : names) {
+            classFileMap.putIfAbsent(name, jar); // if duplicate encounter, ignore
+        }
     }
-    
-    private void populateSuperClassMapping(final InputStream is) throws IOException {
-        ClassInformation ci = getClassInformation(is);
-        
-        if (hierarchyMap.containsKey(ci.getName())) {
-            // duplicate encounter, ignore
-            return;
+
+    private Path indexFile(File jarFile) throws IOException {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IllegalStateException(nsae); // should never happen
         }
+        byte[] digest = md.digest(jarFile.getCanonicalPath().getBytes(StandardCharsets.UTF_8));
 
-        hierarchyMap.put(ci.getName(), ci);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return indexDirectory.toPath().resolve(hex + ".index");
+    }
+
+    // Returns null if the index doesn't exist, is for some other version of the JAR, or is corrupt.
+    private static List<String> readIndex(Path indexFile, File jarFile) throws IOException {
+        if (!Files.isRegularFile(indexFile)) {
+            return null;
+        }
+
+        try (DataInputStream dis = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (dis.readInt() != INDEX_MAGIC || dis.readInt() != INDEX_VERSION
+                    || !dis.readUTF().equals(jarFile.getCanonicalPath())
+                    || dis.readLong() != jarFile.length()
+                    || dis.readLong() != jarFile.lastModified()) {
+                return null;
+            }
+
+            // names are sorted and front-coded: length of prefix shared with the previous name, followed by the rest of the name
+            int count = dis.readInt();
+            List<String> names = new ArrayList<>(Math.min(count, 65536));
+            String last = "";
+            for (int i = 0; i < count; i++) {
+                int shared = dis.readUnsignedShort();
+                String name = last.substring(0, shared) + dis.readUTF();
+                names.add(name);
+                last = name;
+            }
+            return names;
+        } catch (IOException | RuntimeException e) {
+            return null; // corrupt -- rebuild it
+        }
+    }
+
+    private static void writeIndex(Path indexFile, File jarFile, List<String> names) throws IOException {
+        // Write to a temp file and move it in place, so that a crash or another process never sees a partially written index
+        Path tempFile = Files.createTempFile(indexFile.getParent(), "index", ".tmp");
+        try {
+            try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+                dos.writeInt(INDEX_MAGIC);
+                dos.writeInt(INDEX_VERSION);
+                dos.writeUTF(jarFile.getCanonicalPath());
+                dos.writeLong(jarFile.length());
+                dos.writeLong(jarFile.lastModified());
+
+                dos.writeInt(names.size());
+                String last = "";
+                for (String name : names) {
+                    int shared = 0;
+                    int max = Math.min(Math.min(last.length(), name.length()), 0xFFFF);
+                    while (shared < max && last.charAt(shared) == name.charAt(shared)) {
+                        shared++;
+                    }
+                    dos.writeShort(shared);
+                    dos.writeUTF(name.substring(shared));
+                    last = name;
+                }
+            }
+
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException amnse) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private interface ClassFileSource {
+        // returns null if not found
+        ClassInformation read(String internalClassName) throws IOException;
+    }
+
+    private static final class DirectoryClassFileSource implements ClassFileSource {
+        private final File file;
+
+        DirectoryClassFileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public ClassInformation read(String internalClassName) throws IOException {
+            if (!file.isFile()) {
+                return null;
+            }
+            try (InputStream is = new FileInputStream(file)) {
+                return getClassInformation(is);
+            }
+        }
+    }
+
+    private static final class JarClassFileSource implements ClassFileSource, Closeable {
+        private final File file;
+        private ZipFile zipFile; // lazily opened, guarded by this
+
+        JarClassFileSource(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public ClassInformation read(String internalClassName) throws IOException {
+            ZipFile zf;
+            synchronized (this) {
+                if (zipFile == null) {
+                    zipFile = new ZipFile(file);
+                }
+                zf = zipFile;
+            }
+
+            ZipEntry entry = zf.getEntry(internalClassName + ".class");
+            if (entry == null) {
+                return null;
+            }
+            try (InputStream is = zf.getInputStream(entry)) {
+                return getClassInformation(is);
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (zipFile != null) {
+                zipFile.close();
+                zipFile = null;
+            }
+        }
     }
 }
@@ -0,0 +1,223 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter.asm;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.apache.commons.lang3.Validate;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.AbstractInsnNode;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnList;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.LookupSwitchInsnNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TableSwitchInsnNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+/**
+ * Utility class to compute local variable liveness for Java bytecode.
+ * @author Kasra Faghihi
+ */
+public final class LivenessUtils {
+
+    private LivenessUtils() {
+        // do nothing
+    }
+
+    /**
+     * Compute which local variable slots are live on entry to each instruction of a method. A local variable slot is live at some
+     * instruction if there's a path from that instruction that reads the slot before it gets written to. Slots that aren't live at an
+     * instruction hold values that will never be looked at again, meaning that they don't have to be preserved at that instruction.
+     * <p>
+     * The analysis is conservative: every instruction within the range of a try-catch block is assumed to be able to jump to that block's
+     * handler, and slots live at the handler are kept live throughout the entire range. Slot indexes follow the same convention as
+     * {@link org.objectweb.asm.tree.analysis.Frame#getLocal(int)}, meaning that longs and doubles are tracked by their first slot.
+     * @param methodNode method to analyze
+     * @return array of live local variable slots, where each index in the array corresponds to the same index in
+     * {@code methodNode.instructions} (array elements are never {@code null})
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code methodNode} contains JSR instructions
+     */
+    public static BitSet[] computeLiveLocals(MethodNode methodNode) {
+        Validate.notNull(methodNode);
+        Validate.isTrue(SearchUtils.searchForOpcodes(methodNode.instructions, Opcodes.JSR).isEmpty(), "JSR instructions not allowed");
+
+        InsnList insnList = methodNode.instructions;
+        int insnCount = insnList.size();
+
+        // Build up the successors for each instruction. Normal successors are the instructions control can flow to once the instruction
+        // completes (fall through, jumps, switches). Exception successors are the handlers control can flow to if the instruction throws.
+        List<List<Integer>> normalSuccessors = new ArrayList<>(insnCount);
+        List<List<Integer>> exceptionSuccessors = new ArrayList<>(insnCount);
+        for (int i = 0; i < insnCount; i++) {
+            normalSuccessors.add(findNormalSuccessors(insnList, i));
+            exceptionSuccessors.add(new ArrayList<>());
+        }
+
+        for (TryCatchBlockNode tryCatchBlockNode : methodNode.tryCatchBlocks) {
+            int startIdx = insnList.indexOf(tryCatchBlockNode.start);
+            int endIdx = insnList.indexOf(tryCatchBlockNode.end);
+            int handlerIdx = insnList.indexOf(tryCatchBlockNode.handler);
+            for (int i = startIdx; i < endIdx; i++) {
+                exceptionSuccessors.get(i).add(handlerIdx);
+            }
+        }
+
+
+
+        // Iterate backwards until the live sets stop changing. The dataflow equation used for each instruction is ...
+        //
+        //   liveIn(i) = use(i) + (liveOut_normal(i) - def(i)) + liveOut_exception(i)
+        //
+        // An exception thrown by an instruction is thrown before the instruction writes to its slot, which is why the exception successors
+        // don't have def(i) removed.
+        BitSet[] liveIn = new BitSet[insnCount];
+        for (int i = 0; i < insnCount; i++) {
+            liveIn[i] = new BitSet();
+        }
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = insnCount - 1; i >= 0; i--) {
+                AbstractInsnNode insnNode = insnList.get(i);
+
+                BitSet newLiveIn = new BitSet();
+                for (int successorIdx : normalSuccessors.get(i)) {
+                    newLiveIn.or(liveIn[successorIdx]);
+                }
+
+                int defSlot = getDefinedSlot(insnNode);
+                if (defSlot != -1) {
+                    newLiveIn.clear(defSlot);
+                }
+
+                int useSlot = getUsedSlot(insnNode);
+                if (useSlot != -1) {
+                    newLiveIn.set(useSlot);
+                }
+
+                for (int successorIdx : exceptionSuccessors.get(i)) {
+                    newLiveIn.or(liveIn[successorIdx]);
+                }
+
+                if (!newLiveIn.equals(liveIn[i])) {
+                    liveIn[i] = newLiveIn;
+                    changed = true;
+                }
+            }
+        }
+
+        return liveIn;
+    }
+
+    private static List<Integer> findNormalSuccessors(InsnList insnList, int idx) {
+        AbstractInsnNode insnNode = insnList.get(idx);
+        List<Integer> ret = new ArrayList<>(2);
+
+        switch (insnNode.getOpcode()) {
+            case Opcodes.GOTO:
+                ret.add(insnList.indexOf(((JumpInsnNode) insnNode).label));
+                return ret;
+            case Opcodes.IFEQ:
+            case Opcodes.IFNE:
+            case Opcodes.IFLT:
+            case Opcodes.IFGE:
+            case Opcodes.IFGT:
+            case Opcodes.IFLE:
+            case Opcodes.IF_ICMPEQ:
+            case Opcodes.IF_ICMPNE:
+            case Opcodes.IF_ICMPLT:
+            case Opcodes.IF_ICMPGE:
+            case Opcodes.IF_ICMPGT:
+            case Opcodes.IF_ICMPLE:
+            case Opcodes.IF_ACMPEQ:
+            case Opcodes.IF_ACMPNE:
+            case Opcodes.IFNULL:
+            case Opcodes.IFNONNULL:
+                ret.add(insnList.indexOf(((JumpInsnNode) insnNode).label));
+                break; // also falls through to next instruction
+            case Opcodes.TABLESWITCH: {
+                TableSwitchInsnNode tableSwitchInsnNode = (TableSwitchInsnNode) insnNode;
+                ret.add(insnList.indexOf(tableSwitchInsnNode.dflt));
+                for (LabelNode labelNode : tableSwitchInsnNode.labels) {
+                    ret.add(insnList.indexOf(labelNode));
+                }
+                return ret;
+            }
+            case Opcodes.LOOKUPSWITCH: {
+                LookupSwitchInsnNode lookupSwitchInsnNode = (LookupSwitchInsnNode) insnNode;
+                ret.add(insnList.indexOf(lookupSwitchInsnNode.dflt));
+                for (LabelNode labelNode : lookupSwitchInsnNode.labels) {
+                    ret.add(insnList.indexOf(labelNode));
+                }
+                return ret;
+            }
+            case Opcodes.IRETURN:
+            case Opcodes.LRETURN:
+            case Opcodes.FRETURN:
+            case Opcodes.DRETURN:
+            case Opcodes.ARETURN:
+            case Opcodes.RETURN:
+            case Opcodes.ATHROW:
+            case Opcodes.RET:
+                return ret;
+            default:
+                break;
+        }
+
+        if (idx + 1 < insnList.size()) {
+            ret.add(idx + 1);
+        }
+        return ret;
+    }
+
+    private static int getUsedSlot(AbstractInsnNode insnNode) {
+        switch (insnNode.getOpcode()) {
+            case Opcodes.ILOAD:
+            case Opcodes.LLOAD:
+            case Opcodes.FLOAD:
+            case Opcodes.DLOAD:
+            case Opcodes.ALOAD:
+            case Opcodes.RET:
+                return ((VarInsnNode) insnNode).var;
+            case Opcodes.IINC:
+                return ((IincInsnNode) insnNode).var;
+            default:
+                return -1;
+        }
+    }
+
+    private static int getDefinedSlot(AbstractInsnNode insnNode) {
+        switch (insnNode.getOpcode()) {
+            case Opcodes.ISTORE:
+            case Opcodes.LSTORE:
+            case Opcodes.FSTORE:
+            case Opcodes.DSTORE:
+            case Opcodes.ASTORE:
+                return ((VarInsnNode) insnNode).var;
+            case Opcodes.IINC:
+                return ((IincInsnNode) insnNode).var; // reads before it writes, use is set after def is cleared so slot stays live
+            default:
+                return -1;
+        }
+    }
+}
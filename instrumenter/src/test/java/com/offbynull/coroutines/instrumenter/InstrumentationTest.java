@@ -1,5 +1,8 @@
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.PRUNE_DEAD_LOCALS;
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.RECYCLE_METHOD_STATES;
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.SKIP_UNMODIFIED_ARGUMENTS;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.BASIC_TYPE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.COMPLEX_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.CONSTRUCTOR_INVOKE_TEST;
@@ -25,20 +28,33 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.RETURN_INVOK
 import static com.offbynull.coroutines.instrumenter.SharedConstants.SANITY_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.STATIC_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.UNINITIALIZED_VARIABLE_INVOKE_TEST;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.getClasspath;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.loadClassesInZipResourceAndInstrument;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.readZipFromResource;
 import com.offbynull.coroutines.user.Continuation;
 import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineException;
 import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.CoroutineWriter;
 import com.offbynull.coroutines.user.MethodState;
 import java.io.File;
+import java.lang.reflect.Array;
 import java.net.URLClassLoader;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
 import static org.apache.commons.lang3.reflect.FieldUtils.readField;
 import static org.apache.commons.lang3.reflect.MethodUtils.invokeStaticMethod;
@@ -46,7 +62,7 @@ import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
@@ -158,7 +174,127 @@ public final class InstrumentationTest {
     public void mustProperlySuspendInNonTrivialCoroutineWhenDebugModeSet() throws Exception {
         performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, true, true));
     }
-    
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenPruningDeadLocals() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(PRUNE_DEAD_LOCALS)));
+    }
+
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenSkippingUnmodifiedArguments() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(SKIP_UNMODIFIED_ARGUMENTS)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenSkippingUnmodifiedArguments() throws Exception {
+        performCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(PRUNE_DEAD_LOCALS, SKIP_UNMODIFIED_ARGUMENTS)));
+    }
+
+    @Test
+    public void mustProperlySuspendInNonTrivialCoroutineWhenRecyclingMethodStates() throws Exception {
+        performCountTest(COMPLEX_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(RECYCLE_METHOD_STATES)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenRecyclingMethodStates() throws Exception {
+        performCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(PRUNE_DEAD_LOCALS, SKIP_UNMODIFIED_ARGUMENTS, RECYCLE_METHOD_STATES)));
+    }
+
+    @Test
+    public void mustReuseMethodStateAndStorageArraysWhenRecyclingMethodStates() throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true, EnumSet.of(RECYCLE_METHOD_STATES));
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings)) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, builder);
+
+            CoroutineRunner runner = new CoroutineRunner(coroutine);
+            Continuation continuation = (Continuation) readField(runner, "continuation", true);
+
+            // run() gets restored and suspends again at the same continuation point (via echo()) on every cycle, so its method state,
+            // storage container, and storage arrays should get overwritten in place rather than recreated
+            assertTrue(runner.execute());
+            MethodState runMethodState = continuation.getSaved(0);
+            Object[] runData = runMethodState.getData();
+            Object[] runStorageArrays = runData.clone();
+            for (int i = 1; i < 10; i++) {
+                assertTrue(runner.execute());
+                assertSame(runMethodState, continuation.getSaved(0));
+                assertSame(runData, continuation.getSaved(0).getData());
+                for (int j = 0; j < runData.length; j++) {
+                    assertSame(runStorageArrays[j], runData[j]);
+                }
+            }
+            assertFalse(runner.execute());
+        }
+    }
+
+    @Test
+    public void mustRollBackFailedExecutionCycleWhenNotRecyclingMethodStates() throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true);
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings)) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, builder);
+            AtomicBoolean fail = new AtomicBoolean();
+
+            CoroutineRunner runner = new CoroutineRunner(c -> {
+                coroutine.run(c);
+                if (fail.getAndSet(false)) {
+                    throw new IllegalStateException("fake failure after suspending");
+                }
+            });
+            Continuation continuation = (Continuation) readField(runner, "continuation", true);
+
+            // the failed cycle gets rolled back, so the saved execution state should be exactly what it was before that cycle
+            assertTrue(runner.execute());
+            MethodState runMethodState = continuation.getSaved(0);
+            Object[] runDataBefore = copyStorageArrays(runMethodState.getData());
+            fail.set(true);
+            assertThrows(CoroutineException.class, () -> runner.execute());
+            assertSame(runMethodState, continuation.getSaved(0));
+            assertTrue(Arrays.deepEquals(runDataBefore, continuation.getSaved(0).getData()));
+
+            assertEquals("started\n0\n1\n", builder.toString());
+        }
+    }
+
+    @Test
+    public void mustRefuseToContinueFailedExecutionCycleThatRecycledMethodStates() throws Exception {
+        StringBuilder builder = new StringBuilder();
+
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.CONSTANT, false, true, EnumSet.of(RECYCLE_METHOD_STATES));
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(NORMAL_INVOKE_TEST + ".zip", settings)) {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(NORMAL_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, builder);
+            AtomicBoolean fail = new AtomicBoolean();
+
+            CoroutineRunner runner = new CoroutineRunner(c -> {
+                coroutine.run(c);
+                if (fail.getAndSet(false)) {
+                    throw new IllegalStateException("fake failure after suspending");
+                }
+            });
+
+            // run()'s method state gets overwritten in place before the failure, so the state before the failed cycle is gone
+            assertTrue(runner.execute());
+            fail.set(true);
+            assertThrows(CoroutineException.class, () -> runner.execute());
+            assertThrows(IllegalStateException.class, () -> runner.execute());
+            assertThrows(IllegalArgumentException.class, () -> new CoroutineWriter().write(runner));
+
+            assertEquals("started\n0\n1\n", builder.toString());
+        }
+    }
+
     @Test
     public void mustProperlyContinueWhenExceptionOccursButIsCaughtBeforeReachingRunner() throws Exception {
         try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(EXCEPTION_THEN_CONTINUE_INVOKE_TEST + ".zip")) {
@@ -261,18 +397,27 @@ public final class InstrumentationTest {
 
         assertTrue(hit);
         
-        MethodState firstPointer = (MethodState) readField(continuation, "firstPointer", true);
-        MethodState nextLoadPointer = (MethodState) readField(continuation, "nextLoadPointer", true);
-        MethodState nextUnloadPointer = (MethodState) readField(continuation, "nextUnloadPointer", true);
-        MethodState firstCutpointPointer = (MethodState) readField(continuation, "firstCutpointPointer", true);
+        int nextLoadIdx = (Integer) readField(continuation, "nextLoadIdx", true);
+        int nextUnloadIdx = (Integer) readField(continuation, "nextUnloadIdx", true);
+        int cutpointSize = (Integer) readField(continuation, "cutpointSize", true);
         assertEquals(2, continuation.getSize());
         assertNotNull(continuation.getSaved(0));
         assertNotNull(continuation.getSaved(1));
-        assertNotNull(firstPointer);
-        assertNotNull(nextLoadPointer);
-        assertTrue(firstPointer == nextLoadPointer);
-        assertNull(nextUnloadPointer);
-        assertNull(firstCutpointPointer);
+        assertEquals(0, nextLoadIdx);
+        assertEquals(-1, nextUnloadIdx);
+        assertEquals(0, cutpointSize);
+    }
+
+    private static Object[] copyStorageArrays(Object[] data) {
+        Object[] ret = new Object[data.length];
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != null) {
+                int length = Array.getLength(data[i]);
+                ret[i] = Array.newInstance(data[i].getClass().getComponentType(), length);
+                System.arraycopy(data[i], 0, ret[i], 0, length);
+            }
+        }
+        return ret;
     }
 
     private void performCountTest(String testClass, InstrumentationSettings settings) throws Exception {
@@ -387,6 +532,216 @@ public final class InstrumentationTest {
         assertArrayEquals(classInstrumented1stPass, classInstrumented2stPass);
     }
 
+    @Test
+    public void mustReuseCachedInstrumentation() throws Exception {
+        byte[] classContent =
+                readZipFromResource(MONITOR_INVOKE_TEST + ".zip").entrySet().stream()
+                .filter(x -> x.getKey().endsWith(".class"))
+                .map(x -> x.getValue())
+                .findAny().get();
+        Instrumenter instrumenter = new Instrumenter(getClasspath());
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, true, true);
+
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            InstrumentationCache cache = new InstrumentationCache(cacheDir);
+
+            InstrumentationResult missResult = cache.instrument(instrumenter, classContent, settings);
+            assertTrue(missResult.isInstrumented());
+            assertEquals(0L, cache.getHits());
+            assertEquals(1L, cache.getMisses());
+
+            InstrumentationResult hitResult = cache.instrument(instrumenter, classContent, settings);
+            assertTrue(hitResult.isInstrumented());
+            assertArrayEquals(missResult.getInstrumentedClass(), hitResult.getInstrumentedClass());
+            assertEquals(missResult.getExtraFiles().keySet(), hitResult.getExtraFiles().keySet());
+            assertEquals(1L, cache.getHits());
+            assertEquals(1L, cache.getMisses());
+
+            // instrumenting the output again is a no-op, and the cache already knows it
+            byte[] classInstrumented = missResult.getInstrumentedClass();
+            InstrumentationResult reinstrumentResult = cache.instrument(instrumenter, classInstrumented, settings);
+            assertFalse(reinstrumentResult.isInstrumented());
+            assertArrayEquals(classInstrumented, reinstrumentResult.getInstrumentedClass());
+            assertEquals(2L, cache.getHits());
+            assertEquals(1L, cache.getMisses());
+
+            // different settings are a different entry
+            InstrumentationSettings otherSettings = new InstrumentationSettings(MarkerType.NONE, false, true);
+            assertTrue(cache.instrument(instrumenter, classContent, otherSettings).isInstrumented());
+            assertEquals(2L, cache.getHits());
+            assertEquals(2L, cache.getMisses());
+
+            // a new cache object over the same directory picks up the entries that were written out
+            InstrumentationCache reopenedCache = new InstrumentationCache(cacheDir);
+            assertArrayEquals(classInstrumented, reopenedCache.instrument(instrumenter, classContent, settings).getInstrumentedClass());
+            assertEquals(1L, reopenedCache.getHits());
+            assertEquals(0L, reopenedCache.getMisses());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustInvalidateCachedInstrumentationWhenClassHierarchyChanges() throws Exception {
+        // class must need hierarchy lookups to instrument, otherwise there's nothing to invalidate the entry with
+        byte[] classContent =
+                readZipFromResource(MONITOR_INVOKE_TEST + ".zip").entrySet().stream()
+                .filter(x -> x.getKey().endsWith(".class"))
+                .map(x -> x.getValue())
+                .findAny().get();
+        ClassInformationRepository repo = new Instrumenter(getClasspath()).getClassInformationRepository();
+
+        // find a class in the hierarchy that instrumentation looks up
+        List<String> lookups = new ArrayList<>();
+        new Instrumenter(internalClassName -> {
+            lookups.add(internalClassName);
+            return repo.getInformation(internalClassName);
+        }).instrument(classContent, new InstrumentationSettings(MarkerType.NONE, true, true));
+        String changedClassName = lookups.stream()
+                .filter(x -> !x.equals("java/lang/Object")) // everything ends up at Object, giving it an interface makes a cycle
+                .filter(x -> repo.getInformation(x) != null)
+                .findFirst().get();
+
+        // pretend that class now implements an extra interface
+        AtomicBoolean changed = new AtomicBoolean();
+        Instrumenter instrumenter = new Instrumenter(internalClassName -> {
+            ClassInformation info = repo.getInformation(internalClassName);
+            if (!changed.get() || !internalClassName.equals(changedClassName)) {
+                return info;
+            }
+            List<String> interfaces = new ArrayList<>(info.getInterfaces());
+            interfaces.add("java/io/Serializable");
+            return new ClassInformation(internalClassName, info.getSuperClassName(), interfaces, info.isInterface());
+        });
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, true, true);
+
+        File cacheDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            InstrumentationCache cache = new InstrumentationCache(cacheDir);
+
+            cache.instrument(instrumenter, classContent, settings);
+            cache.instrument(instrumenter, classContent, settings);
+            assertEquals(1L, cache.getHits());
+            assertEquals(1L, cache.getMisses());
+
+            changed.set(true);
+            assertTrue(cache.instrument(instrumenter, classContent, settings).isInstrumented());
+            assertEquals(1L, cache.getHits());
+            assertEquals(2L, cache.getMisses());
+
+            cache.instrument(instrumenter, classContent, settings); // re-instrumenting replaced the entry
+            assertEquals(2L, cache.getHits());
+            assertEquals(2L, cache.getMisses());
+        } finally {
+            FileUtils.deleteDirectory(cacheDir);
+        }
+    }
+
+    @Test
+    public void mustInstrumentDirectoryInParallelSameAsSequentially() throws Exception {
+        File srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File sequentialDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File parallelDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File windowedDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            for (Entry<String, byte[]> entry : readZipFromResource(INHERITANCE_INVOKE_TEST + ".zip").entrySet()) {
+                if (entry.getKey().endsWith(".class")) {
+                    FileUtils.writeByteArrayToFile(new File(srcDir, entry.getKey()), entry.getValue());
+                }
+            }
+            List<File> classpath = getClasspath();
+            classpath.add(srcDir);
+
+            Instrumenter instrumenter = new Instrumenter(classpath);
+            InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, true, true);
+
+            List<String> sequentialLog = new ArrayList<>();
+            PluginHelper.instrument(instrumenter, settings, srcDir, sequentialDstDir, sequentialLog::add, 1);
+            List<String> parallelLog = new ArrayList<>();
+            PluginHelper.instrument(instrumenter, settings, srcDir, parallelDstDir, parallelLog::add, 4);
+            List<String> windowedLog = new ArrayList<>(); // 2 threads keep fewer files in flight than there are, so the window slides
+            PluginHelper.instrument(instrumenter, settings, srcDir, windowedDstDir, windowedLog::add, 2);
+
+            // log lines reference the (shared) source files, so they must match exactly -- including order
+            assertEquals(11, sequentialLog.size());
+            assertEquals(sequentialLog, parallelLog);
+            assertEquals(sequentialLog, windowedLog);
+            assertEquals(listRelativePaths(sequentialDstDir), listRelativePaths(parallelDstDir));
+            assertEquals(listRelativePaths(sequentialDstDir), listRelativePaths(windowedDstDir));
+        } finally {
+            FileUtils.deleteDirectory(srcDir);
+            FileUtils.deleteDirectory(sequentialDstDir);
+            FileUtils.deleteDirectory(parallelDstDir);
+            FileUtils.deleteDirectory(windowedDstDir);
+        }
+    }
+
+    @Test
+    public void mustStopWritingAtFirstFailureWhenInstrumentingDirectoryInParallel() throws Exception {
+        File srcDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File sequentialDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        File parallelDstDir = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+        try {
+            for (Entry<String, byte[]> entry : readZipFromResource(INHERITANCE_INVOKE_TEST + ".zip").entrySet()) {
+                if (entry.getKey().endsWith(".class")) {
+                    FileUtils.writeByteArrayToFile(new File(srcDir, entry.getKey()), entry.getValue());
+                }
+            }
+            // can't be instrumented, and its name sorts it between Class4 and Class5
+            byte[] failingClass = readZipFromResource(CONSTRUCTOR_INVOKE_TEST + ".zip").get(CONSTRUCTOR_INVOKE_TEST + ".class");
+            FileUtils.writeByteArrayToFile(new File(srcDir, INHERITANCE_INVOKE_TEST + "$Class4Failing.class"), failingClass);
+            List<File> classpath = getClasspath();
+            classpath.add(srcDir);
+
+            Instrumenter instrumenter = new Instrumenter(classpath);
+            InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, true, true);
+
+            List<String> sequentialLog = new ArrayList<>();
+            assertThrows(IllegalArgumentException.class,
+                    () -> PluginHelper.instrument(instrumenter, settings, srcDir, sequentialDstDir, sequentialLog::add, 1));
+            List<String> parallelLog = new ArrayList<>();
+            assertThrows(IllegalArgumentException.class,
+                    () -> PluginHelper.instrument(instrumenter, settings, srcDir, parallelDstDir, parallelLog::add, 4));
+
+            // nothing past the failing class gets written out, no matter how many threads
+            Set<String> sequentialPaths = listRelativePaths(sequentialDstDir);
+            assertTrue(sequentialPaths.contains(INHERITANCE_INVOKE_TEST + "$Class4.class"));
+            assertFalse(sequentialPaths.contains(INHERITANCE_INVOKE_TEST + "$Class5.class"));
+            assertEquals(sequentialLog, parallelLog);
+            assertEquals(sequentialPaths, listRelativePaths(parallelDstDir));
+        } finally {
+            FileUtils.deleteDirectory(srcDir);
+            FileUtils.deleteDirectory(sequentialDstDir);
+            FileUtils.deleteDirectory(parallelDstDir);
+        }
+    }
+
+    private static Set<String> listRelativePaths(File dir) {
+        Set<String> ret = new TreeSet<>();
+        for (File file : FileUtils.listFiles(dir, null, true)) {
+            ret.add(dir.toPath().relativize(file.toPath()).toString());
+        }
+        return ret;
+    }
+
+    @Test
+    public void mustSkipClassesThatCannotNeedInstrumentationWithoutLookingUpHierarchy() throws Exception {
+        // if the class makes it past the pre-scan, frame computation will hit the repository and fail
+        Instrumenter instrumenter = new Instrumenter(internalClassName -> {
+            throw new IllegalStateException("Class hierarchy looked up for " + internalClassName);
+        });
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, true, true);
+
+        for (Class<?> cls : Arrays.asList(SharedConstants.class, Coroutine.class)) { // no Continuation params / interface
+            byte[] classContent = IOUtils.toByteArray(cls.getResourceAsStream(cls.getSimpleName() + ".class"));
+            InstrumentationResult result = instrumenter.instrument(classContent, settings);
+
+            assertArrayEquals(classContent, result.getInstrumentedClass());
+            assertTrue(result.getExtraFiles().isEmpty());
+        }
+    }
+
     @Test
     public void mustProperlySuspendInTryCatchFinally() throws Exception {
         StringBuilder builder = new StringBuilder();
@@ -1,11 +1,16 @@
 package com.offbynull.coroutines.instrumenter;
 
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.PRUNE_DEAD_LOCALS;
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.RECYCLE_METHOD_STATES;
+import static com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization.SKIP_UNMODIFIED_ARGUMENTS;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.BASIC_TYPE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.DOUBLE_RETURN_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.EMPTY_CONTINUATION_POINT_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.EXCEPTION_THEN_CONTINUE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.INHERITANCE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.INTERFACE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.LONG_RETURN_INVOKE_TEST;
+import static com.offbynull.coroutines.instrumenter.SharedConstants.MONITOR_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.NORMAL_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.NULL_TYPE_IN_LOCAL_VARIABLE_TABLE_INVOKE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.RECURSIVE_INVOKE_TEST;
@@ -13,21 +18,53 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.RETURN_INVOK
 import static com.offbynull.coroutines.instrumenter.SharedConstants.STATIC_INVOKE_TEST;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import static com.offbynull.coroutines.instrumenter.testhelpers.TestUtils.loadClassesInZipResourceAndInstrument;
+import com.offbynull.coroutines.user.BinaryCoroutineDeserializer;
+import com.offbynull.coroutines.user.BinaryCoroutineSerializer;
+import com.offbynull.coroutines.user.CompressingCoroutineSerializer;
+import com.offbynull.coroutines.user.CompressionCodec;
+import com.offbynull.coroutines.user.Continuation;
 import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineException;
 import com.offbynull.coroutines.user.CoroutineReader;
 import com.offbynull.coroutines.user.CoroutineRunner;
 import com.offbynull.coroutines.user.CoroutineWriter;
+import com.offbynull.coroutines.user.DecompressingCoroutineDeserializer;
+import com.offbynull.coroutines.user.DeflateCompressionCodec;
+import com.offbynull.coroutines.user.JavaObjectSlotCodec;
+import com.offbynull.coroutines.user.LzCompressionCodec;
+import com.offbynull.coroutines.user.SerializedState;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
+import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.io.IOException;
 import java.net.URLClassLoader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.UnaryOperator;
 import static org.apache.commons.lang3.reflect.ConstructorUtils.invokeConstructor;
 import static org.apache.commons.lang3.reflect.FieldUtils.readField;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import org.junit.jupiter.api.Test;
 
 public final class SerializationTest {
 
+    // Checkpoint header layout (see DeltaCheckpoints) -- magic (4), kind (1), then varints
+    private static final int CHECKPOINT_KIND_OFFSET = 4;
+    private static final byte CHECKPOINT_KIND_DELTA = 1;
+
     @Test
     public void mustProperlySuspendWithVirtualMethods() throws Exception {
         performIntCountTest(NORMAL_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
@@ -83,7 +120,311 @@ public final class SerializationTest {
         performIntCountTest(EMPTY_CONTINUATION_POINT_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true));
     }
 
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnLongsWhenPruningDeadLocals() throws Exception {
+        performIntCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(PRUNE_DEAD_LOCALS)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenSkippingUnmodifiedArguments() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(SKIP_UNMODIFIED_ARGUMENTS)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenRecyclingMethodStates() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true,
+                EnumSet.of(RECYCLE_METHOD_STATES)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingBinarySerializer() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackUsingBinarySerializer() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnLongsUsingBinarySerializer() throws Exception {
+        performIntCountTest(LONG_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingBinarySerializer() throws Exception {
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingDirectByteBuffers() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeReadBuffer(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingDirectByteBuffersAndDefaultSerializer() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeReadBuffer(runner, new CoroutineWriter(), new CoroutineReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendInSynchronizedBlocksUsingBinarySerializer() throws Exception {
+        runWrapped(MONITOR_INVOKE_TEST, classLoader -> {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(MONITOR_INVOKE_TEST);
+            Coroutine coroutine = invokeConstructor(cls, new LinkedList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+            CoroutineRunner originalRunner = new CoroutineRunner(coroutine);
+            assertTrue(originalRunner.execute());
+
+            // the default serializer rejects frames holding monitors
+            assertThrows(IllegalArgumentException.class, () -> new CoroutineWriter().write(originalRunner));
+
+            // monitors come back as the same instances the coroutine's fields point to, so they're exited on the right objects
+            CoroutineRunner runner = writeRead(originalRunner, binaryWriter(), binaryReader());
+            assertMonitors(runner, Arrays.asList("mon1", "mon2", "mon3", "mon1"), new String[] { "mon1" },
+                    new String[] { "mon2", "mon3", "mon1" });
+
+            assertTrue(runner.execute());
+            runner = writeRead(runner, binaryWriter(), binaryReader());
+            assertMonitors(runner, Arrays.asList("mon1", "mon2", "mon3"), new String[] { "mon1" }, new String[] { "mon2", "mon3" });
+
+            assertTrue(runner.execute());
+            runner = writeReadBatch(runner, binaryWriter(), binaryReader());
+            assertMonitors(runner, Arrays.asList("mon1", "mon2"), new String[] { "mon1" }, new String[] { "mon2" });
+
+            assertTrue(runner.execute());
+            runner = writeRead(runner, binaryWriter(), binaryReader());
+            assertMonitors(runner, Arrays.asList("mon1"), new String[] { "mon1" }, new String[] { });
+
+            assertTrue(runner.execute());
+            runner = writeRead(runner, binaryWriter(), binaryReader());
+            assertMonitors(runner, Arrays.asList(), new String[] { });
+
+            assertFalse(runner.execute()); // coroutine finished executing here
+        });
+    }
+
+    private static void assertMonitors(CoroutineRunner runner, List<String> expectedTracker, String[]... expectedMonitorFields)
+            throws IllegalAccessException {
+        Object coroutine = runner.getCoroutine();
+        assertEquals(expectedTracker, readField(coroutine, "state", true));
+
+        Continuation cn = (Continuation) readField(runner, "continuation", true);
+        for (int i = 0; i < expectedMonitorFields.length; i++) {
+            Object[] monitors = cn.getSaved(i).getLockState().toArray();
+            assertEquals(expectedMonitorFields[i].length, monitors.length);
+            for (int j = 0; j < monitors.length; j++) {
+                assertSame(readField(coroutine, expectedMonitorFields[i][j], true), monitors[j]);
+            }
+        }
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingDeltaCheckpoints() throws Exception {
+        List<int[]> deltaSizes = new ArrayList<>();
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                deltaRoundTrip(new CoroutineWriter(), new CoroutineReader(), deltaSizes));
+        assertDeltasSmallerThanFull(deltaSizes);
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingDeltaCheckpointsAndBinarySerializer() throws Exception {
+        List<int[]> deltaSizes = new ArrayList<>();
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                deltaRoundTrip(binaryWriter(), binaryReader(), deltaSizes));
+        assertDeltasSmallerThanFull(deltaSizes);
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingDeltaCheckpoints() throws Exception {
+        List<int[]> deltaSizes = new ArrayList<>();
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                deltaRoundTrip(binaryWriter(), binaryReader(), deltaSizes));
+        assertTrue(deltaSizes.isEmpty()); // every step unwinds the whole stack, so nothing can be kept and full checkpoints get written
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenReadingLazily() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> new CoroutineReader().readLazily(new CoroutineWriter().write(runner)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithBasicTypesInLocalVariableTableAndOperandStackWhenReadingLazily() throws Exception {
+        performIntCountTest(BASIC_TYPE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> binaryReader().readLazily(binaryWriter().write(runner)));
+    }
+
+    @Test
+    public void mustFailWithReconstructionErrorWhenLazilyReadFrameCantBeReconstructedWithinTryCatch() throws Exception {
+        runWrapped(EXCEPTION_THEN_CONTINUE_INVOKE_TEST, classLoader -> {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(EXCEPTION_THEN_CONTINUE_INVOKE_TEST);
+            CoroutineRunner runner = new CoroutineRunner(invokeConstructor(cls));
+            assertTrue(runner.execute()); // suspended in InnerClass1.run(), which gets invoked within a try/catch in run()
+
+            // point the deepest frame at a method that doesn't exist
+            SerializedState state = new CoroutineWriter().deconstruct(runner);
+            SerializedState corruptedState = withFrame(state, state.getFrames().length - 1,
+                    frame -> frame.withMethodId(frame.getMethodId() + 1));
+            RuntimeException expected = assertThrows(RuntimeException.class, () -> new CoroutineReader().reconstruct(corruptedState));
+
+            // run()'s catch block wraps whatever it catches and rethrows it, but the failure that gets reported is still the original
+            CoroutineRunner lazyRunner = new CoroutineReader().reconstructLazily(corruptedState);
+            CoroutineException ce = assertThrows(CoroutineException.class, () -> lazyRunner.execute());
+            assertEquals(expected.getClass(), ce.getCause().getClass());
+            assertEquals(expected.getMessage(), ce.getCause().getMessage());
+        });
+    }
+
+    @Test
+    public void mustNotReconstructDeeperFramesWhenLazilyReadRunnerIsOnlyInspectedOrFailsEarly() throws Exception {
+        runWrapped(EXCEPTION_THEN_CONTINUE_INVOKE_TEST, classLoader -> {
+            Class<Coroutine> cls = (Class<Coroutine>) classLoader.loadClass(EXCEPTION_THEN_CONTINUE_INVOKE_TEST);
+            CoroutineRunner runner = new CoroutineRunner(invokeConstructor(cls));
+            assertTrue(runner.execute()); // suspended in InnerClass1.run(), which gets invoked by run()
+
+            // count how many times the deepest frame gets reconstructed
+            SerializedState state = new CoroutineWriter().deconstruct(runner);
+            Frame deepestFrame = state.getFrames()[state.getFrames().length - 1].getFrames()[0];
+            AtomicInteger deepestFrameReads = new AtomicInteger();
+            CoroutineReader reader = new CoroutineReader(new FrameInterceptPoint[] {
+                new FrameInterceptPoint(deepestFrame.getClassName(), deepestFrame.getMethodId(), deepestFrame.getContinuationPointId(),
+                        (frame, mode) -> {
+                            deepestFrameReads.incrementAndGet();
+                            return frame;
+                        })
+            });
+
+            // only inspected
+            CoroutineRunner inspectedRunner = reader.reconstructLazily(state);
+            assertEquals(cls, inspectedRunner.getCoroutine().getClass());
+            inspectedRunner.getContext();
+            assertEquals(0, deepestFrameReads.get());
+
+            // fails before reaching the deepest frame
+            SerializedState corruptedState = withFrame(state, 0, frame -> frame.withMethodId(frame.getMethodId() + 1));
+            CoroutineRunner failingRunner = reader.reconstructLazily(corruptedState);
+            assertThrows(CoroutineException.class, () -> failingRunner.execute());
+            assertEquals(0, deepestFrameReads.get());
+
+            // reaches the deepest frame
+            assertTrue(reader.reconstructLazily(state).execute());
+            assertEquals(1, deepestFrameReads.get());
+        });
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingBatches() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeReadBatch(runner, new CoroutineWriter(), new CoroutineReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingBatchesAndBinarySerializer() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeReadBatch(runner, binaryWriter(), binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithMethodsThatOperateOnDoublesUsingBatchesAndDeduplication() throws Exception {
+        CoroutineWriter writer = new CoroutineWriter(new BinaryCoroutineSerializer(new JavaObjectSlotCodec(), true),
+                new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+        performDoubleCountTest(DOUBLE_RETURN_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeReadBatch(runner, writer, binaryReader()));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingLzCompression() throws Exception {
+        CompressionCodec codec = new LzCompressionCodec();
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, compressingWriter(codec), decompressingReader(codec)));
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsUsingDeflateCompressionWithTrainedDictionary() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> {
+                    SerializedState[] samples = new SerializedState[] { new CoroutineWriter().deconstruct(runner) };
+                    byte[] dictionary = DeflateCompressionCodec.trainDictionary(new BinaryCoroutineSerializer(), samples, 4096);
+                    CompressionCodec codec = new DeflateCompressionCodec(dictionary, 1);
+                    return writeRead(runner, compressingWriter(codec), decompressingReader(codec));
+                });
+    }
+
+    @Test
+    public void mustProperlySuspendWithRecursiveMethodsWhenReadingUncompressedDataWithDecompressingReader() throws Exception {
+        performIntCountTest(RECURSIVE_INVOKE_TEST, new InstrumentationSettings(MarkerType.CONSTANT, false, true),
+                runner -> writeRead(runner, binaryWriter(), decompressingReader(new LzCompressionCodec())));
+    }
+
+    @Test
+    public void mustRejectImplausibleDecompressedLengths() throws Exception {
+        byte[] data = new LzCompressionCodec().compress(new byte[100]);
+        assertThrows(IOException.class, () -> new LzCompressionCodec().decompress(data, Integer.MAX_VALUE));
+        assertThrows(IOException.class, () -> new LzCompressionCodec().decompress(data, -1));
+
+        byte[] deflatedData = new DeflateCompressionCodec().compress(new byte[100]);
+        assertThrows(IOException.class, () -> new DeflateCompressionCodec().decompress(deflatedData, Integer.MAX_VALUE));
+        assertThrows(IOException.class, () -> new DeflateCompressionCodec().decompress(deflatedData, -1));
+    }
+
+    // Every step writes a delta against the last step and reads back the whole chain. For every delta actually written (writeDelta() falls
+    // back to a full checkpoint for the first step and for steps that kept nothing), the size of the delta and the size of a full
+    // checkpoint of the same step are recorded in to deltaSizes.
+    private static UnaryOperator<CoroutineRunner> deltaRoundTrip(CoroutineWriter writer, CoroutineReader reader, List<int[]> deltaSizes) {
+        List<byte[]> chain = new ArrayList<>();
+        return runner -> {
+            byte[] data = writer.writeDelta(runner, chain.size());
+            // same ID as the delta, so the runner is left marked the same way writeDelta() left it
+            byte[] fullData = writer.writeCheckpoint(runner, chain.size());
+            if (data[CHECKPOINT_KIND_OFFSET] == CHECKPOINT_KIND_DELTA) {
+                deltaSizes.add(new int[] { data.length, fullData.length });
+            }
+            chain.add(data);
+            return reader.readCheckpoints(chain.toArray(new byte[0][]));
+        };
+    }
+
+    private static void assertDeltasSmallerThanFull(List<int[]> deltaSizes) {
+        assertFalse(deltaSizes.isEmpty(), "No deltas written");
+        for (int[] sizes : deltaSizes) {
+            int deltaSize = sizes[0];
+            int fullSize = sizes[1];
+            assertTrue(deltaSize < fullSize, "Delta (" + deltaSize + " bytes) not smaller than full checkpoint (" + fullSize + " bytes)");
+        }
+    }
+
+    private static CoroutineWriter binaryWriter() {
+        return new CoroutineWriter(new BinaryCoroutineSerializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+    }
+
+    private static CoroutineReader binaryReader() {
+        return new CoroutineReader(new BinaryCoroutineDeserializer(), new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+    }
+
+    private static CoroutineWriter compressingWriter(CompressionCodec codec) {
+        return new CoroutineWriter(new CompressingCoroutineSerializer(new BinaryCoroutineSerializer(), codec), new FrameUpdatePoint[0],
+                new FrameInterceptPoint[0]);
+    }
+
+    private static CoroutineReader decompressingReader(CompressionCodec codec) {
+        DecompressingCoroutineDeserializer deserializer = new DecompressingCoroutineDeserializer(new BinaryCoroutineDeserializer(),
+                new CompressionCodec[] { codec });
+        return new CoroutineReader(deserializer, new FrameUpdatePoint[0], new FrameInterceptPoint[0]);
+    }
+
     private void performIntCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+        performIntCountTest(testClass, settings, runner -> writeRead(runner, new CoroutineWriter(), new CoroutineReader()));
+    }
+
+    private void performIntCountTest(String testClass, InstrumentationSettings settings, UnaryOperator<CoroutineRunner> roundTrip)
+            throws Exception {
         // This test is being wrapped in a new thread where the thread's context classlaoder is being set to the classloader of the zip
         // we're dynamically loading. We need to do this being ObjectInputStream uses the system classloader by default, not the thread's
         // classloader. CoroutineReader has been modified to use the thread's classloader if the system's classloader fails.
@@ -97,20 +438,20 @@ public final class SerializationTest {
                     // Create and run original for a few cycles
                     CoroutineRunner runner = new CoroutineRunner(coroutine);
 
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertFalse((runner = writeReadExecute(runner)).execute()); // coroutine finished executing here
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertFalse((runner = roundTrip.apply(runner)).execute()); // coroutine finished executing here
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
 
                     // Assert everything continued fine with deserialized version
                     Object deserializedCoroutine = readField(runner, "coroutine", true);
@@ -152,13 +493,84 @@ public final class SerializationTest {
         }
     }
 
-    private CoroutineRunner writeReadExecute(CoroutineRunner runner) {
-        byte[] data = new CoroutineWriter().write(runner);
-        CoroutineRunner reconstructedRunner = new CoroutineReader().read(data);
+    private void runWrapped(String testClass, WrappedTest test) throws Exception {
+        // Same as performIntCountTest(), frames are resolved through the thread's context classloader
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+        try (URLClassLoader classLoader = loadClassesInZipResourceAndInstrument(testClass + ".zip", settings)) {
+            ArrayBlockingQueue<Throwable> threadResult = new ArrayBlockingQueue<>(1);
+            Thread thread = new Thread(() -> {
+                try {
+                    test.run(classLoader);
+                } catch (Throwable t) {
+                    threadResult.add(t);
+                }
+            });
+            thread.setContextClassLoader(classLoader);
+            thread.start();
+            thread.join();
+
+            Throwable t = (Throwable) threadResult.peek();
+            if (t != null) {
+                if (t instanceof Exception) {
+                    throw (Exception) t;
+                } else if (t instanceof Error) {
+                    throw (Error) t;
+                } else {
+                    throw new RuntimeException();
+                }
+            }
+        }
+    }
+
+    private interface WrappedTest {
+        void run(ClassLoader classLoader) throws Throwable;
+    }
+
+    private static SerializedState withFrame(SerializedState state, int idx, UnaryOperator<Frame> modifier) {
+        VersionedFrame[] frames = state.getFrames();
+        frames[idx] = new VersionedFrame(modifier.apply(frames[idx].getFrames()[0]));
+        return new SerializedState(state.getCoroutine(), state.getContext(), frames);
+    }
+
+    private static CoroutineRunner writeRead(CoroutineRunner runner, CoroutineWriter writer, CoroutineReader reader) {
+        byte[] data = writer.write(runner);
+        CoroutineRunner reconstructedRunner = reader.read(data);
+        return reconstructedRunner;
+    }
+
+    private static CoroutineRunner writeReadBuffer(CoroutineRunner runner, CoroutineWriter writer, CoroutineReader reader) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(65536);
+        int size = writer.write(runner, buffer);
+        assertEquals(size, buffer.position());
+        buffer.flip();
+        CoroutineRunner reconstructedRunner = reader.read(buffer);
+        assertFalse(buffer.hasRemaining());
         return reconstructedRunner;
     }
 
+    // Batches up copies of the runner (enough to get split up across the executor), checks that the output doesn't depend on whether an
+    // executor was used, and hands back the last runner read in
+    private static CoroutineRunner writeReadBatch(CoroutineRunner runner, CoroutineWriter writer, CoroutineReader reader) {
+        CoroutineRunner[] runners = new CoroutineRunner[200];
+        runners[0] = runner;
+        for (int i = 1; i < runners.length; i++) {
+            runners[i] = reader.read(writer.write(runner));
+        }
+
+        byte[] data = writer.writeBatch(runners, ForkJoinPool.commonPool());
+        assertArrayEquals(writer.writeBatch(runners), data);
+
+        CoroutineRunner[] readRunners = reader.readBatch(data, ForkJoinPool.commonPool());
+        assertEquals(runners.length, readRunners.length);
+        return readRunners[readRunners.length - 1];
+    }
+
     private void performDoubleCountTest(String testClass, InstrumentationSettings settings) throws Exception {
+        performDoubleCountTest(testClass, settings, runner -> writeRead(runner, new CoroutineWriter(), new CoroutineReader()));
+    }
+
+    private void performDoubleCountTest(String testClass, InstrumentationSettings settings, UnaryOperator<CoroutineRunner> roundTrip)
+            throws Exception {
         // This test is being wrapped in a new thread where the thread's context classlaoder is being set to the classloader of the zip
         // we're dynamically loading. We need to do this being ObjectInputStream uses the system classloader by default, not the thread's
         // classloader. CoroutineReader has been modified to use the thread's classloader if the system's classloader fails.
@@ -173,20 +585,20 @@ public final class SerializationTest {
                     CoroutineRunner runner = new CoroutineRunner(coroutine);
 
 
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertFalse((runner = writeReadExecute(runner)).execute()); // coroutine finished executing here
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
-                    assertTrue((runner = writeReadExecute(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertFalse((runner = roundTrip.apply(runner)).execute()); // coroutine finished executing here
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
+                    assertTrue((runner = roundTrip.apply(runner)).execute());
 
                     // Assert everything continued fine with deserialized version
                     Object deserializedCoroutine = readField(runner, "coroutine", true);
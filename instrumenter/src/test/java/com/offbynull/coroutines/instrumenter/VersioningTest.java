@@ -6,6 +6,7 @@ import com.offbynull.coroutines.user.Coroutine;
 import com.offbynull.coroutines.user.CoroutineReader;
 import com.offbynull.coroutines.user.CoroutineRunner;
 import com.offbynull.coroutines.user.CoroutineWriter;
+import com.offbynull.coroutines.user.MethodState;
 import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
 import java.net.URLClassLoader;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -19,6 +20,8 @@ import static com.offbynull.coroutines.instrumenter.SharedConstants.UPDATE_TEST;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.UPDATE_TEST_MODIFIED;
 import static com.offbynull.coroutines.instrumenter.SharedConstants.UPDATE_TEST_ORIGINAL;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import org.apache.commons.lang3.mutable.MutableObject;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
@@ -29,6 +32,9 @@ import org.junit.jupiter.api.Test;
 
 public final class VersioningTest {
 
+    private static final int ORIGINAL_METHOD_ID = -526669244;
+    private static final int MODIFIED_METHOD_ID = -1238526627;
+
     @Test
     public void mustInterceptOnRead() throws Exception {
         runWrapped(INTERCEPT_TEST, (classLoader) -> {
@@ -242,6 +248,75 @@ public final class VersioningTest {
     
     
     
+    @Test
+    public void mustCacheFrameValidationPerClassLoader() throws Exception {
+        InstrumentationSettings settings = new InstrumentationSettings(DebugGenerators.MarkerType.NONE, false, true);
+        try (URLClassLoader originalClassLoader = loadClassesInZipResourceAndInstrument(UPDATE_TEST_ORIGINAL + ".zip", settings);
+                URLClassLoader modifiedClassLoader = loadClassesInZipResourceAndInstrument(UPDATE_TEST_MODIFIED + ".zip", settings)) {
+            CountingClassLoader original = new CountingClassLoader(originalClassLoader);
+            CountingClassLoader modified = new CountingClassLoader(modifiedClassLoader);
+
+            // First lookup misses and loads the class, the rest are hits
+            assertTrue(MethodState.isValid(original, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            assertTrue(MethodState.isValid(original, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            assertEquals(1, original.getLoadCount(UPDATE_TEST));
+
+            // Invalid frames are still rejected, both before and after they're cached
+            assertFalse(MethodState.isValid(original, UPDATE_TEST, MODIFIED_METHOD_ID, 0));
+            assertFalse(MethodState.isValid(original, UPDATE_TEST, MODIFIED_METHOD_ID, 0));
+            assertFalse(MethodState.isValid(original, UPDATE_TEST, ORIGINAL_METHOD_ID, 1));
+            assertEquals(1, original.getLoadCount(UPDATE_TEST));
+
+            // Same class name in a different classloader is a different class, so what's cached for one classloader doesn't leak in to the
+            // other
+            assertTrue(MethodState.isValid(modified, UPDATE_TEST, MODIFIED_METHOD_ID, 0));
+            assertFalse(MethodState.isValid(modified, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            assertTrue(MethodState.isValid(original, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            assertEquals(1, modified.getLoadCount(UPDATE_TEST));
+            assertEquals(1, original.getLoadCount(UPDATE_TEST));
+
+            // Missing classes aren't cached
+            assertThrows(IllegalStateException.class, () -> MethodState.isValid(original, "FakeClass", ORIGINAL_METHOD_ID, 0));
+            assertThrows(IllegalStateException.class, () -> MethodState.isValid(original, "FakeClass", ORIGINAL_METHOD_ID, 0));
+            assertEquals(2, original.getLoadCount("FakeClass"));
+        }
+    }
+
+    @Test
+    public void mustCacheFrameValidationPerContextClassLoader() throws Exception {
+        // No classloader requested, so the class gets resolved through the thread's context classloader
+        runWrapped(UPDATE_TEST_ORIGINAL, (classLoader) -> {
+            assertTrue(MethodState.isValid(null, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            assertFalse(MethodState.isValid(null, UPDATE_TEST, MODIFIED_METHOD_ID, 0));
+        });
+        runWrapped(UPDATE_TEST_MODIFIED, (classLoader) -> {
+            assertTrue(MethodState.isValid(null, UPDATE_TEST, MODIFIED_METHOD_ID, 0));
+            assertFalse(MethodState.isValid(null, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+        });
+    }
+
+    @Test
+    public void mustValidateFramesWithoutContextClassLoader() throws Exception {
+        ArrayBlockingQueue<Throwable> threadResult = new ArrayBlockingQueue<>(1);
+        Thread thread = new Thread(() -> {
+            try {
+                // Only MethodState's classloader is available, and that can't see the test classes
+                assertFalse(MethodState.isValid(null, VersioningTest.class.getName(), ORIGINAL_METHOD_ID, 0));
+                assertThrows(IllegalStateException.class, () -> MethodState.isValid(null, UPDATE_TEST, ORIGINAL_METHOD_ID, 0));
+            } catch (Throwable t) {
+                threadResult.add(t);
+            }
+        });
+        thread.setContextClassLoader(null);
+        thread.start();
+        thread.join();
+
+        Throwable t = threadResult.peek();
+        if (t != null) {
+            throw new AssertionError(t);
+        }
+    }
+    
     @Test
     public void mustNotAllowMultipleInterceptsOnSameKeyForRead() throws Exception {
         assertThrows(IllegalArgumentException.class, () -> {
@@ -347,4 +422,27 @@ public final class VersioningTest {
     private interface WrappedTest {
         public void run(ClassLoader classLoader) throws Throwable;
     }
+
+    // Counts the classes it's asked for, and delegates loading them to its parent
+    private static final class CountingClassLoader extends ClassLoader {
+        private final Map<String, Integer> loads = new HashMap<>();
+
+        CountingClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            synchronized (loads) {
+                loads.merge(name, 1, Integer::sum);
+            }
+            return super.loadClass(name, resolve);
+        }
+
+        int getLoadCount(String name) {
+            synchronized (loads) {
+                return loads.getOrDefault(name, 0);
+            }
+        }
+    }
 }
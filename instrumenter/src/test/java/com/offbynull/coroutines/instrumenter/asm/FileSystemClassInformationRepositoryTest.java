@@ -2,7 +2,11 @@ package com.offbynull.coroutines.instrumenter.asm;
 
 import com.offbynull.coroutines.instrumenter.testhelpers.TestUtils;
 import java.io.File;
+import java.nio.file.Files;
 import static java.util.Arrays.asList;
+import java.util.Collections;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import org.apache.commons.io.FileUtils;
 import org.junit.jupiter.api.AfterAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
@@ -65,6 +69,44 @@ public final class FileSystemClassInformationRepositoryTest {
         assertTrue(info.isInterface());
     }
 
+    @Test
+    public void mustGetClassInformationFromPersistedIndex() throws Exception {
+        File indexDir = Files.createTempDirectory(FileSystemClassInformationRepositoryTest.class.getSimpleName()).toFile();
+        try {
+            for (int i = 0; i < 2; i++) { // 1st creates the index, 2nd reads it
+                try (FileSystemClassInformationRepository indexedRepo =
+                        FileSystemClassInformationRepository.create(asList(jarFile), indexDir)) {
+                    assertEquals(1, indexDir.list().length);
+                    assertEquals(repo.getInformation("fake/java/lang/Integer"), indexedRepo.getInformation("fake/java/lang/Integer"));
+                    assertNull(indexedRepo.getInformation("2huowhf9w37fy9fhnwfwfwefasef"));
+                }
+            }
+        } finally {
+            FileUtils.deleteDirectory(indexDir);
+        }
+    }
+
+    @Test
+    public void mustGetClassInformationFromDirectory() throws Exception {
+        File classesDir = Files.createTempDirectory(FileSystemClassInformationRepositoryTest.class.getSimpleName()).toFile();
+        try {
+            try (ZipFile zipFile = new ZipFile(jarFile)) {
+                for (ZipEntry entry : Collections.list(zipFile.entries())) {
+                    if (!entry.isDirectory()) {
+                        FileUtils.copyInputStreamToFile(zipFile.getInputStream(entry), new File(classesDir, entry.getName()));
+                    }
+                }
+            }
+
+            try (FileSystemClassInformationRepository dirRepo = FileSystemClassInformationRepository.create(asList(classesDir))) {
+                assertEquals(repo.getInformation("fake/java/lang/Boolean"), dirRepo.getInformation("fake/java/lang/Boolean"));
+                assertNull(dirRepo.getInformation("2huowhf9w37fy9fhnwfwfwefasef"));
+            }
+        } finally {
+            FileUtils.deleteDirectory(classesDir);
+        }
+    }
+
     @Test
     public void mustFailToGetClassInformationForUnknownClass() {
         ClassInformation info = repo.getInformation("2huowhf9w37fy9fhnwfwfwefasef");
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2017, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.instrumenter.asm;
+
+import static com.offbynull.coroutines.instrumenter.asm.LivenessUtils.computeLiveLocals;
+import java.util.BitSet;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.IincInsnNode;
+import org.objectweb.asm.tree.InsnNode;
+import org.objectweb.asm.tree.JumpInsnNode;
+import org.objectweb.asm.tree.LabelNode;
+import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.tree.TryCatchBlockNode;
+import org.objectweb.asm.tree.VarInsnNode;
+
+public final class LivenessUtilsTest {
+
+    @Test
+    public void mustOnlyKeepLocalsThatAreReadLater() {
+        // static int test(int a, int b) { int c = a; /* probe */ return c; }
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(II)I", null, null);
+        InsnNode probeInsnNode = new InsnNode(Opcodes.NOP);
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 2));
+        methodNode.instructions.add(probeInsnNode);
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 2));
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));
+
+        BitSet[] liveLocals = computeLiveLocals(methodNode);
+
+        assertEquals(bits(0), liveLocals[0]);
+        assertEquals(bits(), liveLocals[1]);
+        assertEquals(bits(2), liveLocals[methodNode.instructions.indexOf(probeInsnNode)]);
+        assertEquals(bits(2), liveLocals[3]);
+        assertEquals(bits(), liveLocals[4]);
+    }
+
+    @Test
+    public void mustKeepLocalsReadInLoopsLive() {
+        // static void test(int a, int b) { while (true) { /* probe */ a++; if (a == 0) { return; } } }
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(II)V", null, null);
+        LabelNode loopLabelNode = new LabelNode();
+        LabelNode exitLabelNode = new LabelNode();
+        InsnNode probeInsnNode = new InsnNode(Opcodes.NOP);
+        methodNode.instructions.add(loopLabelNode);
+        methodNode.instructions.add(probeInsnNode);
+        methodNode.instructions.add(new IincInsnNode(0, 1));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        methodNode.instructions.add(new JumpInsnNode(Opcodes.IFEQ, exitLabelNode));
+        methodNode.instructions.add(new JumpInsnNode(Opcodes.GOTO, loopLabelNode));
+        methodNode.instructions.add(exitLabelNode);
+        methodNode.instructions.add(new InsnNode(Opcodes.RETURN));
+
+        BitSet[] liveLocals = computeLiveLocals(methodNode);
+
+        assertEquals(bits(0), liveLocals[methodNode.instructions.indexOf(probeInsnNode)]);
+    }
+
+    @Test
+    public void mustKeepLocalsReadInExceptionHandlersLive() {
+        // static int test(int a, int b) { try { /* probe */ a = 0; b = 0; return b; } catch (Throwable t) { return a; } }
+        MethodNode methodNode = new MethodNode(Opcodes.ACC_STATIC, "test", "(II)I", null, null);
+        LabelNode tryStartLabelNode = new LabelNode();
+        LabelNode tryEndLabelNode = new LabelNode();
+        LabelNode handlerLabelNode = new LabelNode();
+        InsnNode probeInsnNode = new InsnNode(Opcodes.NOP);
+        methodNode.instructions.add(tryStartLabelNode);
+        methodNode.instructions.add(probeInsnNode);
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 0));
+        methodNode.instructions.add(new InsnNode(Opcodes.ICONST_0));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ISTORE, 1));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 1));
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));
+        methodNode.instructions.add(tryEndLabelNode);
+        methodNode.instructions.add(handlerLabelNode);
+        methodNode.instructions.add(new InsnNode(Opcodes.POP));
+        methodNode.instructions.add(new VarInsnNode(Opcodes.ILOAD, 0));
+        methodNode.instructions.add(new InsnNode(Opcodes.IRETURN));
+        methodNode.tryCatchBlocks.add(new TryCatchBlockNode(tryStartLabelNode, tryEndLabelNode, handlerLabelNode, null));
+
+        BitSet[] liveLocals = computeLiveLocals(methodNode);
+
+        // a is read by the handler, so it must stay live for the entire try block -- b is overwritten before it's ever read
+        assertEquals(bits(0), liveLocals[methodNode.instructions.indexOf(probeInsnNode)]);
+    }
+
+    private static BitSet bits(int... indexes) {
+        BitSet ret = new BitSet();
+        for (int index : indexes) {
+            ret.set(index);
+        }
+        return ret;
+    }
+}
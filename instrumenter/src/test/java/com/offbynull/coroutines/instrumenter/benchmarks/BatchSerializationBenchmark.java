@@ -0,0 +1,100 @@
+package com.offbynull.coroutines.instrumenter.benchmarks;
+
+import com.offbynull.coroutines.user.BinaryCoroutineSerializer;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.SerializedState;
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class BatchSerializationBenchmark {
+
+    private static final int STATES = 20000;
+    private static final int FRAMES_PER_STATE = 16;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        SerializedState[] states = createStates();
+        BinaryCoroutineSerializer serializer = new BinaryCoroutineSerializer();
+        ForkJoinPool pool = new ForkJoinPool();
+
+        List<Long> diffTimes1 = new ArrayList<>();
+        List<Long> diffTimes2 = new ArrayList<>();
+        List<Long> diffTimes3 = new ArrayList<>();
+        for (int i = 0; i < ROUNDS; i++) {
+            long startTime = System.currentTimeMillis();
+            for (int j = 0; j < states.length; j++) {
+                shouldHaveSomeFakeLogicToConsumeValue(serializer.serialize(states[j]));
+            }
+            long endTime = System.currentTimeMillis();
+            diffTimes1.add(endTime - startTime);
+
+            startTime = System.currentTimeMillis();
+            shouldHaveSomeFakeLogicToConsumeValue(serializer.serializeBatch(states, null));
+            endTime = System.currentTimeMillis();
+            diffTimes2.add(endTime - startTime);
+
+            startTime = System.currentTimeMillis();
+            shouldHaveSomeFakeLogicToConsumeValue(serializer.serializeBatch(states, pool));
+            endTime = System.currentTimeMillis();
+            diffTimes3.add(endTime - startTime);
+        }
+        pool.shutdown();
+
+        System.out.println("Individually:" + diffTimes1);
+        System.out.println("Batch:" + diffTimes2);
+        System.out.println("Batch on pool:" + diffTimes3);
+    }
+
+    // Deep stacks of mostly primitive frames that share a handful of objects -- the frames are what batching spreads across the pool,
+    // the shared objects are what it writes out only once
+    private static SerializedState[] createStates() {
+        String[] shared = new String[8];
+        for (int i = 0; i < shared.length; i++) {
+            shared[i] = "shared" + i;
+        }
+
+        SerializedState[] states = new SerializedState[STATES];
+        for (int i = 0; i < states.length; i++) {
+            VersionedFrame[] frames = new VersionedFrame[FRAMES_PER_STATE];
+            for (int j = 0; j < frames.length; j++) {
+                int[] ints = new int[16];
+                long[] longs = new long[8];
+                double[] doubles = new double[8];
+                for (int k = 0; k < ints.length; k++) {
+                    ints[k] = i * k + j;
+                }
+                for (int k = 0; k < longs.length; k++) {
+                    longs[k] = (long) i * Integer.MAX_VALUE + k;
+                    doubles[k] = i / (k + 1.0);
+                }
+                Data variables = new Data(ints, new float[0], longs, doubles, new Object[] { shared[j % shared.length], null },
+                        new int[] { 1 });
+                Data operands = new Data(new int[] { i, j }, new float[0], new long[0], new double[0], new Object[0], new int[0]);
+                Frame frame = new Frame("com.example.Frame" + j, j, j % 4, new Object[0], variables, operands);
+                frames[j] = new VersionedFrame(new Frame[] { frame });
+            }
+            states[i] = new SerializedState(new BenchmarkCoroutine(), shared[i % shared.length], frames);
+        }
+        return states;
+    }
+
+    private static final class BenchmarkCoroutine implements Coroutine, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void run(Continuation c) throws Exception {
+        }
+    }
+
+    private static void shouldHaveSomeFakeLogicToConsumeValue(byte[] val) {
+        if (val.length == 0) { // should never go in to, should always be false
+            System.out.println(val);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.offbynull.coroutines.instrumenter.testhelpers;
+
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
+import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import org.apache.commons.lang3.ClassUtils;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Class loader that instruments a specific set of classes (pulled from the parent class loader) and delegates everything else to the
+ * parent class loader. Shared with the test suites of other modules through this module's test JAR.
+ * <p>
+ * The classes to instrument either come from the test classpath or from a ZIP resource. Classes in a ZIP can't be found through the
+ * parent class loader. That matters for anything that gets serialized: {@link com.offbynull.coroutines.user.CoroutineWriter} looks up the
+ * class of each frame through the user library's class loader before the thread's context class loader, and would otherwise find the
+ * uninstrumented version.
+ * @author Kasra Faghihi
+ */
+public final class InstrumentingClassLoader extends ClassLoader {
+    private final Map<String, byte[]> classes;
+
+    /**
+     * Constructs a {@link InstrumentingClassLoader} object.
+     * @param parent parent class loader
+     * @param classes classes to instrument
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if the class file of any of {@code classes} can't be found through {@code parent}
+     * @throws IOException if an I/O error occurs while reading the class file of any of {@code classes}
+     */
+    public InstrumentingClassLoader(ClassLoader parent, Class<?>... classes) throws IOException {
+        super(parent);
+        Validate.notNull(parent);
+        Validate.noNullElements(classes);
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(parent));
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+
+        this.classes = new HashMap<>();
+        for (Class<?> cls : classes) {
+            String resource = cls.getName().replace('.', '/') + ".class";
+            try (InputStream is = parent.getResourceAsStream(resource)) {
+                Validate.isTrue(is != null, "Resource not found: %s", resource);
+                byte[] data = is.readAllBytes();
+                this.classes.put(cls.getName(), instrumenter.instrument(data, settings).getInstrumentedClass());
+            }
+        }
+    }
+
+    /**
+     * Constructs a {@link InstrumentingClassLoader} object.
+     * @param parent parent class loader
+     * @param zipResource path of ZIP resource containing the classes to instrument
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code zipResource} can't be found
+     * @throws IOException if an I/O error occurs while reading {@code zipResource}
+     */
+    public InstrumentingClassLoader(ClassLoader parent, String zipResource) throws IOException {
+        super(parent);
+        Validate.notNull(parent);
+        Validate.notNull(zipResource);
+
+        Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(parent));
+        InstrumentationSettings settings = new InstrumentationSettings(MarkerType.NONE, false, true);
+
+        this.classes = new HashMap<>();
+        try (InputStream is = parent.getResourceAsStream(zipResource)) {
+            Validate.isTrue(is != null, "Resource not found: %s", zipResource);
+            ZipInputStream zis = new ZipInputStream(is);
+            ZipEntry entry;
+            while ((entry = zis.getNextEntry()) != null) {
+                String name = entry.getName();
+                if (name.endsWith(".class")) {
+                    byte[] data = zis.readAllBytes();
+                    this.classes.put(name.substring(0, name.length() - 6).replace('/', '.'), instrumenter.instrument(data, settings)
+                            .getInstrumentedClass());
+                }
+            }
+        }
+    }
+
+    /**
+     * Load the instrumented version of a class and create a new instance of it.
+     * @param <T> return type
+     * @param cls class to create (must have been passed in to the constructor)
+     * @param args constructor arguments
+     * @return new instance of the instrumented version of {@code cls}
+     * @throws Exception on failure
+     */
+    public <T> T newInstance(Class<?> cls, Object... args) throws Exception {
+        return newInstance(cls.getName(), args);
+    }
+
+    /**
+     * Load the instrumented version of a class and create a new instance of it.
+     * @param <T> return type
+     * @param name name of class to create (must have been passed in to the constructor or be in the ZIP passed in to the constructor)
+     * @param args constructor arguments
+     * @return new instance of the instrumented version of {@code name}
+     * @throws Exception on failure
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T newInstance(String name, Object... args) throws Exception {
+        Validate.isTrue(classes.containsKey(name));
+
+        // Constructors are matched here rather than through ConstructorUtils -- it walks the enclosing classes of cls to check
+        // accessibility, and the enclosing class (loaded by the parent) resolves its nested classes to the uninstrumented versions, which
+        // the JVM rejects as an InnerClasses mismatch.
+        Class<?> cls = loadClass(name);
+        for (Constructor<?> ctor : cls.getConstructors()) {
+            Class<?>[] paramTypes = ctor.getParameterTypes();
+            if (paramTypes.length != args.length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < args.length && matches; i++) {
+                matches = args[i] == null ? !paramTypes[i].isPrimitive() : ClassUtils.isAssignable(args[i].getClass(), paramTypes[i], true);
+            }
+            if (matches) {
+                return (T) ctor.newInstance(args);
+            }
+        }
+        throw new NoSuchMethodException("No matching constructor on " + name);
+    }
+
+    @Override
+    protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+        byte[] data = classes.get(name);
+        if (data == null) {
+            return super.loadClass(name, resolve);
+        }
+
+        // Child-first for instrumented classes -- classes pulled from the test classpath are also visible through the parent, which would
+        // otherwise hand out the uninstrumented version.
+        synchronized (getClassLoadingLock(name)) {
+            Class<?> cls = findLoadedClass(name);
+            if (cls == null) {
+                cls = defineClass(name, data, 0, data.length);
+            }
+            if (resolve) {
+                resolveClass(cls);
+            }
+            return cls;
+        }
+    }
+}
@@ -18,14 +18,24 @@ package com.offbynull.coroutines.javaagent;
 
 import com.offbynull.coroutines.instrumenter.InstrumentationResult;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformation;
+import com.offbynull.coroutines.instrumenter.asm.ClassInformationRepository;
 import com.offbynull.coroutines.instrumenter.asm.ClassResourceClassInformationRepository;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Java Agent that instruments coroutines.
@@ -52,6 +62,9 @@ public final class CoroutinesAgent {
         MarkerType markerType = MarkerType.NONE;
         boolean debugMode = false;
         boolean autoSerializable = true;
+        boolean pruneDeadLocals = false;
+        boolean skipUnmodifiedArguments = false;
+        boolean recycleMethodStates = false;
         if (agentArgs != null && !agentArgs.isEmpty()) {
             String[] splitArgs = agentArgs.split(",");
             for (String splitArg : splitArgs) {
@@ -90,28 +103,64 @@ public final class CoroutinesAgent {
                             throw new IllegalArgumentException("Unable to parse debug mode -- must be true or false");
                         }
                         break;                        
+                    case "pruneDeadLocals":
+                        if (val.equalsIgnoreCase("true")) {
+                            pruneDeadLocals = true;
+                        } else if (val.equalsIgnoreCase("false")) {
+                            pruneDeadLocals = false;
+                        } else {
+                            throw new IllegalArgumentException("Unable to parse prune dead locals -- must be true or false");
+                        }
+                        break;
+                    case "skipUnmodifiedArguments":
+                        if (val.equalsIgnoreCase("true")) {
+                            skipUnmodifiedArguments = true;
+                        } else if (val.equalsIgnoreCase("false")) {
+                            skipUnmodifiedArguments = false;
+                        } else {
+                            throw new IllegalArgumentException("Unable to parse skip unmodified arguments -- must be true or false");
+                        }
+                        break;
+                    case "recycleMethodStates":
+                        if (val.equalsIgnoreCase("true")) {
+                            recycleMethodStates = true;
+                        } else if (val.equalsIgnoreCase("false")) {
+                            recycleMethodStates = false;
+                        } else {
+                            throw new IllegalArgumentException("Unable to parse recycle method states -- must be true or false");
+                        }
+                        break;
                     default:
                         throw new IllegalArgumentException("Unrecognized arg passed to Coroutines Java agent: " + keyVal);
                 }
             }
         }
         
-        inst.addTransformer(new CoroutinesClassFileTransformer(markerType, debugMode, autoSerializable));
+        Set<Optimization> optimizations = EnumSet.noneOf(Optimization.class);
+        if (pruneDeadLocals) {
+            optimizations.add(Optimization.PRUNE_DEAD_LOCALS);
+        }
+        if (skipUnmodifiedArguments) {
+            optimizations.add(Optimization.SKIP_UNMODIFIED_ARGUMENTS);
+        }
+        if (recycleMethodStates) {
+            optimizations.add(Optimization.RECYCLE_METHOD_STATES);
+        }
+        InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable, optimizations);
+        inst.addTransformer(new CoroutinesClassFileTransformer(settings));
     }
     
     private static final class CoroutinesClassFileTransformer implements ClassFileTransformer {
-        private final MarkerType markerType;
-        private final boolean debugMode;
-        private final boolean autoSerializable;
+        private final InstrumentationSettings settings;
+        private final Map<ClassLoader, Instrumenter> instrumenters; // weak keys, so classloaders can still get garbage collected
 
-        CoroutinesClassFileTransformer(MarkerType markerType, boolean debugMode, boolean autoSerializable) {
-            if (markerType == null) {
+        CoroutinesClassFileTransformer(InstrumentationSettings settings) {
+            if (settings == null) {
                 throw new NullPointerException();
             }
 
-            this.markerType = markerType;
-            this.debugMode = debugMode;
-            this.autoSerializable = autoSerializable;
+            this.settings = settings;
+            this.instrumenters = Collections.synchronizedMap(new WeakHashMap<>());
         }
 
         @Override
@@ -136,15 +185,58 @@ public final class CoroutinesAgent {
 //            System.out.println(className + " " + (loader == null));
             
             try {
-                InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
-                Instrumenter instrumenter = new Instrumenter(new ClassResourceClassInformationRepository(loader));
+                Instrumenter instrumenter = getInstrumenter(loader);
                 InstrumentationResult result = instrumenter.instrument(classfileBuffer, settings);
-                return result.getInstrumentedClass();
+                return result.isInstrumented() ? result.getInstrumentedClass() : null; // null tells the JVM that nothing changed
             } catch (Throwable e) {
                 System.err.println("FAILED TO INSTRUMENT: " + e);
                 return null;
             }
         }
-        
+
+        private Instrumenter getInstrumenter(ClassLoader loader) {
+            // Classloaders may load classes in parallel, so multiple threads may be in here at the same time.
+            synchronized (instrumenters) {
+                Instrumenter instrumenter = instrumenters.get(loader);
+                if (instrumenter == null) {
+                    instrumenter = new Instrumenter(new CachingClassInformationRepository(loader));
+                    instrumenters.put(loader, instrumenter);
+                }
+                return instrumenter;
+            }
+        }
+    }
+
+    // Memoizes lookups (including misses) for a classloader. Only holds a weak reference to the classloader, otherwise the instrumenters
+    // map would keep it from ever getting garbage collected.
+    private static final class CachingClassInformationRepository implements ClassInformationRepository {
+        private static final ClassInformation NOT_FOUND = new ClassInformation("", null, Collections.emptyList(), false);
+
+        private final WeakReference<ClassLoader> loaderRef;
+        private final Map<String, ClassInformation> cache;
+
+        CachingClassInformationRepository(ClassLoader loader) {
+            this.loaderRef = new WeakReference<>(loader);
+            this.cache = new ConcurrentHashMap<>();
+        }
+
+        @Override
+        public ClassInformation getInformation(String internalClassName) {
+            ClassInformation info = cache.get(internalClassName);
+            if (info != null) {
+                return info == NOT_FOUND ? null : info;
+            }
+
+            ClassLoader loader = loaderRef.get();
+            if (loader == null) {
+                return null;
+            }
+
+            // Not using computeIfAbsent() because reading the class resource may end up transforming other classes, which may then recurse
+            // back in to this map.
+            info = new ClassResourceClassInformationRepository(loader).getInformation(internalClassName);
+            cache.putIfAbsent(internalClassName, info == null ? NOT_FOUND : info);
+            return info;
+        }
     }
 }
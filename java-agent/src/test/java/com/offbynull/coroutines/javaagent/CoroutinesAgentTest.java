@@ -1,16 +1,23 @@
 package com.offbynull.coroutines.javaagent;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.Instrumentation;
+import java.lang.ref.WeakReference;
 import java.net.URL;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.Validate;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import org.junit.jupiter.api.Test;
@@ -66,6 +73,129 @@ public class CoroutinesAgentTest {
         assertTrue(outputContent.length > inputContent.length);
     }
 
+    @Test
+    public void mustInstrumentClassesRepeatedlyWithSameClassLoader() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = null;
+        
+        CoroutinesAgent.premain(agentArgs, inst);
+        
+        ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+        verify(inst).addTransformer(captor.capture());
+        
+        Map<String, byte[]> classes = readZipFromResource("UninitializedVariableInvokeTest.zip");
+        byte[] inputContent = classes.get("UninitializedVariableInvokeTest.class");
+        byte[] nonCoroutineContent = IOUtils.toByteArray(getClass().getResourceAsStream(getClass().getSimpleName() + ".class"));
+        CountingClassLoader classLoader = new CountingClassLoader(getClass().getClassLoader(), classes);
+        
+        ClassFileTransformer tranformer = captor.getValue();
+        byte[] firstOutputContent = tranformer.transform(
+                classLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent);
+        Map<String, Integer> firstLookups = classLoader.getLookups();
+        byte[] secondOutputContent = tranformer.transform(
+                classLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent);
+        byte[] nonCoroutineOutputContent = tranformer.transform(
+                classLoader,
+                getClass().getName().replace('.', '/'),
+                null,
+                null,
+                nonCoroutineContent);
+        
+        // instrumenter output isn't byte-for-byte reproducible, so check that the class information for the classloader got reused
+        // (nothing gets read from the classloader a second time) rather than comparing outputs
+        assertNotNull(firstOutputContent);
+        assertNotNull(secondOutputContent);
+        assertEquals(Integer.valueOf(1), firstLookups.get("UninitializedVariableInvokeTest$Context.class"));
+        assertEquals(firstLookups, classLoader.getLookups());
+        assertNull(nonCoroutineOutputContent); // not a coroutine, so left untouched
+    }
+
+    @Test
+    public void mustNotLookUpMissingClassesRepeatedlyWithSameClassLoader() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = null;
+        
+        CoroutinesAgent.premain(agentArgs, inst);
+        
+        ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+        verify(inst).addTransformer(captor.capture());
+        
+        // the classloader doesn't have the class's dependencies, so instrumentation fails both times
+        Map<String, byte[]> classes = readZipFromResource("UninitializedVariableInvokeTest.zip");
+        byte[] inputContent = classes.get("UninitializedVariableInvokeTest.class");
+        CountingClassLoader classLoader = new CountingClassLoader(getClass().getClassLoader(), Collections.emptyMap());
+        
+        ClassFileTransformer tranformer = captor.getValue();
+        byte[] firstOutputContent = tranformer.transform(
+                classLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent);
+        byte[] secondOutputContent = tranformer.transform(
+                classLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent);
+        
+        assertNull(firstOutputContent);
+        assertNull(secondOutputContent);
+        assertEquals(Integer.valueOf(1), classLoader.getLookups().get("UninitializedVariableInvokeTest$Context.class"));
+    }
+
+    @Test
+    public void mustNotKeepClassLoadersFromBeingGarbageCollected() throws Exception {
+        Instrumentation inst = mock(Instrumentation.class);
+        String agentArgs = null;
+        
+        CoroutinesAgent.premain(agentArgs, inst);
+        
+        ArgumentCaptor<ClassFileTransformer> captor = ArgumentCaptor.forClass(ClassFileTransformer.class);
+        verify(inst).addTransformer(captor.capture());
+        
+        Map<String, byte[]> classes = readZipFromResource("UninitializedVariableInvokeTest.zip");
+        byte[] inputContent = classes.get("UninitializedVariableInvokeTest.class");
+        CountingClassLoader classLoader = new CountingClassLoader(getClass().getClassLoader(), classes);
+        WeakReference<ClassLoader> classLoaderRef = new WeakReference<>(classLoader);
+        
+        ClassFileTransformer tranformer = captor.getValue();
+        byte[] outputContent = tranformer.transform(
+                classLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent);
+        assertNotNull(outputContent);
+        assertEquals(Integer.valueOf(1), classLoader.getLookups().get("UninitializedVariableInvokeTest$Context.class"));
+        
+        // the transformer is still reachable, so if it held on to the classloader (or anything that references it) this would never clear
+        classLoader = null;
+        for (int i = 0; i < 100 && classLoaderRef.get() != null; i++) {
+            System.gc();
+            Thread.sleep(10L);
+        }
+        assertNull(classLoaderRef.get());
+        
+        // the transformer must still work for new classloaders
+        CountingClassLoader otherClassLoader = new CountingClassLoader(getClass().getClassLoader(), classes);
+        assertNotNull(tranformer.transform(
+                otherClassLoader,
+                "UninitializedVariableInvokeTest",
+                null,
+                null,
+                inputContent));
+        assertEquals(Integer.valueOf(1), otherClassLoader.getLookups().get("UninitializedVariableInvokeTest$Context.class"));
+    }
+
     @Test
     public void mustFailIfDebugTypeIncorrect() throws Exception {
         Instrumentation inst = mock(Instrumentation.class);
@@ -123,4 +253,31 @@ public class CoroutinesAgentTest {
         
         return ret;
     }
+
+    // Serves the classes passed in as resources (everything else comes from the parent) and counts how many times each resource is read
+    private static final class CountingClassLoader extends ClassLoader {
+        private final Map<String, byte[]> resources;
+        private final Map<String, Integer> lookups;
+
+        CountingClassLoader(ClassLoader parent, Map<String, byte[]> resources) {
+            super(parent);
+            this.resources = new HashMap<>(resources);
+            this.lookups = new HashMap<>();
+        }
+
+        @Override
+        public InputStream getResourceAsStream(String name) {
+            synchronized (lookups) {
+                lookups.merge(name, 1, Integer::sum);
+            }
+            byte[] data = resources.get(name);
+            return data != null ? new ByteArrayInputStream(data) : super.getResourceAsStream(name);
+        }
+
+        Map<String, Integer> getLookups() {
+            synchronized (lookups) {
+                return new HashMap<>(lookups);
+            }
+        }
+    }
 }
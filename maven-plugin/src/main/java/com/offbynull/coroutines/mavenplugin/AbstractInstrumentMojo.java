@@ -16,12 +16,16 @@
  */
 package com.offbynull.coroutines.mavenplugin;
 
+import com.offbynull.coroutines.instrumenter.InstrumentationCache;
 import com.offbynull.coroutines.instrumenter.InstrumentationSettings;
+import com.offbynull.coroutines.instrumenter.InstrumentationSettings.Optimization;
 import com.offbynull.coroutines.instrumenter.Instrumenter;
 import com.offbynull.coroutines.instrumenter.PluginHelper;
 import com.offbynull.coroutines.instrumenter.generators.DebugGenerators.MarkerType;
 import java.io.File;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
@@ -46,6 +50,21 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
     
     @Parameter(property = "coroutines.autoSerializable", defaultValue = "true")
     private boolean autoSerializable;
+    
+    @Parameter(property = "coroutines.pruneDeadLocals", defaultValue = "false")
+    private boolean pruneDeadLocals;
+    
+    @Parameter(property = "coroutines.skipUnmodifiedArguments", defaultValue = "false")
+    private boolean skipUnmodifiedArguments;
+    
+    @Parameter(property = "coroutines.recycleMethodStates", defaultValue = "false")
+    private boolean recycleMethodStates;
+    
+    @Parameter(property = "coroutines.threads", defaultValue = "1")
+    private int threads;
+    
+    @Parameter(property = "coroutines.cacheDirectory")
+    private File cacheDirectory;
 
     /**
      * Instruments all classes in a path recursively.
@@ -56,11 +75,22 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
      */
     protected final void instrumentPath(Log log, List<String> classpath, File path)
             throws MojoExecutionException {
-        try {
-            Instrumenter instrumenter = getInstrumenter(log, classpath);
-            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable);
+        try (Instrumenter instrumenter = getInstrumenter(log, classpath)) {
+            Set<Optimization> optimizations = EnumSet.noneOf(Optimization.class);
+            if (pruneDeadLocals) {
+                optimizations.add(Optimization.PRUNE_DEAD_LOCALS);
+            }
+            if (skipUnmodifiedArguments) {
+                optimizations.add(Optimization.SKIP_UNMODIFIED_ARGUMENTS);
+            }
+            if (recycleMethodStates) {
+                optimizations.add(Optimization.RECYCLE_METHOD_STATES);
+            }
+            InstrumentationSettings settings = new InstrumentationSettings(markerType, debugMode, autoSerializable, optimizations);
+
+            InstrumentationCache cache = cacheDirectory == null ? null : new InstrumentationCache(cacheDirectory);
 
-            PluginHelper.instrument(instrumenter, settings, path, path, log::info);
+            PluginHelper.instrument(instrumenter, settings, path, path, log::info, threads, cache);
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to get compile classpath elements", ex);
         }
@@ -70,7 +100,7 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
      * Creates an {@link Instrumenter} instance.
      * @param log maven logger
      * @param classpath classpath for classes being instrumented
-     * @return a new {@link Instrumenter}
+     * @return a new {@link Instrumenter} (must be closed once done)
      * @throws MojoExecutionException if any exception occurs
      */
     private Instrumenter getInstrumenter(Log log, List<String> classpath) throws MojoExecutionException {
@@ -88,7 +118,8 @@ public abstract class AbstractInstrumentMojo extends AbstractMojo {
         log.debug("Creating instrumenter...");
 
         try {
-            return new Instrumenter(classpathFiles);
+            File indexDirectory = cacheDirectory == null ? null : new File(cacheDirectory, "classpath-index");
+            return new Instrumenter(classpathFiles, indexDirectory);
         } catch (Exception ex) {
             throw new MojoExecutionException("Unable to create instrumenter", ex);
         }
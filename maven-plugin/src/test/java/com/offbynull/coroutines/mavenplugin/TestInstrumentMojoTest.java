@@ -40,6 +40,7 @@ public final class TestInstrumentMojoTest {
         FieldUtils.writeField(fixture, "project", mavenProject, true);
         FieldUtils.writeField(fixture, "markerType", MarkerType.NONE, true);
         FieldUtils.writeField(fixture, "debugMode", false, true);
+        FieldUtils.writeField(fixture, "threads", 1, true);
         FieldUtils.writeField(fixture, "log", log, true);
     }
 
@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Channel for passing values between coroutines running under a {@link Scheduler}. Sending to a full channel or receiving from an empty
+ * channel doesn't block -- instead, the coroutine registers its task with the channel and parks. The channel unparks it once the
+ * operation is worth retrying.
+ * <p>
+ * A channel can have any number of senders (unless it was created as single-sender), but only a single receiver. Values can't be
+ * {@code null}.
+ * <p>
+ * Receiving ...
+ * <pre>
+ * while (true) {
+ *     boolean closed = channel.isClosed(); // must be checked before trying to receive
+ *     T value = channel.tryReceive();
+ *     if (value != null) {
+ *         // do something with value
+ *         continue;
+ *     }
+ *     if (closed) {
+ *         break;
+ *     }
+ *     channel.registerReceiver(Task.current());
+ *     continuation.setContext(Signal.PARK);
+ *     continuation.suspend();
+ * }
+ * </pre>
+ * Sending ...
+ * <pre>
+ * while (!channel.trySend(value)) {
+ *     channel.registerSender(Task.current());
+ *     continuation.setContext(Signal.PARK);
+ *     continuation.suspend();
+ * }
+ * </pre>
+ * Waiting tasks may be unparked even though the operation they're waiting on still can't complete, so always retry in a loop.
+ * <p>
+ * This class is thread-safe.
+ * @param <T> value type
+ * @author Kasra Faghihi
+ */
+public final class Channel<T> {
+    private static final AtomicReferenceFieldUpdater<Channel, Task> RECEIVER_UPDATER
+            = AtomicReferenceFieldUpdater.newUpdater(Channel.class, Task.class, "receiver");
+
+    private final MessageQueue<T> queue;
+    private final ConcurrentLinkedQueue<Task> senders;
+    private volatile Task receiver;
+    private volatile boolean closed;
+
+    private Channel(MessageQueue<T> queue) {
+        this.queue = queue;
+        this.senders = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Create a bounded channel backed by a lock-free ring buffer.
+     * @param <T> value type
+     * @param capacity maximum number of values the channel can hold
+     * @param singleSender {@code true} if only a single coroutine will ever send to the channel at a time (allows for a faster ring
+     * buffer), {@code false} otherwise
+     * @return new channel
+     * @throws IllegalArgumentException if {@code capacity} is less than 1 or greater than {@code 2^30}
+     */
+    public static <T> Channel<T> bounded(int capacity, boolean singleSender) {
+        Validate.isTrue(capacity > 0 && capacity <= (1 << 30));
+        return new Channel<>(singleSender ? new SpscArrayQueue<>(capacity) : new MpscArrayQueue<>(capacity));
+    }
+
+    /**
+     * Create an unbounded channel backed by a lock-free linked queue. Sending to an unbounded channel always succeeds right away.
+     * @param <T> value type
+     * @return new channel
+     */
+    public static <T> Channel<T> unbounded() {
+        return new Channel<>(new MpscLinkedQueue<>());
+    }
+
+    /**
+     * Try to send a value.
+     * @param value value to send
+     * @return {@code true} if the value was sent, {@code false} if the channel is full
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if this channel is closed
+     */
+    public boolean trySend(T value) {
+        Validate.notNull(value);
+        Validate.validState(!closed, "Channel closed");
+
+        if (!queue.offer(value)) {
+            return false;
+        }
+        if (receiver != null) {
+            wakeReceiver();
+        }
+        return true;
+    }
+
+    /**
+     * Try to receive a value. Must only be called by the receiving coroutine.
+     * @return value, or {@code null} if the channel is empty
+     */
+    public T tryReceive() {
+        T value = queue.poll();
+        if (value != null && !senders.isEmpty()) {
+            wakeSenders();
+        }
+        return value;
+    }
+
+    /**
+     * Register a task to be unparked once this channel has room for a value to be sent (or once it gets closed). The caller is expected
+     * to park {@code task} right after calling this method. If this channel already has room, {@code task} is unparked right away (so
+     * the park it's about to do gets skipped).
+     * @param task task to unpark
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void registerSender(Task task) {
+        Validate.notNull(task);
+
+        senders.offer(task);
+        if (!queue.isFull() || closed) { // room may have freed up between the failed send and the registration
+            wakeSenders();
+        }
+    }
+
+    /**
+     * Register a task to be unparked once this channel has a value to receive (or once it gets closed). The caller is expected to park
+     * {@code task} right after calling this method. If this channel already has a value, {@code task} is unparked right away (so the
+     * park it's about to do gets skipped).
+     * @param task task to unpark
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public void registerReceiver(Task task) {
+        Validate.notNull(task);
+
+        receiver = task;
+        if (!queue.isEmpty() || closed) { // a value may have arrived between the failed receive and the registration
+            wakeReceiver();
+        }
+    }
+
+    /**
+     * Close this channel. Values already in the channel can still be received, but no more values can be sent. All waiting tasks are
+     * unparked. Only close a channel once all senders are done sending.
+     */
+    public void close() {
+        closed = true;
+        wakeReceiver();
+        wakeSenders();
+    }
+
+    /**
+     * Get whether or not this channel is closed.
+     * @return {@code true} if closed, {@code false} otherwise
+     */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    private void wakeReceiver() {
+        Task task = receiver;
+        if (task != null && RECEIVER_UPDATER.compareAndSet(this, task, null)) {
+            task.unpark();
+        }
+    }
+
+    private void wakeSenders() {
+        // Wake them all up -- a sender that registered but then managed to send anyway leaves a stale entry behind, so waking up just one
+        // could end up waking up that stale entry instead of a sender that's actually waiting
+        Task task;
+        while ((task = senders.poll()) != null) {
+            task.unpark();
+        }
+    }
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.IllegalBlockingModeException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Resumes parked {@link Task}s when the {@link SelectableChannel}s they're waiting on become ready. A single thread runs a
+ * {@link Selector} on behalf of all registered channels.
+ * <p>
+ * To wait on a channel, a coroutine running under a {@link Scheduler} registers the channel along with its own task and then parks ...
+ * <pre>
+ * eventLoop.register(channel, SelectionKey.OP_READ, Task.current());
+ * continuation.setContext(Signal.PARK);
+ * continuation.suspend();
+ * int readyOps = (Integer) continuation.getContext();
+ * </pre>
+ * Once the channel is ready, the task gets unparked with the channel's ready operations as its context. Registrations are one-shot: a
+ * coroutine that wants to wait on the channel again needs to register again.
+ * <p>
+ * If the channel gets closed before it's ready (or this event loop gets closed), the task is unparked with {@code 0} as its context.
+ * Closing a channel doesn't wake up the selector, so a channel closed out from under a waiting coroutine may take up to a quarter second
+ * to get noticed.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class EventLoop implements Closeable {
+    private static final int READ_SIDE_OPS = SelectionKey.OP_READ | SelectionKey.OP_ACCEPT;
+    private static final int WRITE_SIDE_OPS = SelectionKey.OP_WRITE | SelectionKey.OP_CONNECT;
+    private static final Integer NOT_READY = 0;
+    private static final long INVALID_KEY_CHECK_MILLIS = 250L;
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Registration> pendingRegistrations;
+    private final Set<SelectionKey> waitingKeys; // keys that have tasks waiting on them, only touched by the selector thread
+    private final AtomicBoolean wakeupPending;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a {@link EventLoop} object using {@link Executors#defaultThreadFactory() } to create its selector thread.
+     * @throws IOException if the selector couldn't be opened
+     */
+    public EventLoop() throws IOException {
+        this(Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a {@link EventLoop} object.
+     * @param threadFactory factory used to create the selector thread
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if {@code threadFactory} returned {@code null}
+     * @throws IOException if the selector couldn't be opened
+     */
+    public EventLoop(ThreadFactory threadFactory) throws IOException {
+        Validate.notNull(threadFactory);
+
+        pendingRegistrations = new ConcurrentLinkedQueue<>();
+        waitingKeys = new HashSet<>();
+        wakeupPending = new AtomicBoolean();
+        selector = Selector.open();
+        try {
+            thread = threadFactory.newThread(this::run);
+            Validate.validState(thread != null, "Thread factory returned null");
+        } catch (RuntimeException re) {
+            selector.close();
+            throw re;
+        }
+        thread.start();
+    }
+
+    /**
+     * Register interest in a channel on behalf of a task. Once the channel is ready for any of {@code ops}, {@code task} is unparked with
+     * the channel's ready operations (as an {@link Integer}) as its context. The caller is expected to park {@code task} right after
+     * calling this method.
+     * <p>
+     * A channel can have at most one task waiting for read-side operations ({@link SelectionKey#OP_READ} / {@link SelectionKey#OP_ACCEPT})
+     * and one task waiting for write-side operations ({@link SelectionKey#OP_WRITE} / {@link SelectionKey#OP_CONNECT}) at a time. If a
+     * different task was already waiting on the same side, that task is unparked with {@code 0} as its context.
+     * @param channel channel to wait on (must be in non-blocking mode)
+     * @param ops operations to wait for (see {@link SelectionKey})
+     * @param task task to unpark once {@code channel} is ready
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code channel} is in blocking mode, or if {@code ops} is {@code 0} or contains operations not
+     * supported by {@code channel}
+     */
+    public void register(SelectableChannel channel, int ops, Task task) {
+        Validate.notNull(channel);
+        Validate.notNull(task);
+        Validate.isTrue(ops != 0 && (ops & ~channel.validOps()) == 0, "Unsupported operations");
+        Validate.isTrue(!channel.isBlocking(), "Channel must be in non-blocking mode");
+
+        pendingRegistrations.offer(new Registration(channel, ops, task));
+        if (closed) {
+            // run() may have already drained the pending registrations, make sure this one doesn't get stranded
+            abortPendingRegistrations();
+            return;
+        }
+        if (!wakeupPending.getAndSet(true)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Stops the selector thread and waits for it to die. Tasks that are waiting on channels get unparked with {@code 0} as their
+     * context.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        selector.wakeup();
+
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long lastInvalidKeyCheck = System.nanoTime();
+        try {
+            while (!closed) {
+                wakeupPending.set(false);
+                Registration registration;
+                while ((registration = pendingRegistrations.poll()) != null) {
+                    applyRegistration(registration);
+                }
+
+                // Closing a channel cancels its keys but doesn't wake up the selector, and cancelled keys never get selected -- poll for
+                // them, otherwise tasks waiting on a channel that got closed out from under them would stay parked forever
+                selector.select(INVALID_KEY_CHECK_MILLIS);
+                
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    dispatch(key);
+                }
+
+                long now = System.nanoTime();
+                if (now - lastInvalidKeyCheck >= TimeUnit.MILLISECONDS.toNanos(INVALID_KEY_CHECK_MILLIS)) {
+                    lastInvalidKeyCheck = now;
+                    abortInvalidKeys();
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // selector is broken, nothing left to do but shut down
+            closed = true;
+        } finally {
+            try {
+                for (SelectionKey key : selector.keys()) {
+                    Waiters waiters = (Waiters) key.attachment();
+                    waiters.abort();
+                }
+            } catch (ClosedSelectorException cse) {
+                // do nothing
+            }
+            abortPendingRegistrations();
+
+            try {
+                selector.close();
+            } catch (IOException ioe) {
+                // do nothing
+            }
+        }
+    }
+
+    private void applyRegistration(Registration registration) {
+        SelectableChannel channel = registration.channel;
+        Task task = registration.task;
+
+        SelectionKey key = channel.keyFor(selector);
+        Waiters waiters;
+        try {
+            if (key == null) {
+                waiters = new Waiters();
+                key = channel.register(selector, 0, waiters);
+            } else {
+                waiters = (Waiters) key.attachment();
+            }
+
+            int readOps = registration.ops & READ_SIDE_OPS;
+            if (readOps != 0) {
+                if (waiters.reader != null && waiters.reader != task) {
+                    waiters.reader.unpark(NOT_READY);
+                }
+                waiters.reader = task;
+                waiters.readOps = readOps;
+            }
+
+            int writeOps = registration.ops & WRITE_SIDE_OPS;
+            if (writeOps != 0) {
+                if (waiters.writer != null && waiters.writer != task) {
+                    waiters.writer.unpark(NOT_READY);
+                }
+                waiters.writer = task;
+                waiters.writeOps = writeOps;
+            }
+
+            key.interestOps(waiters.readOps | waiters.writeOps);
+            waitingKeys.add(key);
+        } catch (ClosedChannelException | CancelledKeyException | IllegalBlockingModeException e) {
+            // channel got closed (or switched back to blocking) before we could register it
+            if (key != null) {
+                waitingKeys.remove(key);
+                ((Waiters) key.attachment()).abort();
+            }
+            task.unpark(NOT_READY);
+        }
+    }
+
+    private void dispatch(SelectionKey key) {
+        Waiters waiters = (Waiters) key.attachment();
+
+        int readyOps;
+        try {
+            readyOps = key.readyOps();
+        } catch (CancelledKeyException cke) {
+            waitingKeys.remove(key);
+            waiters.abort();
+            return;
+        }
+
+        Task reader = (readyOps & waiters.readOps) != 0 ? waiters.reader : null;
+        Task writer = (readyOps & waiters.writeOps) != 0 ? waiters.writer : null;
+
+        // Registrations are one-shot, so clear out the sides that fired. If the same task was waiting on both sides, clear out both so it
+        // doesn't get unparked a second time later on.
+        if (reader != null || (writer != null && writer == waiters.reader)) {
+            waiters.reader = null;
+            waiters.readOps = 0;
+        }
+        if (writer != null || (reader != null && reader == waiters.writer)) {
+            waiters.writer = null;
+            waiters.writeOps = 0;
+        }
+
+        try {
+            key.interestOps(waiters.readOps | waiters.writeOps);
+            if (waiters.reader == null && waiters.writer == null) {
+                waitingKeys.remove(key);
+            }
+        } catch (CancelledKeyException cke) {
+            waitingKeys.remove(key);
+            waiters.abort();
+        }
+
+        Integer context = readyOps; // ready ops are small enough to always come from the Integer cache
+        if (reader != null) {
+            reader.unpark(context);
+        }
+        if (writer != null && writer != reader) {
+            writer.unpark(context);
+        }
+    }
+
+    private void abortInvalidKeys() {
+        Iterator<SelectionKey> it = waitingKeys.iterator();
+        while (it.hasNext()) {
+            SelectionKey key = it.next();
+            if (!key.isValid()) {
+                it.remove();
+                ((Waiters) key.attachment()).abort();
+            }
+        }
+    }
+
+    private void abortPendingRegistrations() {
+        Registration registration;
+        while ((registration = pendingRegistrations.poll()) != null) {
+            registration.task.unpark(NOT_READY);
+        }
+    }
+
+    private static final class Registration {
+        private final SelectableChannel channel;
+        private final int ops;
+        private final Task task;
+
+        Registration(SelectableChannel channel, int ops, Task task) {
+            this.channel = channel;
+            this.ops = ops;
+            this.task = task;
+        }
+    }
+
+    private static final class Waiters {
+        private Task reader;
+        private int readOps;
+        private Task writer;
+        private int writeOps;
+
+        void abort() {
+            Task oldReader = reader;
+            Task oldWriter = writer;
+            reader = null;
+            readOps = 0;
+            writer = null;
+            writeOps = 0;
+
+            if (oldReader != null) {
+                oldReader.unpark(NOT_READY);
+            }
+            if (oldWriter != null && oldWriter != oldReader) {
+                oldWriter.unpark(NOT_READY);
+            }
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.LongConsumer;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Exposes generator coroutines as {@link Iterator}s and {@link Spliterator}s. A generator coroutine produces values by setting them on
+ * its {@link Yielder} and then suspending. Each value gets generated lazily, when the consumer asks for it.
+ * <p>
+ * Spliterators are built from a range and a {@link PartitionFactory}. Splitting divides the range in half, and each half gets its own
+ * generator coroutine, so the halves can be consumed independently (e.g. by a parallel stream via
+ * {@link java.util.stream.StreamSupport}). A spliterator can only be split before it starts generating.
+ * <p>
+ * Iterators and spliterators returned by this class aren't thread-safe. If a generator coroutine throws, the
+ * {@link com.offbynull.coroutines.user.CoroutineException} propagates out of the iterator/spliterator method that caused it to run.
+ * @author Kasra Faghihi
+ */
+public final class Generators {
+    private Generators() {
+        // do nothing
+    }
+
+    /**
+     * Create an iterator backed by a generator coroutine. Primitives yielded by the coroutine are boxed.
+     * @param <T> value type
+     * @param coroutine generator coroutine
+     * @return iterator
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static <T> Iterator<T> iterator(Coroutine coroutine) {
+        Validate.notNull(coroutine);
+        return new ObjectIterator<>(new Source(coroutine));
+    }
+
+    /**
+     * Create an int iterator backed by a generator coroutine. The coroutine must only yield ints (via {@link Yielder#yieldInt(int) }).
+     * @param coroutine generator coroutine
+     * @return iterator
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static PrimitiveIterator.OfInt intIterator(Coroutine coroutine) {
+        Validate.notNull(coroutine);
+        return new IntIterator(new Source(coroutine));
+    }
+
+    /**
+     * Create a long iterator backed by a generator coroutine. The coroutine must only yield longs or ints (via
+     * {@link Yielder#yieldLong(long) } / {@link Yielder#yieldInt(int) }).
+     * @param coroutine generator coroutine
+     * @return iterator
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public static PrimitiveIterator.OfLong longIterator(Coroutine coroutine) {
+        Validate.notNull(coroutine);
+        return new LongIterator(new Source(coroutine));
+    }
+
+    /**
+     * Create a spliterator over a range, where each partition of the range is backed by its own generator coroutine. Primitives yielded
+     * by the coroutines are boxed.
+     * @param <T> value type
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @param factory creates the generator coroutine for each partition
+     * @return spliterator
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code from > to}, or if the range is larger than {@link Long#MAX_VALUE}
+     */
+    public static <T> Spliterator<T> spliterator(long from, long to, PartitionFactory factory) {
+        validateRange(from, to, factory);
+        return new ObjectSpliterator<>(factory, from, to);
+    }
+
+    /**
+     * Create an int spliterator over a range, where each partition of the range is backed by its own generator coroutine. The coroutines
+     * must only yield ints (via {@link Yielder#yieldInt(int) }).
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @param factory creates the generator coroutine for each partition
+     * @return spliterator
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code from > to}, or if the range is larger than {@link Long#MAX_VALUE}
+     */
+    public static Spliterator.OfInt intSpliterator(long from, long to, PartitionFactory factory) {
+        validateRange(from, to, factory);
+        return new IntSpliterator(factory, from, to);
+    }
+
+    /**
+     * Create a long spliterator over a range, where each partition of the range is backed by its own generator coroutine. The coroutines
+     * must only yield longs or ints (via {@link Yielder#yieldLong(long) } / {@link Yielder#yieldInt(int) }).
+     * @param from start of the range (inclusive)
+     * @param to end of the range (exclusive)
+     * @param factory creates the generator coroutine for each partition
+     * @return spliterator
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code from > to}, or if the range is larger than {@link Long#MAX_VALUE}
+     */
+    public static Spliterator.OfLong longSpliterator(long from, long to, PartitionFactory factory) {
+        validateRange(from, to, factory);
+        return new LongSpliterator(factory, from, to);
+    }
+
+    private static void validateRange(long from, long to, PartitionFactory factory) {
+        Validate.notNull(factory);
+        Validate.isTrue(from <= to);
+        Validate.isTrue(to - from >= 0L); // overflow check
+    }
+
+    // Drives a generator coroutine until it yields something or finishes.
+    private static final class Source {
+        private final CoroutineRunner runner;
+        private final Yielder yielder;
+        private boolean done;
+
+        Source(Coroutine coroutine) {
+            runner = new CoroutineRunner(coroutine);
+            yielder = new Yielder();
+        }
+
+        boolean fill() {
+            if (yielder.getKind() != Yielder.NONE) {
+                return true;
+            }
+
+            while (!done) {
+                runner.setContext(yielder); // set every time in case the coroutine replaced it
+                try {
+                    if (!runner.execute()) {
+                        done = true;
+                    }
+                } catch (RuntimeException re) {
+                    done = true;
+                    yielder.clear();
+                    throw re;
+                }
+
+                if (yielder.getKind() != Yielder.NONE) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    private static final class ObjectIterator<T> implements Iterator<T> {
+        private final Source source;
+
+        ObjectIterator(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.fill();
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!source.fill()) {
+                throw new NoSuchElementException();
+            }
+            return (T) source.yielder.takeObject();
+        }
+    }
+
+    private static final class IntIterator implements PrimitiveIterator.OfInt {
+        private final Source source;
+
+        IntIterator(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.fill();
+        }
+
+        @Override
+        public int nextInt() {
+            if (!source.fill()) {
+                throw new NoSuchElementException();
+            }
+            return source.yielder.takeInt();
+        }
+    }
+
+    private static final class LongIterator implements PrimitiveIterator.OfLong {
+        private final Source source;
+
+        LongIterator(Source source) {
+            this.source = source;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return source.fill();
+        }
+
+        @Override
+        public long nextLong() {
+            if (!source.fill()) {
+                throw new NoSuchElementException();
+            }
+            return source.yielder.takeLong();
+        }
+    }
+
+    private abstract static class PartitionSpliterator<S> {
+        private final PartitionFactory factory;
+        private long from;
+        private final long to;
+        private Source source;
+
+        PartitionSpliterator(PartitionFactory factory, long from, long to) {
+            this.factory = factory;
+            this.from = from;
+            this.to = to;
+        }
+
+        protected abstract S newPartition(PartitionFactory factory, long from, long to);
+
+        // Splits off the first half of the partition (prefix, as required for ORDERED spliterators). Once generation has started, the
+        // coroutine owns the whole partition and it can no longer be split.
+        protected final S splitOffPrefix() {
+            if (source != null || to - from < 2L) {
+                return null;
+            }
+            long prefixFrom = from;
+            long mid = from + (to - from) / 2L;
+            from = mid;
+            return newPartition(factory, prefixFrom, mid);
+        }
+
+        protected final Source source() {
+            if (source == null) {
+                Coroutine coroutine = factory.create(from, to);
+                Validate.validState(coroutine != null, "Partition factory returned null");
+                source = new Source(coroutine);
+            }
+            return source;
+        }
+
+        public final long estimateSize() {
+            return to - from; // assumes roughly 1 value per element of the range
+        }
+
+        public final int characteristics() {
+            return Spliterator.ORDERED;
+        }
+    }
+
+    private static final class ObjectSpliterator<T> extends PartitionSpliterator<Spliterator<T>> implements Spliterator<T> {
+        ObjectSpliterator(PartitionFactory factory, long from, long to) {
+            super(factory, from, to);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public boolean tryAdvance(Consumer<? super T> action) {
+            Validate.notNull(action);
+            Source source = source();
+            if (!source.fill()) {
+                return false;
+            }
+            action.accept((T) source.yielder.takeObject());
+            return true;
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            return splitOffPrefix();
+        }
+
+        @Override
+        protected Spliterator<T> newPartition(PartitionFactory factory, long from, long to) {
+            return new ObjectSpliterator<>(factory, from, to);
+        }
+    }
+
+    private static final class IntSpliterator extends PartitionSpliterator<Spliterator.OfInt> implements Spliterator.OfInt {
+        IntSpliterator(PartitionFactory factory, long from, long to) {
+            super(factory, from, to);
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            Validate.notNull(action);
+            Source source = source();
+            if (!source.fill()) {
+                return false;
+            }
+            action.accept(source.yielder.takeInt());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            Validate.notNull(action);
+            Source source = source();
+            while (source.fill()) {
+                action.accept(source.yielder.takeInt());
+            }
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            return splitOffPrefix();
+        }
+
+        @Override
+        protected Spliterator.OfInt newPartition(PartitionFactory factory, long from, long to) {
+            return new IntSpliterator(factory, from, to);
+        }
+    }
+
+    private static final class LongSpliterator extends PartitionSpliterator<Spliterator.OfLong> implements Spliterator.OfLong {
+        LongSpliterator(PartitionFactory factory, long from, long to) {
+            super(factory, from, to);
+        }
+
+        @Override
+        public boolean tryAdvance(LongConsumer action) {
+            Validate.notNull(action);
+            Source source = source();
+            if (!source.fill()) {
+                return false;
+            }
+            action.accept(source.yielder.takeLong());
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(LongConsumer action) {
+            Validate.notNull(action);
+            Source source = source();
+            while (source.fill()) {
+                action.accept(source.yielder.takeLong());
+            }
+        }
+
+        @Override
+        public Spliterator.OfLong trySplit() {
+            return splitOffPrefix();
+        }
+
+        @Override
+        protected Spliterator.OfLong newPartition(PartitionFactory factory, long from, long to) {
+            return new LongSpliterator(factory, from, to);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+/**
+ * Lock-free queue that backs a {@link Channel}. Only a single thread may poll at a time.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+interface MessageQueue<T> {
+    /**
+     * Add an item to the queue.
+     * @param item item to add (must not be {@code null})
+     * @return {@code true} if the item was added, {@code false} if the queue is full
+     */
+    boolean offer(T item);
+
+    /**
+     * Remove an item from the queue. Must only be called by the consuming thread.
+     * @return removed item, or {@code null} if the queue is empty
+     */
+    T poll();
+
+    /**
+     * Get whether or not this queue is empty. Must only be called by the consuming thread.
+     * @return {@code true} if empty, {@code false} otherwise
+     */
+    boolean isEmpty();
+
+    /**
+     * Get whether or not this queue is full. The result may be stale by the time it returns.
+     * @return {@code true} if full, {@code false} otherwise
+     */
+    boolean isFull();
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded multi-producer single-consumer ring buffer. Producers claim slots by CASing the producer index, then publish their item in to
+ * the claimed slot. The consumer treats a {@code null} slot below the producer index as claimed-but-not-yet-published.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+final class MpscArrayQueue<T> implements MessageQueue<T> {
+    private static final AtomicLongFieldUpdater<MpscArrayQueue> PRODUCER_INDEX_UPDATER
+            = AtomicLongFieldUpdater.newUpdater(MpscArrayQueue.class, "producerIndex");
+    private static final AtomicLongFieldUpdater<MpscArrayQueue> CONSUMER_INDEX_UPDATER
+            = AtomicLongFieldUpdater.newUpdater(MpscArrayQueue.class, "consumerIndex");
+
+    private final AtomicReferenceArray<T> buffer;
+    private final int capacity;
+    private final int mask;
+
+    private volatile long producerIndex;
+    private volatile long consumerIndex;
+
+    MpscArrayQueue(int capacity) {
+        this.capacity = capacity;
+        this.buffer = new AtomicReferenceArray<>(roundToPowerOfTwo(capacity));
+        this.mask = buffer.length() - 1;
+    }
+
+    @Override
+    public boolean offer(T item) {
+        long p;
+        do {
+            p = producerIndex;
+            if (p - consumerIndex >= capacity) {
+                return false;
+            }
+        } while (!PRODUCER_INDEX_UPDATER.compareAndSet(this, p, p + 1L));
+
+        buffer.set((int) (p & mask), item); // full fence, so the channel's check for a waiting receiver can't be reordered before it
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        long c = consumerIndex;
+        int idx = (int) (c & mask);
+        T item = buffer.get(idx);
+        if (item == null) {
+            if (c == producerIndex) {
+                return null;
+            }
+            // a producer claimed this slot but hasn't published in to it yet -- it's about to, so wait for it
+            do {
+                Thread.onSpinWait();
+                item = buffer.get(idx);
+            } while (item == null);
+        }
+        buffer.lazySet(idx, null);
+        CONSUMER_INDEX_UPDATER.set(this, c + 1L); // full fence, so the channel's check for waiting senders can't be reordered before it
+        return item;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex == producerIndex;
+    }
+
+    @Override
+    public boolean isFull() {
+        return producerIndex - consumerIndex >= capacity;
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        int ret = Integer.highestOneBit(value);
+        return ret == value ? ret : ret << 1;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * Unbounded multi-producer single-consumer linked queue (based on Dmitry Vyukov's intrusive MPSC queue). Producers swap themselves in as
+ * the tail and then link the previous tail to themselves.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+final class MpscLinkedQueue<T> implements MessageQueue<T> {
+    private static final AtomicReferenceFieldUpdater<MpscLinkedQueue, Node> TAIL_UPDATER
+            = AtomicReferenceFieldUpdater.newUpdater(MpscLinkedQueue.class, Node.class, "tail");
+
+    private volatile Node<T> tail;
+    private Node<T> head; // stub node, its item has already been consumed
+
+    MpscLinkedQueue() {
+        head = new Node<>(null);
+        tail = head;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean offer(T item) {
+        Node<T> node = new Node<>(item);
+        Node<T> prev = (Node<T>) TAIL_UPDATER.getAndSet(this, node); // full fence
+        prev.next = node;
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        Node<T> next = head.next;
+        if (next == null) {
+            if (head == tail) {
+                return null;
+            }
+            // a producer swapped in a new tail but hasn't linked it yet -- it's about to, so wait for it
+            do {
+                Thread.onSpinWait();
+                next = head.next;
+            } while (next == null);
+        }
+        T item = next.item;
+        next.item = null;
+        head.next = null; // help gc
+        head = next;
+        return item;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return head == tail;
+    }
+
+    @Override
+    public boolean isFull() {
+        return false;
+    }
+
+    private static final class Node<T> {
+        private T item;
+        private volatile Node<T> next;
+
+        Node(T item) {
+            this.item = item;
+        }
+    }
+}
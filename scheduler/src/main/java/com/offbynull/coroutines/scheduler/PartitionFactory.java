@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.user.Coroutine;
+
+/**
+ * Creates generator coroutines for partitions of a range, used by the spliterators in {@link Generators}. The coroutine created for a
+ * partition must only generate the values that belong to that partition, such that partitions can be generated independently of each
+ * other (and in parallel).
+ * @author Kasra Faghihi
+ */
+@FunctionalInterface
+public interface PartitionFactory {
+    /**
+     * Create a generator coroutine for a partition.
+     * @param from start of the partition (inclusive)
+     * @param to end of the partition (exclusive)
+     * @return generator coroutine that yields the values belonging to the partition
+     */
+    Coroutine create(long from, long to);
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.io.Closeable;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Runs coroutines across a fixed pool of worker threads. Each worker has its own work-stealing deque of runnable tasks. Workers that run
+ * out of tasks steal from the deques of other workers before going idle.
+ * <p>
+ * A coroutine tells the scheduler what to do with it when it suspends by leaving a {@link Signal} in its context ...
+ * <pre>
+ * continuation.setContext(Signal.PARK);
+ * continuation.suspend();
+ * </pre>
+ * If the coroutine suspends without a {@link Signal} in its context, it's treated as if it had suspended with {@link Signal#YIELD}. The
+ * signal is cleared from the context before the coroutine gets resumed.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class Scheduler implements Closeable {
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+    private static final int INJECTION_CHECK_INTERVAL = 61; // how many tasks a worker runs before checking the injection queue first
+    private static final ThreadLocal<Worker> CURRENT_WORKER = new ThreadLocal<>();
+
+    private final Worker[] workers;
+    private final ConcurrentLinkedQueue<Task> injectionQueue;
+    private final Set<Task> parkedTasks; // parked tasks aren't in any queue, so they need to be tracked for close() to find them
+    private final AtomicInteger idleCount;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a {@link Scheduler} object using {@link Executors#defaultThreadFactory() } to create its worker threads.
+     * @param workerCount number of worker threads
+     * @throws IllegalArgumentException if {@code workerCount <= 0}
+     */
+    public Scheduler(int workerCount) {
+        this(workerCount, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a {@link Scheduler} object.
+     * @param workerCount number of worker threads
+     * @param threadFactory factory used to create worker threads
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code workerCount <= 0}
+     * @throws IllegalStateException if {@code threadFactory} returned {@code null}
+     */
+    public Scheduler(int workerCount, ThreadFactory threadFactory) {
+        Validate.isTrue(workerCount > 0);
+        Validate.notNull(threadFactory);
+
+        workers = new Worker[workerCount];
+        injectionQueue = new ConcurrentLinkedQueue<>();
+        parkedTasks = ConcurrentHashMap.newKeySet();
+        idleCount = new AtomicInteger();
+
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Worker();
+            Thread thread = threadFactory.newThread(workers[i]);
+            Validate.validState(thread != null, "Thread factory returned null");
+            workers[i].thread = thread;
+        }
+
+        for (Worker worker : workers) {
+            worker.thread.start();
+        }
+    }
+
+    /**
+     * Submit a coroutine for execution.
+     * @param coroutine coroutine to run
+     * @return task for the submitted coroutine
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if this scheduler is closed
+     */
+    public Task submit(Coroutine coroutine) {
+        Validate.notNull(coroutine);
+        return submit(new CoroutineRunner(coroutine));
+    }
+
+    /**
+     * Submit a coroutine runner for execution. The runner must not be executed by anything other than this scheduler from this point on.
+     * @param runner coroutine runner to run
+     * @return task for the submitted coroutine runner
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if this scheduler is closed
+     */
+    public Task submit(CoroutineRunner runner) {
+        Validate.notNull(runner);
+        Validate.validState(!closed, "Scheduler closed");
+
+        Task task = new Task(this, runner);
+        enqueue(task);
+        return task;
+    }
+
+    /**
+     * Stops all worker threads and waits for them to die. Tasks that haven't finished by the time the workers stop (including tasks that
+     * are parked) get cancelled. Tasks that are running when this method is called are allowed to reach their next suspension point.
+     * <p>
+     * If this method is called from a coroutine running on one of this scheduler's workers, it can't wait for that worker to die (the
+     * worker is the caller). It waits for all other workers and returns, and the calling coroutine keeps running until its next suspension
+     * point. If it suspends rather than returning, its task gets cancelled. Any tasks it queues before suspending get cancelled as well.
+     * The worker dies once the calling coroutine suspends or returns.
+     */
+    @Override
+    public void close() {
+        closed = true;
+
+        boolean interrupted = false;
+        Thread self = Thread.currentThread();
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker.thread);
+        }
+        for (Worker worker : workers) {
+            if (worker.thread == self) {
+                continue; // closed from inside one of our own coroutines, can't wait on ourself
+            }
+            while (true) {
+                try {
+                    worker.thread.join();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        for (Worker worker : workers) {
+            Task task;
+            while ((task = worker.deque.steal()) != null) {
+                task.cancel();
+            }
+        }
+        cancelInjectedTasks();
+        for (Task task : parkedTasks) {
+            task.cancel();
+        }
+
+        if (interrupted) {
+            self.interrupt();
+        }
+    }
+
+    static Task currentTask() {
+        Worker worker = CURRENT_WORKER.get();
+        return worker == null ? null : worker.currentTask;
+    }
+
+    // Queue a task that was just made runnable. If called from one of our own workers, it goes in to that worker's deque (it's likely to
+    // touch the same data as whatever unparked it). Otherwise, it goes in to the injection queue.
+    void enqueue(Task task) {
+        Worker worker = CURRENT_WORKER.get();
+        if (worker != null && worker.getScheduler() == this) {
+            worker.deque.push(task);
+        } else {
+            inject(task);
+        }
+        signalIdleWorker();
+    }
+
+    // Queue a task that yielded. Yielded tasks go to the back of the injection queue rather than on to the worker's deque -- the deque is
+    // popped LIFO by its owner, so a task that yields in a loop would keep getting picked right back up and starve everything below it.
+    void requeue(Task task) {
+        inject(task);
+        signalIdleWorker();
+    }
+
+    // Track a task that's about to park. Called before the task flips to parked, such that untrackParked() (called after it flips back)
+    // can never run before it. Returns false if this scheduler is closed, in which case the task should be cancelled rather than parked --
+    // close() may have already gone over the parked tasks.
+    boolean trackParked(Task task) {
+        parkedTasks.add(task);
+        return !closed;
+    }
+
+    void untrackParked(Task task) {
+        parkedTasks.remove(task);
+    }
+
+    private void inject(Task task) {
+        injectionQueue.offer(task);
+        if (closed) {
+            // close() may have already drained the injection queue, make sure this task doesn't get stranded
+            cancelInjectedTasks();
+        }
+    }
+
+    private void cancelInjectedTasks() {
+        Task task;
+        while ((task = injectionQueue.poll()) != null) {
+            task.cancel();
+        }
+    }
+
+    private void signalIdleWorker() {
+        if (idleCount.get() == 0) {
+            return;
+        }
+        for (Worker worker : workers) {
+            if (worker.idle) {
+                LockSupport.unpark(worker.thread);
+                return;
+            }
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final WorkStealingDeque<Task> deque;
+        private volatile Thread thread;
+        private volatile boolean idle;
+        private Task currentTask;
+        private int tick;
+
+        Worker() {
+            deque = new WorkStealingDeque<>();
+        }
+
+        Scheduler getScheduler() {
+            return Scheduler.this;
+        }
+
+        @Override
+        public void run() {
+            CURRENT_WORKER.set(this);
+            try {
+                while (!closed) {
+                    Task task = findTask();
+                    if (task == null) {
+                        // Advertise that we're idle before checking one last time. Anyone that queues a task after this point will see
+                        // that we're idle and unpark us, so we can't miss a task and sleep through it.
+                        idle = true;
+                        idleCount.incrementAndGet();
+                        task = findTask();
+                        if (task == null && !closed) {
+                            LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                        }
+                        idle = false;
+                        idleCount.decrementAndGet();
+                        if (task == null) {
+                            continue;
+                        }
+                    }
+
+                    currentTask = task;
+                    try {
+                        task.run();
+                    } finally {
+                        currentTask = null;
+                    }
+                }
+            } finally {
+                CURRENT_WORKER.remove();
+                if (closed) {
+                    // If close() was called from this worker (or while this worker was running a task), tasks may have been pushed in to
+                    // this worker's deque after close() drained it. Nothing is going to run them.
+                    Task task;
+                    while ((task = deque.pop()) != null) {
+                        task.cancel();
+                    }
+                }
+            }
+        }
+
+        private Task findTask() {
+            Task task;
+
+            // Every so often check the injection queue first, otherwise tasks submitted from outside could starve if the workers keep
+            // unparking each other
+            tick++;
+            if (tick % INJECTION_CHECK_INTERVAL == 0) {
+                task = injectionQueue.poll();
+                if (task != null) {
+                    return task;
+                }
+            }
+
+            task = deque.pop();
+            if (task != null) {
+                return task;
+            }
+
+            task = injectionQueue.poll();
+            if (task != null) {
+                return task;
+            }
+
+            int count = workers.length;
+            int start = ThreadLocalRandom.current().nextInt(count);
+            for (int i = 0; i < count; i++) {
+                Worker victim = workers[(start + i) % count];
+                if (victim == this) {
+                    continue;
+                }
+                task = victim.deque.steal();
+                if (task != null) {
+                    return task;
+                }
+            }
+
+            return null;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+/**
+ * Signals that a coroutine running under a {@link Scheduler} can leave in its context (via
+ * {@link com.offbynull.coroutines.user.Continuation#setContext(Object)}) just before suspending. The signal tells the scheduler what to do
+ * with the coroutine once control returns back to it.
+ * <p>
+ * If a coroutine suspends without leaving a signal in its context, it's treated the same as {@link #YIELD}.
+ * @author Kasra Faghihi
+ */
+public enum Signal {
+    /**
+     * Coroutine is still runnable and should be placed at the back of the scheduler's shared queue (not the queue of the worker that ran
+     * it -- that queue is worked LIFO, so a coroutine that yields in a loop would get picked right back up and starve everything else).
+     */
+    YIELD,
+    /**
+     * Coroutine is waiting on something and shouldn't be run again until {@link Task#unpark()} (or {@link Task#unpark(Object)}) is
+     * called on its task.
+     */
+    PARK,
+    /**
+     * Coroutine is finished and should be discarded, even though it suspended instead of returning.
+     */
+    COMPLETE
+}
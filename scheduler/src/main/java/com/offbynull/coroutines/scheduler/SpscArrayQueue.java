@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded single-producer single-consumer ring buffer.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+final class SpscArrayQueue<T> implements MessageQueue<T> {
+    private static final AtomicLongFieldUpdater<SpscArrayQueue> PRODUCER_INDEX_UPDATER
+            = AtomicLongFieldUpdater.newUpdater(SpscArrayQueue.class, "producerIndex");
+    private static final AtomicLongFieldUpdater<SpscArrayQueue> CONSUMER_INDEX_UPDATER
+            = AtomicLongFieldUpdater.newUpdater(SpscArrayQueue.class, "consumerIndex");
+
+    private final AtomicReferenceArray<T> buffer;
+    private final int capacity;
+    private final int mask;
+
+    private volatile long producerIndex;
+    private long cachedConsumerIndex; // producer's view of consumerIndex, only refreshed when the buffer looks full
+
+    private volatile long consumerIndex;
+    private long cachedProducerIndex; // consumer's view of producerIndex, only refreshed when the buffer looks empty
+
+    SpscArrayQueue(int capacity) {
+        this.capacity = capacity;
+        this.buffer = new AtomicReferenceArray<>(roundToPowerOfTwo(capacity));
+        this.mask = buffer.length() - 1;
+    }
+
+    @Override
+    public boolean offer(T item) {
+        long p = producerIndex;
+        if (p - cachedConsumerIndex >= capacity) {
+            cachedConsumerIndex = consumerIndex;
+            if (p - cachedConsumerIndex >= capacity) {
+                return false;
+            }
+        }
+        buffer.lazySet((int) (p & mask), item);
+        PRODUCER_INDEX_UPDATER.set(this, p + 1L); // full fence, so the channel's check for a waiting receiver can't be reordered before it
+        return true;
+    }
+
+    @Override
+    public T poll() {
+        long c = consumerIndex;
+        if (c >= cachedProducerIndex) {
+            cachedProducerIndex = producerIndex;
+            if (c >= cachedProducerIndex) {
+                return null;
+            }
+        }
+        int idx = (int) (c & mask);
+        T item = buffer.get(idx);
+        buffer.lazySet(idx, null);
+        CONSUMER_INDEX_UPDATER.set(this, c + 1L); // full fence, so the channel's check for waiting senders can't be reordered before it
+        return item;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return consumerIndex >= producerIndex;
+    }
+
+    @Override
+    public boolean isFull() {
+        return producerIndex - consumerIndex >= capacity;
+    }
+
+    private static int roundToPowerOfTwo(int value) {
+        int ret = Integer.highestOneBit(value);
+        return ret == value ? ret : ret << 1;
+    }
+}
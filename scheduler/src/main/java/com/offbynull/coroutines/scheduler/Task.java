@@ -0,0 +1,204 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.user.CoroutineRunner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * A coroutine that's been submitted to a {@link Scheduler}.
+ * @author Kasra Faghihi
+ */
+public final class Task {
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int RUNNING_NOTIFIED = 2;
+    private static final int PARKED = 3;
+    private static final int DONE = 4;
+
+    private static final Object NO_CONTEXT = new Object();
+
+    private static final AtomicIntegerFieldUpdater<Task> STATE_UPDATER
+            = AtomicIntegerFieldUpdater.newUpdater(Task.class, "state");
+    private static final AtomicReferenceFieldUpdater<Task, Object> PENDING_CONTEXT_UPDATER
+            = AtomicReferenceFieldUpdater.newUpdater(Task.class, Object.class, "pendingContext");
+
+    private final Scheduler scheduler;
+    private final CoroutineRunner runner;
+    private final CompletableFuture<Void> completion;
+    private volatile int state;
+    private volatile Object pendingContext;
+
+    Task(Scheduler scheduler, CoroutineRunner runner) {
+        this.scheduler = scheduler;
+        this.runner = runner;
+        this.completion = new CompletableFuture<>();
+        this.state = QUEUED;
+        this.pendingContext = NO_CONTEXT;
+    }
+
+    /**
+     * Get the task being run by the calling thread. Coroutines running under a {@link Scheduler} can use this to get a handle to their own
+     * task before parking, such that whatever they're waiting on can unpark them once it's ready.
+     * @return task being run by the calling thread, or {@code null} if the calling thread isn't running a task
+     */
+    public static Task current() {
+        return Scheduler.currentTask();
+    }
+
+    /**
+     * Make this task runnable again after it parked (suspended with {@link Signal#PARK} in its context). If this task is still running
+     * when this method gets called, the park it ends up suspending with will be ignored and the task will be placed right back in to a
+     * queue. If this task is queued or done, this method does nothing.
+     * <p>
+     * This method is thread-safe.
+     */
+    public void unpark() {
+        while (true) {
+            int current = state;
+            switch (current) {
+                case RUNNING:
+                    if (STATE_UPDATER.compareAndSet(this, RUNNING, RUNNING_NOTIFIED)) {
+                        return;
+                    }
+                    break;
+                case PARKED:
+                    if (STATE_UPDATER.compareAndSet(this, PARKED, QUEUED)) {
+                        scheduler.untrackParked(this);
+                        scheduler.enqueue(this);
+                        return;
+                    }
+                    break;
+                default: // QUEUED, RUNNING_NOTIFIED, or DONE
+                    return;
+            }
+        }
+    }
+
+    /**
+     * Equivalent to {@link #unpark() }, except that the context of this task's coroutine gets set to {@code context} right before it's
+     * next resumed. If this method is called multiple times before the coroutine gets resumed, the last context wins.
+     * <p>
+     * This method is thread-safe.
+     * @param context context to pass in to the coroutine
+     */
+    public void unpark(Object context) {
+        pendingContext = context;
+        unpark();
+    }
+
+    /**
+     * Get whether or not this task is done. A task is done when its coroutine returns, when its coroutine suspends with
+     * {@link Signal#COMPLETE} in its context, when its coroutine throws an exception, or when its scheduler was closed before it
+     * could finish.
+     * @return {@code true} if this task is done, {@code false} otherwise
+     */
+    public boolean isDone() {
+        return state == DONE;
+    }
+
+    /**
+     * Get a stage that completes once this task is done. The stage completes exceptionally with the
+     * {@link com.offbynull.coroutines.user.CoroutineException} thrown by the coroutine if the coroutine failed (or with the
+     * {@link Error} itself if the coroutine threw an {@link Error}), or with a {@link java.util.concurrent.CancellationException} if the
+     * scheduler was closed before the coroutine could finish.
+     * <p>
+     * A coroutine throwing doesn't affect any other task. The only exception is {@link VirtualMachineError}, which also gets rethrown and
+     * kills the worker thread that was running the coroutine (the tasks queued on that worker are picked up by the other workers).
+     * @return completion stage for this task
+     */
+    public CompletionStage<Void> getCompletion() {
+        return completion.minimalCompletionStage();
+    }
+
+    void run() {
+        state = RUNNING;
+
+        Object context = PENDING_CONTEXT_UPDATER.getAndSet(this, NO_CONTEXT);
+        if (context != NO_CONTEXT) {
+            runner.setContext(context);
+        }
+
+        boolean suspended;
+        try {
+            suspended = runner.execute();
+        } catch (RuntimeException re) {
+            state = DONE;
+            completion.completeExceptionally(re);
+            return;
+        } catch (VirtualMachineError vme) {
+            // the JVM itself is in trouble, there's no point in keeping the worker running
+            state = DONE;
+            completion.completeExceptionally(vme);
+            throw vme;
+        } catch (Error e) {
+            // errors like AssertionError/LinkageError only concern this task -- fail it and keep the worker running other tasks
+            state = DONE;
+            completion.completeExceptionally(e);
+            return;
+        }
+
+        Object signal = runner.getContext();
+        if (signal instanceof Signal) {
+            runner.setContext(null);
+        }
+
+        if (!suspended || signal == Signal.COMPLETE) {
+            state = DONE;
+            completion.complete(null);
+            return;
+        }
+
+        if (signal == Signal.PARK) {
+            boolean open = scheduler.trackParked(this);
+            if (STATE_UPDATER.compareAndSet(this, RUNNING, PARKED)) {
+                if (!open) {
+                    cancel(); // scheduler got closed while this was running, nothing is left to unpark it
+                }
+                return;
+            }
+            // unparked while it was running, so put it right back in to the queue
+            scheduler.untrackParked(this);
+            state = QUEUED;
+            scheduler.enqueue(this);
+        } else {
+            state = QUEUED;
+            scheduler.requeue(this);
+        }
+    }
+
+    // Cancel a queued or parked task. Does nothing if the task is running (it gets dealt with once it suspends) or already done -- a parked
+    // task may be getting unparked concurrently, in which case whichever flips the state first wins.
+    void cancel() {
+        while (true) {
+            int current = state;
+            if (current != QUEUED && current != PARKED) {
+                return;
+            }
+            if (STATE_UPDATER.compareAndSet(this, current, DONE)) {
+                if (current == PARKED) {
+                    scheduler.untrackParked(this);
+                }
+                completion.cancel(false);
+                return;
+            }
+        }
+    }
+}
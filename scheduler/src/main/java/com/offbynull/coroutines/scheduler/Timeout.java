@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A timer scheduled on a {@link TimerWheel}.
+ * @author Kasra Faghihi
+ */
+public final class Timeout {
+    static final int PENDING = 0;
+    static final int FIRED = 1;
+    static final int CANCELLED = 2;
+
+    private static final AtomicIntegerFieldUpdater<Timeout> STATE_UPDATER
+            = AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+
+    private final TimerWheel timerWheel;
+    private final Task task;
+    private final long deadline;
+    private volatile int state;
+
+    // bucket linkage, only touched by the timer wheel's thread
+    private Timeout prev;
+    private Timeout next;
+    private int level = -1;
+    private int slot = -1;
+
+    Timeout(TimerWheel timerWheel, Task task, long deadline) {
+        this.timerWheel = timerWheel;
+        this.task = task;
+        this.deadline = deadline;
+        this.state = PENDING;
+    }
+
+    /**
+     * Cancel this timer. If successful, the task this timer was scheduled for gets unparked with {@link Outcome#CANCELLED} as its
+     * context.
+     * <p>
+     * This method is thread-safe.
+     * @return {@code true} if this timer was cancelled, {@code false} if it already fired or was already cancelled
+     */
+    public boolean cancel() {
+        if (!discard()) {
+            return false;
+        }
+        task.unpark(Outcome.CANCELLED);
+        return true;
+    }
+
+    /**
+     * Cancel this timer without unparking the task it was scheduled for. Use this from the coroutine that scheduled the timer once it no
+     * longer needs it (e.g. a deadline for an operation that completed in time) -- calling {@link #cancel() } from that coroutine would
+     * cause its next park to be skipped.
+     * <p>
+     * This method is thread-safe.
+     * @return {@code true} if this timer was cancelled, {@code false} if it already fired or was already cancelled
+     */
+    public boolean discard() {
+        if (!STATE_UPDATER.compareAndSet(this, PENDING, CANCELLED)) {
+            return false;
+        }
+        timerWheel.cancelled(this);
+        return true;
+    }
+
+    /**
+     * Get whether or not this timer has fired.
+     * @return {@code true} if this timer has fired, {@code false} otherwise
+     */
+    public boolean isFired() {
+        return state == FIRED;
+    }
+
+    /**
+     * Get whether or not this timer has been cancelled.
+     * @return {@code true} if this timer has been cancelled, {@code false} otherwise
+     */
+    public boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    Task getTask() {
+        return task;
+    }
+
+    long getDeadline() {
+        return deadline;
+    }
+
+    Timeout getPrev() {
+        return prev;
+    }
+
+    void setPrev(Timeout prev) {
+        this.prev = prev;
+    }
+
+    Timeout getNext() {
+        return next;
+    }
+
+    void setNext(Timeout next) {
+        this.next = next;
+    }
+
+    int getLevel() {
+        return level;
+    }
+
+    void setLevel(int level) {
+        this.level = level;
+    }
+
+    int getSlot() {
+        return slot;
+    }
+
+    void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    boolean fire() {
+        if (!STATE_UPDATER.compareAndSet(this, PENDING, FIRED)) {
+            return false;
+        }
+        task.unpark(Outcome.FIRED);
+        return true;
+    }
+
+    /**
+     * Outcome of a timer, passed in as the context of the coroutine the timer was scheduled for when it gets unparked.
+     */
+    public enum Outcome {
+        /**
+         * Timer elapsed.
+         */
+        FIRED,
+        /**
+         * Timer was cancelled before it could elapse (via {@link Timeout#cancel() } or by closing its {@link TimerWheel}).
+         */
+        CANCELLED
+    }
+}
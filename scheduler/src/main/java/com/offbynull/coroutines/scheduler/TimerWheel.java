@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.io.Closeable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Hierarchical timing wheel that unparks {@link Task}s once their timers elapse. A single thread advances the wheel on behalf of all
+ * timers.
+ * <p>
+ * To sleep, a coroutine running under a {@link Scheduler} schedules a timer for its own task and then parks ...
+ * <pre>
+ * timerWheel.schedule(Task.current(), 100L, TimeUnit.MILLISECONDS);
+ * continuation.setContext(Signal.PARK);
+ * continuation.suspend();
+ * Timeout.Outcome outcome = (Timeout.Outcome) continuation.getContext();
+ * </pre>
+ * Once the timer elapses, the task gets unparked with {@link Timeout.Outcome#FIRED} as its context. If the timer gets cancelled first,
+ * the task gets unparked with {@link Timeout.Outcome#CANCELLED} as its context instead.
+ * <p>
+ * The wheel is made up of 6 levels of 64 slots each. Each slot on level 0 spans a single tick, and each slot
+ * on level {@code n} spans {@code 64^n} ticks. Timers are placed on the lowest level whose slots are coarse enough to hold them, and get
+ * pushed down to lower levels as the wheel turns. Scheduling and cancelling are O(1) -- both go through lock-free queues that the wheel's
+ * thread drains before each tick.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class TimerWheel implements Closeable {
+    private static final int LEVEL_BITS = 6;
+    private static final int SLOTS = 1 << LEVEL_BITS;
+    private static final long SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 6;
+    private static final long MAX_RANGE = 1L << (LEVEL_BITS * LEVELS); // in ticks
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final ConcurrentLinkedQueue<Timeout> pendingTimeouts;
+    private final ConcurrentLinkedQueue<Timeout> cancelledTimeouts;
+    private final Thread thread;
+    private volatile boolean idle;
+    private volatile boolean closed;
+
+    // only touched by the wheel's thread
+    private final Timeout[][] buckets;
+    private long currentTick;
+    private int count;
+
+    /**
+     * Constructs a {@link TimerWheel} object with a tick duration of 1 millisecond, using {@link Executors#defaultThreadFactory() } to
+     * create its thread.
+     */
+    public TimerWheel() {
+        this(1L, TimeUnit.MILLISECONDS, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a {@link TimerWheel} object.
+     * @param tickDuration duration of a single tick (timers are rounded up to the next tick)
+     * @param unit unit of {@code tickDuration}
+     * @param threadFactory factory used to create the wheel's thread
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code tickDuration} is less than 1 nanosecond
+     * @throws IllegalStateException if {@code threadFactory} returned {@code null}
+     */
+    public TimerWheel(long tickDuration, TimeUnit unit, ThreadFactory threadFactory) {
+        Validate.notNull(unit);
+        Validate.notNull(threadFactory);
+        tickNanos = unit.toNanos(tickDuration);
+        Validate.isTrue(tickNanos > 0L);
+
+        pendingTimeouts = new ConcurrentLinkedQueue<>();
+        cancelledTimeouts = new ConcurrentLinkedQueue<>();
+        buckets = new Timeout[LEVELS][SLOTS];
+        startNanos = System.nanoTime();
+
+        thread = threadFactory.newThread(this::run);
+        Validate.validState(thread != null, "Thread factory returned null");
+        thread.start();
+    }
+
+    /**
+     * Schedule a timer for a task. Once the timer elapses, {@code task} is unparked with {@link Timeout.Outcome#FIRED} as its context. The
+     * caller is expected to park {@code task} right after calling this method.
+     * <p>
+     * If this timer wheel is closed, the returned timer is cancelled right away.
+     * @param task task to unpark once the timer elapses
+     * @param delay delay before the timer elapses
+     * @param unit unit of {@code delay}
+     * @return scheduled timer
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code delay} is negative
+     */
+    public Timeout schedule(Task task, long delay, TimeUnit unit) {
+        Validate.notNull(task);
+        Validate.notNull(unit);
+        Validate.isTrue(delay >= 0L);
+
+        long delayNanos = Math.min(unit.toNanos(delay), Long.MAX_VALUE / 4L); // keep from overflowing below
+        long deadline = (System.nanoTime() - startNanos + delayNanos + tickNanos - 1L) / tickNanos; // round up to next tick
+
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingTimeouts.offer(timeout);
+        if (closed) {
+            // run() may have already drained the pending timeouts, make sure this one doesn't get stranded
+            cancelPendingTimeouts();
+        } else if (idle) {
+            LockSupport.unpark(thread);
+        }
+        return timeout;
+    }
+
+    /**
+     * Stops this timer wheel's thread and waits for it to die. Timers that haven't elapsed get cancelled.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(thread);
+
+        if (Thread.currentThread() == thread) {
+            return;
+        }
+
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    void cancelled(Timeout timeout) {
+        if (!closed) {
+            cancelledTimeouts.offer(timeout); // the wheel's thread unlinks it, no need to wake it up for that
+        }
+    }
+
+    private void run() {
+        try {
+            while (!closed) {
+                Timeout timeout;
+                while ((timeout = pendingTimeouts.poll()) != null) {
+                    if (!timeout.isCancelled()) {
+                        insert(timeout);
+                    }
+                }
+                while ((timeout = cancelledTimeouts.poll()) != null) {
+                    unlink(timeout);
+                }
+
+                long targetTick = (System.nanoTime() - startNanos) / tickNanos;
+                while (currentTick < targetTick) {
+                    advance();
+                }
+
+                if (count == 0) {
+                    // Nothing to tick for, so sleep until something gets scheduled. Advertise that we're idle before checking one last
+                    // time so that schedule() can't miss waking us up.
+                    idle = true;
+                    if (pendingTimeouts.isEmpty() && !closed) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                    currentTick = Math.max(currentTick, (System.nanoTime() - startNanos) / tickNanos); // empty, so safe to skip ahead
+                } else {
+                    long nextTickNanos = startNanos + (currentTick + 1L) * tickNanos;
+                    LockSupport.parkNanos(this, nextTickNanos - System.nanoTime());
+                }
+            }
+        } finally {
+            for (Timeout[] levelBuckets : buckets) {
+                for (int i = 0; i < levelBuckets.length; i++) {
+                    Timeout timeout = levelBuckets[i];
+                    levelBuckets[i] = null;
+                    while (timeout != null) {
+                        Timeout next = timeout.getNext();
+                        timeout.cancel();
+                        timeout = next;
+                    }
+                }
+            }
+            cancelledTimeouts.clear();
+            cancelPendingTimeouts();
+        }
+    }
+
+    private void cancelPendingTimeouts() {
+        Timeout timeout;
+        while ((timeout = pendingTimeouts.poll()) != null) {
+            timeout.cancel();
+        }
+    }
+
+    private void advance() {
+        currentTick++;
+
+        // Push timers down from any higher-level slots that the wheel just rolled on to. This has to go from the highest level down,
+        // because timers pushed down from one level may land in the slot of the level below that's about to be pushed down as well.
+        for (int level = LEVELS - 1; level >= 1; level--) {
+            int shift = level * LEVEL_BITS;
+            if ((currentTick & ((1L << shift) - 1L)) == 0L) {
+                int slot = (int) ((currentTick >>> shift) & SLOT_MASK);
+                Timeout timeout = detach(level, slot);
+                while (timeout != null) {
+                    Timeout next = timeout.getNext();
+                    timeout.setNext(null);
+                    insert(timeout);
+                    timeout = next;
+                }
+            }
+        }
+
+        Timeout timeout = detach(0, (int) (currentTick & SLOT_MASK));
+        while (timeout != null) {
+            Timeout next = timeout.getNext();
+            timeout.setNext(null);
+            timeout.fire();
+            timeout = next;
+        }
+    }
+
+    private void insert(Timeout timeout) {
+        long deadline = timeout.getDeadline();
+        if (deadline <= currentTick) {
+            timeout.fire();
+            return;
+        }
+
+        // Timers further out than the wheel can hold get parked in the top level and re-inserted once the wheel gets around to them
+        long placement = deadline - currentTick >= MAX_RANGE ? currentTick + MAX_RANGE - 1L : deadline;
+
+        // The level is picked by the highest bit that differs between the deadline and the current tick -- the slot at that level gets
+        // rolled on to exactly when the current tick catches up to the deadline at that level's granularity
+        long masked = (placement ^ currentTick) | SLOT_MASK;
+        if (masked >= MAX_RANGE) {
+            masked = MAX_RANGE - 1L;
+        }
+        int level = (63 - Long.numberOfLeadingZeros(masked)) / LEVEL_BITS;
+        int slot = (int) ((placement >>> (level * LEVEL_BITS)) & SLOT_MASK);
+
+        Timeout head = buckets[level][slot];
+        timeout.setPrev(null);
+        timeout.setNext(head);
+        if (head != null) {
+            head.setPrev(timeout);
+        }
+        buckets[level][slot] = timeout;
+        timeout.setLevel(level);
+        timeout.setSlot(slot);
+        count++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.getLevel() == -1) {
+            return; // not in a bucket (never inserted or already detached)
+        }
+
+        if (timeout.getPrev() == null) {
+            buckets[timeout.getLevel()][timeout.getSlot()] = timeout.getNext();
+        } else {
+            timeout.getPrev().setNext(timeout.getNext());
+        }
+        if (timeout.getNext() != null) {
+            timeout.getNext().setPrev(timeout.getPrev());
+        }
+        timeout.setPrev(null);
+        timeout.setNext(null);
+        timeout.setLevel(-1);
+        timeout.setSlot(-1);
+        count--;
+    }
+
+    // Detach all timers in a slot, returning the head of the detached list (linked via next)
+    private Timeout detach(int level, int slot) {
+        Timeout head = buckets[level][slot];
+        buckets[level][slot] = null;
+        for (Timeout timeout = head; timeout != null; timeout = timeout.getNext()) {
+            timeout.setPrev(null);
+            timeout.setLevel(-1);
+            timeout.setSlot(-1);
+            count--;
+        }
+        return head;
+    }
+}
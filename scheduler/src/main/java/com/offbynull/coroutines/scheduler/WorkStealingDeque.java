@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Work-stealing deque (based on the Chase-Lev algorithm). The worker that owns the deque pushes and pops items at the bottom end, while
+ * other workers steal items from the top end.
+ * <p>
+ * Only the owning thread may call {@link #push(java.lang.Object) } and {@link #pop() }. Any thread may call {@link #steal() }.
+ * @param <T> item type
+ * @author Kasra Faghihi
+ */
+final class WorkStealingDeque<T> {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final AtomicLong top;
+    private volatile long bottom;
+    private volatile AtomicReferenceArray<T> buffer;
+
+    WorkStealingDeque() {
+        top = new AtomicLong();
+        buffer = new AtomicReferenceArray<>(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Push an item on to the bottom of this deque. Must only be called by the owning thread.
+     * @param item item to push
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    void push(T item) {
+        Validate.notNull(item);
+
+        long b = bottom;
+        long t = top.get();
+        AtomicReferenceArray<T> a = buffer;
+        if (b - t >= a.length()) {
+            a = grow(a, t, b);
+            buffer = a;
+        }
+        a.set((int) (b & (a.length() - 1)), item);
+        bottom = b + 1; // publishes the item to thieves
+    }
+
+    /**
+     * Pop an item from the bottom of this deque. Must only be called by the owning thread.
+     * @return popped item, or {@code null} if empty
+     */
+    T pop() {
+        long b = bottom - 1;
+        AtomicReferenceArray<T> a = buffer;
+        bottom = b; // volatile write followed by volatile read of top, so thieves either see the smaller bottom or we see their top
+        long t = top.get();
+        if (t > b) {
+            bottom = b + 1;
+            return null;
+        }
+
+        int idx = (int) (b & (a.length() - 1));
+        T item = a.get(idx);
+        if (t < b) {
+            // more than 1 item left, thieves can't reach this slot
+            a.set(idx, null);
+            return item;
+        }
+
+        // last item, race thieves for it
+        boolean won = top.compareAndSet(t, t + 1);
+        bottom = b + 1;
+        if (!won) {
+            return null;
+        }
+        a.set(idx, null);
+        return item;
+    }
+
+    /**
+     * Steal an item from the top of this deque. May be called by any thread.
+     * @return stolen item, or {@code null} if empty
+     */
+    T steal() {
+        while (true) {
+            long t = top.get();
+            long b = bottom;
+            if (t >= b) {
+                return null;
+            }
+
+            AtomicReferenceArray<T> a = buffer;
+            int idx = (int) (t & (a.length() - 1));
+            T item = a.get(idx);
+            if (item != null && top.compareAndSet(t, t + 1)) {
+                // Only clear the slot if it still holds the item we took -- the owner may have wrapped around and pushed in to it already
+                a.compareAndSet(idx, item, null);
+                return item;
+            }
+            // lost the race to another thief or to the owner, try again
+        }
+    }
+
+    /**
+     * Get an estimate of the number of items in this deque.
+     * @return number of items in this deque (may be stale by the time it returns)
+     */
+    int size() {
+        long size = bottom - top.get();
+        return size <= 0L ? 0 : (int) size;
+    }
+
+    private static <T> AtomicReferenceArray<T> grow(AtomicReferenceArray<T> a, long t, long b) {
+        int oldMask = a.length() - 1;
+        AtomicReferenceArray<T> newA = new AtomicReferenceArray<>(a.length() * 2);
+        int newMask = newA.length() - 1;
+        for (long i = t; i < b; i++) {
+            newA.set((int) (i & newMask), a.get((int) (i & oldMask)));
+        }
+        return newA;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.user.Continuation;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Hands values from a generator coroutine over to whatever is consuming it (see {@link Generators}). A generator coroutine gets its
+ * {@link Yielder} from its context, sets a value on it, and then suspends ...
+ * <pre>
+ * Yielder yielder = Yielder.from(continuation);
+ * for (int i = 0; i &lt; 10; i++) {
+ *     yielder.yieldInt(i);
+ *     continuation.suspend();
+ * }
+ * </pre>
+ * Primitive values are held as primitives, so yielding to a primitive iterator/spliterator doesn't box.
+ * @author Kasra Faghihi
+ */
+public final class Yielder {
+    static final int NONE = 0;
+    static final int OBJECT = 1;
+    static final int INT = 2;
+    static final int LONG = 3;
+
+    private int kind;
+    private Object objectValue;
+    private int intValue;
+    private long longValue;
+
+    Yielder() {
+        // do nothing
+    }
+
+    /**
+     * Get the yielder for a generator coroutine.
+     * @param continuation continuation of the generator coroutine
+     * @return yielder
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if {@code continuation} doesn't belong to a generator coroutine
+     */
+    public static Yielder from(Continuation continuation) {
+        Validate.notNull(continuation);
+        Object context = continuation.getContext();
+        Validate.validState(context instanceof Yielder, "Not a generator coroutine");
+        return (Yielder) context;
+    }
+
+    /**
+     * Yield an object. The caller must suspend right after calling this method.
+     * @param value value to yield
+     * @throws IllegalStateException if a value was already yielded but the coroutine hasn't suspended since
+     */
+    public void yieldValue(Object value) {
+        Validate.validState(kind == NONE, "Already yielded, must suspend first");
+        kind = OBJECT;
+        objectValue = value;
+    }
+
+    /**
+     * Yield an int. The caller must suspend right after calling this method.
+     * @param value value to yield
+     * @throws IllegalStateException if a value was already yielded but the coroutine hasn't suspended since
+     */
+    public void yieldInt(int value) {
+        Validate.validState(kind == NONE, "Already yielded, must suspend first");
+        kind = INT;
+        intValue = value;
+    }
+
+    /**
+     * Yield a long. The caller must suspend right after calling this method.
+     * @param value value to yield
+     * @throws IllegalStateException if a value was already yielded but the coroutine hasn't suspended since
+     */
+    public void yieldLong(long value) {
+        Validate.validState(kind == NONE, "Already yielded, must suspend first");
+        kind = LONG;
+        longValue = value;
+    }
+
+    int getKind() {
+        return kind;
+    }
+
+    Object takeObject() {
+        Object ret;
+        switch (kind) {
+            case OBJECT:
+                ret = objectValue;
+                objectValue = null;
+                break;
+            case INT:
+                ret = intValue;
+                break;
+            case LONG:
+                ret = longValue;
+                break;
+            default:
+                throw new IllegalStateException("Nothing yielded");
+        }
+        kind = NONE;
+        return ret;
+    }
+
+    int takeInt() {
+        Validate.validState(kind == INT, "Generator yielded something other than an int");
+        kind = NONE;
+        return intValue;
+    }
+
+    long takeLong() {
+        switch (kind) {
+            case INT:
+                kind = NONE;
+                return intValue;
+            case LONG:
+                kind = NONE;
+                return longValue;
+            default:
+                throw new IllegalStateException("Generator yielded something other than a long");
+        }
+    }
+
+    void clear() {
+        kind = NONE;
+        objectValue = null;
+    }
+}
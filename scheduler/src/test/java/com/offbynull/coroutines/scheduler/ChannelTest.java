@@ -0,0 +1,140 @@
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class ChannelTest {
+
+    private static InstrumentingClassLoader classLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(ChannelTest.class.getClassLoader(),
+                SendingCoroutine.class,
+                ReceivingCoroutine.class);
+    }
+
+    @Test
+    public void mustPassValuesThroughBoundedChannelWithMultipleSenders() throws Exception {
+        mustPassValuesThroughChannel(Channel.bounded(4, false), 4);
+    }
+
+    @Test
+    public void mustPassValuesThroughBoundedChannelWithSingleSender() throws Exception {
+        mustPassValuesThroughChannel(Channel.bounded(4, true), 1);
+    }
+
+    @Test
+    public void mustPassValuesThroughUnboundedChannel() throws Exception {
+        mustPassValuesThroughChannel(Channel.unbounded(), 4);
+    }
+
+    @Test
+    public void mustFailToSendToClosedChannel() {
+        Channel<Integer> channel = Channel.bounded(4, false);
+        assertTrue(channel.trySend(1));
+        channel.close();
+
+        assertTrue(channel.isClosed());
+        assertThrows(IllegalStateException.class, () -> channel.trySend(2));
+        assertEquals(1, (int) channel.tryReceive());
+    }
+
+    @Test
+    public void mustFailToSendToFullChannel() {
+        Channel<Integer> channel = Channel.bounded(2, true);
+        assertTrue(channel.trySend(1));
+        assertTrue(channel.trySend(2));
+        assertFalse(channel.trySend(3));
+    }
+
+    private static void mustPassValuesThroughChannel(Channel<Integer> channel, int senderCount) throws Exception {
+        int valuesPerSender = 10000;
+        AtomicLong sum = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+
+        try (Scheduler scheduler = new Scheduler(2)) {
+            Task receiveTask = scheduler.submit((Coroutine) classLoader.newInstance(ReceivingCoroutine.class, channel, sum, count));
+
+            List<Task> sendTasks = new ArrayList<>();
+            for (int i = 0; i < senderCount; i++) {
+                sendTasks.add(scheduler.submit((Coroutine) classLoader.newInstance(SendingCoroutine.class, channel, valuesPerSender)));
+            }
+            for (Task sendTask : sendTasks) {
+                sendTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+            }
+
+            channel.close();
+            receiveTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+
+        long expectedSum = (long) senderCount * ((long) valuesPerSender * (valuesPerSender - 1) / 2L);
+        assertEquals((long) senderCount * valuesPerSender, count.get());
+        assertEquals(expectedSum, sum.get());
+    }
+
+    public static final class SendingCoroutine implements Coroutine {
+        private final Channel<Integer> channel;
+        private final int valueCount;
+
+        public SendingCoroutine(Channel<Integer> channel, Integer valueCount) {
+            this.channel = channel;
+            this.valueCount = valueCount;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            for (int i = 0; i < valueCount; i++) {
+                Integer value = i;
+                while (!channel.trySend(value)) {
+                    channel.registerSender(Task.current());
+                    c.setContext(Signal.PARK);
+                    c.suspend();
+                }
+            }
+        }
+    }
+
+    public static final class ReceivingCoroutine implements Coroutine {
+        private final Channel<Integer> channel;
+        private final AtomicLong sum;
+        private final AtomicLong count;
+
+        public ReceivingCoroutine(Channel<Integer> channel, AtomicLong sum, AtomicLong count) {
+            this.channel = channel;
+            this.sum = sum;
+            this.count = count;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            while (true) {
+                boolean closed = channel.isClosed();
+                Integer value = channel.tryReceive();
+                if (value != null) {
+                    sum.addAndGet(value);
+                    count.incrementAndGet();
+                    continue;
+                }
+                if (closed) {
+                    break;
+                }
+                channel.registerReceiver(Task.current());
+                c.setContext(Signal.PARK);
+                c.suspend();
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class EventLoopTest {
+
+    private static InstrumentingClassLoader classLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(EventLoopTest.class.getClassLoader(),
+                PipeReadingCoroutine.class,
+                WaitingCoroutine.class,
+                AcceptingCoroutine.class,
+                EchoCoroutine.class);
+    }
+
+    @Test
+    public void mustResumeCoroutineWhenPipeBecomesReadable() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        AtomicReference<String> resultRef = new AtomicReference<>();
+
+        try (Scheduler scheduler = new Scheduler(2);
+                EventLoop eventLoop = new EventLoop()) {
+            Coroutine coroutine = classLoader.newInstance(PipeReadingCoroutine.class, eventLoop, pipe.source(), resultRef);
+            Task task = scheduler.submit(coroutine);
+
+            // write in pieces so the coroutine has to wait more than once
+            pipe.sink().write(ByteBuffer.wrap("hel".getBytes(StandardCharsets.US_ASCII)));
+            Thread.sleep(100L);
+            pipe.sink().write(ByteBuffer.wrap("lo".getBytes(StandardCharsets.US_ASCII)));
+
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+
+        assertEquals("hello", resultRef.get());
+    }
+
+    @Test
+    public void mustEchoOverLoopbackSockets() throws Exception {
+        int clientCount = 50;
+
+        try (Scheduler scheduler = new Scheduler(2);
+                EventLoop eventLoop = new EventLoop();
+                ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+            serverChannel.configureBlocking(false);
+
+            Coroutine coroutine = classLoader.newInstance(AcceptingCoroutine.class, scheduler, eventLoop, serverChannel, clientCount);
+            Task acceptTask = scheduler.submit(coroutine);
+
+            List<SocketChannel> clients = new ArrayList<>();
+            try {
+                for (int i = 0; i < clientCount; i++) {
+                    SocketChannel client = SocketChannel.open(serverChannel.getLocalAddress());
+                    clients.add(client);
+                    client.write(ByteBuffer.wrap(String.format("%04d", i).getBytes(StandardCharsets.US_ASCII)));
+                }
+
+                for (int i = 0; i < clientCount; i++) {
+                    ByteBuffer buffer = ByteBuffer.allocate(4);
+                    while (buffer.hasRemaining()) {
+                        if (clients.get(i).read(buffer) == -1) {
+                            break;
+                        }
+                    }
+                    assertEquals(String.format("%04d", i), new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+                }
+            } finally {
+                for (SocketChannel client : clients) {
+                    client.close();
+                }
+            }
+
+            acceptTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void mustResumeWaitingCoroutinesWhenClosed() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        try (Scheduler scheduler = new Scheduler(2)) {
+            EventLoop eventLoop = new EventLoop();
+            Coroutine coroutine = classLoader.newInstance(WaitingCoroutine.class, eventLoop, pipe.source(), resultRef);
+            Task task = scheduler.submit(coroutine);
+
+            Thread.sleep(100L);
+            eventLoop.close();
+
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+
+        assertEquals(0, resultRef.get());
+    }
+
+    @Test
+    public void mustResumeWaitingCoroutineWhenChannelClosed() throws Exception {
+        Pipe pipe = Pipe.open();
+        pipe.source().configureBlocking(false);
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        try (Scheduler scheduler = new Scheduler(2);
+                EventLoop eventLoop = new EventLoop()) {
+            Coroutine coroutine = classLoader.newInstance(WaitingCoroutine.class, eventLoop, pipe.source(), resultRef);
+            Task task = scheduler.submit(coroutine);
+
+            Thread.sleep(100L);
+            pipe.source().close();
+
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+
+        assertEquals(0, resultRef.get());
+    }
+
+    @Test
+    public void mustFailToRegisterBlockingChannel() throws Exception {
+        Pipe pipe = Pipe.open();
+        try (Scheduler scheduler = new Scheduler(1);
+                EventLoop eventLoop = new EventLoop()) {
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(WaitingCoroutine.class, null, null, null));
+            assertThrows(IllegalArgumentException.class, () -> eventLoop.register(pipe.source(), SelectionKey.OP_READ, task));
+            assertThrows(IllegalArgumentException.class, () -> eventLoop.register(pipe.source(), SelectionKey.OP_WRITE, task));
+        } finally {
+            pipe.source().close();
+            pipe.sink().close();
+        }
+    }
+
+    public static final class PipeReadingCoroutine implements Coroutine {
+        private final EventLoop eventLoop;
+        private final Pipe.SourceChannel source;
+        private final AtomicReference<String> resultRef;
+
+        public PipeReadingCoroutine(EventLoop eventLoop, Pipe.SourceChannel source, AtomicReference<String> resultRef) {
+            this.eventLoop = eventLoop;
+            this.source = source;
+            this.resultRef = resultRef;
+        }
+
+        @Override
+        public void run(Continuation c) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(5);
+            while (buffer.hasRemaining()) {
+                int count = source.read(buffer);
+                if (count == -1) {
+                    break;
+                } else if (count == 0) {
+                    eventLoop.register(source, SelectionKey.OP_READ, Task.current());
+                    c.setContext(Signal.PARK);
+                    c.suspend();
+                }
+            }
+            resultRef.set(new String(buffer.array(), 0, buffer.position(), StandardCharsets.US_ASCII));
+        }
+    }
+
+    public static final class WaitingCoroutine implements Coroutine {
+        private final EventLoop eventLoop;
+        private final Pipe.SourceChannel source;
+        private final AtomicReference<Object> resultRef;
+
+        public WaitingCoroutine(EventLoop eventLoop, Pipe.SourceChannel source, AtomicReference<Object> resultRef) {
+            this.eventLoop = eventLoop;
+            this.source = source;
+            this.resultRef = resultRef;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            if (eventLoop == null) {
+                return;
+            }
+            eventLoop.register(source, SelectionKey.OP_READ, Task.current());
+            c.setContext(Signal.PARK);
+            c.suspend();
+            resultRef.set(c.getContext());
+        }
+    }
+
+    public static final class AcceptingCoroutine implements Coroutine {
+        private final Scheduler scheduler;
+        private final EventLoop eventLoop;
+        private final ServerSocketChannel serverChannel;
+        private final int clientCount;
+
+        public AcceptingCoroutine(Scheduler scheduler, EventLoop eventLoop, ServerSocketChannel serverChannel, Integer clientCount) {
+            this.scheduler = scheduler;
+            this.eventLoop = eventLoop;
+            this.serverChannel = serverChannel;
+            this.clientCount = clientCount;
+        }
+
+        @Override
+        public void run(Continuation c) throws IOException {
+            int accepted = 0;
+            while (accepted < clientCount) {
+                SocketChannel channel = serverChannel.accept();
+                if (channel == null) {
+                    eventLoop.register(serverChannel, SelectionKey.OP_ACCEPT, Task.current());
+                    c.setContext(Signal.PARK);
+                    c.suspend();
+                    continue;
+                }
+                channel.configureBlocking(false);
+                scheduler.submit(new EchoCoroutine(eventLoop, channel));
+                accepted++;
+            }
+        }
+    }
+
+    public static final class EchoCoroutine implements Coroutine {
+        private final EventLoop eventLoop;
+        private final SocketChannel channel;
+
+        public EchoCoroutine(EventLoop eventLoop, SocketChannel channel) {
+            this.eventLoop = eventLoop;
+            this.channel = channel;
+        }
+
+        @Override
+        public void run(Continuation c) throws IOException {
+            try {
+                ByteBuffer buffer = ByteBuffer.allocate(4);
+                while (buffer.hasRemaining()) {
+                    int count = channel.read(buffer);
+                    if (count == -1) {
+                        return;
+                    } else if (count == 0) {
+                        waitFor(c, SelectionKey.OP_READ);
+                    }
+                }
+
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (channel.write(buffer) == 0) {
+                        waitFor(c, SelectionKey.OP_WRITE);
+                    }
+                }
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void waitFor(Continuation c, int ops) {
+            eventLoop.register(channel, ops, Task.current());
+            c.setContext(Signal.PARK);
+            c.suspend();
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.Spliterator;
+import java.util.stream.StreamSupport;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class GeneratorsTest {
+
+    private static InstrumentingClassLoader classLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(GeneratorsTest.class.getClassLoader(),
+                StringCoroutine.class,
+                RangeCoroutine.class,
+                FailingCoroutine.class);
+    }
+
+    @Test
+    public void mustIterateOverYieldedObjects() throws Exception {
+        Iterator<String> it = Generators.iterator((Coroutine) classLoader.newInstance(StringCoroutine.class));
+
+        List<String> values = new ArrayList<>();
+        it.forEachRemaining(values::add);
+
+        assertEquals(List.of("a", "b", "c"), values);
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void mustIterateOverYieldedInts() throws Exception {
+        PrimitiveIterator.OfInt it = Generators.intIterator(createRangeCoroutine(0L, 10L));
+
+        for (int i = 0; i < 10; i++) {
+            assertTrue(it.hasNext());
+            assertEquals(i, it.nextInt());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void mustIterateOverYieldedIntsAsLongs() throws Exception {
+        PrimitiveIterator.OfLong it = Generators.longIterator(createRangeCoroutine(5L, 8L));
+
+        assertEquals(5L, it.nextLong());
+        assertEquals(6L, it.nextLong());
+        assertEquals(7L, it.nextLong());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void mustFailWhenIntIteratorGetsNonInt() throws Exception {
+        PrimitiveIterator.OfInt it = Generators.intIterator((Coroutine) classLoader.newInstance(StringCoroutine.class));
+
+        assertThrows(IllegalStateException.class, () -> it.nextInt());
+    }
+
+    @Test
+    public void mustPropagateExceptionThrownByGenerator() throws Exception {
+        Iterator<Object> it = Generators.iterator((Coroutine) classLoader.newInstance(FailingCoroutine.class));
+
+        assertEquals("before", it.next());
+        assertThrows(CoroutineException.class, () -> it.hasNext());
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void mustSplitIntoIndependentPartitions() {
+        Spliterator.OfInt spliterator = Generators.intSpliterator(0L, 100L, GeneratorsTest::createRangeCoroutine);
+
+        Spliterator.OfInt prefix = spliterator.trySplit();
+        assertEquals(50L, prefix.estimateSize());
+        assertEquals(50L, spliterator.estimateSize());
+
+        List<Integer> prefixValues = new ArrayList<>();
+        prefix.forEachRemaining((int v) -> prefixValues.add(v));
+        List<Integer> suffixValues = new ArrayList<>();
+        assertTrue(spliterator.tryAdvance((int v) -> suffixValues.add(v)));
+        assertNull(spliterator.trySplit()); // can't split once it's started generating
+        spliterator.forEachRemaining((int v) -> suffixValues.add(v));
+
+        assertEquals(50, prefixValues.size());
+        assertEquals(50, suffixValues.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, (int) prefixValues.get(i));
+            assertEquals(50 + i, (int) suffixValues.get(i));
+        }
+    }
+
+    @Test
+    public void mustFeedParallelStream() {
+        long count = 1000000L;
+        Spliterator.OfInt spliterator = Generators.intSpliterator(0L, count, GeneratorsTest::createRangeCoroutine);
+
+        long sum = StreamSupport.intStream(spliterator, true).asLongStream().sum();
+
+        assertEquals(count * (count - 1L) / 2L, sum);
+    }
+
+    @Test
+    public void mustFeedOrderedParallelStream() {
+        Spliterator<Object> spliterator = Generators.spliterator(0L, 10000L, GeneratorsTest::createRangeCoroutine);
+
+        List<Object> values = StreamSupport.stream(spliterator, true).collect(java.util.stream.Collectors.toList());
+
+        assertEquals(10000, values.size());
+        for (int i = 0; i < 10000; i++) {
+            assertEquals(i, values.get(i));
+        }
+    }
+
+    private static Coroutine createRangeCoroutine(long from, long to) {
+        try {
+            return classLoader.newInstance(RangeCoroutine.class, from, to);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static final class StringCoroutine implements Coroutine {
+        @Override
+        public void run(Continuation c) {
+            Yielder yielder = Yielder.from(c);
+            yielder.yieldValue("a");
+            c.suspend();
+            yielder.yieldValue("b");
+            c.suspend();
+            yielder.yieldValue("c");
+            c.suspend();
+        }
+    }
+
+    public static final class RangeCoroutine implements Coroutine {
+        private final long from;
+        private final long to;
+
+        public RangeCoroutine(Long from, Long to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            Yielder yielder = Yielder.from(c);
+            for (long i = from; i < to; i++) {
+                yielder.yieldInt((int) i);
+                c.suspend();
+            }
+        }
+    }
+
+    public static final class FailingCoroutine implements Coroutine {
+        @Override
+        public void run(Continuation c) {
+            Yielder.from(c).yieldValue("before");
+            c.suspend();
+            throw new IllegalStateException();
+        }
+    }
+}
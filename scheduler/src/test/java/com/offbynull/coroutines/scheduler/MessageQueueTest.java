@@ -0,0 +1,125 @@
+package com.offbynull.coroutines.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class MessageQueueTest {
+
+    @Test
+    public void mustOfferAndPollInFifoOrderWithSpscArrayQueue() {
+        mustOfferAndPollInFifoOrder(() -> new SpscArrayQueue<>(5));
+    }
+
+    @Test
+    public void mustOfferAndPollInFifoOrderWithMpscArrayQueue() {
+        mustOfferAndPollInFifoOrder(() -> new MpscArrayQueue<>(5));
+    }
+
+    @Test
+    public void mustOfferAndPollInFifoOrderWithMpscLinkedQueue() {
+        mustOfferAndPollInFifoOrder(() -> new MpscLinkedQueue<>());
+    }
+
+    @Test
+    public void mustRejectOffersWhenFullWithSpscArrayQueue() {
+        mustRejectOffersWhenFull(new SpscArrayQueue<>(5));
+    }
+
+    @Test
+    public void mustRejectOffersWhenFullWithMpscArrayQueue() {
+        mustRejectOffersWhenFull(new MpscArrayQueue<>(5));
+    }
+
+    @Test
+    public void mustNotLoseItemsWithSpscArrayQueue() throws Exception {
+        mustNotLoseItems(new SpscArrayQueue<>(64), 1);
+    }
+
+    @Test
+    public void mustNotLoseItemsWithMpscArrayQueue() throws Exception {
+        mustNotLoseItems(new MpscArrayQueue<>(64), 4);
+    }
+
+    @Test
+    public void mustNotLoseItemsWithMpscLinkedQueue() throws Exception {
+        mustNotLoseItems(new MpscLinkedQueue<>(), 4);
+    }
+
+    private static void mustOfferAndPollInFifoOrder(Supplier<MessageQueue<Integer>> supplier) {
+        MessageQueue<Integer> queue = supplier.get();
+        assertTrue(queue.isEmpty());
+        for (int round = 0; round < 10; round++) { // wrap around the ring buffer a few times
+            for (int i = 0; i < 5; i++) {
+                assertTrue(queue.offer(i));
+            }
+            assertFalse(queue.isEmpty());
+            for (int i = 0; i < 5; i++) {
+                assertEquals(i, (int) queue.poll());
+            }
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    private static void mustRejectOffersWhenFull(MessageQueue<Integer> queue) {
+        for (int i = 0; i < 5; i++) {
+            assertTrue(queue.offer(i));
+        }
+        assertTrue(queue.isFull());
+        assertFalse(queue.offer(5));
+
+        assertEquals(0, (int) queue.poll());
+        assertFalse(queue.isFull());
+        assertTrue(queue.offer(5));
+        assertFalse(queue.offer(6));
+    }
+
+    private static void mustNotLoseItems(MessageQueue<Integer> queue, int producerCount) throws Exception {
+        int itemsPerProducer = 100000;
+
+        List<Thread> producers = new ArrayList<>();
+        for (int i = 0; i < producerCount; i++) {
+            int producerId = i;
+            Thread producer = new Thread(() -> {
+                for (int j = 0; j < itemsPerProducer; j++) {
+                    Integer item = producerId * itemsPerProducer + j;
+                    while (!queue.offer(item)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            producer.start();
+            producers.add(producer);
+        }
+
+        int[] lastSeen = new int[producerCount];
+        for (int i = 0; i < producerCount; i++) {
+            lastSeen[i] = -1;
+        }
+
+        int received = 0;
+        while (received < producerCount * itemsPerProducer) {
+            Integer item = queue.poll();
+            if (item == null) {
+                Thread.yield();
+                continue;
+            }
+            int producerId = item / itemsPerProducer;
+            int seq = item % itemsPerProducer;
+            assertEquals(lastSeen[producerId] + 1, seq); // items from the same producer must come out in order
+            lastSeen[producerId] = seq;
+            received++;
+        }
+
+        for (Thread producer : producers) {
+            producer.join();
+        }
+        assertNull(queue.poll());
+    }
+}
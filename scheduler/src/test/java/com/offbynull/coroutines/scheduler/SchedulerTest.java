@@ -0,0 +1,305 @@
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class SchedulerTest {
+
+    private static InstrumentingClassLoader classLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(SchedulerTest.class.getClassLoader(),
+                YieldingCoroutine.class,
+                ParkingCoroutine.class,
+                CompletingCoroutine.class,
+                FailingCoroutine.class,
+                ErrorThrowingCoroutine.class,
+                ClosingCoroutine.class);
+    }
+
+    @Test
+    public void mustRunYieldingCoroutinesToCompletion() throws Exception {
+        int coroutineCount = 10000;
+        int yieldCount = 10;
+        AtomicInteger counter = new AtomicInteger();
+
+        List<Task> tasks = new ArrayList<>(coroutineCount);
+        try (Scheduler scheduler = new Scheduler(4)) {
+            for (int i = 0; i < coroutineCount; i++) {
+                Coroutine coroutine = classLoader.newInstance(YieldingCoroutine.class, counter, yieldCount);
+                tasks.add(scheduler.submit(coroutine));
+            }
+            for (Task task : tasks) {
+                task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+                assertTrue(task.isDone());
+            }
+        }
+
+        assertEquals(coroutineCount * (yieldCount + 1), counter.get());
+    }
+
+    @Test
+    public void mustResumeParkedCoroutineWithContextWhenUnparked() throws Exception {
+        AtomicReference<Task> taskRef = new AtomicReference<>();
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        try (Scheduler scheduler = new Scheduler(2)) {
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(ParkingCoroutine.class, taskRef, resultRef));
+            while (taskRef.get() == null) {
+                Thread.sleep(1L);
+            }
+            assertTrue(task == taskRef.get());
+
+            task.unpark("hello");
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+
+        assertEquals("hello", resultRef.get());
+    }
+
+    @Test
+    public void mustStayParkedUntilUnparked() throws Exception {
+        AtomicReference<Task> taskRef = new AtomicReference<>();
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        try (Scheduler scheduler = new Scheduler(2)) {
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(ParkingCoroutine.class, taskRef, resultRef));
+            Thread.sleep(500L);
+
+            assertFalse(task.isDone());
+            assertNull(resultRef.get());
+
+            task.unpark();
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+
+        assertNull(resultRef.get()); // park signal must have been cleared from the context
+    }
+
+    @Test
+    public void mustCompleteTaskOnCompleteSignal() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+
+        try (Scheduler scheduler = new Scheduler(2)) {
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(CompletingCoroutine.class, counter));
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+            assertTrue(task.isDone());
+        }
+
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void mustCompleteTaskExceptionallyWhenCoroutineThrows() throws Exception {
+        try (Scheduler scheduler = new Scheduler(2)) {
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(FailingCoroutine.class));
+            ExecutionException ee = assertThrows(ExecutionException.class,
+                    () -> task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+            assertTrue(ee.getCause() instanceof CoroutineException);
+            assertTrue(task.isDone());
+        }
+    }
+
+    @Test
+    public void mustCancelParkedTasksOnClose() throws Exception {
+        AtomicReference<Task> taskRef = new AtomicReference<>();
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        Scheduler scheduler = new Scheduler(2);
+        Task task = scheduler.submit((Coroutine) classLoader.newInstance(ParkingCoroutine.class, taskRef, resultRef));
+        while (taskRef.get() == null) {
+            Thread.sleep(1L);
+        }
+        scheduler.close();
+
+        ExecutionException ee = assertThrows(ExecutionException.class,
+                () -> task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+        assertTrue(ee.getCause() instanceof CancellationException);
+        assertTrue(task.isDone());
+        assertNull(resultRef.get());
+    }
+
+    @Test
+    public void mustCancelTasksUnparkedAfterClose() throws Exception {
+        AtomicReference<Task> taskRef = new AtomicReference<>();
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+
+        Scheduler scheduler = new Scheduler(2);
+        Task task = scheduler.submit((Coroutine) classLoader.newInstance(ParkingCoroutine.class, taskRef, resultRef));
+        while (taskRef.get() == null) {
+            Thread.sleep(1L);
+        }
+        scheduler.close();
+
+        task.unpark();
+        ExecutionException ee = assertThrows(ExecutionException.class,
+                () -> task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+        assertTrue(ee.getCause() instanceof CancellationException);
+        assertNull(resultRef.get());
+        assertThrows(IllegalStateException.class, () -> scheduler.submit((Coroutine) classLoader.newInstance(FailingCoroutine.class)));
+    }
+
+    @Test
+    public void mustKeepWorkerRunningWhenCoroutineThrowsError() throws Exception {
+        AtomicInteger counter = new AtomicInteger();
+
+        try (Scheduler scheduler = new Scheduler(1)) {
+            Task failingTask = scheduler.submit((Coroutine) classLoader.newInstance(ErrorThrowingCoroutine.class));
+            ExecutionException ee = assertThrows(ExecutionException.class,
+                    () -> failingTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+            assertTrue(ee.getCause() instanceof AssertionError);
+            assertTrue(failingTask.isDone());
+
+            // the only worker must still be alive to run this
+            Task task = scheduler.submit((Coroutine) classLoader.newInstance(CompletingCoroutine.class, counter));
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, counter.get());
+    }
+
+    @Test
+    public void mustCancelCallingTaskWhenClosedFromInsideCoroutine() throws Exception {
+        AtomicReference<Task> parkedTaskRef = new AtomicReference<>();
+        AtomicReference<Object> resultRef = new AtomicReference<>();
+        AtomicReference<Scheduler> schedulerRef = new AtomicReference<>();
+        AtomicInteger counter = new AtomicInteger();
+        List<Thread> threads = new ArrayList<>();
+
+        Scheduler scheduler = new Scheduler(2, r -> {
+            Thread thread = new Thread(r);
+            threads.add(thread);
+            return thread;
+        });
+        schedulerRef.set(scheduler);
+
+        Task parkedTask = scheduler.submit((Coroutine) classLoader.newInstance(ParkingCoroutine.class, parkedTaskRef, resultRef));
+        while (parkedTaskRef.get() == null) {
+            Thread.sleep(1L);
+        }
+        Task closingTask = scheduler.submit((Coroutine) classLoader.newInstance(ClosingCoroutine.class, schedulerRef, counter));
+
+        // close() returns inside the coroutine, which then gets cancelled once it suspends
+        ExecutionException ee = assertThrows(ExecutionException.class,
+                () -> closingTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+        assertTrue(ee.getCause() instanceof CancellationException);
+        assertEquals(1, counter.get());
+
+        ee = assertThrows(ExecutionException.class,
+                () -> parkedTask.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS));
+        assertTrue(ee.getCause() instanceof CancellationException);
+
+        for (Thread thread : threads) {
+            thread.join(30000L);
+            assertFalse(thread.isAlive());
+        }
+        assertThrows(IllegalStateException.class, () -> scheduler.submit((Coroutine) classLoader.newInstance(FailingCoroutine.class)));
+    }
+
+    public static final class YieldingCoroutine implements Coroutine {
+        private final AtomicInteger counter;
+        private final int yieldCount;
+
+        public YieldingCoroutine(AtomicInteger counter, Integer yieldCount) {
+            this.counter = counter;
+            this.yieldCount = yieldCount;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            for (int i = 0; i < yieldCount; i++) {
+                counter.incrementAndGet();
+                c.setContext(Signal.YIELD);
+                c.suspend();
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    public static final class ParkingCoroutine implements Coroutine {
+        private final AtomicReference<Task> taskRef;
+        private final AtomicReference<Object> resultRef;
+
+        public ParkingCoroutine(AtomicReference<Task> taskRef, AtomicReference<Object> resultRef) {
+            this.taskRef = taskRef;
+            this.resultRef = resultRef;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            taskRef.set(Task.current());
+            c.setContext(Signal.PARK);
+            c.suspend();
+            resultRef.set(c.getContext());
+        }
+    }
+
+    public static final class CompletingCoroutine implements Coroutine {
+        private final AtomicInteger counter;
+
+        public CompletingCoroutine(AtomicInteger counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            counter.incrementAndGet();
+            c.setContext(Signal.COMPLETE);
+            c.suspend();
+            counter.incrementAndGet();
+        }
+    }
+
+    public static final class FailingCoroutine implements Coroutine {
+        @Override
+        public void run(Continuation c) {
+            c.suspend();
+            throw new IllegalStateException();
+        }
+    }
+
+    public static final class ErrorThrowingCoroutine implements Coroutine {
+        @Override
+        public void run(Continuation c) {
+            c.suspend();
+            throw new AssertionError();
+        }
+    }
+
+    public static final class ClosingCoroutine implements Coroutine {
+        private final AtomicReference<Scheduler> schedulerRef;
+        private final AtomicInteger counter;
+
+        public ClosingCoroutine(AtomicReference<Scheduler> schedulerRef, AtomicInteger counter) {
+            this.schedulerRef = schedulerRef;
+            this.counter = counter;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            schedulerRef.get().close();
+            counter.incrementAndGet();
+            c.setContext(Signal.YIELD);
+            c.suspend();
+            counter.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.offbynull.coroutines.scheduler;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+public class TimerWheelTest {
+
+    private static InstrumentingClassLoader classLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(TimerWheelTest.class.getClassLoader(),
+                SleepingCoroutine.class);
+    }
+
+    @Test
+    public void mustResumeCoroutinesOnceTheirTimersElapse() throws Exception {
+        int coroutineCount = 5000;
+        Random random = new Random(12345L);
+        ConcurrentLinkedQueue<Object> outcomes = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> earlyBy = new ConcurrentLinkedQueue<>();
+
+        // 100 microsecond ticks, so delays of up to 1 second end up spread across the first 3 levels of the wheel
+        try (Scheduler scheduler = new Scheduler(2);
+                TimerWheel timerWheel = new TimerWheel(100L, TimeUnit.MICROSECONDS, Executors.defaultThreadFactory())) {
+            List<Task> tasks = new ArrayList<>();
+            for (int i = 0; i < coroutineCount; i++) {
+                long delay = random.nextInt(1000000);
+                Coroutine coroutine = classLoader.newInstance(SleepingCoroutine.class, timerWheel, delay, null, outcomes, earlyBy);
+                tasks.add(scheduler.submit(coroutine));
+            }
+            for (Task task : tasks) {
+                task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+            }
+        }
+
+        assertEquals(coroutineCount, outcomes.size());
+        assertTrue(outcomes.stream().allMatch(o -> o == Timeout.Outcome.FIRED));
+        assertTrue(earlyBy.isEmpty(), "Timers fired early: " + earlyBy);
+    }
+
+    @Test
+    public void mustResumeCoroutineWithCancelledOutcomeWhenCancelled() throws Exception {
+        AtomicReference<Timeout> timeoutRef = new AtomicReference<>();
+        ConcurrentLinkedQueue<Object> outcomes = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> earlyBy = new ConcurrentLinkedQueue<>();
+
+        try (Scheduler scheduler = new Scheduler(1);
+                TimerWheel timerWheel = new TimerWheel()) {
+            long delay = TimeUnit.HOURS.toMicros(1L);
+            Coroutine coroutine = classLoader.newInstance(SleepingCoroutine.class, timerWheel, delay, timeoutRef, outcomes, earlyBy);
+            Task task = scheduler.submit(coroutine);
+            while (timeoutRef.get() == null) {
+                Thread.sleep(1L);
+            }
+
+            Timeout timeout = timeoutRef.get();
+            assertTrue(timeout.cancel());
+            assertFalse(timeout.cancel());
+            assertFalse(timeout.discard());
+            assertTrue(timeout.isCancelled());
+            assertFalse(timeout.isFired());
+
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+        }
+
+        assertEquals(1, outcomes.size());
+        assertEquals(Timeout.Outcome.CANCELLED, outcomes.peek());
+    }
+
+    @Test
+    public void mustCancelTimersWhenClosed() throws Exception {
+        AtomicReference<Timeout> timeoutRef = new AtomicReference<>();
+        ConcurrentLinkedQueue<Object> outcomes = new ConcurrentLinkedQueue<>();
+        ConcurrentLinkedQueue<Long> earlyBy = new ConcurrentLinkedQueue<>();
+
+        try (Scheduler scheduler = new Scheduler(1)) {
+            TimerWheel timerWheel = new TimerWheel();
+            long delay = TimeUnit.DAYS.toMicros(400L); // beyond what the wheel can hold without re-inserting
+            Coroutine coroutine = classLoader.newInstance(SleepingCoroutine.class, timerWheel, delay, timeoutRef, outcomes, earlyBy);
+            Task task = scheduler.submit(coroutine);
+            while (timeoutRef.get() == null) {
+                Thread.sleep(1L);
+            }
+
+            timerWheel.close();
+            task.getCompletion().toCompletableFuture().get(30L, TimeUnit.SECONDS);
+            assertTrue(timeoutRef.get().isCancelled());
+        }
+
+        assertEquals(1, outcomes.size());
+        assertEquals(Timeout.Outcome.CANCELLED, outcomes.peek());
+    }
+
+    public static final class SleepingCoroutine implements Coroutine {
+        private final TimerWheel timerWheel;
+        private final long delay;
+        private final AtomicReference<Timeout> timeoutRef;
+        private final ConcurrentLinkedQueue<Object> outcomes;
+        private final ConcurrentLinkedQueue<Long> earlyBy;
+
+        public SleepingCoroutine(TimerWheel timerWheel, Long delay, AtomicReference<Timeout> timeoutRef,
+                ConcurrentLinkedQueue<Object> outcomes, ConcurrentLinkedQueue<Long> earlyBy) {
+            this.timerWheel = timerWheel;
+            this.delay = delay;
+            this.timeoutRef = timeoutRef;
+            this.outcomes = outcomes;
+            this.earlyBy = earlyBy;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            long start = System.nanoTime();
+            Timeout timeout = timerWheel.schedule(Task.current(), delay, TimeUnit.MICROSECONDS);
+            if (timeoutRef != null) {
+                timeoutRef.set(timeout);
+            }
+            c.setContext(Signal.PARK);
+            c.suspend();
+
+            Object outcome = c.getContext();
+            long elapsed = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            if (outcome == Timeout.Outcome.FIRED && elapsed < delay) {
+                earlyBy.add(delay - elapsed);
+            }
+            outcomes.add(outcome);
+        }
+    }
+}
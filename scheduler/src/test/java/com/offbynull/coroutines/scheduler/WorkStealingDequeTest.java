@@ -0,0 +1,114 @@
+package com.offbynull.coroutines.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class WorkStealingDequeTest {
+
+    @Test
+    public void mustPopInLifoOrder() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<>();
+        deque.push(1);
+        deque.push(2);
+        deque.push(3);
+
+        assertEquals(3, deque.size());
+        assertEquals(3, (int) deque.pop());
+        assertEquals(2, (int) deque.pop());
+        assertEquals(1, (int) deque.pop());
+        assertNull(deque.pop());
+        assertEquals(0, deque.size());
+    }
+
+    @Test
+    public void mustStealInFifoOrder() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<>();
+        deque.push(1);
+        deque.push(2);
+        deque.push(3);
+
+        assertEquals(1, (int) deque.steal());
+        assertEquals(2, (int) deque.steal());
+        assertEquals(3, (int) deque.steal());
+        assertNull(deque.steal());
+        assertNull(deque.pop());
+    }
+
+    @Test
+    public void mustKeepItemsWhenGrowing() {
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<>();
+        for (int i = 0; i < 50; i++) {
+            deque.push(i);
+        }
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i, (int) deque.steal());
+        }
+        for (int i = 50; i < 1000; i++) { // wraps around and then grows
+            deque.push(i);
+        }
+
+        for (int i = 999; i >= 40; i--) {
+            assertEquals(i, (int) deque.pop());
+        }
+        assertNull(deque.pop());
+    }
+
+    @Test
+    public void mustHandOutEachItemExactlyOnceUnderContention() throws Exception {
+        int itemCount = 200000;
+        int thiefCount = 4;
+
+        WorkStealingDeque<Integer> deque = new WorkStealingDeque<>();
+        ConcurrentHashMap<Integer, Boolean> taken = new ConcurrentHashMap<>();
+        AtomicInteger duplicates = new AtomicInteger();
+        AtomicBoolean ownerDone = new AtomicBoolean();
+        CountDownLatch startLatch = new CountDownLatch(1);
+
+        List<Thread> thieves = new ArrayList<>();
+        for (int i = 0; i < thiefCount; i++) {
+            Thread thief = new Thread(() -> {
+                try {
+                    startLatch.await();
+                } catch (InterruptedException ie) {
+                    throw new IllegalStateException(ie);
+                }
+                while (!ownerDone.get() || deque.size() > 0) {
+                    Integer item = deque.steal();
+                    if (item != null && taken.put(item, true) != null) {
+                        duplicates.incrementAndGet();
+                    }
+                }
+            });
+            thief.start();
+            thieves.add(thief);
+        }
+
+        startLatch.countDown();
+        for (int i = 0; i < itemCount; i++) {
+            deque.push(i);
+            if (i % 3 == 0) {
+                Integer item = deque.pop();
+                if (item != null && taken.put(item, true) != null) {
+                    duplicates.incrementAndGet();
+                }
+            }
+        }
+        ownerDone.set(true);
+
+        for (Thread thief : thieves) {
+            thief.join();
+        }
+
+        assertEquals(0, duplicates.get());
+        assertEquals(itemCount, taken.size());
+        assertTrue(deque.size() == 0);
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import java.io.IOException;
+
+/**
+ * Durable storage that {@link GroupCommitter} writes checkpoints to. Writes don't have to be durable until {@link #sync() } is called,
+ * which lets a {@link GroupCommitter} pay for a single sync across many writes.
+ * <p>
+ * {@link CheckpointStore} is an implementation of this interface.
+ * @author Kasra Faghihi
+ */
+public interface CheckpointLog {
+
+    /**
+     * Stores serialized data under an ID, replacing whatever was previously stored under that ID.
+     * @param id ID to store under
+     * @param data serialized data
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs while writing
+     */
+    void put(String id, byte[] data) throws IOException;
+
+    /**
+     * Removes whatever is stored under an ID.
+     * @param id ID to remove
+     * @return {@code true} if something was stored under {@code id}, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if an I/O error occurs while writing
+     */
+    boolean remove(String id) throws IOException;
+
+    /**
+     * Makes everything written so far durable.
+     * @throws IOException if an I/O error occurs while syncing
+     */
+    void sync() throws IOException;
+}
@@ -0,0 +1,626 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import com.offbynull.coroutines.store.Segment.Record;
+import com.offbynull.coroutines.user.CoroutineReader;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.CoroutineWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Stores snapshots of {@link CoroutineRunner}s keyed by ID, in a directory of append-only, memory-mapped segment files.
+ * <p>
+ * Every write appends a record to the active segment, and an in-memory index keeps track of where the latest record for each ID is. Once
+ * the active segment fills up, it's sealed and a new one is started. Records that have been superseded (by a newer snapshot for the same
+ * ID or by a removal) are reclaimed by a background thread, which rewrites the live records of sealed segments that have mostly gone
+ * stale in to the active segment and then deletes them. Snapshots are read straight out of the mapped segment, so pairing this class
+ * with {@link com.offbynull.coroutines.user.BinaryCoroutineDeserializer} avoids copying the data on reads.
+ * <p>
+ * Writes aren't flushed to disk until {@link #sync() } is called (or until the operating system decides to flush them). Use a
+ * {@link GroupCommitter} to share a single sync between writes coming in from many threads.
+ * <p>
+ * On startup, the segments are scanned in parallel to rebuild the index. Each record carries a sequence number, so the latest record for
+ * an ID wins no matter which segment it ended up in. A record that was torn by a crash is detected by its checksum and treated as the end
+ * of its segment.
+ * <p>
+ * Only one instance may have a directory open at a time. This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class CheckpointStore implements CheckpointLog, Closeable {
+    private static final Pattern SEGMENT_NAME_PATTERN = Pattern.compile("[0-9a-f]{16}\\.segment");
+    private static final String LOCK_NAME = "lock";
+    // file locks are held per-process (and closing any channel to the lock file may release them), so they can't keep two instances
+    // within this process from opening the same directory
+    private static final Set<Path> OPEN_DIRECTORIES = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Default segment size (64 MB).
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * Default compaction threshold (segments that are less than half live get compacted).
+     */
+    public static final double DEFAULT_COMPACTION_THRESHOLD = 0.5;
+
+    private final Path directory; // real path
+    private final CoroutineWriter writer;
+    private final CoroutineReader reader;
+    private final int segmentSize;
+    private final double compactionThreshold;
+
+    private final FileChannel lockChannel;
+    private final FileLock lock;
+
+    private final ConcurrentHashMap<String, Entry> index;
+    private final ReentrantLock writeLock;       // guards segments, activeSegment, nextSeq, nextSegmentId, and segment live bytes
+    private final TreeMap<Long, Segment> segments;
+    private Segment activeSegment;
+    private long nextSeq;
+    private long nextSegmentId;
+
+    private final ReentrantLock compactionLock;  // ensures only one compaction runs at a time, guards undeletedSegmentIds
+    private final TreeSet<Long> undeletedSegmentIds; // compacted segments whose files aren't confirmed gone from disk yet
+    private final Semaphore compactionSignal;
+    private final Thread compactionThread;
+    private volatile boolean closed;
+
+    /**
+     * Constructs a {@link CheckpointStore} object using {@link #DEFAULT_SEGMENT_SIZE}, {@link #DEFAULT_COMPACTION_THRESHOLD}, and
+     * {@link Executors#defaultThreadFactory() }.
+     * @param directory directory to store segments in (created if it doesn't exist)
+     * @param writer writer used to serialize runners
+     * @param reader reader used to deserialize runners
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if {@code directory} is already open by another instance
+     * @throws IOException if an I/O error occurs while opening or recovering the store
+     */
+    public CheckpointStore(Path directory, CoroutineWriter writer, CoroutineReader reader) throws IOException {
+        this(directory, writer, reader, DEFAULT_SEGMENT_SIZE, DEFAULT_COMPACTION_THRESHOLD, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a {@link CheckpointStore} object.
+     * @param directory directory to store segments in (created if it doesn't exist)
+     * @param writer writer used to serialize runners
+     * @param reader reader used to deserialize runners
+     * @param segmentSize size of each segment file in bytes (a snapshot that doesn't fit gets a segment sized to fit it)
+     * @param compactionThreshold sealed segments with a ratio of live bytes to used bytes below this get compacted
+     * @param threadFactory factory used to create the compaction thread
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code segmentSize <= 0}, or if {@code compactionThreshold} isn't between {@code 0.0} and
+     * {@code 1.0} (inclusive)
+     * @throws IllegalStateException if {@code directory} is already open by another instance, or if {@code threadFactory} returned
+     * {@code null}
+     * @throws IOException if an I/O error occurs while opening or recovering the store
+     */
+    public CheckpointStore(Path directory, CoroutineWriter writer, CoroutineReader reader, int segmentSize, double compactionThreshold,
+            ThreadFactory threadFactory) throws IOException {
+        Validate.notNull(directory);
+        Validate.notNull(writer);
+        Validate.notNull(reader);
+        Validate.notNull(threadFactory);
+        Validate.isTrue(segmentSize > 0);
+        Validate.isTrue(compactionThreshold >= 0.0 && compactionThreshold <= 1.0);
+
+        Files.createDirectories(directory);
+        this.directory = directory.toRealPath();
+        this.writer = writer;
+        this.reader = reader;
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+
+        this.index = new ConcurrentHashMap<>();
+        this.writeLock = new ReentrantLock();
+        this.segments = new TreeMap<>();
+        this.compactionLock = new ReentrantLock();
+        this.undeletedSegmentIds = new TreeSet<>();
+        this.compactionSignal = new Semaphore(0);
+
+        Validate.validState(OPEN_DIRECTORIES.add(this.directory), "Store already open");
+        try {
+            lockChannel = FileChannel.open(this.directory.resolve(LOCK_NAME), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        } catch (IOException | RuntimeException e) {
+            OPEN_DIRECTORIES.remove(this.directory);
+            throw e;
+        }
+        try {
+            lock = lockChannel.tryLock();
+            Validate.validState(lock != null, "Store already open");
+
+            recover();
+
+            compactionThread = threadFactory.newThread(this::runCompaction);
+            Validate.validState(compactionThread != null, "Thread factory returned null");
+        } catch (IOException | RuntimeException e) {
+            closeSegments();
+            lockChannel.close(); // releases the lock as well
+            OPEN_DIRECTORIES.remove(this.directory);
+            throw e;
+        }
+        compactionThread.start();
+        signalCompactionIfNeeded();
+    }
+
+    /**
+     * Serializes a runner and stores it under an ID, replacing whatever was previously stored under that ID.
+     * @param id ID to store under
+     * @param runner runner to store
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code runner} failed to serialize
+     * @throws IllegalStateException if closed
+     * @throws IOException if an I/O error occurs while writing
+     */
+    public void put(String id, CoroutineRunner runner) throws IOException {
+        Validate.notNull(id);
+        Validate.notNull(runner);
+        put(id, writer.write(runner));
+    }
+
+    /**
+     * Stores an already serialized runner under an ID, replacing whatever was previously stored under that ID. {@code data} must be
+     * readable by the {@link CoroutineReader} this store was constructed with.
+     * @param id ID to store under
+     * @param data serialized runner
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if closed
+     * @throws IOException if an I/O error occurs while writing
+     */
+    @Override
+    public void put(String id, byte[] data) throws IOException {
+        Validate.notNull(id);
+        Validate.notNull(data);
+        append(id, Segment.KIND_PUT, data);
+    }
+
+    /**
+     * Removes whatever is stored under an ID.
+     * @param id ID to remove
+     * @return {@code true} if something was stored under {@code id}, {@code false} otherwise
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalStateException if closed
+     * @throws IOException if an I/O error occurs while writing
+     */
+    @Override
+    public boolean remove(String id) throws IOException {
+        Validate.notNull(id);
+
+        writeLock.lock();
+        try {
+            Entry entry = index.get(id);
+            if (entry == null || entry.removed) {
+                return false;
+            }
+            append(id, Segment.KIND_REMOVE, new byte[0]);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Reads the runner stored under an ID.
+     * @param id ID to read
+     * @return runner stored under {@code id}, or {@code null} if nothing is stored under {@code id}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if the stored runner failed to deserialize
+     * @throws IllegalStateException if closed
+     */
+    public CoroutineRunner get(String id) {
+        Validate.notNull(id);
+        Validate.validState(!closed, "Closed");
+
+        Entry entry = index.get(id);
+        if (entry == null || entry.removed) {
+            return null;
+        }
+        // entry's segment stays mapped even if it gets compacted away while this read is happening
+        return reader.read(entry.segment.read(entry.dataOffset, entry.dataLength));
+    }
+
+    /**
+     * Get the IDs that have something stored under them.
+     * @return snapshot of IDs
+     * @throws IllegalStateException if closed
+     */
+    public Set<String> ids() {
+        Validate.validState(!closed, "Closed");
+        return index.entrySet().stream()
+                .filter(e -> !e.getValue().removed)
+                .map(Map.Entry::getKey)
+                .collect(Collectors.toCollection(HashSet::new));
+    }
+
+    /**
+     * Flushes everything written so far to disk. Once this method returns, everything written before it was called survives a crash.
+     * @throws IllegalStateException if closed
+     */
+    @Override
+    public void sync() {
+        Validate.validState(!closed, "Closed");
+
+        Segment segment;
+        writeLock.lock();
+        try {
+            segment = activeSegment; // segments that were sealed have already been flushed
+        } finally {
+            writeLock.unlock();
+        }
+        segment.force();
+    }
+
+    /**
+     * Compacts every sealed segment that's below the compaction threshold. Compaction normally happens in the background, so there's
+     * usually no need to call this method.
+     * @throws IllegalStateException if closed
+     * @throws IOException if an I/O error occurs while compacting
+     */
+    public void compact() throws IOException {
+        Validate.validState(!closed, "Closed");
+
+        compactionLock.lock();
+        try {
+            deleteUndeletedSegments();
+            while (!closed) {
+                Segment victim;
+                writeLock.lock();
+                try {
+                    victim = findCompactionVictim();
+                } finally {
+                    writeLock.unlock();
+                }
+
+                if (victim == null) {
+                    break;
+                }
+                compactSegment(victim);
+            }
+        } finally {
+            compactionLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the compaction thread, flushes everything written so far to disk, and closes all segments.
+     */
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        } finally {
+            writeLock.unlock();
+        }
+
+        // don't interrupt the compaction thread -- interrupting a thread that's in the middle of file channel I/O closes the channel
+        compactionSignal.release();
+        boolean interrupted = false;
+        while (Thread.currentThread() != compactionThread) {
+            try {
+                compactionThread.join();
+                break;
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        compactionLock.lock(); // wait for any manual compaction to bail out
+        compactionLock.unlock();
+
+        activeSegment.force();
+        closeSegments();
+        try {
+            lockChannel.close(); // releases the lock as well
+        } catch (IOException ioe) {
+            // do nothing
+        }
+        OPEN_DIRECTORIES.remove(directory);
+    }
+
+    private void append(String id, byte kind, byte[] data) throws IOException {
+        byte[] idBytes = id.getBytes(StandardCharsets.UTF_8);
+        int recordSize = Segment.recordSize(idBytes, data.length);
+
+        boolean compactionNeeded = false;
+        writeLock.lock();
+        try {
+            Validate.validState(!closed, "Closed");
+            Entry newEntry = appendLocked(nextSeq++, kind, idBytes, data, recordSize);
+            Entry oldEntry = index.put(id, newEntry);
+            if (oldEntry != null) {
+                oldEntry.segment.adjustLiveBytes(-oldEntry.size);
+                compactionNeeded = oldEntry.segment != activeSegment && isBelowCompactionThreshold(oldEntry.segment);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+
+        if (compactionNeeded) {
+            compactionSignal.release();
+        }
+    }
+
+    private Entry appendLocked(long seq, byte kind, byte[] idBytes, byte[] data, int recordSize) throws IOException {
+        if (!activeSegment.hasRoomFor(recordSize)) {
+            Segment newSegment = Segment.create(nextSegmentId, segmentPath(nextSegmentId),
+                    Math.max(segmentSize, Segment.minimumSize(recordSize)));
+            nextSegmentId++;
+            activeSegment.force(); // sealed segments are always fully flushed
+            segments.put(newSegment.getId(), newSegment);
+            activeSegment = newSegment;
+            syncDirectory();
+        }
+
+        int offset = activeSegment.append(seq, kind, idBytes, data);
+        int dataOffset = offset + recordSize - data.length;
+        activeSegment.adjustLiveBytes(recordSize);
+        return new Entry(activeSegment, seq, kind == Segment.KIND_REMOVE, offset, recordSize, dataOffset, data.length);
+    }
+
+    private void recover() throws IOException {
+        List<Long> segmentIds = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (SEGMENT_NAME_PATTERN.matcher(name).matches()) {
+                    segmentIds.add(Long.parseUnsignedLong(name.substring(0, 16), 16));
+                }
+            }
+        }
+
+        for (long segmentId : segmentIds) {
+            segments.put(segmentId, Segment.open(segmentId, segmentPath(segmentId)));
+        }
+
+        // Scan in parallel, then merge in segment order -- the record with the highest sequence number wins, and ties (a record that was
+        // copied by a compaction that didn't get to delete the original) go to the newer segment
+        Map<Segment, List<Record>> scans = segments.values().parallelStream().collect(Collectors.toMap(s -> s, Segment::scan));
+
+        long maxSeq = -1L;
+        for (Segment segment : segments.values()) {
+            for (Record record : scans.get(segment)) {
+                Entry entry = new Entry(segment, record.getSeq(), record.getKind() == Segment.KIND_REMOVE, record.getOffset(),
+                        record.getSize(), record.getDataOffset(), record.getDataLength());
+                Entry oldEntry = index.get(record.getId());
+                if (oldEntry != null && oldEntry.seq > entry.seq) {
+                    continue;
+                }
+                index.put(record.getId(), entry);
+                segment.adjustLiveBytes(entry.size);
+                if (oldEntry != null) {
+                    oldEntry.segment.adjustLiveBytes(-oldEntry.size);
+                }
+                maxSeq = Math.max(maxSeq, entry.seq);
+            }
+        }
+        nextSeq = maxSeq + 1L;
+
+        if (segments.isEmpty()) {
+            Segment segment = Segment.create(0L, segmentPath(0L), segmentSize);
+            segments.put(segment.getId(), segment);
+            syncDirectory();
+        }
+        activeSegment = segments.lastEntry().getValue();
+        nextSegmentId = activeSegment.getId() + 1L;
+    }
+
+    private Segment findCompactionVictim() {
+        Segment victim = null;
+        double victimRatio = Double.MAX_VALUE;
+        for (Segment segment : segments.values()) {
+            if (segment == activeSegment || !isBelowCompactionThreshold(segment)) {
+                continue;
+            }
+            double ratio = liveRatio(segment);
+            if (ratio < victimRatio) {
+                victim = segment;
+                victimRatio = ratio;
+            }
+        }
+        return victim;
+    }
+
+    private boolean isBelowCompactionThreshold(Segment segment) {
+        return segment.getLiveBytes() == 0L || liveRatio(segment) < compactionThreshold;
+    }
+
+    private static double liveRatio(Segment segment) {
+        long usedBytes = segment.getUsedBytes();
+        return usedBytes == 0L ? 0.0 : (double) segment.getLiveBytes() / usedBytes;
+    }
+
+    private void compactSegment(Segment victim) throws IOException {
+        List<Record> records = victim.scan(); // sealed, so nothing else is touching it
+
+        for (Record record : records) {
+            writeLock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+
+                Entry entry = index.get(record.getId());
+                if (entry == null || entry.segment != victim || entry.offset != record.getOffset()) {
+                    continue; // superseded
+                }
+
+                // A removal only needs to be kept around while an older segment may still hold a snapshot that it hides. Nothing written
+                // before the removal can end up in a newer segment than it (compaction only copies records that haven't been superseded),
+                // so a removal in the oldest segment can be dropped -- but only if the files of older segments that were compacted away
+                // are confirmed gone, otherwise they'd get picked up again on the next startup and bring the snapshot back.
+                if (entry.removed && segments.firstKey() == victim.getId() && undeletedSegmentIds.headSet(victim.getId()).isEmpty()) {
+                    index.remove(record.getId());
+                    victim.adjustLiveBytes(-entry.size);
+                    continue;
+                }
+
+                byte[] idBytes = record.getId().getBytes(StandardCharsets.UTF_8);
+                byte[] data = victim.readBytes(record.getDataOffset(), record.getDataLength());
+                Entry newEntry = appendLocked(entry.seq, record.getKind(), idBytes, data, record.getSize());
+                index.put(record.getId(), newEntry);
+                victim.adjustLiveBytes(-entry.size);
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        writeLock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            activeSegment.force(); // copies must be durable before the original goes away
+            segments.remove(victim.getId());
+        } finally {
+            writeLock.unlock();
+        }
+
+        victim.close();
+        undeletedSegmentIds.add(victim.getId());
+        deleteUndeletedSegments();
+    }
+
+    private void deleteUndeletedSegments() throws IOException {
+        List<Long> deletedSegmentIds = new ArrayList<>();
+        for (long segmentId : undeletedSegmentIds) {
+            try {
+                Files.deleteIfExists(segmentPath(segmentId));
+                deletedSegmentIds.add(segmentId);
+            } catch (IOException ioe) {
+                // some platforms won't delete a file that's still mapped -- try again on the next compaction, and if it's still around on
+                // the next startup it'll get picked up as a regular segment (its records are either superseded or copied elsewhere with
+                // the same sequence number, so nothing changes)
+            }
+        }
+
+        if (deletedSegmentIds.isEmpty()) {
+            return;
+        }
+        syncDirectory(); // deletes aren't confirmed until the directory is flushed
+        undeletedSegmentIds.removeAll(deletedSegmentIds);
+    }
+
+    private void signalCompactionIfNeeded() {
+        writeLock.lock();
+        try {
+            if (findCompactionVictim() == null) {
+                return;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+        compactionSignal.release();
+    }
+
+    private void runCompaction() {
+        while (true) {
+            try {
+                compactionSignal.acquire();
+                compactionSignal.drainPermits();
+                if (closed) {
+                    return;
+                }
+                compact();
+            } catch (InterruptedException ie) {
+                return;
+            } catch (IOException | RuntimeException e) {
+                // compaction only reclaims space -- if it fails (e.g. disk full), report it and keep going, the store still works
+                if (!closed) {
+                    Thread t = Thread.currentThread();
+                    t.getUncaughtExceptionHandler().uncaughtException(t, e);
+                }
+            }
+        }
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments.values()) {
+            try {
+                segment.close();
+            } catch (IOException ioe) {
+                // do nothing
+            }
+        }
+    }
+
+    private void syncDirectory() throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException ioe) {
+            return; // some platforms (e.g. Windows) can't open directories, directory updates are durable on their own there
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private Path segmentPath(long segmentId) {
+        return directory.resolve(String.format("%016x.segment", segmentId));
+    }
+
+    private static final class Entry {
+        private final Segment segment;
+        private final long seq;
+        private final boolean removed;
+        private final int offset;
+        private final int size;
+        private final int dataOffset;
+        private final int dataLength;
+
+        Entry(Segment segment, long seq, boolean removed, int offset, int size, int dataOffset, int dataLength) {
+            this.segment = segment;
+            this.seq = seq;
+            this.removed = removed;
+            this.offset = offset;
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+    }
+}
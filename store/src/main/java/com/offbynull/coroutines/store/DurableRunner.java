@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import com.offbynull.coroutines.user.CoroutineException;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.CoroutineWriter;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Wraps a {@link CoroutineRunner} such that it gets checkpointed through a {@link GroupCommitter} as it executes, giving workflow-engine
+ * style crash recovery: after a crash, reading the last checkpoint back in (e.g. via {@link CheckpointStore#get(java.lang.String) })
+ * resumes the coroutine from its last durable suspension point.
+ * <p>
+ * After every {@code checkpointInterval} suspensions, the runner is serialized and handed to the {@link GroupCommitter}. Once the
+ * coroutine finishes, its checkpoint is removed. {@link #execute() } returns a stage that completes once the checkpoint (if any) is
+ * durable, and the runner refuses to be executed again before that happens -- a coroutine never runs ahead of its last checkpoint. Many
+ * runners executing at the same time share syncs, so durability doesn't cost one sync per step.
+ * <p>
+ * If a checkpoint fails to be written, the stage completes exceptionally and the next suspension gets checkpointed regardless of
+ * {@code checkpointInterval}.
+ * <p>
+ * This class is not thread-safe (just like {@link CoroutineRunner}).
+ * @author Kasra Faghihi
+ */
+public final class DurableRunner {
+    private final String id;
+    private final CoroutineRunner runner;
+    private final CoroutineWriter writer;
+    private final GroupCommitter committer;
+    private final int checkpointInterval;
+
+    private int suspensionsSinceCheckpoint;
+    private CompletableFuture<Boolean> pending;
+
+    /**
+     * Constructs a {@link DurableRunner} object that checkpoints after every suspension.
+     * @param id ID to checkpoint under
+     * @param runner runner to execute
+     * @param writer writer used to serialize {@code runner}
+     * @param committer committer to write checkpoints to
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public DurableRunner(String id, CoroutineRunner runner, CoroutineWriter writer, GroupCommitter committer) {
+        this(id, runner, writer, committer, 1);
+    }
+
+    /**
+     * Constructs a {@link DurableRunner} object.
+     * @param id ID to checkpoint under
+     * @param runner runner to execute
+     * @param writer writer used to serialize {@code runner}
+     * @param committer committer to write checkpoints to
+     * @param checkpointInterval number of suspensions between checkpoints
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code checkpointInterval <= 0}
+     */
+    public DurableRunner(String id, CoroutineRunner runner, CoroutineWriter writer, GroupCommitter committer, int checkpointInterval) {
+        Validate.notNull(id);
+        Validate.notNull(runner);
+        Validate.notNull(writer);
+        Validate.notNull(committer);
+        Validate.isTrue(checkpointInterval > 0);
+
+        this.id = id;
+        this.runner = runner;
+        this.writer = writer;
+        this.committer = committer;
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Starts/resumes execution of the coroutine (see {@link CoroutineRunner#execute() }), then checkpoints it if a checkpoint is due. The
+     * coroutine runs on the calling thread.
+     * @return stage that completes with the result of {@link CoroutineRunner#execute() } once the checkpoint written (if any) is durable
+     * @throws IllegalStateException if the last checkpoint isn't durable yet
+     * @throws CoroutineException if an exception occurred during execution of the coroutine (nothing is checkpointed in this case)
+     * @throws IllegalArgumentException if the coroutine failed to serialize
+     */
+    public CompletionStage<Boolean> execute() {
+        boolean forceCheckpoint = false;
+        if (pending != null) {
+            Validate.validState(pending.isDone(), "Last checkpoint not durable yet");
+            forceCheckpoint = pending.isCompletedExceptionally();
+            pending = null;
+        }
+
+        boolean suspended = runner.execute();
+
+        CompletionStage<Void> write;
+        if (!suspended) {
+            suspensionsSinceCheckpoint = 0;
+            write = committer.remove(id);
+        } else {
+            suspensionsSinceCheckpoint++;
+            if (!forceCheckpoint && suspensionsSinceCheckpoint < checkpointInterval) {
+                return CompletableFuture.completedFuture(true);
+            }
+            suspensionsSinceCheckpoint = 0;
+            write = committer.put(id, writer.write(runner));
+        }
+
+        pending = write.thenApply(v -> suspended).toCompletableFuture();
+        return pending;
+    }
+
+    /**
+     * Get the ID this runner is checkpointed under.
+     * @return ID
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Get the runner being executed.
+     * @return runner
+     */
+    public CoroutineRunner getRunner() {
+        return runner;
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Batches writes from many threads in to group commits against a {@link CheckpointLog}, such that a single
+ * {@link CheckpointLog#sync() } covers every write in the batch.
+ * <p>
+ * A dedicated thread pulls pending writes off a queue, applies all of them to the log, syncs once, and then completes each write's
+ * {@link CompletionStage}. Writes that come in while a sync is in progress queue up and go out together in the next batch, so the number
+ * of syncs scales with how long a sync takes rather than with the number of writes. If the same ID is written more than once in a batch,
+ * only the last write is applied. If applying or syncing a batch fails, every write in that batch fails.
+ * <p>
+ * Completion stages are completed on the commit thread, so dependent actions that aren't quick should be run asynchronously.
+ * <p>
+ * This class is thread-safe.
+ * @author Kasra Faghihi
+ */
+public final class GroupCommitter implements Closeable {
+
+    /**
+     * Default maximum number of writes per batch.
+     */
+    public static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+    private static final Write STOP = new Write(null, null, null);
+
+    private final CheckpointLog log;
+    private final int maxBatchSize;
+    private final LinkedBlockingQueue<Write> queue;
+    private final Object queueLock;   // makes sure nothing gets queued up after STOP
+    private final Thread thread;
+    private boolean closed;           // guarded by queueLock
+
+    /**
+     * Constructs a {@link GroupCommitter} object using {@link #DEFAULT_MAX_BATCH_SIZE} and {@link Executors#defaultThreadFactory() }.
+     * @param log log to write to
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public GroupCommitter(CheckpointLog log) {
+        this(log, DEFAULT_MAX_BATCH_SIZE, Executors.defaultThreadFactory());
+    }
+
+    /**
+     * Constructs a {@link GroupCommitter} object.
+     * @param log log to write to
+     * @param maxBatchSize maximum number of writes per batch
+     * @param threadFactory factory used to create the commit thread
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code maxBatchSize <= 0}
+     * @throws IllegalStateException if {@code threadFactory} returned {@code null}
+     */
+    public GroupCommitter(CheckpointLog log, int maxBatchSize, ThreadFactory threadFactory) {
+        Validate.notNull(log);
+        Validate.notNull(threadFactory);
+        Validate.isTrue(maxBatchSize > 0);
+
+        this.log = log;
+        this.maxBatchSize = maxBatchSize;
+        this.queue = new LinkedBlockingQueue<>();
+        this.queueLock = new Object();
+        this.thread = threadFactory.newThread(this::run);
+        Validate.validState(thread != null, "Thread factory returned null");
+        thread.start();
+    }
+
+    /**
+     * Queues up a write that stores serialized data under an ID.
+     * @param id ID to store under
+     * @param data serialized data
+     * @return stage that completes once the write is durable (or completes exceptionally if the write failed)
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public CompletionStage<Void> put(String id, byte[] data) {
+        Validate.notNull(id);
+        Validate.notNull(data);
+        return submit(new Write(id, data, new CompletableFuture<>()));
+    }
+
+    /**
+     * Queues up a write that removes whatever is stored under an ID.
+     * @param id ID to remove
+     * @return stage that completes once the removal is durable (or completes exceptionally if the removal failed)
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public CompletionStage<Void> remove(String id) {
+        Validate.notNull(id);
+        return submit(new Write(id, null, new CompletableFuture<>()));
+    }
+
+    /**
+     * Commits any writes that are already queued up, then stops the commit thread and waits for it to die. Writes queued up after this
+     * method is invoked fail with an {@link IllegalStateException}. Does not close the underlying {@link CheckpointLog}.
+     */
+    @Override
+    public void close() {
+        synchronized (queueLock) {
+            if (!closed) {
+                closed = true;
+                queue.offer(STOP);
+            }
+        }
+
+        if (Thread.currentThread() != thread) {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private CompletionStage<Void> submit(Write write) {
+        synchronized (queueLock) {
+            if (closed) {
+                write.future.completeExceptionally(new IllegalStateException("Closed"));
+            } else {
+                queue.offer(write);
+            }
+        }
+        return write.future;
+    }
+
+    private void run() {
+        List<Write> batch = new ArrayList<>();
+        try {
+            while (true) {
+                batch.add(queue.take());
+                queue.drainTo(batch, maxBatchSize - 1);
+
+                boolean stop = batch.remove(STOP);
+                if (!batch.isEmpty()) {
+                    commit(batch);
+                }
+                batch.clear();
+
+                if (stop) {
+                    break;
+                }
+            }
+        } catch (InterruptedException ie) {
+            // do nothing -- fall through and fail what's left
+        } finally {
+            synchronized (queueLock) {
+                closed = true;
+            }
+            queue.drainTo(batch);
+            for (Write write : batch) {
+                if (write != STOP) {
+                    write.future.completeExceptionally(new IllegalStateException("Closed"));
+                }
+            }
+        }
+    }
+
+    private void commit(List<Write> batch) {
+        // only the last write to each ID needs to be applied
+        Map<String, Write> lastWrites = new LinkedHashMap<>();
+        for (Write write : batch) {
+            lastWrites.remove(write.id); // so the order the log sees matches the order the writes came in
+            lastWrites.put(write.id, write);
+        }
+
+        try {
+            for (Write write : lastWrites.values()) {
+                if (write.data != null) {
+                    log.put(write.id, write.data);
+                } else {
+                    log.remove(write.id);
+                }
+            }
+            log.sync();
+        } catch (IOException | RuntimeException e) {
+            for (Write write : batch) {
+                write.future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (Write write : batch) {
+            write.future.complete(null);
+        }
+    }
+
+    private static final class Write {
+        private final String id;
+        private final byte[] data; // null for removals
+        private final CompletableFuture<Void> future;
+
+        Write(String id, byte[] data, CompletableFuture<Void> future) {
+            this.id = id;
+            this.data = data;
+            this.future = future;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A single memory-mapped, append-only log file within a {@link CheckpointStore}.
+ * <p>
+ * A segment file is a header (magic number and format version) followed by records. Each record is...
+ * <ol>
+ * <li>the length of the record's body (4 bytes),</li>
+ * <li>a CRC32 of the record's body (4 bytes),</li>
+ * <li>the record's body: sequence number (8 bytes), kind (1 byte), ID length (4 bytes), ID (UTF-8), data (remainder of the body).</li>
+ * </ol>
+ * Segment files are sized up front and zero-filled, so the records end at the first record with a length of {@code 0}. A record that
+ * was torn by a crash (bad length or CRC mismatch) is treated as the end of the records. The header is flushed as soon as the file is
+ * created, and a file whose header is still all zeros (crashed before that flush) is treated as empty.
+ * <p>
+ * Appends must be externally synchronized. Reads of data that's already been appended are safe from any thread.
+ * @author Kasra Faghihi
+ */
+final class Segment {
+    static final byte KIND_PUT = 0;
+    static final byte KIND_REMOVE = 1;
+
+    private static final int MAGIC = 0xC0C4EC4B;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4;
+    private static final int RECORD_HEADER_SIZE = 4 + 4;
+    private static final int RECORD_BODY_FIXED_SIZE = 8 + 1 + 4;
+
+    private final long id;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private int position;
+    private long usedBytes;
+    private long liveBytes;
+
+    private Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer, int position) {
+        this.id = id;
+        this.path = path;
+        this.channel = channel;
+        this.buffer = buffer;
+        this.position = position;
+    }
+
+    static Segment create(long id, Path path, int size) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0L, size);
+            writeHeader(buffer);
+            return new Segment(id, path, channel, buffer, HEADER_SIZE);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    static Segment open(long id, Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException("Bad segment size: " + path);
+            }
+
+            MappedByteBuffer buffer = channel.map(MapMode.READ_WRITE, 0L, size);
+            if (buffer.getInt(0) == 0 && buffer.getInt(4) == 0) {
+                // crashed after the file was created but before its header was flushed -- create() hadn't returned yet, so nothing was
+                // ever appended to it
+                writeHeader(buffer);
+            }
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("Bad segment header: " + path);
+            }
+            return new Segment(id, path, channel, buffer, HEADER_SIZE); // position gets moved to the end of the records by scan()
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private static void writeHeader(MappedByteBuffer buffer) {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.force(); // a header that only makes it to disk along with the first sync would leave a crash in between unrecoverable
+    }
+
+    static int recordSize(byte[] recordId, int dataLength) {
+        long size = (long) RECORD_HEADER_SIZE + RECORD_BODY_FIXED_SIZE + recordId.length + dataLength;
+        if (size > Integer.MAX_VALUE - HEADER_SIZE) {
+            throw new IllegalArgumentException("Record too large");
+        }
+        return (int) size;
+    }
+
+    static int minimumSize(int recordSize) {
+        return HEADER_SIZE + recordSize;
+    }
+
+    long getId() {
+        return id;
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    long getLiveBytes() {
+        return liveBytes;
+    }
+
+    void adjustLiveBytes(long delta) {
+        liveBytes += delta;
+    }
+
+    boolean hasRoomFor(int recordSize) {
+        return buffer.capacity() - position >= recordSize;
+    }
+
+    // returns the offset that the record was written at
+    int append(long seq, byte kind, byte[] recordId, byte[] data) {
+        int recordSize = recordSize(recordId, data.length);
+        int bodySize = recordSize - RECORD_HEADER_SIZE;
+        int offset = position;
+
+        ByteBuffer body = buffer.duplicate();
+        body.position(offset + RECORD_HEADER_SIZE);
+        body.putLong(seq);
+        body.put(kind);
+        body.putInt(recordId.length);
+        body.put(recordId);
+        body.put(data);
+
+        CRC32 crc = new CRC32();
+        body.flip();
+        body.position(offset + RECORD_HEADER_SIZE);
+        crc.update(body);
+
+        // write the length last -- until it's written, this spot still reads as the end of the records
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        buffer.putInt(offset, bodySize);
+
+        position += recordSize;
+        usedBytes += recordSize;
+        if (buffer.capacity() - position >= 4) {
+            buffer.putInt(position, 0); // terminate, in case there's leftover data from a record torn by an earlier crash
+        }
+        return offset;
+    }
+
+    List<Record> scan() {
+        List<Record> records = new ArrayList<>();
+        int limit = buffer.capacity();
+        int offset = HEADER_SIZE;
+        while (limit - offset >= RECORD_HEADER_SIZE) {
+            int bodySize = buffer.getInt(offset);
+            if (bodySize < RECORD_BODY_FIXED_SIZE || bodySize > limit - offset - RECORD_HEADER_SIZE) {
+                break;
+            }
+
+            ByteBuffer body = buffer.duplicate();
+            body.limit(offset + RECORD_HEADER_SIZE + bodySize);
+            body.position(offset + RECORD_HEADER_SIZE);
+            CRC32 crc = new CRC32();
+            crc.update(body.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+
+            long seq = body.getLong();
+            byte kind = body.get();
+            int idLength = body.getInt();
+            if ((kind != KIND_PUT && kind != KIND_REMOVE) || idLength < 0 || idLength > body.remaining()) {
+                break;
+            }
+            byte[] recordId = new byte[idLength];
+            body.get(recordId);
+
+            int dataOffset = body.position();
+            int recordSize = RECORD_HEADER_SIZE + bodySize;
+            records.add(new Record(seq, kind, new String(recordId, StandardCharsets.UTF_8), offset, recordSize, dataOffset,
+                    body.remaining()));
+            offset += recordSize;
+        }
+
+        position = offset;
+        usedBytes = offset - HEADER_SIZE;
+        return records;
+    }
+
+    ByteBuffer read(int dataOffset, int dataLength) {
+        ByteBuffer ret = buffer.duplicate();
+        ret.limit(dataOffset + dataLength);
+        ret.position(dataOffset);
+        return ret.slice();
+    }
+
+    byte[] readBytes(int dataOffset, int dataLength) {
+        byte[] ret = new byte[dataLength];
+        read(dataOffset, dataLength).get(ret);
+        return ret;
+    }
+
+    void force() {
+        buffer.force();
+    }
+
+    void close() throws IOException {
+        channel.close(); // the mapping stays valid until it gets garbage collected, so readers that are mid-read aren't affected
+    }
+
+    static final class Record {
+        private final long seq;
+        private final byte kind;
+        private final String id;
+        private final int offset;
+        private final int size;
+        private final int dataOffset;
+        private final int dataLength;
+
+        Record(long seq, byte kind, String id, int offset, int size, int dataOffset, int dataLength) {
+            this.seq = seq;
+            this.kind = kind;
+            this.id = id;
+            this.offset = offset;
+            this.size = size;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        long getSeq() {
+            return seq;
+        }
+
+        byte getKind() {
+            return kind;
+        }
+
+        String getId() {
+            return id;
+        }
+
+        int getOffset() {
+            return offset;
+        }
+
+        int getSize() {
+            return size;
+        }
+
+        int getDataOffset() {
+            return dataOffset;
+        }
+
+        int getDataLength() {
+            return dataLength;
+        }
+    }
+}
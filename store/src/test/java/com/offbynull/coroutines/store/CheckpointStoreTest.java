@@ -0,0 +1,225 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineReader;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.CoroutineWriter;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class CheckpointStoreTest {
+
+    private Path directory;
+
+    @BeforeEach
+    public void beforeEach() throws IOException {
+        directory = Files.createTempDirectory(getClass().getSimpleName());
+    }
+
+    @AfterEach
+    public void afterEach() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void mustReadBackLatestSnapshotForEachId() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            store.put("a", runner(1));
+            store.put("b", runner(2));
+            store.put("a", runner(3));
+
+            assertEquals(3, valueOf(store.get("a")));
+            assertEquals(2, valueOf(store.get("b")));
+            assertNull(store.get("c"));
+            assertEquals(new HashSet<>(List.of("a", "b")), store.ids());
+        }
+    }
+
+    @Test
+    public void mustRemoveSnapshots() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            store.put("a", runner(1));
+
+            assertTrue(store.remove("a"));
+            assertFalse(store.remove("a"));
+            assertNull(store.get("a"));
+            assertTrue(store.ids().isEmpty());
+        }
+    }
+
+    @Test
+    public void mustRecoverSnapshotsAndRemovalsOnReopen() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            for (int i = 0; i < 1000; i++) {
+                store.put("id" + (i % 10), runner(i));
+            }
+            store.remove("id0");
+            store.sync();
+        }
+
+        try (CheckpointStore store = openStore()) {
+            assertNull(store.get("id0"));
+            for (int i = 1; i < 10; i++) {
+                assertEquals(990 + i, valueOf(store.get("id" + i)));
+            }
+            assertEquals(9, store.ids().size());
+        }
+    }
+
+    @Test
+    public void mustReclaimSupersededSnapshotsWhenCompacting() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            for (int i = 0; i < 5000; i++) {
+                store.put("id" + (i % 10), runner(i));
+            }
+            store.remove("id9");
+            store.compact();
+
+            assertTrue(segmentCount() < 10, "Segments not reclaimed: " + segmentCount());
+            for (int i = 0; i < 9; i++) {
+                assertEquals(4990 + i, valueOf(store.get("id" + i)));
+            }
+            assertNull(store.get("id9"));
+        }
+
+        try (CheckpointStore store = openStore()) {
+            for (int i = 0; i < 9; i++) {
+                assertEquals(4990 + i, valueOf(store.get("id" + i)));
+            }
+            assertNull(store.get("id9"));
+        }
+    }
+
+    @Test
+    public void mustIgnoreTornRecordOnReopen() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            store.put("a", runner(1));
+            store.put("b", runner(2));
+        }
+
+        // corrupt the last byte of the last record written (the data for "b")
+        Path segment;
+        try (Stream<Path> paths = Files.list(directory)) {
+            segment = paths.filter(p -> p.toString().endsWith(".segment")).max(Comparator.naturalOrder()).get();
+        }
+        byte[] data = Files.readAllBytes(segment);
+        int end = data.length;
+        while (data[end - 1] == 0) {
+            end--;
+        }
+        data[end - 1] ^= 0xFF;
+        Files.write(segment, data);
+
+        try (CheckpointStore store = openStore()) {
+            assertEquals(1, valueOf(store.get("a")));
+            assertNull(store.get("b"));
+
+            store.put("b", runner(3)); // overwrites the torn record
+            assertEquals(3, valueOf(store.get("b")));
+        }
+
+        try (CheckpointStore store = openStore()) {
+            assertEquals(1, valueOf(store.get("a")));
+            assertEquals(3, valueOf(store.get("b")));
+        }
+    }
+
+    @Test
+    public void mustTreatSegmentWithUnflushedHeaderAsEmptyOnReopen() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            store.put("a", runner(1));
+        }
+
+        // crash right after the next segment file was created, before anything (including its header) made it to disk
+        Files.write(directory.resolve(String.format("%016x.segment", 0xFFL)), new byte[16 * 1024]);
+
+        try (CheckpointStore store = openStore()) {
+            assertEquals(1, valueOf(store.get("a")));
+            store.put("b", runner(2)); // goes in to the recovered segment
+        }
+
+        try (CheckpointStore store = openStore()) {
+            assertEquals(1, valueOf(store.get("a")));
+            assertEquals(2, valueOf(store.get("b")));
+        }
+    }
+
+    @Test
+    public void mustFailToOpenDirectoryThatIsAlreadyOpen() throws Exception {
+        try (CheckpointStore store = openStore()) {
+            assertThrows(IllegalStateException.class, () -> openStore());
+        }
+    }
+
+    private CheckpointStore openStore() throws IOException {
+        return new CheckpointStore(directory, new CoroutineWriter(), new CoroutineReader(), 16 * 1024, 0.5,
+                Executors.defaultThreadFactory());
+    }
+
+    private long segmentCount() throws IOException {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(p -> p.toString().endsWith(".segment")).count();
+        }
+    }
+
+    private static CoroutineRunner runner(int value) {
+        return new CoroutineRunner(new ValueCoroutine(value));
+    }
+
+    private static int valueOf(CoroutineRunner runner) {
+        return ((ValueCoroutine) runner.getCoroutine()).value;
+    }
+
+    // never executed, so doesn't need to be instrumented
+    private static final class ValueCoroutine implements Coroutine, Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final int value;
+
+        ValueCoroutine(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void run(Continuation c) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import com.offbynull.coroutines.instrumenter.testhelpers.InstrumentingClassLoader;
+import com.offbynull.coroutines.store.GroupCommitterTest.RecordingLog;
+import com.offbynull.coroutines.user.Continuation;
+import com.offbynull.coroutines.user.Coroutine;
+import com.offbynull.coroutines.user.CoroutineRunner;
+import com.offbynull.coroutines.user.CoroutineWriter;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+public class DurableRunnerTest {
+
+    private static final String SUSPENDING_COROUTINE = "SuspendingCoroutine"; // suspends the number of times passed in to its constructor
+
+    private static InstrumentingClassLoader classLoader;
+    private ClassLoader originalContextClassLoader;
+
+    @BeforeAll
+    public static void beforeAll() throws IOException {
+        classLoader = new InstrumentingClassLoader(DurableRunnerTest.class.getClassLoader(), SUSPENDING_COROUTINE + ".zip");
+    }
+
+    @BeforeEach
+    public void beforeEach() {
+        // checkpoints are written on this thread, and the writer falls back to the context class loader to find the coroutine's class
+        originalContextClassLoader = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(classLoader);
+    }
+
+    @AfterEach
+    public void afterEach() {
+        Thread.currentThread().setContextClassLoader(originalContextClassLoader);
+    }
+
+    @Test
+    public void mustRemoveCheckpointOnceFinishedAndRefuseToRunAheadOfIt() throws Exception {
+        RecordingLog log = new RecordingLog();
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            DurableRunner runner = new DurableRunner("a", new CoroutineRunner(new EmptyCoroutine()), new CoroutineWriter(), committer);
+
+            CompletableFuture<Boolean> result = runner.execute().toCompletableFuture();
+            assertThrows(IllegalStateException.class, () -> runner.execute()); // removal still stuck in sync()
+
+            log.syncRelease.countDown();
+            assertFalse(result.get());
+            assertEquals(List.of("remove a"), log.operations);
+        }
+    }
+
+    @Test
+    public void mustCheckpointEveryIntervalSuspensions() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.syncRelease.countDown();
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            DurableRunner runner = suspendingRunner(committer, 7, 3);
+
+            for (int i = 1; i <= 7; i++) {
+                assertTrue(runner.execute().toCompletableFuture().get());
+                assertEquals(i / 3, countPuts(log)); // checkpointed on the 3rd and 6th suspensions only
+            }
+            assertFalse(runner.execute().toCompletableFuture().get());
+        }
+
+        assertEquals(List.of("put", "put", "remove a"), log.operations.stream()
+                .map(op -> op.startsWith("put a") ? "put" : op)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void mustForceCheckpointOnSuspensionAfterFailedCheckpoint() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.syncRelease.countDown();
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            DurableRunner runner = suspendingRunner(committer, 7, 3);
+
+            assertTrue(runner.execute().toCompletableFuture().get());
+            assertTrue(runner.execute().toCompletableFuture().get());
+
+            log.failSync = true;
+            CompletableFuture<Boolean> failed = runner.execute().toCompletableFuture(); // 3rd suspension, checkpoint fails
+            ExecutionException ee = assertThrows(ExecutionException.class, () -> failed.get());
+            assertTrue(ee.getCause() instanceof IOException);
+            assertEquals(1, countPuts(log));
+
+            log.failSync = false;
+            assertTrue(runner.execute().toCompletableFuture().get()); // 4th suspension, checkpointed even though the interval is 3
+            assertEquals(2, countPuts(log));
+            assertTrue(runner.execute().toCompletableFuture().get()); // interval counts from the forced checkpoint
+            assertTrue(runner.execute().toCompletableFuture().get());
+            assertEquals(2, countPuts(log));
+            assertTrue(runner.execute().toCompletableFuture().get());
+            assertEquals(3, countPuts(log));
+        }
+    }
+
+    @Test
+    public void mustRefuseToExecuteUntilCheckpointIsDurable() throws Exception {
+        RecordingLog log = new RecordingLog();
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            DurableRunner runner = suspendingRunner(committer, 2, 1);
+
+            CompletableFuture<Boolean> result = runner.execute().toCompletableFuture();
+            log.syncEntered.await();
+            assertThrows(IllegalStateException.class, () -> runner.execute()); // checkpoint still stuck in sync()
+            assertFalse(result.isDone());
+
+            log.syncRelease.countDown();
+            assertTrue(result.get());
+            assertTrue(runner.execute().toCompletableFuture().get());
+            assertFalse(runner.execute().toCompletableFuture().get());
+        }
+
+        assertEquals(3, log.operations.size());
+        assertEquals("remove a", log.operations.get(2));
+    }
+
+    private static DurableRunner suspendingRunner(GroupCommitter committer, int suspendCount, int checkpointInterval) throws Exception {
+        Coroutine coroutine = classLoader.newInstance(SUSPENDING_COROUTINE, suspendCount);
+        return new DurableRunner("a", new CoroutineRunner(coroutine), new CoroutineWriter(), committer, checkpointInterval);
+    }
+
+    private static long countPuts(RecordingLog log) {
+        return log.operations.stream().filter(op -> op.startsWith("put a")).count();
+    }
+
+    // never suspends, so doesn't need to be instrumented
+    private static final class EmptyCoroutine implements Coroutine {
+        @Override
+        public void run(Continuation c) {
+        }
+    }
+}
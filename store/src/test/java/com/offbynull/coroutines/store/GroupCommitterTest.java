@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.store;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+
+public class GroupCommitterTest {
+
+    @Test
+    public void mustCommitQueuedWritesWithSingleSync() throws Exception {
+        RecordingLog log = new RecordingLog();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            futures.add(committer.put("block", new byte[0]).toCompletableFuture());
+            log.syncEntered.await(); // commit thread is now stuck in sync(), so everything below queues up behind it
+
+            for (int i = 0; i < 100; i++) {
+                futures.add(committer.put("id" + (i % 10), new byte[] { (byte) i }).toCompletableFuture());
+            }
+            futures.add(committer.remove("id0").toCompletableFuture());
+
+            log.syncRelease.countDown();
+            for (CompletableFuture<Void> future : futures) {
+                future.get();
+            }
+        }
+
+        assertEquals(2, log.syncs);
+        assertEquals(11, log.operations.size());      // "block" + last write to each of the 10 ids
+        assertEquals("put id1 91", log.operations.get(1));
+        assertEquals("put id9 99", log.operations.get(9));
+        assertEquals("remove id0", log.operations.get(10)); // coalesced writes keep the order they came in
+    }
+
+    @Test
+    public void mustFailEntireBatchIfLogFails() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.syncRelease.countDown();
+        log.failSync = true;
+        try (GroupCommitter committer = new GroupCommitter(log)) {
+            CompletableFuture<Void> future = committer.put("a", new byte[0]).toCompletableFuture();
+            ExecutionException ee = assertThrows(ExecutionException.class, () -> future.get());
+            assertTrue(ee.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void mustCommitQueuedWritesOnCloseAndRejectWritesAfter() throws Exception {
+        RecordingLog log = new RecordingLog();
+        log.syncRelease.countDown();
+        CompletableFuture<Void> before;
+        GroupCommitter committer = new GroupCommitter(log, 16, Executors.defaultThreadFactory());
+        try {
+            before = committer.put("a", new byte[0]).toCompletableFuture();
+        } finally {
+            committer.close();
+        }
+        CompletableFuture<Void> after = committer.put("b", new byte[0]).toCompletableFuture();
+
+        before.get();
+        ExecutionException ee = assertThrows(ExecutionException.class, () -> after.get());
+        assertTrue(ee.getCause() instanceof IllegalStateException);
+    }
+
+    static final class RecordingLog implements CheckpointLog {
+        final List<String> operations = new ArrayList<>();  // only touched by the commit thread
+        final CountDownLatch syncEntered = new CountDownLatch(1);
+        final CountDownLatch syncRelease = new CountDownLatch(1);
+        volatile boolean failSync;
+        volatile int syncs;
+
+        @Override
+        public void put(String id, byte[] data) {
+            operations.add("put " + id + (data.length == 0 ? "" : " " + data[0]));
+        }
+
+        @Override
+        public boolean remove(String id) {
+            operations.add("remove " + id);
+            return true;
+        }
+
+        @Override
+        public void sync() throws IOException {
+            syncEntered.countDown();
+            try {
+                syncRelease.await();
+            } catch (InterruptedException ie) {
+                throw new IOException(ie);
+            }
+            if (failSync) {
+                throw new IOException("Failed");
+            }
+            syncs++;
+        }
+    }
+}
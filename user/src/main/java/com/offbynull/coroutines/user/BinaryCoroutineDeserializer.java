@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.CoroutineReader.ByteBufferCoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineReader.BatchCoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineReader.CoroutineDeserializer;
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of {@link CoroutineDeserializer} that reads in the compact binary format written by {@link BinaryCoroutineSerializer}.
+ * Data can be read directly from a heap, direct, or memory-mapped {@link ByteBuffer} (see
+ * {@link CoroutineReader#read(java.nio.ByteBuffer) }). Batches can be read in using
+ * {@link CoroutineReader#readBatch(byte[], ExecutorService) }. The {@link ObjectSlotCodec} used must be compatible with the one that was
+ * used to serialize.
+ * @author Kasra Faghihi
+ */
+public final class BinaryCoroutineDeserializer implements ByteBufferCoroutineDeserializer, BatchCoroutineDeserializer {
+
+    private final ObjectSlotCodec objectSlotCodec;
+
+    /**
+     * Constructs a {@link BinaryCoroutineDeserializer} object. Equivalent to calling
+     * {@code new BinaryCoroutineDeserializer(new JavaObjectSlotCodec())}.
+     */
+    public BinaryCoroutineDeserializer() {
+        this(new JavaObjectSlotCodec());
+    }
+
+    /**
+     * Constructs a {@link BinaryCoroutineDeserializer} object.
+     * @param objectSlotCodec codec used to decode objects
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public BinaryCoroutineDeserializer(ObjectSlotCodec objectSlotCodec) {
+        if (objectSlotCodec == null) {
+            throw new NullPointerException();
+        }
+        this.objectSlotCodec = objectSlotCodec;
+    }
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public SerializedState deserialize(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        return deserialize(ByteBuffer.wrap(data));
+    }
+
+    public SerializedState deserialize(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException();
+        }
+
+        BinaryInput in = new BinaryInput(buffer);
+        Tables tables = readHeader(in, BinaryCoroutineSerializer.MAGIC);
+        SerializedState state = readState(in, tables);
+
+        if (!in.isFinished()) {
+            throw new IllegalArgumentException("Trailing data");
+        }
+
+        return state;
+    }
+
+    public SerializedState[] deserializeBatch(byte[] data, ExecutorService executor) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        BinaryInput in = new BinaryInput(ByteBuffer.wrap(data));
+        final Tables tables = readHeader(in, BinaryCoroutineSerializer.BATCH_MAGIC);
+
+        final ByteBuffer[] segments = new ByteBuffer[in.readLength(1)];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = in.readSlice(in.readVarInt());
+        }
+
+        if (!in.isFinished()) {
+            throw new IllegalArgumentException("Trailing data");
+        }
+
+        final SerializedState[] states = new SerializedState[segments.length];
+        ParallelTasks.forEachIndex(executor, segments.length, new IndexTask() {
+            public void run(int idx) {
+                BinaryInput segmentIn = new BinaryInput(segments[idx]);
+                Tables segmentTables = readMapping(segmentIn, tables);
+                states[idx] = readState(segmentIn, segmentTables);
+                if (!segmentIn.isFinished()) {
+                    throw new IllegalArgumentException("Trailing data");
+                }
+            }
+        });
+
+        return states;
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    private Tables readHeader(BinaryInput in, int expectedMagic) {
+        if (in.readFixedInt() != expectedMagic) {
+            throw new IllegalArgumentException("Bad magic number");
+        }
+        int version = in.readVarInt();
+        if (version != BinaryCoroutineSerializer.VERSION) {
+            throw new IllegalArgumentException("Unsupported version: " + version);
+        }
+
+        String[] strings = new String[in.readLength(1)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readString();
+        }
+
+        int objectCount = in.readVarInt();
+        Object[] objects = objectSlotCodec.decode(in.readBytes(in.readVarInt()));
+        if (objects == null) {
+            throw new IllegalStateException("Codec returned null");
+        }
+        if (objects.length != objectCount) {
+            throw new IllegalArgumentException("Object count mismatch");
+        }
+
+        return new Tables(strings, objects);
+    }
+
+    // Each segment in a batch is encoded against its own string table and object pool, and starts with a mapping from those to the
+    // shared ones
+    private static Tables readMapping(BinaryInput in, Tables sharedTables) {
+        String[] strings = new String[in.readLength(1)];
+        for (int i = 0; i < strings.length; i++) {
+            int stringIndex = in.readVarInt();
+            if (stringIndex < 0 || stringIndex >= sharedTables.strings.length) {
+                throw new IllegalArgumentException("Bad string index");
+            }
+            strings[i] = sharedTables.strings[stringIndex];
+        }
+
+        Object[] objects = new Object[in.readLength(1)];
+        for (int i = 0; i < objects.length; i++) {
+            int handle = in.readVarInt();
+            if (handle <= 0 || handle > sharedTables.objects.length) {
+                throw new IllegalArgumentException("Bad object handle");
+            }
+            objects[i] = sharedTables.objects[handle - 1];
+        }
+
+        return new Tables(strings, objects);
+    }
+
+    private static SerializedState readState(BinaryInput in, Tables tables) {
+        String[] strings = tables.strings;
+        Object[] objects = tables.objects;
+
+        Object coroutine = readObject(in, objects);
+        if (coroutine != null && !(coroutine instanceof Coroutine)) {
+            throw new IllegalArgumentException("Bad coroutine type: " + coroutine.getClass());
+        }
+        Object context = readObject(in, objects);
+
+        VersionedFrame[] frames = new VersionedFrame[in.readLength(1)];
+        for (int i = 0; i < frames.length; i++) {
+            Frame[] possibleFrames = new Frame[in.readLength(1)];
+            for (int j = 0; j < possibleFrames.length; j++) {
+                int stringIndex = in.readVarInt();
+                if (stringIndex < 0 || stringIndex >= strings.length) {
+                    throw new IllegalArgumentException("Bad string index");
+                }
+
+                String className = strings[stringIndex];
+                int methodId = in.readSignedVarInt();
+                int continuationPointId = in.readSignedVarInt();
+                Object[] monitors = readMonitors(in, objects);
+                Data variables = readData(in, objects);
+                Data operands = readData(in, objects);
+
+                possibleFrames[j] = new Frame(className, methodId, continuationPointId, monitors, variables, operands);
+            }
+            frames[i] = new VersionedFrame(possibleFrames);
+        }
+
+        return new SerializedState((Coroutine) coroutine, context, frames);
+    }
+
+    private static Object[] readMonitors(BinaryInput in, Object[] pool) {
+        Object[] monitors = new Object[in.readLength(1)];
+        for (int i = 0; i < monitors.length; i++) {
+            monitors[i] = readObject(in, pool);
+            if (monitors[i] == null) {
+                throw new IllegalArgumentException("Null monitor");
+            }
+        }
+        return monitors;
+    }
+
+    private static Data readData(BinaryInput in, Object[] pool) {
+        int[] ints = in.readInts();
+        float[] floats = in.readFloats();
+        long[] longs = in.readLongs();
+        double[] doubles = in.readDoubles();
+
+        Object[] objects = new Object[in.readLength(1)];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = readObject(in, pool);
+        }
+
+        int[] continuationIndexes = in.readInts();
+
+        return new Data(ints, floats, longs, doubles, objects, continuationIndexes);
+    }
+
+    private static Object readObject(BinaryInput in, Object[] pool) {
+        int handle = in.readVarInt();
+        if (handle == 0) {
+            return null;
+        }
+        if (handle < 0 || handle > pool.length) {
+            throw new IllegalArgumentException("Bad object handle");
+        }
+        return pool[handle - 1];
+    }
+
+    private static final class Tables {
+        private final String[] strings;
+        private final Object[] objects;
+
+        Tables(String[] strings, Object[] objects) {
+            this.strings = strings;
+            this.objects = objects;
+        }
+    }
+}
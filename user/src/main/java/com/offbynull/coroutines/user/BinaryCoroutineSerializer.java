@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.CoroutineWriter.BatchCoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.ByteBufferCoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.CoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.PreparedSerialization;
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of {@link CoroutineSerializer} that writes out a compact binary format rather than pushing the entire state through
+ * Java's built-in serialization mechanism. The format consists of...
+ * <ol>
+ * <li>a magic number and format version,</li>
+ * <li>a string table holding each distinct class name once,</li>
+ * <li>a pool of distinct objects (coroutine, context, monitors, object variables/operands) encoded by an {@link ObjectSlotCodec},</li>
+ * <li>the frames, where ints/longs are written as varints, floats/doubles are written as raw bits, class names are written as indexes
+ * into the string table, and objects (including monitors) are written as indexes into the object pool.</li>
+ * </ol>
+ * The output is sized before anything is written, so it can be written directly in to a heap, direct, or memory-mapped
+ * {@link java.nio.ByteBuffer} (see {@link CoroutineWriter#write(CoroutineRunner, java.nio.ByteBuffer) }). Output from this class must be
+ * read in using {@link BinaryCoroutineDeserializer}.
+ * <p>
+ * Many coroutines can be written out together using {@link CoroutineWriter#writeBatch(CoroutineRunner[], ExecutorService) }. A batch
+ * shares a single string table and a single object pool between all coroutines in it (so class names / class descriptors are written
+ * once for the entire batch rather than once per coroutine), and optionally pools equal immutable values (strings, boxed primitives,
+ * {@link BigInteger}s, and {@link BigDecimal}s) rather than only identical instances.
+ * <p>
+ * Monitors held by a frame (synchronized blocks the coroutine suspended in) go through the object pool like any other object, so a
+ * monitor that's also referenced by a field or variable is still the same instance once read back in. Objects that make up the current
+ * state of your coroutine, monitors included, must be encodable by the {@link ObjectSlotCodec} in use (for the default
+ * {@link JavaObjectSlotCodec}, they must implement {@link java.io.Serializable}).
+ * @author Kasra Faghihi
+ */
+public final class BinaryCoroutineSerializer implements ByteBufferCoroutineSerializer, BatchCoroutineSerializer {
+
+    static final int MAGIC = 0xC0B17E5E;
+    static final int BATCH_MAGIC = 0xC0B17EBA;
+    static final int VERSION = 3;
+
+    private final ObjectSlotCodec objectSlotCodec;
+    private final boolean deduplicateImmutables;
+
+    /**
+     * Constructs a {@link BinaryCoroutineSerializer} object. Equivalent to calling
+     * {@code new BinaryCoroutineSerializer(new JavaObjectSlotCodec())}.
+     */
+    public BinaryCoroutineSerializer() {
+        this(new JavaObjectSlotCodec());
+    }
+
+    /**
+     * Constructs a {@link BinaryCoroutineSerializer} object. Equivalent to calling
+     * {@code new BinaryCoroutineSerializer(objectSlotCodec, false)}.
+     * @param objectSlotCodec codec used to encode objects
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public BinaryCoroutineSerializer(ObjectSlotCodec objectSlotCodec) {
+        this(objectSlotCodec, false);
+    }
+
+    /**
+     * Constructs a {@link BinaryCoroutineSerializer} object.
+     * <p>
+     * If {@code deduplicateImmutables} is set, strings, boxed primitives, {@link BigInteger}s, and {@link BigDecimal}s that are equal
+     * to each other get written out once, even if they're separate instances. Once read back in, those slots will point to the same
+     * instance.
+     * @param objectSlotCodec codec used to encode objects
+     * @param deduplicateImmutables if {@code true}, equal immutable values are pooled together
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    public BinaryCoroutineSerializer(ObjectSlotCodec objectSlotCodec, boolean deduplicateImmutables) {
+        if (objectSlotCodec == null) {
+            throw new NullPointerException();
+        }
+        this.objectSlotCodec = objectSlotCodec;
+        this.deduplicateImmutables = deduplicateImmutables;
+    }
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public byte[] serialize(SerializedState serializedState) {
+        PreparedSerialization prepared = prepare(serializedState);
+        byte[] data = new byte[prepared.size()];
+        prepared.writeTo(ByteBuffer.wrap(data));
+        return data;
+    }
+
+    public PreparedSerialization prepare(SerializedState serializedState) {
+        if (serializedState == null) {
+            throw new NullPointerException();
+        }
+
+        Coroutine coroutine = serializedState.getCoroutine();
+        Object context = serializedState.getContext();
+        VersionedFrame[] frames = serializedState.getFrames();
+
+        // Pre-pass over the frames -- fills up the string table and object pool, and counts the bytes that'll be needed for the frames
+        Tables tables = new Tables(deduplicateImmutables);
+        BinaryOutput frameCounter = new BinaryOutput();
+        writeFrames(frameCounter, tables, coroutine, context, frames);
+
+        byte[] objectData = encodeObjects(tables);
+
+        BinaryOutput headerCounter = new BinaryOutput();
+        writeHeader(headerCounter, tables, objectData);
+
+        long size = (long) headerCounter.size() + (long) frameCounter.size();
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Serialized state too large: " + size);
+        }
+
+        return new BinaryPreparedSerialization(tables, objectData, coroutine, context, frames, (int) size);
+    }
+
+    public byte[] serializeBatch(SerializedState[] serializedStates, ExecutorService executor) {
+        if (serializedStates == null) {
+            throw new NullPointerException();
+        }
+        for (int i = 0; i < serializedStates.length; i++) {
+            if (serializedStates[i] == null) {
+                throw new NullPointerException();
+            }
+        }
+
+        // Each state is encoded entirely within its own task, against its own string table and object pool, so the states can be encoded
+        // independently of each other.
+        final SerializedState[] states = serializedStates;
+        final Tables[] segmentTables = new Tables[states.length];
+        final byte[][] segmentFrames = new byte[states.length][];
+        ParallelTasks.forEachIndex(executor, states.length, new IndexTask() {
+            public void run(int idx) {
+                SerializedState state = states[idx];
+                Tables tables = new Tables(deduplicateImmutables);
+                BinaryOutput counter = new BinaryOutput();
+                writeFrames(counter, tables, state.getCoroutine(), state.getContext(), state.getFrames());
+
+                byte[] frameData = new byte[counter.size()];
+                writeFrames(new BinaryOutput(ByteBuffer.wrap(frameData)), tables, state.getCoroutine(), state.getContext(),
+                        state.getFrames());
+                segmentTables[idx] = tables;
+                segmentFrames[idx] = frameData;
+            }
+        });
+
+        // Merge each state's tables in to the shared ones. This walks the states in order so that the indexes/handles handed out (and by
+        // extension the output) are the same no matter how the states got encoded above. Each segment is prefixed with a mapping from its
+        // own indexes/handles to the shared ones.
+        Tables tables = new Tables(deduplicateImmutables);
+        byte[][] segmentMappings = new byte[states.length][];
+        for (int i = 0; i < states.length; i++) {
+            segmentMappings[i] = writeMapping(tables, segmentTables[i]);
+            segmentTables[i] = null; // no longer needed
+        }
+
+        byte[] objectData = encodeObjects(tables);
+
+        BinaryOutput counter = new BinaryOutput();
+        writeBatch(counter, tables, objectData, segmentMappings, segmentFrames);
+        byte[] data = new byte[counter.size()];
+        writeBatch(new BinaryOutput(ByteBuffer.wrap(data)), tables, objectData, segmentMappings, segmentFrames);
+        return data;
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    private byte[] encodeObjects(Tables tables) {
+        byte[] objectData = objectSlotCodec.encode(tables.objects.toArray());
+        if (objectData == null) {
+            throw new IllegalStateException("Codec returned null");
+        }
+        return objectData;
+    }
+
+    private static byte[] writeMapping(Tables sharedTables, Tables segmentTables) {
+        int[] stringIndexes = new int[segmentTables.strings.size()];
+        for (int i = 0; i < stringIndexes.length; i++) {
+            stringIndexes[i] = sharedTables.stringIndex((String) segmentTables.strings.get(i));
+        }
+        int[] objectHandles = new int[segmentTables.objects.size()];
+        for (int i = 0; i < objectHandles.length; i++) {
+            objectHandles[i] = sharedTables.objectHandle(segmentTables.objects.get(i));
+        }
+
+        BinaryOutput counter = new BinaryOutput();
+        writeMapping(counter, stringIndexes, objectHandles);
+        byte[] mapping = new byte[counter.size()];
+        writeMapping(new BinaryOutput(ByteBuffer.wrap(mapping)), stringIndexes, objectHandles);
+        return mapping;
+    }
+
+    private static void writeMapping(BinaryOutput out, int[] stringIndexes, int[] objectHandles) {
+        out.writeVarInt(stringIndexes.length);
+        for (int i = 0; i < stringIndexes.length; i++) {
+            out.writeVarInt(stringIndexes[i]);
+        }
+        out.writeVarInt(objectHandles.length);
+        for (int i = 0; i < objectHandles.length; i++) {
+            out.writeVarInt(objectHandles[i]);
+        }
+    }
+
+    private static void writeBatch(BinaryOutput out, Tables tables, byte[] objectData, byte[][] segmentMappings,
+            byte[][] segmentFrames) {
+        out.writeFixedInt(BATCH_MAGIC);
+        out.writeVarInt(VERSION);
+        writeTables(out, tables, objectData);
+        out.writeVarInt(segmentFrames.length);
+        for (int i = 0; i < segmentFrames.length; i++) {
+            out.writeVarInt(segmentMappings[i].length + segmentFrames[i].length);
+            out.writeBytes(segmentMappings[i]);
+            out.writeBytes(segmentFrames[i]);
+        }
+    }
+
+    private static void writeHeader(BinaryOutput out, Tables tables, byte[] objectData) {
+        out.writeFixedInt(MAGIC);
+        out.writeVarInt(VERSION);
+        writeTables(out, tables, objectData);
+    }
+
+    private static void writeTables(BinaryOutput out, Tables tables, byte[] objectData) {
+        out.writeVarInt(tables.strings.size());
+        for (int i = 0; i < tables.strings.size(); i++) {
+            out.writeString((String) tables.strings.get(i));
+        }
+        out.writeVarInt(tables.objects.size());
+        out.writeVarInt(objectData.length);
+        out.writeBytes(objectData);
+    }
+
+    private static void writeFrames(BinaryOutput out, Tables tables, Coroutine coroutine, Object context, VersionedFrame[] frames) {
+        out.writeVarInt(tables.objectHandle(coroutine));
+        out.writeVarInt(tables.objectHandle(context));
+
+        out.writeVarInt(frames.length);
+        for (int i = 0; i < frames.length; i++) {
+            Frame[] possibleFrames = frames[i].getFrames();
+            out.writeVarInt(possibleFrames.length);
+            for (int j = 0; j < possibleFrames.length; j++) {
+                Frame frame = possibleFrames[j];
+                out.writeVarInt(tables.stringIndex(frame.getClassName()));
+                out.writeSignedVarInt(frame.getMethodId());
+                out.writeSignedVarInt(frame.getContinuationPointId());
+                writeMonitors(out, tables, frame.getMonitors());
+                writeData(out, tables, frame.getVariables());
+                writeData(out, tables, frame.getOperands());
+            }
+        }
+    }
+
+    private static void writeMonitors(BinaryOutput out, Tables tables, Object[] monitors) {
+        out.writeVarInt(monitors.length);
+        for (int i = 0; i < monitors.length; i++) {
+            out.writeVarInt(tables.objectHandle(monitors[i]));
+        }
+    }
+
+    private static void writeData(BinaryOutput out, Tables tables, Data data) {
+        out.writeInts(data.getInts());
+        out.writeFloats(data.getFloats());
+        out.writeLongs(data.getLongs());
+        out.writeDoubles(data.getDoubles());
+
+        Object[] objects = data.getObjects();
+        out.writeVarInt(objects.length);
+        for (int i = 0; i < objects.length; i++) {
+            out.writeVarInt(tables.objectHandle(objects[i]));
+        }
+
+        out.writeInts(data.getContinuationIndexes());
+    }
+
+    private static final class BinaryPreparedSerialization implements PreparedSerialization {
+        private final Tables tables;
+        private final byte[] objectData;
+        private final Coroutine coroutine;
+        private final Object context;
+        private final VersionedFrame[] frames;
+        private final int size;
+
+        BinaryPreparedSerialization(Tables tables, byte[] objectData, Coroutine coroutine, Object context, VersionedFrame[] frames,
+                int size) {
+            this.tables = tables;
+            this.objectData = objectData;
+            this.coroutine = coroutine;
+            this.context = context;
+            this.frames = frames;
+            this.size = size;
+        }
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public int size() {
+            return size;
+        }
+
+        public void writeTo(ByteBuffer buffer) {
+            if (buffer == null) {
+                throw new NullPointerException();
+            }
+            if (buffer.remaining() < size) {
+                throw new BufferOverflowException();
+            }
+
+            // Tables were filled in by the pre-pass, so this pass writes out the same string indexes and object handles
+            BinaryOutput out = new BinaryOutput(buffer);
+            writeHeader(out, tables, objectData);
+            writeFrames(out, tables, coroutine, context, frames);
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
+    private static final class Tables {
+        private final Map stringIndexes = new HashMap();
+        private final List strings = new ArrayList();
+        private final Map objectHandles = new IdentityHashMap();
+        private final Map immutableHandles; // null if not deduplicating immutables
+        private final List objects = new ArrayList();
+
+        Tables(boolean deduplicateImmutables) {
+            immutableHandles = deduplicateImmutables ? new HashMap() : null;
+        }
+
+        // 0 is reserved for null, everything else is 1 + the index into the object pool
+        private int objectHandle(Object obj) {
+            if (obj == null) {
+                return 0;
+            }
+
+            Map handles = immutableHandles != null && isImmutable(obj) ? immutableHandles : objectHandles;
+            Integer handle = (Integer) handles.get(obj);
+            if (handle == null) {
+                objects.add(obj);
+                handle = Integer.valueOf(objects.size());
+                handles.put(obj, handle);
+            }
+            return handle.intValue();
+        }
+
+        private int stringIndex(String str) {
+            Integer index = (Integer) stringIndexes.get(str);
+            if (index == null) {
+                index = Integer.valueOf(strings.size());
+                strings.add(str);
+                stringIndexes.put(str, index);
+            }
+            return index.intValue();
+        }
+
+        private static boolean isImmutable(Object obj) {
+            return obj instanceof String
+                    || obj instanceof Integer
+                    || obj instanceof Long
+                    || obj instanceof Short
+                    || obj instanceof Byte
+                    || obj instanceof Character
+                    || obj instanceof Boolean
+                    || obj instanceof Float
+                    || obj instanceof Double
+                    || obj.getClass() == BigInteger.class // subclasses of these two may be mutable
+                    || obj.getClass() == BigDecimal.class;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads in the compact binary format written by {@link BinaryOutput}, straight from a {@link ByteBuffer} (heap, direct, or memory-mapped).
+ * Reading advances the buffer's position. Any truncated or malformed input results in an {@link IllegalArgumentException}.
+ * @author Kasra Faghihi
+ */
+final class BinaryInput {
+    private final ByteBuffer buffer;
+
+    BinaryInput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    boolean isFinished() {
+        return !buffer.hasRemaining();
+    }
+
+    int readByte() {
+        if (!buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Unexpected end of data");
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    byte[] readBytes(int length) {
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Unexpected end of data");
+        }
+        byte[] ret = new byte[length];
+        buffer.get(ret);
+        return ret;
+    }
+
+    ByteBuffer readSlice(int length) { // shares content with the underlying buffer rather than copying
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Unexpected end of data");
+        }
+        // Buffer casts so these link against Buffer's methods rather than ByteBuffer's covariant overrides (Java 9+ only)
+        ByteBuffer ret = buffer.slice();
+        ((Buffer) ret).limit(length);
+        ((Buffer) buffer).position(buffer.position() + length);
+        return ret;
+    }
+
+    int readVarInt() { // unsigned
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    long readSignedVarLong() {
+        long value = 0L;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return (value >>> 1) ^ -(value & 1L);
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    int readFixedInt() {
+        return (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+    }
+
+    long readFixedLong() {
+        return ((long) readFixedInt() << 32) | (readFixedInt() & 0xFFFFFFFFL);
+    }
+
+    String readString() {
+        byte[] data = readBytes(readVarInt());
+        try {
+            return new String(data, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee); // should never happen
+        }
+    }
+
+    // Every element takes up at least minElementSize bytes, so a length that exceeds what's remaining is corrupt. Checking it up front
+    // stops a corrupt length from triggering a huge allocation.
+    int readLength(int minElementSize) {
+        int length = readVarInt();
+        if (length < 0 || length > buffer.remaining() / minElementSize) {
+            throw new IllegalArgumentException("Bad length");
+        }
+        return length;
+    }
+
+    int[] readInts() {
+        int[] values = new int[readLength(1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readSignedVarInt();
+        }
+        return values;
+    }
+
+    float[] readFloats() {
+        float[] values = new float[readLength(4)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Float.intBitsToFloat(readFixedInt());
+        }
+        return values;
+    }
+
+    long[] readLongs() {
+        long[] values = new long[readLength(1)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = readSignedVarLong();
+        }
+        return values;
+    }
+
+    double[] readDoubles() {
+        double[] values = new double[readLength(8)];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Double.longBitsToDouble(readFixedLong());
+        }
+        return values;
+    }
+}
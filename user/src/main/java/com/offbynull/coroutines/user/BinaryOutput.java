@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+
+/**
+ * Writes out the compact binary format used by {@link BinaryCoroutineSerializer}. Ints and longs are written as base-128 varints
+ * (zig-zag encoded when signed), while floats and doubles are written as their raw IEEE 754 bits (big-endian, regardless of the byte
+ * order the target buffer is set to).
+ * <p>
+ * An instance created without a target buffer only counts the bytes that would have been written, which lets the serializer size the
+ * target exactly before writing anything.
+ * @author Kasra Faghihi
+ */
+final class BinaryOutput {
+    private final ByteBuffer buffer; // null if only counting
+    private int size;
+
+    BinaryOutput() {
+        this.buffer = null;
+    }
+
+    BinaryOutput(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void writeByte(int value) {
+        if (buffer != null) {
+            buffer.put((byte) value);
+        }
+        size++;
+    }
+
+    void writeBytes(byte[] data) {
+        if (buffer != null) {
+            buffer.put(data);
+        }
+        size += data.length;
+    }
+
+    void writeVarInt(int value) { // unsigned
+        while ((value & ~0x7F) != 0) {
+            writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        writeByte(value);
+    }
+
+    void writeSignedVarInt(int value) {
+        writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    void writeSignedVarLong(long value) {
+        value = (value << 1) ^ (value >> 63);
+        while ((value & ~0x7FL) != 0L) {
+            writeByte((int) ((value & 0x7FL) | 0x80L));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    void writeFixedInt(int value) {
+        writeByte(value >>> 24);
+        writeByte(value >>> 16);
+        writeByte(value >>> 8);
+        writeByte(value);
+    }
+
+    void writeFixedLong(long value) {
+        writeFixedInt((int) (value >>> 32));
+        writeFixedInt((int) value);
+    }
+
+    void writeString(String value) {
+        byte[] data;
+        try {
+            data = value.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee); // should never happen
+        }
+        writeVarInt(data.length);
+        writeBytes(data);
+    }
+
+    void writeInts(int[] values) {
+        writeVarInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            writeSignedVarInt(values[i]);
+        }
+    }
+
+    void writeFloats(float[] values) {
+        writeVarInt(values.length);
+        if (buffer == null) {
+            size += values.length * 4;
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            writeFixedInt(Float.floatToRawIntBits(values[i]));
+        }
+    }
+
+    void writeLongs(long[] values) {
+        writeVarInt(values.length);
+        for (int i = 0; i < values.length; i++) {
+            writeSignedVarLong(values[i]);
+        }
+    }
+
+    void writeDoubles(double[] values) {
+        writeVarInt(values.length);
+        if (buffer == null) {
+            size += values.length * 8;
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            writeFixedLong(Double.doubleToRawLongBits(values[i]));
+        }
+    }
+}
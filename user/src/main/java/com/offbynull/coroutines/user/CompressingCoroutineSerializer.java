@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.CoroutineWriter.BatchCoroutineSerializer;
+import com.offbynull.coroutines.user.CoroutineWriter.CoroutineSerializer;
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of {@link CoroutineSerializer} that compresses the output of another {@link CoroutineSerializer}. The compressed data is
+ * prefixed by a small header that records the identifier and dictionary version of the {@link CompressionCodec} used, along with the
+ * size of the data before it was compressed. If compressing doesn't make the data any smaller, the data is stored as-is instead.
+ * <p>
+ * Output from this class must be read in using {@link DecompressingCoroutineDeserializer} wrapping a deserializer that's compatible with
+ * the wrapped serializer.
+ * @author Kasra Faghihi
+ */
+public final class CompressingCoroutineSerializer implements BatchCoroutineSerializer {
+
+    static final int MAGIC = 0xC0C0A9E5;
+    static final int STORED_ID = 0;
+    static final int HEADER_SIZE = 4 + 4 + 4 + 4;
+
+    private final CoroutineSerializer serializer;
+    private final CompressionCodec codec;
+
+    /**
+     * Constructs a {@link CompressingCoroutineSerializer} object.
+     * @param serializer serializer to compress the output of
+     * @param codec codec to compress with
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code codec}'s identifier is reserved (see {@link CompressionCodec})
+     */
+    public CompressingCoroutineSerializer(CoroutineSerializer serializer, CompressionCodec codec) {
+        if (serializer == null || codec == null) {
+            throw new NullPointerException();
+        }
+        if (codec.getId() == STORED_ID) {
+            throw new IllegalArgumentException("Codec identifier reserved");
+        }
+        this.serializer = serializer;
+        this.codec = codec;
+    }
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public byte[] serialize(SerializedState serializedState) {
+        if (serializedState == null) {
+            throw new NullPointerException();
+        }
+
+        return compress(serializer.serialize(serializedState));
+    }
+
+    public byte[] serializeBatch(SerializedState[] serializedStates, ExecutorService executor) {
+        if (serializedStates == null) {
+            throw new NullPointerException();
+        }
+
+        // Compress the batch as a whole rather than each state individually, so that redundancy between states gets picked up
+        byte[] data;
+        if (serializer instanceof BatchCoroutineSerializer) {
+            data = ((BatchCoroutineSerializer) serializer).serializeBatch(serializedStates, executor);
+        } else {
+            final SerializedState[] states = serializedStates;
+            final byte[][] payloads = new byte[states.length][];
+            ParallelTasks.forEachIndex(executor, states.length, new IndexTask() {
+                public void run(int idx) {
+                    payloads[idx] = serializer.serialize(states[idx]);
+                }
+            });
+            data = CoroutineBatches.wrap(payloads);
+        }
+
+        return compress(data);
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    private byte[] compress(byte[] data) {
+        byte[] compressedData = codec.compress(data);
+        if (compressedData == null) {
+            throw new IllegalStateException("Codec returned null");
+        }
+
+        int id = codec.getId();
+        int dictionaryVersion = codec.getDictionaryVersion();
+        if (compressedData.length >= data.length) {
+            id = STORED_ID;
+            dictionaryVersion = 0;
+            compressedData = data;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + compressedData.length);
+        buffer.putInt(MAGIC);
+        buffer.putInt(id);
+        buffer.putInt(dictionaryVersion);
+        buffer.putInt(data.length);
+        buffer.put(compressedData);
+        return buffer.array();
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.IOException;
+
+/**
+ * Compresses and decompresses serialized coroutine state for {@link CompressingCoroutineSerializer} and
+ * {@link DecompressingCoroutineDeserializer}.
+ * <p>
+ * The identifier and dictionary version of the codec used are written alongside the compressed data, so that a
+ * {@link DecompressingCoroutineDeserializer} can pick out the matching codec when reading back in. Identifier {@code 0} is reserved for
+ * data that was stored uncompressed, {@code 1} is used by {@link DeflateCompressionCodec}, and {@code 2} is used by
+ * {@link LzCompressionCodec}. If a codec relies on a preset dictionary, the dictionary version must change whenever the dictionary does
+ * (so that old data stays readable by keeping a codec with the old dictionary around).
+ * <p>
+ * Implementations must be safe to use from multiple threads.
+ * @author Kasra Faghihi
+ */
+public interface CompressionCodec {
+
+    /**
+     * Get the identifier for this codec.
+     * @return codec identifier
+     */
+    int getId();
+
+    /**
+     * Get the version of the preset dictionary used by this codec.
+     * @return dictionary version ({@code 0} if no dictionary is used)
+     */
+    int getDictionaryVersion();
+
+    /**
+     * Compresses data.
+     * @param data data to compress
+     * @return compressed data
+     * @throws NullPointerException if any argument is {@code null}
+     */
+    byte[] compress(byte[] data);
+
+    /**
+     * Decompresses data.
+     * @param data data to decompress
+     * @param decompressedLength length of the data before it was compressed
+     * @return decompressed data
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IOException if failed to decompress (e.g. corrupt data, or {@code decompressedLength} doesn't match or is more than
+     * {@code data} could possibly decompress to) -- implementations must check {@code decompressedLength} before allocating anything
+     * based on it, since it comes from untrusted data
+     */
+    byte[] decompress(byte[] data, int decompressedLength) throws IOException;
+}
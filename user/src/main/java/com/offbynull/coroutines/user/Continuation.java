@@ -16,6 +16,8 @@
  */
 package com.offbynull.coroutines.user;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 
 /**
@@ -28,7 +30,7 @@ import java.io.Serializable;
  * @author Kasra Faghihi
  */
 public final class Continuation implements Serializable {
-    private static final long serialVersionUID = 6L;
+    private static final long serialVersionUID = 7L;
     
     /**
      * Do not use -- for internal use only.
@@ -43,22 +45,49 @@ public final class Continuation implements Serializable {
      */
     public static final int MODE_LOADING = 2;
     
-    private MethodState firstPointer;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private MethodState[] saved = new MethodState[INITIAL_CAPACITY];
+    private int savedSize;
     
-    private MethodState nextLoadPointer;
-    private MethodState nextUnloadPointer;
+    private int nextLoadIdx;
+    private int nextUnloadIdx = -1;
 
-    private MethodState firstCutpointPointer;
+    private MethodState[] cutpoint = new MethodState[INITIAL_CAPACITY];
+    private int cutpointSize;
     
     private int mode = MODE_NORMAL;
     private Object context;
 
+    // True if the last execution cycle failed and got rolled back -- the saved stack is the snapshot being retried from, so method states
+    // in it must not be recycled (overwritten in place) until a cycle succeeds again.
+    private boolean rolledBack;
+    // True if a method state got recycled (overwritten in place) during the current execution cycle.
+    private transient boolean recycledThisCycle;
+    // True if an execution cycle failed after a method state got recycled -- the saved stack can't be rolled back to what it was before
+    // that cycle, so it can't be executed or serialized until it's reset.
+    private boolean corrupted;
+
+    // Delta checkpointing support -- the id of the last checkpoint written/read for this continuation and the number of method states at
+    // the bottom of the saved stack that haven't changed since then (see CoroutineWriter.writeDelta()).
+    private boolean checkpointed;
+    private long checkpointId;
+    private int unchangedSize;
+
+    // Non-null if saved contains method states that haven't been created yet (null entries). These get created as they're loaded. See
+    // CoroutineReader.reconstructLazily().
+    private transient LazyMethodStates lazyMethodStates;
+    // Non-null if a lazily reconstructed method state failed to materialize during the current execution cycle. The failure is thrown
+    // in to the coroutine (the method states beyond it can't be loaded), but since the coroutine's own catch blocks may swallow it,
+    // CoroutineRunner checks this once the coroutine returns and fails the execution cycle with it.
+    private transient RuntimeException materializationFailure;
+
     // How should method states be handled? Imagine that we started off restoring the following call chain...
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2]
-    //    runD() <-- firstPointer[3]
-    //     runE() <-- firstPointer[4]
+    // runA() <-- saved[0]
+    //  runB() <-- saved[1]
+    //   runC() <-- saved[2]
+    //    runD() <-- saved[3]
+    //     runE() <-- saved[4]
     //
     // After the restore finishes, the following happens...
     // 1. runE() finishes running and returns
@@ -89,34 +118,38 @@ public final class Continuation implements Serializable {
     // mark these method states as invalid. So after runE()+runD() return, we should be pointing to runC(). Everything after it is no longer
     // valid...
     //
-    // runA() <-- firstPointer[0]
-    //  runB() <-- firstPointer[1]
-    //   runC() <-- firstPointer[2] / nextUnloadPointer
-    //    runD() <-- firstPointer[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
-    //     runE() <-- firstPointer[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    // runA() <-- saved[0]
+    //  runB() <-- saved[1]
+    //   runC() <-- saved[2] / nextUnloadIdx
+    //    runD() <-- saved[3] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
+    //     runE() <-- saved[4] (NO LONGER CONSIDERED VALID, BUT KEPT ANYWAS -- EXPLAINED FURTHER ON)
     //
     //
     // PHASE3
     // ------
-    // As runX() and runY() suspend, they put their own method states as part of a NEW linked list: firstCutpointPointer. They do this by
-    // calling pushNewMethodState().
+    // As runX() and runY() suspend, they put their own method states on to a NEW stack: cutpoint. They do this by calling
+    // pushNewMethodState(). Remember that the deepest method suspends first, so it ends up at the bottom of this stack.
     //   !!!WE ONLY CREATE METHOD STATES AND ADD THEM TO THIS NEW LIST AFTER THEY'RE SUSPEND! THIS IS REALLY IMPORTANT TO REMEMBER!!!
     //
-    // runX() <-- firstCutpointPointer[0]
-    //  runY()  <-- firstCutpointPointer[1]
+    //  runY() <-- cutpoint[0]
+    // runX() <-- cutpoint[1]
+    //
     //
+    // Then, once we successfully make our way up and out of the callstack, we merge the two together by copying the cutpoint stack (in
+    // reverse) over whatever is after nextUnloadIdx...
+    // runA() <-- saved[0]
+    //  runB() <-- saved[1]
+    //   runC() <-- saved[2] / nextUnloadIdx
+    //    runX() <-- saved[3] / cutpoint[1]
+    //     runY() <-- saved[4] / cutpoint[0]
     //
-    // Then, once we successfully make our way up and out of the callstack, we merge these two lists together...
-    // runA() <-- savedMethodState[0]
-    //  runB() <-- savedMethodState[1]
-    //   runC() <-- savedMethodState[2] / nextUnloadPointer
-    //    runX() <-- savedMethodState[3] / firstCutpointPointer[0]
-    //     runY() <-- savedMethodState[4] / firstCutpointPointer[1]
     //
+    // Why do we use a separate stack for new invocations (cutpoint)? Because if there's an uncaught exception, we still want to keep the
+    // old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just shift around the indexes.
+    // It's only after we're successfuly that we "commit the changes".
     //
-    // Why do we use a separate list for new invocations (postCutPointMethodState)? Because if there's an uncaught exception, we
-    // still want to keep the old one exactly the way it was. That's why technically we kept runD() and runE()s method states and just
-    // shift around the pointers. It's only after we're successfuly that we "commit the changes".
+    // Why arrays instead of linking method states together? Coroutines can run very deep and get checkpointed often. Arrays give constant
+    // time access to the depth / any individual method state, and method states don't need to carry around link fields.
     //
     //
     // ADDITIONAL NOTES
@@ -158,13 +191,23 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public MethodState loadNextMethodState() {
-        MethodState ret = nextLoadPointer;
-        nextLoadPointer = nextLoadPointer.getNext();
+        MethodState ret = saved[nextLoadIdx];
+        if (ret == null) {
+            try {
+                ret = materialize(nextLoadIdx);
+            } catch (RuntimeException re) {
+                if (materializationFailure == null) {
+                    materializationFailure = re;
+                }
+                throw re;
+            }
+        }
+        nextLoadIdx++;
         
-        // We've reached the end of load list, so set up the 'unload' list that gets called when a method continues execution from the point
-        // where it's paused it.
-        if (nextLoadPointer == null) {
-            nextUnloadPointer = ret;
+        // We've reached the end of load stack, so set up the 'unload' index that gets used when a method continues execution from the
+        // point where it's paused it.
+        if (nextLoadIdx == savedSize) {
+            nextUnloadIdx = nextLoadIdx - 1;
         }
         
         return ret;
@@ -174,7 +217,7 @@ public final class Continuation implements Serializable {
      * Do not use -- for internal use only.
      */
     public void unloadCurrentMethodState() {
-        nextUnloadPointer = nextUnloadPointer.getPrevious();
+        nextUnloadIdx--;
     }
 
     /**
@@ -182,12 +225,27 @@ public final class Continuation implements Serializable {
      * @param methodState n/a
      */
     public void unloadMethodStateToBefore(MethodState methodState) {
-        // REMEMBER: methodState being passed in must be in the linkedlist starting from firstPointer
-        
         //if (methodState == null) {
         //    throw new NullPointerException();
         //}
-        nextUnloadPointer = methodState.getPrevious();
+        
+        // The method states being discarded are the ones that were unwound by an exception, and they're always at the top of the saved
+        // stack, so this walks back only as far as the exception unwound.
+        int idx;
+        if (nextLoadIdx < savedSize) {
+            // The exception was thrown while method states were still being loaded (e.g. a lazily reconstructed method state failed to
+            // materialize), so nextUnloadIdx hasn't been set up yet. The method states that were never loaded get discarded along with
+            // the ones that were unwound, and loading is over -- the method that caught the exception continues running normally.
+            idx = nextLoadIdx - 1;
+            nextLoadIdx = savedSize;
+            mode = MODE_NORMAL;
+        } else {
+            idx = nextUnloadIdx;
+        }
+        while (idx >= 0 && saved[idx] != methodState) { // identity check
+            idx--;
+        }
+        nextUnloadIdx = idx >= 0 ? idx - 1 : -1;
     }
 
     /**
@@ -199,19 +257,89 @@ public final class Continuation implements Serializable {
         //    throw new NullPointerException();
         //}
 
-        methodState.setNext(firstCutpointPointer);
-        firstCutpointPointer = methodState;
+        if (cutpointSize == cutpoint.length) {
+            cutpoint = grow(cutpoint, cutpointSize + 1);
+        }
+        cutpoint[cutpointSize] = methodState;
+        cutpointSize++;
+    }
+
+    // How does recycling method states work? When instrumented with method state recycling turned on, a method that was restored from
+    // a method state holds on to that method state. If the method suspends again at the same continuation point, the locals and operand
+    // stack will have the exact same layout they had when that method state was created. Instead of creating new storage arrays/container
+    // /method state, the method overwrites the existing storage arrays and pushes the existing method state again.
+    //
+    // This is safe to do because by the time the method gets to a point where it suspends again, its method state has been unloaded (see
+    // PHASE2 in the comment block at the beginning of this class). The unloaded method state is kept around only so that a failed execution
+    // cycle can be rolled back. Recycled method states get overwritten in place, meaning that a rollback won't restore the original
+    // execution state. To keep that from happening...
+    //
+    // 1. Nothing gets recycled after a failed execution cycle until an execution cycle succeeds again -- retrying from a rolled back
+    //    snapshot always starts from the same state.
+    // 2. Nothing gets recycled once a lazily reconstructed method state has failed to materialize -- the coroutine may have swallowed the
+    //    failure and suspended, but CoroutineRunner is going to fail the execution cycle regardless.
+    // 3. If an execution cycle fails anyways after something was recycled, the continuation is marked as corrupted. CoroutineRunner and
+    //    CoroutineWriter refuse to touch a corrupted continuation rather than silently resuming from / writing out a mangled state.
+    //
+    // A method state only gets pushed again as-is if it still describes the frame being saved: same class, same method, same
+    // continuation point, same storage container, and same lock state. Otherwise, a new method state is created around the data.
+
+    /**
+     * Do not use -- for internal use only.
+     * @param methodState n/a
+     * @param continuationPoint n/a
+     * @return n/a
+     */
+    public Object[] getRecyclableData(MethodState methodState, int continuationPoint) {
+        if (rolledBack || materializationFailure != null || methodState == null
+                || methodState.getContinuationPoint() != continuationPoint) {
+            return null;
+        }
+        recycledThisCycle = true;
+        return methodState.getData();
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * @param methodState n/a
+     * @param className n/a
+     * @param methodId n/a
+     * @param continuationPoint n/a
+     * @param data n/a
+     * @param lockState n/a
+     */
+    public void pushRecycledMethodState(MethodState methodState, String className, int methodId, int continuationPoint, Object[] data,
+            LockState lockState) {
+        // If the data container was taken from methodState (via getRecyclableData()) and methodState still describes this frame,
+        // methodState can be pushed again as-is. Otherwise, the data container needs a new method state.
+        if (methodState == null
+                || methodState.getData() != data
+                || methodState.getLockState() != lockState
+                || methodState.getMethodId() != methodId
+                || methodState.getContinuationPoint() != continuationPoint
+                || !equals(methodState.getClassName(), className)) {
+            methodState = new MethodState(className, methodId, continuationPoint, data, lockState);
+        }
+        pushNewMethodState(methodState);
     }
 
     /**
      * Do not use -- for internal use only.
      */
     public void reset() {
-        firstPointer = null;
-        nextLoadPointer = null;
-        nextUnloadPointer = null;
-        firstCutpointPointer = null;
+        unchangedSize = 0;
+        lazyMethodStates = null;
+        materializationFailure = null;
+        clear(saved, 0, savedSize);
+        savedSize = 0;
+        nextLoadIdx = 0;
+        nextUnloadIdx = -1;
+        clear(cutpoint, 0, cutpointSize);
+        cutpointSize = 0;
         mode = MODE_NORMAL;
+        rolledBack = false;
+        recycledThisCycle = false;
+        corrupted = false;
     }
 
     /**
@@ -220,15 +348,27 @@ public final class Continuation implements Serializable {
     public void successExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
 
-        if (nextUnloadPointer != null) {
-            nextUnloadPointer.setNext(firstCutpointPointer);
-        } else {
-            firstPointer = firstCutpointPointer;
+        // Everything up to and including nextUnloadIdx is kept, everything after it gets replaced by the cutpoint stack (reversed, because
+        // the deepest method is at the bottom of the cutpoint stack but needs to be at the top of the saved stack).
+        int keepSize = nextUnloadIdx + 1;
+        trackUnchanged(keepSize);
+        int newSize = keepSize + cutpointSize;
+        if (newSize > saved.length) {
+            saved = grow(saved, newSize);
+        }
+        for (int i = 0; i < cutpointSize; i++) {
+            saved[keepSize + i] = cutpoint[cutpointSize - 1 - i];
         }
+        clear(saved, newSize, savedSize);   // remove dangling references to discarded method states
+        savedSize = newSize;
+        lazyMethodStates = null;            // every method state that was kept had to have been loaded
         
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        nextLoadIdx = 0;                    // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                 // reset unload index
+        clear(cutpoint, 0, cutpointSize);   // reset cutpoint stack
+        cutpointSize = 0;
+        rolledBack = false;                 // saved stack is a fresh state, recycling is safe again
+        recycledThisCycle = false;
     }
 
     /**
@@ -237,9 +377,97 @@ public final class Continuation implements Serializable {
     public void failedExecutionCycle() {
         // FOR A PRIMER ON WHAT WE'RE DOING HERE, SEE LARGE BLOCK OF COMMENT AT BEGINNING OF CLASS
         
-        nextLoadPointer = firstPointer;     // reset next load pointer so we load from the beginning
-        nextUnloadPointer = null;           // reset unload pointer
-        firstCutpointPointer = null;        // reset cutpoint list
+        trackUnchanged(nextUnloadIdx + 1);  // method states past nextUnloadIdx may have been overwritten in place by recycling
+        nextLoadIdx = 0;                    // reset next load index so we load from the beginning
+        nextUnloadIdx = -1;                 // reset unload index
+        clear(cutpoint, 0, cutpointSize);   // reset cutpoint stack
+        cutpointSize = 0;
+        rolledBack = true;                  // saved stack is now the snapshot that gets retried, don't recycle in to it
+        if (recycledThisCycle) {
+            corrupted = true;               // snapshot was overwritten in place, it can't be retried
+        }
+        recycledThisCycle = false;
+    }
+
+    boolean isCorrupted() {
+        return corrupted;
+    }
+
+    RuntimeException takeMaterializationFailure() {
+        RuntimeException ret = materializationFailure;
+        materializationFailure = null;
+        return ret;
+    }
+
+    void setLazySaved(int size, LazyMethodStates lazyMethodStates) {
+        reset();
+        if (size > saved.length) {
+            saved = new MethodState[size];
+        }
+        savedSize = size;
+        this.lazyMethodStates = lazyMethodStates;
+    }
+
+    private MethodState materialize(int idx) {
+        MethodState methodState = saved[idx];
+        if (methodState == null && lazyMethodStates != null) {
+            methodState = lazyMethodStates.materialize(idx);
+            saved[idx] = methodState;
+        }
+        return methodState;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // Method states that haven't been created yet can't be written out, so create them
+        for (int i = 0; i < savedSize; i++) {
+            materialize(i);
+        }
+        lazyMethodStates = null;
+        out.defaultWriteObject();
+    }
+
+    private void trackUnchanged(int keepSize) {
+        if (keepSize < unchangedSize) {
+            unchangedSize = keepSize;
+        }
+    }
+
+    void markCheckpoint(long checkpointId) {
+        this.checkpointed = true;
+        this.checkpointId = checkpointId;
+        this.unchangedSize = savedSize;
+    }
+
+    boolean isCheckpointed() {
+        return checkpointed;
+    }
+
+    long getCheckpointId() {
+        return checkpointId;
+    }
+
+    int getUnchangedSize() {
+        return unchangedSize;
+    }
+
+    private static MethodState[] grow(MethodState[] array, int minCapacity) {
+        int newCapacity = array.length * 2;
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        MethodState[] ret = new MethodState[newCapacity];
+        System.arraycopy(array, 0, ret, 0, array.length);
+        return ret;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == b || (a != null && a.equals(b)); // class names are usually the same interned constant
+    }
+
+    private static void clear(MethodState[] array, int fromIdx, int toIdx) {
+        for (int i = fromIdx; i < toIdx; i++) {
+            array[i] = null;
+        }
     }
 
     
@@ -285,18 +513,10 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public MethodState getSaved(int idx) {
-        if (idx < 0) {
+        if (idx < 0 || idx >= savedSize) {
             throw new IllegalArgumentException();
         }
-
-        MethodState state = firstPointer;
-        for (int i = 0; i < idx; i++) {
-            state = state.getNext();
-            if (state == null) {
-               throw new IllegalArgumentException();
-            }
-        }
-        return state;
+        return materialize(idx);
     }
 
     /**
@@ -304,12 +524,10 @@ public final class Continuation implements Serializable {
      * @return n/a
      */
     public int getSize() {
-        int ret = 0;
-        MethodState state = firstPointer;
-        while (state != null) {
-            ret++;
-            state = state.getNext();
-        }
-        return ret;
+        return savedSize;
+    }
+
+    interface LazyMethodStates {
+        MethodState materialize(int idx);
     }
 }
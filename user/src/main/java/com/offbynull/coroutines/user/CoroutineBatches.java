@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Envelope used by {@link CoroutineWriter#writeBatch(CoroutineRunner[], java.util.concurrent.ExecutorService) } /
+ * {@link CoroutineReader#readBatch(byte[], java.util.concurrent.ExecutorService) } when the serializer/deserializer in use has no batch
+ * support of its own. The envelope is a small header followed by each coroutine's serialized data, prefixed by its length.
+ * @author Kasra Faghihi
+ */
+final class CoroutineBatches {
+
+    private static final int MAGIC = 0xC0BA7C4E;
+    private static final int HEADER_SIZE = 4 + 4;
+
+    private CoroutineBatches() {
+        // do nothing
+    }
+
+    static byte[] wrap(byte[][] payloads) {
+        long size = HEADER_SIZE;
+        for (int i = 0; i < payloads.length; i++) {
+            size += 4L + payloads[i].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Batch too large: " + size);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(payloads.length);
+        for (int i = 0; i < payloads.length; i++) {
+            buffer.putInt(payloads[i].length);
+            buffer.put(payloads[i]);
+        }
+        return buffer.array();
+    }
+
+    static byte[][] unwrap(byte[] data) {
+        if (data.length < HEADER_SIZE) {
+            throw new IllegalArgumentException("Not a batch");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a batch");
+        }
+
+        int count = buffer.getInt();
+        if (count < 0 || count > buffer.remaining() / 4) {
+            throw new IllegalArgumentException("Bad batch count");
+        }
+
+        byte[][] payloads = new byte[count][];
+        for (int i = 0; i < count; i++) {
+            if (buffer.remaining() < 4) {
+                throw new IllegalArgumentException("Unexpected end of data");
+            }
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) {
+                throw new IllegalArgumentException("Unexpected end of data");
+            }
+            payloads[i] = new byte[length];
+            buffer.get(payloads[i]);
+        }
+
+        if (buffer.hasRemaining()) {
+            throw new IllegalArgumentException("Trailing data");
+        }
+
+        return payloads;
+    }
+}
@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.user;
 
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
 import com.offbynull.coroutines.user.SerializedState.Data;
 import com.offbynull.coroutines.user.SerializedState.Frame;
 import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
@@ -29,8 +30,10 @@ import java.io.ObjectStreamClass;
 import java.io.OptionalDataException;
 import java.io.Serializable;
 import java.io.StreamCorruptedException;
-import java.util.HashMap;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Reads in (deserializes) the state of a {@link CoroutineRunner} object.
@@ -38,8 +41,7 @@ import java.util.Map;
  */
 public final class CoroutineReader {
     private final CoroutineDeserializer deserializer;
-    private final Map updatersMap;
-    private final Map interceptersMap;
+    private final Map transitionsMap;
 
     /**
      * Construct a {@link CoroutineReader} object. Equivalent to calling
@@ -105,10 +107,7 @@ public final class CoroutineReader {
         }
 
         this.deserializer = deserializer;
-        this.updatersMap = new HashMap();
-        this.interceptersMap = new HashMap();
-
-        SerializationUtils.populateUpdatesMapAndInterceptsMap(updatersMap, frameUpdatePoints, interceptersMap, frameInterceptPoints);
+        this.transitionsMap = SerializationUtils.compileTransitionsMap(frameUpdatePoints, frameInterceptPoints);
     }
 
     /**
@@ -132,6 +131,157 @@ public final class CoroutineReader {
         return reconstruct(serializedState);
     }
 
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a chain of checkpoints written by
+     * {@link CoroutineWriter#writeCheckpoint(CoroutineRunner, long) } / {@link CoroutineWriter#writeDelta(CoroutineRunner, long) }. The
+     * chain must start with a full checkpoint, and each delta checkpoint must directly follow the checkpoint it was written against.
+     * Subsequent calls to {@link CoroutineWriter#writeDelta(CoroutineRunner, long) } on the returned {@link CoroutineRunner} write deltas
+     * against the last checkpoint in the chain.
+     * @param checkpoints checkpoints to deserialize, oldest first
+     * @return {@code checkpoints} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code checkpoints} is empty or isn't a valid chain, if failed to deserialize, or if deserialized
+     * to a state for an unrecognized method (e.g. a method that's state is being deserialized for was changed but no
+     * {@link FrameUpdatePoint} was provided to this class's constructor to handle the changes)
+     */
+    public CoroutineRunner readCheckpoints(byte[][] checkpoints) {
+        if (checkpoints == null) {
+            throw new NullPointerException();
+        }
+        if (checkpoints.length == 0) {
+            throw new IllegalArgumentException("No checkpoints");
+        }
+
+        SerializedState state = null;
+        long checkpointId = 0L;
+        for (int i = 0; i < checkpoints.length; i++) {
+            byte[] data = checkpoints[i];
+            if (data == null) {
+                throw new NullPointerException();
+            }
+
+            DeltaCheckpoints.Header header = DeltaCheckpoints.readHeader(data);
+            SerializedState payloadState = deserializePayload(data, header.getPayloadOffset());
+            if (!header.isDelta()) {
+                state = payloadState;
+            } else {
+                if (state == null || header.getBaseCheckpointId() != checkpointId) {
+                    throw new IllegalArgumentException("Delta checkpoint " + header.getCheckpointId() + " isn't for checkpoint "
+                            + (state == null ? "(none)" : String.valueOf(checkpointId)));
+                }
+                state = DeltaCheckpoints.merge(state, payloadState, header.getKeptFrameCount());
+            }
+            checkpointId = header.getCheckpointId();
+        }
+
+        CoroutineRunner runner = reconstruct(state);
+        runner.getContinuation().markCheckpoint(checkpointId);
+        return runner;
+    }
+
+    private SerializedState deserializePayload(byte[] data, int offset) {
+        if (deserializer instanceof ByteBufferCoroutineDeserializer) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, offset, data.length - offset);
+            return ((ByteBufferCoroutineDeserializer) deserializer).deserialize(buffer);
+        } else {
+            byte[] payload = new byte[data.length - offset];
+            System.arraycopy(data, offset, payload, 0, payload.length);
+            return deserializer.deserialize(payload);
+        }
+    }
+
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a {@link ByteBuffer}. All bytes between the buffer's position and its limit are
+     * treated as the serialized data. On success, the buffer's position is advanced to its limit. The buffer can be heap, direct, or
+     * memory-mapped.
+     * <p>
+     * If the deserializer is a {@link ByteBufferCoroutineDeserializer}, the data is read directly from the buffer. Otherwise, the data is
+     * first copied to a byte array.
+     * @param buffer buffer to deserialize
+     * @return {@code buffer} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     */
+    public CoroutineRunner read(ByteBuffer buffer) {
+        if (buffer == null) {
+            throw new NullPointerException();
+        }
+
+        SerializedState serializedState;
+        if (deserializer instanceof ByteBufferCoroutineDeserializer) {
+            ByteBuffer dupBuffer = buffer.duplicate(); // so buffer's position is left untouched on failure
+            serializedState = ((ByteBufferCoroutineDeserializer) deserializer).deserialize(dupBuffer);
+        } else {
+            byte[] data = new byte[buffer.remaining()];
+            buffer.duplicate().get(data);
+            serializedState = deserializer.deserialize(data);
+        }
+
+        CoroutineRunner runner = reconstruct(serializedState);
+        ((Buffer) buffer).position(buffer.limit()); // cast so this links against Buffer.position(int) on Java 8 and below
+        return runner;
+    }
+
+    /**
+     * Deserializes many {@link CoroutineRunner} objects from a byte array written by
+     * {@link CoroutineWriter#writeBatch(CoroutineRunner[], ExecutorService) }. Equivalent to calling {@code readBatch(data, null)}.
+     * @param data byte array to deserialize
+     * @return {@code data} deserialized to {@link CoroutineRunner} objects (in the same order they were written)
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     */
+    public CoroutineRunner[] readBatch(byte[] data) {
+        return readBatch(data, null);
+    }
+
+    /**
+     * Deserializes many {@link CoroutineRunner} objects from a byte array written by
+     * {@link CoroutineWriter#writeBatch(CoroutineRunner[], ExecutorService) }.
+     * <p>
+     * If {@code executor} is non-{@code null}, runners are deserialized and reconstructed in parallel on it (e.g. pass in a
+     * {@code ForkJoinPool}). Note that any {@link FrameUpdatePoint}s / {@link FrameInterceptPoint}s given to this class's constructor must
+     * be safe to invoke from multiple threads when an executor is used.
+     * @param data byte array to deserialize
+     * @param executor executor to run on ({@code null} to run on the calling thread)
+     * @return {@code data} deserialized to {@link CoroutineRunner} objects (in the same order they were written)
+     * @throws NullPointerException if {@code data} is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize or deserialized to a state for an unrecognized method (e.g. a method that's
+     * state is being deserialized for was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to
+     * handle the changes)
+     */
+    public CoroutineRunner[] readBatch(byte[] data, ExecutorService executor) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        final SerializedState[] states;
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        if (deserializer instanceof BatchCoroutineDeserializer) {
+            states = ((BatchCoroutineDeserializer) deserializer).deserializeBatch(data, executor);
+        } else {
+            final byte[][] payloads = CoroutineBatches.unwrap(data);
+            states = new SerializedState[payloads.length];
+            ParallelTasks.forEachIndex(executor, payloads.length, new IndexTask() {
+                public void run(int idx) {
+                    states[idx] = deserializer.deserialize(payloads[idx]);
+                }
+            });
+        }
+
+        final CoroutineRunner[] runners = new CoroutineRunner[states.length];
+        ParallelTasks.forEachIndex(executor, states.length, new IndexTask() {
+            public void run(int idx) {
+                runners[idx] = reconstruct(states[idx]);
+            }
+        });
+        //CHECKSTYLE.ON:JavadocMethod
+        return runners;
+    }
+
     /**
      * Reconstructs a {@link CoroutineRunner} object from a serializable state.
      * @param state serialized state to reconstruct
@@ -142,6 +292,48 @@ public final class CoroutineReader {
      * provided to this class's constructor to handle the changes)
      */
     public CoroutineRunner reconstruct(SerializedState state) {
+        return reconstruct(state, false);
+    }
+
+    /**
+     * Deserializes a {@link CoroutineRunner} object from a byte array, deferring the reconstruction of each method frame until execution
+     * reaches it. Equivalent to calling {@code reconstructLazily(deserializer.deserialize(data))}.
+     * @param data byte array to deserialize
+     * @return {@code data} deserialized to a {@link CoroutineRunner} object
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to deserialize
+     * @see #reconstructLazily(com.offbynull.coroutines.user.SerializedState)
+     */
+    public CoroutineRunner readLazily(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        SerializedState serializedState = deserializer.deserialize(data);
+        return reconstructLazily(serializedState);
+    }
+
+    /**
+     * Reconstructs a {@link CoroutineRunner} object from a serializable state, deferring the reconstruction of each method frame until
+     * execution reaches it. A frame's version is resolved (and its {@link FrameUpdatePoint}s / {@link FrameInterceptPoint}s are applied)
+     * only once the coroutine is executed and the restore reaches that frame. If a runner is only inspected or discarded, or fails
+     * before reaching the deeper frames, those frames are never reconstructed.
+     * <p>
+     * Since frames are reconstructed as part of execution, an unrecognized method (e.g. a method that's state is being reconstructed for
+     * was changed but no {@link FrameUpdatePoint} was provided to this class's constructor to handle the changes) isn't detected by this
+     * method. Instead, {@link CoroutineRunner#execute() } throws a {@link CoroutineException} whose cause is the exception that
+     * {@link #reconstruct(com.offbynull.coroutines.user.SerializedState) } would have thrown. That exception is thrown in to the coroutine
+     * from the point where the frame was being restored, but it fails the execution even if the coroutine catches it.
+     * @param state serialized state to reconstruct
+     * @return reconstructed {@link CoroutineRunner}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code state} is in an invalid state
+     */
+    public CoroutineRunner reconstructLazily(SerializedState state) {
+        return reconstruct(state, true);
+    }
+
+    private CoroutineRunner reconstruct(SerializedState state, boolean lazy) {
         if (state == null) {
             throw new NullPointerException();
         }
@@ -161,50 +353,21 @@ public final class CoroutineReader {
         cn.setMode(Continuation.MODE_SAVING);
         cn.setContext(context);
 
-        for (int i = versionedFrames.length - 1; i >= 0; i--) {
-            VersionedFrame versionedFrame = versionedFrames[i];
-            Frame frame = SerializationUtils.calculateCorrectFrameVersion(null, updatersMap, interceptersMap, versionedFrame);
-
-            // Check that a workable frame actually exists
-            if (frame == null) {
-                throw new IllegalArgumentException("No loaded method or frame updated found for one of the supplied frames");
-            }
-            
-            
-            // Construct MethodState
-            String className = frame.getClassName();
-            int methodId = frame.getMethodId();
-            int continuationPoint = frame.getContinuationPointId();
-
-            LockState lockState = new LockState();
-            Object[] monitors = frame.getMonitors();
-            for (int j = 0; j < monitors.length; j++) {
-                Object monitor = monitors[j];
-
-                lockState.enter(monitor);
+        if (lazy) {
+            if (versionedFrames.length > 0) {
+                // The coroutine has executed and has saved state -- method states get created as they're loaded
+                cn.setLazySaved(versionedFrames.length, new LazyMethodStates(transitionsMap, versionedFrames, cn));
+                cn.setMode(Continuation.MODE_LOADING);
+            } else {
+                // The coroutine hasn't executed / doesn't have saved state
+                cn.reset();
             }
+            return new CoroutineRunner(coroutine, cn);
+        }
+
+        for (int i = versionedFrames.length - 1; i >= 0; i--) {
+            MethodState methodState = toMethodState(transitionsMap, versionedFrames[i], cn);
 
-            Data variables = frame.getVariables();
-            Data operands = frame.getOperands();
-            Object[] frameData = new Object[10];
-            frameData[0] = variables.getInts();
-            frameData[1] = variables.getFloats();
-            frameData[2] = variables.getLongs();
-            frameData[3] = variables.getDoubles();
-            frameData[4] = variables.getObjects();
-            frameData[5] = operands.getInts();
-            frameData[6] = operands.getFloats();
-            frameData[7] = operands.getLongs();
-            frameData[8] = operands.getDoubles();
-            frameData[9] = operands.getObjects();
-            
-            placeContinuationReferences(variables.getContinuationIndexes(), (Object[]) frameData[4], cn);
-            placeContinuationReferences(operands.getContinuationIndexes(), (Object[]) frameData[9], cn);
-            
-            MethodState methodState = new MethodState(className, methodId, continuationPoint, frameData, lockState);
-
-            
-            
             // Place it in the new continuation object.
             cn.pushNewMethodState(methodState);
         }
@@ -221,13 +384,75 @@ public final class CoroutineReader {
         return new CoroutineRunner(coroutine, cn);
     }
 
-    private void placeContinuationReferences(int[] continuationIndexes, Object[] objects, Continuation cn) {
+    private static MethodState toMethodState(Map transitionsMap, VersionedFrame versionedFrame, Continuation cn) {
+        Frame frame = SerializationUtils.calculateCorrectFrameVersion(null, transitionsMap, versionedFrame);
+
+        // Check that a workable frame actually exists
+        if (frame == null) {
+            throw new IllegalArgumentException("No loaded method or frame updated found for one of the supplied frames");
+        }
+        
+        
+        // Construct MethodState
+        String className = frame.getClassName();
+        int methodId = frame.getMethodId();
+        int continuationPoint = frame.getContinuationPointId();
+
+        LockState lockState = new LockState();
+        Object[] monitors = frame.getMonitors();
+        for (int j = 0; j < monitors.length; j++) {
+            Object monitor = monitors[j];
+
+            lockState.enter(monitor);
+        }
+
+        Data variables = frame.getVariables();
+        Data operands = frame.getOperands();
+        Object[] frameData = new Object[10];
+        frameData[0] = variables.getInts();
+        frameData[1] = variables.getFloats();
+        frameData[2] = variables.getLongs();
+        frameData[3] = variables.getDoubles();
+        frameData[4] = variables.getObjects();
+        frameData[5] = operands.getInts();
+        frameData[6] = operands.getFloats();
+        frameData[7] = operands.getLongs();
+        frameData[8] = operands.getDoubles();
+        frameData[9] = operands.getObjects();
+        
+        placeContinuationReferences(variables.getContinuationIndexes(), (Object[]) frameData[4], cn);
+        placeContinuationReferences(operands.getContinuationIndexes(), (Object[]) frameData[9], cn);
+        
+        return new MethodState(className, methodId, continuationPoint, frameData, lockState);
+    }
+
+    private static void placeContinuationReferences(int[] continuationIndexes, Object[] objects, Continuation cn) {
         for (int i = 0; i < continuationIndexes.length; i++) {
             int idx = continuationIndexes[i];
             objects[idx] = cn;
         }
     }
 
+    private static final class LazyMethodStates implements Continuation.LazyMethodStates {
+        private final Map transitionsMap;
+        private final VersionedFrame[] versionedFrames;
+        private final Continuation cn;
+
+        LazyMethodStates(Map transitionsMap, VersionedFrame[] versionedFrames, Continuation cn) {
+            this.transitionsMap = transitionsMap;
+            this.versionedFrames = versionedFrames;
+            this.cn = cn;
+        }
+
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        public MethodState materialize(int idx) {
+            MethodState methodState = toMethodState(transitionsMap, versionedFrames[idx], cn);
+            versionedFrames[idx] = null; // no longer needed
+            return methodState;
+        }
+        //CHECKSTYLE.ON:JavadocMethod
+    }
+
     /**
      * Coroutine deserializer.
      */
@@ -241,7 +466,37 @@ public final class CoroutineReader {
          */
         SerializedState deserialize(byte[] data);
     }
+
+    /**
+     * Coroutine deserializer that's able to read directly from a {@link ByteBuffer}.
+     */
+    public interface ByteBufferCoroutineDeserializer extends CoroutineDeserializer {
+        /**
+         * Deserializes a coroutine. All bytes between the buffer's position and its limit are treated as the serialized data.
+         * @param buffer buffer to deserialize (position may be modified)
+         * @return deserialized state
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IllegalArgumentException if failed to deserialize
+         */
+        SerializedState deserialize(ByteBuffer buffer);
+    }
     
+    /**
+     * Coroutine deserializer that's able to deserialize many coroutines that were serialized together (see
+     * {@link CoroutineReader#readBatch(byte[], ExecutorService) }).
+     */
+    public interface BatchCoroutineDeserializer extends CoroutineDeserializer {
+        /**
+         * Deserializes many coroutines that were serialized together.
+         * @param data data to deserialize
+         * @param executor executor to run on ({@code null} to run on the calling thread)
+         * @return deserialized states (in the same order they were serialized)
+         * @throws NullPointerException if {@code data} is {@code null}
+         * @throws IllegalArgumentException if failed to deserialize
+         */
+        SerializedState[] deserializeBatch(byte[] data, ExecutorService executor);
+    }
+
     /**
      * Default implementation of {@link CoroutineDeserializer} (uses Java's built-in serialization mechanism). This implementation has the
      * the following restrictions...
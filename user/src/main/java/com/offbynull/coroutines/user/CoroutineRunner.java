@@ -59,14 +59,27 @@ public final class CoroutineRunner implements Serializable {
      * @throws CoroutineException an exception occurred during execution of this coroutine, the saved execution stack and object state may
      * be out of sync at this point (meaning that unless you know what you're doing, you should not call {@link CoroutineRunner#execute() }
      * again)
+     * @throws IllegalStateException if a previous execution cycle failed after its saved execution stack was partially overwritten (only
+     * possible if the coroutine was instrumented to recycle method states), meaning that there's no valid state left to resume from
      */
     public boolean execute() {
+        if (continuation.isCorrupted()) {
+            throw new IllegalStateException("Saved execution stack was overwritten by a failed execution cycle");
+        }
+
         try {
             coroutine.run(continuation);
+            RuntimeException materializationFailure = continuation.takeMaterializationFailure();
+            if (materializationFailure != null) {
+                throw materializationFailure; // coroutine caught it and kept going, but its saved execution state couldn't be restored
+            }
             continuation.successExecutionCycle();
         } catch (Exception e) {
+            // if a lazily reconstructed method state failed to materialize, report that failure and not whatever the coroutine turned it
+            // in to
+            Exception materializationFailure = continuation.takeMaterializationFailure();
             continuation.failedExecutionCycle();
-            throw new CoroutineException("Exception thrown during execution", e);
+            throw new CoroutineException("Exception thrown during execution", materializationFailure != null ? materializationFailure : e);
         }
         
         // if mode was not set to SAVING after return, it means the method finished executing
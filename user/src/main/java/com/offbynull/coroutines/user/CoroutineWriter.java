@@ -16,6 +16,7 @@
  */
 package com.offbynull.coroutines.user;
 
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
 import com.offbynull.coroutines.user.SerializedState.Data;
 import com.offbynull.coroutines.user.SerializedState.Frame;
 import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
@@ -27,8 +28,11 @@ import java.io.InvalidClassException;
 import java.io.NotSerializableException;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.HashMap;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ReadOnlyBufferException;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 
 /**
  * Writes out (serializes) the current state of a {@link CoroutineRunner} object.
@@ -36,8 +40,7 @@ import java.util.Map;
  */
 public final class CoroutineWriter {
     private final CoroutineSerializer serializer;
-    private final Map updatersMap;
-    private final Map interceptersMap;
+    private final Map transitionsMap;
     
     /**
      * Construct a {@link CoroutineWriter} object. Equivalent to calling
@@ -103,12 +106,7 @@ public final class CoroutineWriter {
         }
 
         this.serializer = serializer;
-        this.updatersMap = new HashMap();
-        this.interceptersMap = new HashMap();
-
-        SerializationUtils.populateUpdatesMapAndInterceptsMap(
-                updatersMap, frameUpdatePoints,
-                interceptersMap, frameInterceptPoints);
+        this.transitionsMap = SerializationUtils.compileTransitionsMap(frameUpdatePoints, frameInterceptPoints);
     }
     
     /**
@@ -127,6 +125,166 @@ public final class CoroutineWriter {
         return serializer.serialize(serializeState);
     }
 
+    /**
+     * Serializes a {@link CoroutineRunner} object as a full checkpoint. A checkpoint is the same as what {@link #write(CoroutineRunner) }
+     * outputs, but tagged with an identifier so that later calls to {@link #writeDelta(CoroutineRunner, long) } can write out only what
+     * changed since. Checkpoints must be read in using {@link CoroutineReader#readCheckpoints(byte[][]) }.
+     * @param runner coroutine runner to serialize
+     * @param checkpointId identifier for this checkpoint (chosen by the caller)
+     * @return {@code runner} serialized to a checkpoint
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     */
+    public byte[] writeCheckpoint(CoroutineRunner runner, long checkpointId) {
+        if (runner == null) {
+            throw new NullPointerException();
+        }
+
+        SerializedState serializeState = deconstruct(runner);
+        byte[] data = DeltaCheckpoints.wrapFull(checkpointId, serializer.serialize(serializeState));
+        runner.getContinuation().markCheckpoint(checkpointId);
+        return data;
+    }
+
+    /**
+     * Serializes a {@link CoroutineRunner} object as a delta against the last checkpoint written for (or read in to) {@code runner}.
+     * <p>
+     * Method frames at the bottom of the call stack that haven't been unwound since the last checkpoint are unchanged, so a delta leaves
+     * them out entirely and only holds how many there are. The objects referenced by the unchanged frames, along with the coroutine and
+     * context, are still written out in full because those objects may have been modified. Reading a delta back in
+     * requires every checkpoint in the chain going back to the last full checkpoint (see
+     * {@link CoroutineReader#readCheckpoints(byte[][]) }).
+     * <p>
+     * If there is no previous checkpoint for {@code runner}, or if none of its frames are unchanged since the previous checkpoint (a delta
+     * would only add overhead), a full checkpoint is written instead.
+     * @param runner coroutine runner to serialize
+     * @param checkpointId identifier for this checkpoint (chosen by the caller)
+     * @return {@code runner} serialized to a checkpoint
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     */
+    public byte[] writeDelta(CoroutineRunner runner, long checkpointId) {
+        if (runner == null) {
+            throw new NullPointerException();
+        }
+
+        Continuation cn = runner.getContinuation();
+        if (!cn.isCheckpointed()) {
+            return writeCheckpoint(runner, checkpointId);
+        }
+
+        int keptFrameCount = cn.getUnchangedSize();
+        if (keptFrameCount == 0) {
+            return writeCheckpoint(runner, checkpointId);
+        }
+        SerializedState serializeState = DeltaCheckpoints.strip(deconstruct(runner), keptFrameCount);
+        byte[] data = DeltaCheckpoints.wrapDelta(checkpointId, cn.getCheckpointId(), keptFrameCount,
+                serializer.serialize(serializeState));
+        cn.markCheckpoint(checkpointId);
+        return data;
+    }
+
+    /**
+     * Serializes a {@link CoroutineRunner} object into a {@link ByteBuffer}, starting at the buffer's current position. On success, the
+     * buffer's position is advanced past the written data. The buffer can be heap, direct, or memory-mapped.
+     * <p>
+     * If the serializer is a {@link ByteBufferCoroutineSerializer}, the data is sized up front and written directly in to the buffer.
+     * Otherwise, the data is serialized to a byte array and copied in to the buffer.
+     * @param runner coroutine runner to serialize
+     * @param buffer buffer to write to
+     * @return number of bytes written
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     * @throws BufferOverflowException if {@code buffer} doesn't have enough space remaining (nothing is written in this case)
+     * @throws ReadOnlyBufferException if {@code buffer} is read-only
+     */
+    public int write(CoroutineRunner runner, ByteBuffer buffer) {
+        if (runner == null || buffer == null) {
+            throw new NullPointerException();
+        }
+        if (buffer.isReadOnly()) {
+            throw new ReadOnlyBufferException();
+        }
+
+        SerializedState serializeState = deconstruct(runner);
+        if (serializer instanceof ByteBufferCoroutineSerializer) {
+            PreparedSerialization prepared = ((ByteBufferCoroutineSerializer) serializer).prepare(serializeState);
+            int size = prepared.size();
+            if (buffer.remaining() < size) {
+                throw new BufferOverflowException();
+            }
+            prepared.writeTo(buffer);
+            return size;
+        } else {
+            byte[] data = serializer.serialize(serializeState);
+            buffer.put(data);
+            return data.length;
+        }
+    }
+
+    /**
+     * Serializes many {@link CoroutineRunner} objects together as a single byte array. Equivalent to calling
+     * {@code writeBatch(runners, null)}.
+     * @param runners coroutine runners to serialize
+     * @return {@code runners} serialized to byte array
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     */
+    public byte[] writeBatch(CoroutineRunner[] runners) {
+        return writeBatch(runners, null);
+    }
+
+    /**
+     * Serializes many {@link CoroutineRunner} objects together as a single byte array. The output must be read in using
+     * {@link CoroutineReader#readBatch(byte[], ExecutorService) }.
+     * <p>
+     * If the serializer is a {@link BatchCoroutineSerializer}, it's handed the entire batch (e.g. {@link BinaryCoroutineSerializer} writes
+     * class names and objects shared between runners only once). Otherwise, each runner is serialized individually and the results are
+     * concatenated.
+     * <p>
+     * If {@code executor} is non-{@code null}, runners are deconstructed and serialized in parallel on it (e.g. pass in a
+     * {@code ForkJoinPool}). The output is the same regardless of whether or not an executor is used. Note that any
+     * {@link FrameUpdatePoint}s / {@link FrameInterceptPoint}s given to this class's constructor must be safe to invoke from multiple
+     * threads when an executor is used.
+     * @param runners coroutine runners to serialize
+     * @param executor executor to run on ({@code null} to run on the calling thread)
+     * @return {@code runners} serialized to byte array
+     * @throws NullPointerException if {@code runners} is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if failed to serialize
+     */
+    public byte[] writeBatch(CoroutineRunner[] runners, ExecutorService executor) {
+        if (runners == null) {
+            throw new NullPointerException();
+        }
+        for (int i = 0; i < runners.length; i++) {
+            if (runners[i] == null) {
+                throw new NullPointerException();
+            }
+        }
+
+        final CoroutineRunner[] batchRunners = runners;
+        final SerializedState[] states = new SerializedState[runners.length];
+        //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+        ParallelTasks.forEachIndex(executor, states.length, new IndexTask() {
+            public void run(int idx) {
+                states[idx] = deconstruct(batchRunners[idx]);
+            }
+        });
+
+        if (serializer instanceof BatchCoroutineSerializer) {
+            return ((BatchCoroutineSerializer) serializer).serializeBatch(states, executor);
+        }
+
+        final byte[][] payloads = new byte[states.length][];
+        ParallelTasks.forEachIndex(executor, states.length, new IndexTask() {
+            public void run(int idx) {
+                payloads[idx] = serializer.serialize(states[idx]);
+            }
+        });
+        //CHECKSTYLE.ON:JavadocMethod
+        return CoroutineBatches.wrap(payloads);
+    }
+
     /**
      * Deconstructs a {@link CoroutineRunner} object to a serializable state.
      * @param runner coroutine runner to deconstruct
@@ -141,14 +299,16 @@ public final class CoroutineWriter {
 
         Coroutine coroutine = runner.getCoroutine();
         Continuation cn = runner.getContinuation();
+        if (cn.isCorrupted()) {
+            throw new IllegalArgumentException("Saved execution stack was overwritten by a failed execution cycle");
+        }
 
         int size = cn.getSize();
         VersionedFrame[] frames = new VersionedFrame[size];
 
-        MethodState currentMethodState = cn.getSaved(0);
-        
-        int idx = 0;
-        while (currentMethodState != null) {
+        for (int idx = 0; idx < size; idx++) {
+            MethodState currentMethodState = cn.getSaved(idx);
+
             // Pull out information from MethoState. We should never modify MethodState values, they will be copied by the Data
             // constructor before being passed to the user for further modification.
             String className = currentMethodState.getClassName();
@@ -204,13 +364,9 @@ public final class CoroutineWriter {
             // Add all possible down-versions for frame into a versionedframe object and add it
             VersionedFrame versionedFrame = SerializationUtils.calculateAllPossibleFrameVersions(
                     null,
-                    updatersMap,
-                    interceptersMap,
+                    transitionsMap,
                     serializedFrame);
             frames[idx] = versionedFrame;
-            idx++;
-
-            currentMethodState = currentMethodState.getNext();
         }
         
         Object context = cn.getContext();
@@ -253,6 +409,57 @@ public final class CoroutineWriter {
         byte[] serialize(SerializedState serializedState);
     }
 
+    /**
+     * Coroutine serializer that's able to write directly in to a {@link ByteBuffer}. The size of the serialized data is calculated before
+     * anything is written, so that callers can make sure the target has enough space (or allocate an exactly-sized target).
+     */
+    public interface ByteBufferCoroutineSerializer extends CoroutineSerializer {
+        /**
+         * Prepares a coroutine for serialization.
+         * @param serializedState state to serialize
+         * @return prepared serialization
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws IllegalArgumentException if failed to serialize
+         */
+        PreparedSerialization prepare(SerializedState serializedState);
+    }
+
+    /**
+     * Coroutine serializer that's able to serialize many coroutines together (see
+     * {@link CoroutineWriter#writeBatch(CoroutineRunner[], ExecutorService) }).
+     */
+    public interface BatchCoroutineSerializer extends CoroutineSerializer {
+        /**
+         * Serializes many coroutines together. The output must be the same regardless of whether or not {@code executor} is used.
+         * @param serializedStates states to serialize
+         * @param executor executor to run on ({@code null} to run on the calling thread)
+         * @return serialized byte array
+         * @throws NullPointerException if {@code serializedStates} is {@code null} or contains {@code null}
+         * @throws IllegalArgumentException if failed to serialize
+         */
+        byte[] serializeBatch(SerializedState[] serializedStates, ExecutorService executor);
+    }
+
+    /**
+     * Serialized coroutine that's been sized but not yet written.
+     */
+    public interface PreparedSerialization {
+        /**
+         * Get the number of bytes {@link #writeTo(java.nio.ByteBuffer) } writes.
+         * @return size of serialized data
+         */
+        int size();
+
+        /**
+         * Writes serialized data to a buffer, starting at the buffer's current position. On success, the buffer's position is advanced
+         * by {@link #size() }.
+         * @param buffer buffer to write to
+         * @throws NullPointerException if any argument is {@code null}
+         * @throws BufferOverflowException if {@code buffer} has less than {@link #size() } bytes remaining
+         */
+        void writeTo(ByteBuffer buffer);
+    }
+
     /**
      * Default implementation of {@link CoroutineSerializer} (uses Java's built-in serialization mechanism). This implementation has the
      * following restrictions...
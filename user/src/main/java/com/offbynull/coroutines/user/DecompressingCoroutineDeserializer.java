@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.CoroutineReader.BatchCoroutineDeserializer;
+import com.offbynull.coroutines.user.CoroutineReader.CoroutineDeserializer;
+import com.offbynull.coroutines.user.ParallelTasks.IndexTask;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Implementation of {@link CoroutineDeserializer} that decompresses data written by {@link CompressingCoroutineSerializer} before handing
+ * it off to another {@link CoroutineDeserializer}.
+ * <p>
+ * This class is given every {@link CompressionCodec} it should be able to read, and picks out the one matching the identifier and
+ * dictionary version recorded in the data. Keep codecs for older dictionary versions around for as long as there's data compressed with
+ * them. Data that wasn't written by {@link CompressingCoroutineSerializer} at all (e.g. data written before compression was turned on) is
+ * handed off to the wrapped deserializer as-is.
+ * @author Kasra Faghihi
+ */
+public final class DecompressingCoroutineDeserializer implements BatchCoroutineDeserializer {
+
+    private final CoroutineDeserializer deserializer;
+    private final CompressionCodec[] codecs;
+
+    /**
+     * Constructs a {@link DecompressingCoroutineDeserializer} object.
+     * @param deserializer deserializer to hand decompressed data to
+     * @param codecs codecs to decompress with
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code codecs} contains codecs with the same identifier and dictionary version, or a codec with a
+     * reserved identifier (see {@link CompressionCodec})
+     */
+    public DecompressingCoroutineDeserializer(CoroutineDeserializer deserializer, CompressionCodec[] codecs) {
+        if (deserializer == null || codecs == null) {
+            throw new NullPointerException();
+        }
+
+        CompressionCodec[] codecsCopy = (CompressionCodec[]) codecs.clone();
+        for (int i = 0; i < codecsCopy.length; i++) {
+            if (codecsCopy[i] == null) {
+                throw new NullPointerException();
+            }
+            if (codecsCopy[i].getId() == CompressingCoroutineSerializer.STORED_ID) {
+                throw new IllegalArgumentException("Codec identifier reserved");
+            }
+            if (findCodec(codecsCopy, i, codecsCopy[i].getId(), codecsCopy[i].getDictionaryVersion()) != null) {
+                throw new IllegalArgumentException("Duplicate codec: " + codecsCopy[i].getId() + "/"
+                        + codecsCopy[i].getDictionaryVersion());
+            }
+        }
+
+        this.deserializer = deserializer;
+        this.codecs = codecsCopy;
+    }
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public SerializedState deserialize(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        return deserializer.deserialize(decompress(data));
+    }
+
+    public SerializedState[] deserializeBatch(byte[] data, ExecutorService executor) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        byte[] decompressedData = decompress(data);
+        if (deserializer instanceof BatchCoroutineDeserializer) {
+            return ((BatchCoroutineDeserializer) deserializer).deserializeBatch(decompressedData, executor);
+        }
+
+        final byte[][] payloads = CoroutineBatches.unwrap(decompressedData);
+        final SerializedState[] states = new SerializedState[payloads.length];
+        ParallelTasks.forEachIndex(executor, payloads.length, new IndexTask() {
+            public void run(int idx) {
+                states[idx] = deserializer.deserialize(payloads[idx]);
+            }
+        });
+        return states;
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    private byte[] decompress(byte[] data) {
+        if (data.length < CompressingCoroutineSerializer.HEADER_SIZE) {
+            return data;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        if (buffer.getInt() != CompressingCoroutineSerializer.MAGIC) {
+            return data;
+        }
+
+        int id = buffer.getInt();
+        int dictionaryVersion = buffer.getInt();
+        int decompressedLength = buffer.getInt();
+        if (decompressedLength < 0) {
+            throw new IllegalArgumentException("Bad decompressed length");
+        }
+
+        byte[] compressedData = new byte[buffer.remaining()];
+        buffer.get(compressedData);
+
+        if (id == CompressingCoroutineSerializer.STORED_ID) {
+            if (compressedData.length != decompressedLength) {
+                throw new IllegalArgumentException("Decompressed length mismatch");
+            }
+            return compressedData;
+        }
+
+        CompressionCodec codec = findCodec(codecs, codecs.length, id, dictionaryVersion);
+        if (codec == null) {
+            throw new IllegalArgumentException("No codec available: " + id + "/" + dictionaryVersion);
+        }
+
+        byte[] decompressedData;
+        try {
+            decompressedData = codec.decompress(compressedData, decompressedLength);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe);
+        }
+        if (decompressedData == null) {
+            throw new IllegalStateException("Codec returned null");
+        }
+        if (decompressedData.length != decompressedLength) {
+            throw new IllegalArgumentException("Decompressed length mismatch");
+        }
+        return decompressedData;
+    }
+
+    private static CompressionCodec findCodec(CompressionCodec[] codecs, int count, int id, int dictionaryVersion) {
+        for (int i = 0; i < count; i++) {
+            if (codecs[i].getId() == id && codecs[i].getDictionaryVersion() == dictionaryVersion) {
+                return codecs[i];
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.CoroutineWriter.CoroutineSerializer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link CompressionCodec} backed by the JDK's {@link Deflater} / {@link Inflater}, optionally primed with a preset dictionary.
+ * <p>
+ * A preset dictionary lets even small payloads (e.g. a single suspended coroutine) reference byte sequences that commonly show up in
+ * serialized coroutine state -- class names, serialization headers for context types, runs of zeroed primitives, etc.. Use
+ * {@link #trainDictionary(com.offbynull.coroutines.user.CoroutineWriter.CoroutineSerializer, SerializedState[], int) } to build a
+ * dictionary from a set of representative samples. Data compressed with a dictionary can only be decompressed with the exact same
+ * dictionary, so give each dictionary its own version.
+ * @author Kasra Faghihi
+ */
+public final class DeflateCompressionCodec implements CompressionCodec {
+
+    /**
+     * Codec identifier.
+     */
+    public static final int ID = 1;
+
+    /**
+     * Maximum size of a useful preset dictionary (the size of deflate's sliding window).
+     */
+    public static final int MAX_DICTIONARY_SIZE = 32768;
+
+    private static final int GRAM_SIZE = 8;
+    // Deflate can't do better than 258 bytes out for every 2 bits in (~1032:1), and the zlib wrapper adds a few bytes on top -- anything
+    // claiming more is corrupt
+    private static final int MAX_EXPANSION = 1032;
+    private static final int MAX_DECOMPRESSED_LENGTH = 1 << 30;
+
+    private final byte[] dictionary;
+    private final int dictionaryVersion;
+    private final int dictionaryAdler;
+    private final int level;
+
+    /**
+     * Constructs a {@link DeflateCompressionCodec} object that doesn't use a preset dictionary.
+     */
+    public DeflateCompressionCodec() {
+        this.dictionary = null;
+        this.dictionaryVersion = 0;
+        this.dictionaryAdler = 0;
+        this.level = Deflater.DEFAULT_COMPRESSION;
+    }
+
+    /**
+     * Constructs a {@link DeflateCompressionCodec} object. Equivalent to calling
+     * {@code new DeflateCompressionCodec(dictionary, dictionaryVersion, Deflater.DEFAULT_COMPRESSION)}.
+     * @param dictionary preset dictionary
+     * @param dictionaryVersion version of {@code dictionary}
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dictionary} is empty or larger than {@link #MAX_DICTIONARY_SIZE}, or if
+     * {@code dictionaryVersion <= 0}
+     */
+    public DeflateCompressionCodec(byte[] dictionary, int dictionaryVersion) {
+        this(dictionary, dictionaryVersion, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Constructs a {@link DeflateCompressionCodec} object.
+     * @param dictionary preset dictionary
+     * @param dictionaryVersion version of {@code dictionary}
+     * @param level compression level ({@link Deflater#DEFAULT_COMPRESSION} or {@code 0} to {@code 9})
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if {@code dictionary} is empty or larger than {@link #MAX_DICTIONARY_SIZE}, if
+     * {@code dictionaryVersion <= 0}, or if {@code level} is out of range
+     */
+    public DeflateCompressionCodec(byte[] dictionary, int dictionaryVersion, int level) {
+        if (dictionary == null) {
+            throw new NullPointerException();
+        }
+        if (dictionary.length == 0 || dictionary.length > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Bad dictionary size");
+        }
+        if (dictionaryVersion <= 0) {
+            throw new IllegalArgumentException("Dictionary version must be positive");
+        }
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < 0 || level > 9)) {
+            throw new IllegalArgumentException("Bad level");
+        }
+
+        Adler32 adler = new Adler32();
+        adler.update(dictionary);
+
+        this.dictionary = (byte[]) dictionary.clone();
+        this.dictionaryVersion = dictionaryVersion;
+        this.dictionaryAdler = (int) adler.getValue();
+        this.level = level;
+    }
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public int getId() {
+        return ID;
+    }
+
+    public int getDictionaryVersion() {
+        return dictionaryVersion;
+    }
+
+    public byte[] compress(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(data);
+            deflater.finish();
+
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 2 + 64);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                baos.write(buffer, 0, count);
+            }
+            return baos.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public byte[] decompress(byte[] data, int decompressedLength) throws IOException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        if (decompressedLength < 0
+                || decompressedLength > MAX_DECOMPRESSED_LENGTH
+                || decompressedLength > (long) data.length * MAX_EXPANSION) {
+            throw new IOException("Bad decompressed length: " + decompressedLength);
+        }
+
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(data);
+
+            byte[] out = new byte[decompressedLength];
+            int outPos = 0;
+            while (!inflater.finished()) {
+                int count = inflater.inflate(out, outPos, out.length - outPos);
+                if (count == 0) {
+                    if (inflater.needsDictionary()) {
+                        if (dictionary == null || inflater.getAdler() != dictionaryAdler) {
+                            throw new IOException("Dictionary mismatch");
+                        }
+                        inflater.setDictionary(dictionary);
+                    } else if (inflater.needsInput()) {
+                        throw new IOException("Unexpected end of data");
+                    } else if (outPos == out.length) {
+                        throw new IOException("Decompressed length mismatch");
+                    }
+                }
+                outPos += count;
+            }
+
+            if (outPos != out.length) {
+                throw new IOException("Decompressed length mismatch");
+            }
+            if (inflater.getRemaining() != 0) {
+                throw new IOException("Trailing data");
+            }
+            return out;
+        } catch (DataFormatException dfe) {
+            throw new IOException(dfe);
+        } finally {
+            inflater.end();
+        }
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    /**
+     * Builds a preset dictionary from representative samples of coroutine state. Equivalent to serializing each sample with
+     * {@code serializer} and passing the results to {@link #trainDictionary(byte[][], int) }.
+     * @param serializer serializer that the codec will be compressing the output of
+     * @param samples representative samples
+     * @param maxSize maximum size of the dictionary (at most {@link #MAX_DICTIONARY_SIZE})
+     * @return preset dictionary
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code samples} is empty, if {@code maxSize} is out of range, or if failed to serialize
+     */
+    public static byte[] trainDictionary(CoroutineSerializer serializer, SerializedState[] samples, int maxSize) {
+        if (serializer == null || samples == null) {
+            throw new NullPointerException();
+        }
+
+        byte[][] serializedSamples = new byte[samples.length][];
+        for (int i = 0; i < samples.length; i++) {
+            if (samples[i] == null) {
+                throw new NullPointerException();
+            }
+            serializedSamples[i] = serializer.serialize(samples[i]);
+        }
+        return trainDictionary(serializedSamples, maxSize);
+    }
+
+    /**
+     * Builds a preset dictionary from representative samples of serialized coroutine state.
+     * <p>
+     * Byte sequences that show up in more than one sample (or in the only sample, if just one was provided) are collected, and the ones
+     * that cover the most bytes across all samples are kept. The most valuable sequences are placed at the end of the dictionary, since
+     * deflate encodes shorter distances more cheaply.
+     * @param samples representative samples
+     * @param maxSize maximum size of the dictionary (at most {@link #MAX_DICTIONARY_SIZE})
+     * @return preset dictionary
+     * @throws NullPointerException if any argument is {@code null} or contains {@code null}
+     * @throws IllegalArgumentException if {@code samples} is empty, if nothing could be trained from {@code samples} (e.g. all samples are
+     * tiny), or if {@code maxSize} is out of range
+     */
+    public static byte[] trainDictionary(byte[][] samples, int maxSize) {
+        if (samples == null) {
+            throw new NullPointerException();
+        }
+        if (samples.length == 0) {
+            throw new IllegalArgumentException("No samples");
+        }
+        if (maxSize <= 0 || maxSize > MAX_DICTIONARY_SIZE) {
+            throw new IllegalArgumentException("Bad dictionary size");
+        }
+        for (int i = 0; i < samples.length; i++) {
+            if (samples[i] == null) {
+                throw new NullPointerException();
+            }
+        }
+
+        // Count the number of samples each fixed-size byte sequence shows up in
+        Map sampleCounts = new HashMap();
+        for (int i = 0; i < samples.length; i++) {
+            Set seen = new HashSet();
+            byte[] sample = samples[i];
+            for (int j = 0; j + GRAM_SIZE <= sample.length; j++) {
+                String gram = toKey(sample, j, GRAM_SIZE);
+                if (seen.add(gram)) {
+                    Integer count = (Integer) sampleCounts.get(gram);
+                    sampleCounts.put(gram, Integer.valueOf(count == null ? 1 : count.intValue() + 1));
+                }
+            }
+        }
+
+        // Grow runs of common sequences into segments, scoring each segment by the number of bytes it covers over all samples
+        int minSampleCount = samples.length == 1 ? 1 : 2;
+        Map segmentScores = new HashMap();
+        for (int i = 0; i < samples.length; i++) {
+            byte[] sample = samples[i];
+            int runStart = -1;
+            int runScore = 0;
+            for (int j = 0; j + GRAM_SIZE <= sample.length + 1; j++) {
+                int count = j + GRAM_SIZE <= sample.length ? ((Integer) sampleCounts.get(toKey(sample, j, GRAM_SIZE))).intValue() : 0;
+                if (count >= minSampleCount) {
+                    if (runStart == -1) {
+                        runStart = j;
+                        runScore = 0;
+                    }
+                    runScore += count;
+                } else if (runStart != -1) {
+                    String segment = toKey(sample, runStart, j - runStart - 1 + GRAM_SIZE);
+                    Integer score = (Integer) segmentScores.get(segment);
+                    segmentScores.put(segment, Integer.valueOf(score == null ? runScore : score.intValue() + runScore));
+                    runStart = -1;
+                }
+            }
+        }
+
+        if (segmentScores.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to train on");
+        }
+
+        // Keep the highest scoring segments that fit, then lay them out with the highest scoring one last
+        List segments = new ArrayList(segmentScores.entrySet());
+        Collections.sort(segments, new Comparator() {
+            //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work (designed for Java 1.4)
+            public int compare(Object o1, Object o2) {
+                Entry e1 = (Entry) o1;
+                Entry e2 = (Entry) o2;
+                int ret = ((Integer) e2.getValue()).compareTo((Integer) e1.getValue());
+                return ret != 0 ? ret : ((String) e1.getKey()).compareTo((String) e2.getKey()); // tie-break to stay deterministic
+            }
+            //CHECKSTYLE.ON:JavadocMethod
+        });
+
+        List kept = new ArrayList();
+        int remaining = maxSize;
+        for (Iterator it = segments.iterator(); it.hasNext() && remaining > 0;) {
+            String segment = (String) ((Entry) it.next()).getKey();
+            if (segment.length() > remaining) {
+                segment = segment.substring(segment.length() - remaining); // keep the tail so the dictionary stays full
+            }
+            kept.add(segment);
+            remaining -= segment.length();
+        }
+
+        StringBuilder sb = new StringBuilder(maxSize - remaining);
+        for (int i = kept.size() - 1; i >= 0; i--) {
+            sb.append((String) kept.get(i));
+        }
+        try {
+            return sb.toString().getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee); // should never happen
+        }
+    }
+
+    // ISO-8859-1 maps each byte to exactly one char, so byte sequences can be used as (hashable, comparable) strings
+    private static String toKey(byte[] data, int offset, int length) {
+        try {
+            return new String(data, offset, length, "ISO-8859-1");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee); // should never happen
+        }
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import com.offbynull.coroutines.user.SerializedState.Data;
+import com.offbynull.coroutines.user.SerializedState.Frame;
+import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Envelope and frame stripping/merging used by checkpoints written via {@link CoroutineWriter#writeCheckpoint(CoroutineRunner, long) } /
+ * {@link CoroutineWriter#writeDelta(CoroutineRunner, long) } and read via {@link CoroutineReader#readCheckpoints(byte[][]) }.
+ * <p>
+ * A checkpoint is a small header (magic, kind, and varint IDs/counts) followed by whatever the {@link CoroutineWriter.CoroutineSerializer}
+ * in use wrote out. A delta checkpoint leaves out the bottom frames which haven't changed since its base checkpoint -- the header holds
+ * how many there are, and those frames get copied over from the base when the delta is read back in. The only thing kept from them is
+ * the objects they point to, collected in to a single placeholder frame at the bottom of the delta, since those objects may have changed
+ * (and need to stay the same instances as the ones in the rest of the state).
+ * @author Kasra Faghihi
+ */
+final class DeltaCheckpoints {
+
+    private static final int MAGIC = 0xC0DEC4EC;
+    private static final int KIND_FULL = 0;
+    private static final int KIND_DELTA = 1;
+
+    private static final String KEPT_FRAME_CLASS_NAME = "";
+
+    private static final int[] NO_INTS = new int[0];
+    private static final float[] NO_FLOATS = new float[0];
+    private static final long[] NO_LONGS = new long[0];
+    private static final double[] NO_DOUBLES = new double[0];
+    private static final Object[] NO_OBJECTS = new Object[0];
+
+    private DeltaCheckpoints() {
+        // do nothing
+    }
+
+    static byte[] wrapFull(long checkpointId, byte[] payload) {
+        return wrap(KIND_FULL, checkpointId, 0L, 0, payload);
+    }
+
+    static byte[] wrapDelta(long checkpointId, long baseCheckpointId, int keptFrameCount, byte[] payload) {
+        return wrap(KIND_DELTA, checkpointId, baseCheckpointId, keptFrameCount, payload);
+    }
+
+    private static byte[] wrap(int kind, long checkpointId, long baseCheckpointId, int keptFrameCount, byte[] payload) {
+        BinaryOutput counter = new BinaryOutput();
+        writeHeader(counter, kind, checkpointId, baseCheckpointId, keptFrameCount);
+
+        byte[] data = new byte[counter.size() + payload.length];
+        BinaryOutput out = new BinaryOutput(ByteBuffer.wrap(data));
+        writeHeader(out, kind, checkpointId, baseCheckpointId, keptFrameCount);
+        out.writeBytes(payload);
+        return data;
+    }
+
+    private static void writeHeader(BinaryOutput out, int kind, long checkpointId, long baseCheckpointId, int keptFrameCount) {
+        out.writeFixedInt(MAGIC);
+        out.writeByte(kind);
+        out.writeSignedVarLong(checkpointId);
+        if (kind == KIND_DELTA) {
+            out.writeSignedVarLong(baseCheckpointId);
+            out.writeVarInt(keptFrameCount);
+        }
+    }
+
+    static Header readHeader(byte[] data) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        BinaryInput in = new BinaryInput(buffer);
+        if (data.length < 4 || in.readFixedInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a checkpoint");
+        }
+
+        int kind = in.readByte();
+        long checkpointId = in.readSignedVarLong();
+        switch (kind) {
+            case KIND_FULL:
+                return new Header(false, checkpointId, 0L, 0, buffer.position());
+            case KIND_DELTA:
+                long baseCheckpointId = in.readSignedVarLong();
+                int keptFrameCount = in.readVarInt();
+                if (keptFrameCount < 0) {
+                    throw new IllegalArgumentException("Bad kept frame count");
+                }
+                return new Header(true, checkpointId, baseCheckpointId, keptFrameCount, buffer.position());
+            default:
+                throw new IllegalArgumentException("Unrecognized checkpoint kind: " + kind);
+        }
+    }
+
+    static SerializedState strip(SerializedState state, int keptFrameCount) {
+        VersionedFrame[] frames = state.getFrames();
+
+        List monitors = new ArrayList();
+        List objects = new ArrayList();
+        for (int i = 0; i < keptFrameCount; i++) {
+            Frame[] possibleFrames = frames[i].getFrames();
+            for (int j = 0; j < possibleFrames.length; j++) {
+                Frame frame = possibleFrames[j];
+                monitors.addAll(Arrays.asList(frame.getMonitors()));
+                objects.addAll(Arrays.asList(frame.getVariables().getObjects()));
+                objects.addAll(Arrays.asList(frame.getOperands().getObjects()));
+            }
+        }
+
+        Frame keptFrame = new Frame(
+                KEPT_FRAME_CLASS_NAME,
+                0,
+                0,
+                monitors.toArray(),
+                new Data(NO_INTS, NO_FLOATS, NO_LONGS, NO_DOUBLES, objects.toArray(), NO_INTS),
+                new Data(NO_INTS, NO_FLOATS, NO_LONGS, NO_DOUBLES, NO_OBJECTS, NO_INTS));
+
+        VersionedFrame[] deltaFrames = new VersionedFrame[frames.length - keptFrameCount + 1];
+        deltaFrames[0] = new VersionedFrame(new Frame[] {keptFrame});
+        System.arraycopy(frames, keptFrameCount, deltaFrames, 1, frames.length - keptFrameCount);
+        return new SerializedState(state.getCoroutine(), state.getContext(), deltaFrames);
+    }
+
+    static SerializedState merge(SerializedState base, SerializedState delta, int keptFrameCount) {
+        VersionedFrame[] baseFrames = base.getFrames();
+        VersionedFrame[] deltaFrames = delta.getFrames();
+        if (keptFrameCount > baseFrames.length) {
+            throw new IllegalArgumentException("Delta keeps more frames than available");
+        }
+        if (deltaFrames.length == 0 || deltaFrames[0].getFrames().length != 1) {
+            throw new IllegalArgumentException("Delta missing kept frame objects");
+        }
+
+        Frame keptFrame = deltaFrames[0].getFrames()[0];
+        ObjectCursor monitors = new ObjectCursor(keptFrame.getMonitors());
+        ObjectCursor objects = new ObjectCursor(keptFrame.getVariables().getObjects());
+
+        VersionedFrame[] frames = new VersionedFrame[keptFrameCount + deltaFrames.length - 1];
+        for (int i = 0; i < keptFrameCount; i++) {
+            Frame[] possibleFrames = baseFrames[i].getFrames();
+            for (int j = 0; j < possibleFrames.length; j++) {
+                Frame baseFrame = possibleFrames[j];
+                possibleFrames[j] = new Frame(
+                        baseFrame.getClassName(),
+                        baseFrame.getMethodId(),
+                        baseFrame.getContinuationPointId(),
+                        monitors.next(baseFrame.getMonitors().length),
+                        mergeData(baseFrame.getVariables(), objects),
+                        mergeData(baseFrame.getOperands(), objects));
+            }
+            frames[i] = new VersionedFrame(possibleFrames);
+        }
+        if (!monitors.isFinished() || !objects.isFinished()) {
+            throw new IllegalArgumentException("Delta kept frame objects don't match base frames");
+        }
+        System.arraycopy(deltaFrames, 1, frames, keptFrameCount, deltaFrames.length - 1);
+
+        return new SerializedState(delta.getCoroutine(), delta.getContext(), frames);
+    }
+
+    private static Data mergeData(Data base, ObjectCursor objects) {
+        return new Data(
+                base.getInts(),
+                base.getFloats(),
+                base.getLongs(),
+                base.getDoubles(),
+                objects.next(base.getObjects().length),
+                base.getContinuationIndexes());
+    }
+
+    private static final class ObjectCursor {
+        private final Object[] objects;
+        private int position;
+
+        ObjectCursor(Object[] objects) {
+            this.objects = objects;
+        }
+
+        Object[] next(int count) {
+            if (count > objects.length - position) {
+                throw new IllegalArgumentException("Delta kept frame objects don't match base frames");
+            }
+            Object[] ret = new Object[count];
+            System.arraycopy(objects, position, ret, 0, count);
+            position += count;
+            return ret;
+        }
+
+        boolean isFinished() {
+            return position == objects.length;
+        }
+    }
+
+    static final class Header {
+        private final boolean delta;
+        private final long checkpointId;
+        private final long baseCheckpointId;
+        private final int keptFrameCount;
+        private final int payloadOffset;
+
+        Header(boolean delta, long checkpointId, long baseCheckpointId, int keptFrameCount, int payloadOffset) {
+            this.delta = delta;
+            this.checkpointId = checkpointId;
+            this.baseCheckpointId = baseCheckpointId;
+            this.keptFrameCount = keptFrameCount;
+            this.payloadOffset = payloadOffset;
+        }
+
+        boolean isDelta() {
+            return delta;
+        }
+
+        long getCheckpointId() {
+            return checkpointId;
+        }
+
+        long getBaseCheckpointId() {
+            return baseCheckpointId;
+        }
+
+        int getKeptFrameCount() {
+            return keptFrameCount;
+        }
+
+        int getPayloadOffset() {
+            return payloadOffset;
+        }
+    }
+}
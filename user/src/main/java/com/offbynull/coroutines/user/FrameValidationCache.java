@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches the lookups done by {@link MethodState#isValid(java.lang.ClassLoader, java.lang.String, int, int) } -- resolving a class by
+ * name and checking that class for the identifying field of a method id / continuation point id. Checkpoints validate every frame on
+ * every read and write, and doing that reflection each time costs more than the serialization itself.
+ * <p>
+ * Lookups are cached separately for each class loader (and each class), and none of the caches lock on reads, so threads deserializing
+ * in parallel don't contend with each other. Class loaders and classes are only weakly held, so caching doesn't stop classes from being
+ * unloaded (e.g. on redeploy). Failed class lookups aren't cached, since a class loader may be able to find the class later on.
+ * @author Kasra Faghihi
+ */
+final class FrameValidationCache {
+
+    // Requested ClassLoader -> (class name -> WeakReference<Class>). Values have to be weak as well because a Class strongly references
+    // its ClassLoader, which would otherwise keep the key alive forever.
+    private static final WeakKeyMap EXPLICIT_CLASSES = new WeakKeyMap();
+    // Thread context ClassLoader -> (class name -> WeakReference<Class>). When no ClassLoader is requested, the class is resolved through
+    // MethodState's ClassLoader and then the thread's context ClassLoader, so the outcome depends on the context ClassLoader.
+    private static final WeakKeyMap DEFAULT_CLASSES = new WeakKeyMap();
+    // Class name -> WeakReference<Class>. When no ClassLoader is requested and the thread has no context ClassLoader, the class is only
+    // resolved through MethodState's ClassLoader.
+    private static final ConcurrentMap NO_CONTEXT_CLASSES = new ConcurrentHashMap();
+    // Class -> (Long made up of method id and continuation point id -> Boolean)
+    private static final WeakKeyMap VALIDITIES = new WeakKeyMap();
+
+    private FrameValidationCache() {
+        // do nothing
+    }
+
+    static Class findClass(ClassLoader classLoader, String className) {
+        ConcurrentMap classesByName;
+        if (classLoader != null) {
+            classesByName = EXPLICIT_CLASSES.get(classLoader);
+        } else {
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            classesByName = contextClassLoader != null ? DEFAULT_CLASSES.get(contextClassLoader) : NO_CONTEXT_CLASSES;
+        }
+
+        WeakReference ref = (WeakReference) classesByName.get(className);
+        Class cls = ref == null ? null : (Class) ref.get();
+        if (cls != null) {
+            return cls;
+        }
+
+        cls = MethodState.loadClass(classLoader, className);
+        if (cls == null) {
+            return null;
+        }
+
+        classesByName.put(className, new WeakReference(cls));
+        return cls;
+    }
+
+    static boolean hasIdentifyingField(Class cls, int methodId, int continuationPointId) {
+        Long key = Long.valueOf(((long) methodId << 32) | (continuationPointId & 0xFFFFFFFFL));
+
+        ConcurrentMap validities = VALIDITIES.get(cls);
+        Boolean valid = (Boolean) validities.get(key);
+        if (valid != null) {
+            return valid.booleanValue();
+        }
+
+        String versionField = MethodState.getIdentifyingFieldName(methodId, continuationPointId);
+        try {
+            cls.getDeclaredField(versionField);
+            valid = Boolean.TRUE;
+        } catch (NoSuchFieldException nsfe) {
+            valid = Boolean.FALSE;
+        }
+
+        validities.put(key, valid);
+        return valid.booleanValue();
+    }
+
+    // Map of weakly held keys (compared by identity) to ConcurrentMaps, created on first access. The JDK doesn't provide a concurrent
+    // map with weak keys -- WeakHashMap needs to be locked even for reads, because reads clear out entries for collected keys. Here,
+    // entries for collected keys are cleared out when new keys get added.
+    private static final class WeakKeyMap {
+        private final ConcurrentMap map = new ConcurrentHashMap();
+        private final ReferenceQueue queue = new ReferenceQueue();
+
+        ConcurrentMap get(Object key) {
+            ConcurrentMap value = (ConcurrentMap) map.get(new LookupKey(key));
+            if (value != null) {
+                return value;
+            }
+
+            Reference collected;
+            while ((collected = queue.poll()) != null) {
+                map.remove(collected);
+            }
+
+            value = new ConcurrentHashMap();
+            ConcurrentMap existing = (ConcurrentMap) map.putIfAbsent(new WeakKey(key, queue), value);
+            return existing != null ? existing : value;
+        }
+    }
+
+    private static final class WeakKey extends WeakReference {
+        private final int hashCode;
+
+        WeakKey(Object referent, ReferenceQueue queue) {
+            super(referent, queue);
+            this.hashCode = System.identityHashCode(referent);
+        }
+
+        public int hashCode() {
+            return hashCode;
+        }
+
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            Object referent = get();
+            return referent != null && referent == referentOf(obj);
+        }
+    }
+
+    private static final class LookupKey {
+        private final Object referent;
+
+        LookupKey(Object referent) {
+            this.referent = referent;
+        }
+
+        public int hashCode() {
+            return System.identityHashCode(referent);
+        }
+
+        public boolean equals(Object obj) {
+            return referent == referentOf(obj);
+        }
+    }
+
+    private static Object referentOf(Object key) {
+        if (key instanceof WeakKey) {
+            return ((WeakKey) key).get();
+        } else if (key instanceof LookupKey) {
+            return ((LookupKey) key).referent;
+        }
+        return null;
+    }
+}
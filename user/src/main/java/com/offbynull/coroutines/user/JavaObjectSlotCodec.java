@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OptionalDataException;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+
+/**
+ * Default implementation of {@link ObjectSlotCodec} (uses Java's built-in serialization mechanism). The entire pool is written through a
+ * single {@link ObjectOutputStream}, so references shared between pooled objects are preserved. Pooled objects must implement
+ * {@link Serializable}.
+ * @author Kasra Faghihi
+ */
+public final class JavaObjectSlotCodec implements ObjectSlotCodec {
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public byte[] encode(Object[] objects) {
+        if (objects == null) {
+            throw new NullPointerException();
+        }
+
+        if (objects.length == 0) {
+            return new byte[0];
+        }
+
+        ByteArrayOutputStream baos = null;
+        ObjectOutputStream oos = null;
+        try {
+            baos = new ByteArrayOutputStream();
+            oos = new ObjectOutputStream(baos);
+
+            oos.writeInt(objects.length);
+            for (int i = 0; i < objects.length; i++) {
+                oos.writeObject(objects[i]);
+            }
+            oos.flush();
+
+            return baos.toByteArray();
+        } catch (NotSerializableException nse) {
+            throw new IllegalArgumentException(nse);
+        } catch (InvalidClassException ice) {
+            throw new IllegalArgumentException(ice);
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe); // should never happen
+        } finally {
+            if (oos != null) {
+                try {
+                    oos.close();
+                } catch (IOException ioe) {
+                    // do nothing
+                }
+            }
+            if (baos != null) {
+                try {
+                    baos.close();
+                } catch (IOException ioe) {
+                    // do nothing
+                }
+            }
+        }
+    }
+
+    public Object[] decode(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        if (data.length == 0) {
+            return new Object[0];
+        }
+
+        ByteArrayInputStream bais = null;
+        ObjectInputStream ois = null;
+        try {
+            bais = new ByteArrayInputStream(data);
+            ois = new ObjectInputStream(bais) {
+                protected Class resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+                    try {
+                        return super.resolveClass(desc);
+                    } catch (ClassNotFoundException cnfe) {
+                        // Same fallback as CoroutineReader.DefaultCoroutineDeserializer -- coroutine classes may have been loaded by a
+                        // classloader that ObjectInputStream doesn't know about.
+                        return Thread.currentThread().getContextClassLoader().loadClass(desc.getName());
+                    }
+                }
+            };
+
+            int length = ois.readInt();
+            if (length < 0 || length > data.length) { // every object takes up at least 1 byte
+                throw new IllegalArgumentException("Bad length");
+            }
+
+            Object[] objects = new Object[length];
+            for (int i = 0; i < length; i++) {
+                objects[i] = ois.readObject();
+            }
+
+            return objects;
+        } catch (StreamCorruptedException sce) {
+            throw new IllegalArgumentException(sce);
+        } catch (OptionalDataException ode) {
+            throw new IllegalArgumentException(ode);
+        } catch (InvalidClassException ice) {
+            throw new IllegalArgumentException(ice);
+        } catch (ClassNotFoundException cnfe) {
+            throw new IllegalArgumentException(cnfe);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException(ioe); // truncated input
+        } finally {
+            if (ois != null) {
+                try {
+                    ois.close();
+                } catch (IOException ioe) {
+                    // do nothing
+                }
+            }
+            if (bais != null) {
+                try {
+                    bais.close();
+                } catch (IOException ioe) {
+                    // do nothing
+                }
+            }
+        }
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+}
@@ -17,8 +17,6 @@
 package com.offbynull.coroutines.user;
 
 import java.io.Serializable;
-import java.util.LinkedList;
-import java.util.ListIterator;
 
 /**
  * Do not use -- for internal use only.
@@ -27,9 +25,9 @@ import java.util.ListIterator;
  * @author Kasra Faghihi
  */
 public final class LockState implements Serializable {
-    private static final long serialVersionUID = 6L;
+    private static final long serialVersionUID = 7L;
 
-    // We use a linkedlist to make sure that we retain the order of monitors as they come in. Otherwise we're going to deal with deadlock
+    // We use a stack to make sure that we retain the order of monitors as they come in. Otherwise we're going to deal with deadlock
     // issues if we have code structured with double locks. For example, imagine the following scenario...
     //
     // Method 1:
@@ -52,7 +50,13 @@ public final class LockState implements Serializable {
     // correctly (first a and then b). Dual locking without retaining the same order = a deadlock waiting to happen.
     //
     // Long story short: it's vital that we keep the order which locks happen
-    private LinkedList monitors = new LinkedList();
+    //
+    // The stack is backed by an array rather than a list so that entering a monitor doesn't allocate a node and so that the instrumented
+    // code can walk over the monitors (via size() and get()) without having to copy them out.
+    private static final int INITIAL_CAPACITY = 4;
+
+    private Object[] monitors = new Object[INITIAL_CAPACITY];
+    private int size;
 
     /**
      * Do not use -- for internal use only.
@@ -65,7 +69,13 @@ public final class LockState implements Serializable {
             throw new NullPointerException();
         }
 
-        monitors.add(monitor);
+        if (size == monitors.length) {
+            Object[] newMonitors = new Object[monitors.length * 2];
+            System.arraycopy(monitors, 0, newMonitors, 0, size);
+            monitors = newMonitors;
+        }
+        monitors[size] = monitor;
+        size++;
     }
 
     /**
@@ -80,24 +90,51 @@ public final class LockState implements Serializable {
         }
 
         // remove last
-        ListIterator it = monitors.listIterator(monitors.size());
-        while (it.hasPrevious()) {
-            Object prev = it.previous();
-            if (monitor == prev) { // Never use equals() to test equality. We always need to make sure that the objects are the same, we
-                                   // don't care if they're the objects are logically equivalent
-                it.remove();
+        for (int i = size - 1; i >= 0; i--) {
+            if (monitor == monitors[i]) { // Never use equals() to test equality. We always need to make sure that the objects are the same,
+                                          // we don't care if they're the objects are logically equivalent
+                System.arraycopy(monitors, i + 1, monitors, i, size - i - 1);
+                size--;
+                monitors[size] = null;
                 return;
             }
         }
         
         throw new IllegalArgumentException(); // not found
     }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get the number of monitors being tracked.
+     * @return number of monitors being tracked
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Do not use -- for internal use only.
+     * <p>
+     * Get a monitor being tracked. Monitors are indexed in the order that they were entered.
+     * @param idx index of monitor
+     * @return monitor at {@code idx}
+     * @throws IllegalArgumentException if {@code idx} is out of bounds
+     */
+    public Object get(int idx) {
+        if (idx < 0 || idx >= size) {
+            throw new IllegalArgumentException();
+        }
+        return monitors[idx];
+    }
     
     /**
      * Dumps monitors out as an array. Order is retained.
      * @return monitors
      */
     public Object[] toArray() {
-        return monitors.toArray();
+        Object[] ret = new Object[size];
+        System.arraycopy(monitors, 0, ret, 0, size);
+        return ret;
     }
 }
@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Fast LZ77-style {@link CompressionCodec}. Repeated byte sequences are replaced by back-references to an earlier copy, but nothing is
+ * entropy coded, so compression ratios are lower than {@link DeflateCompressionCodec} in exchange for being much cheaper on the CPU.
+ * Serialized coroutine state tends to be highly repetitive (the same class names over and over, runs of zeroed primitives, etc..), so
+ * back-references alone catch most of the redundancy.
+ * <p>
+ * The compressed data is a series of sequences, where each sequence consists of...
+ * <ol>
+ * <li>a token byte (high 4 bits hold the literal length, low 4 bits hold the match length minus 4),</li>
+ * <li>extra literal length bytes, only if the literal length in the token is 15 (each byte is added on, up to and including the
+ * first byte that isn't 255),</li>
+ * <li>the literals,</li>
+ * <li>a 2 byte little-endian offset to copy the match from (how far back from the current position),</li>
+ * <li>extra match length bytes (same scheme as the extra literal length bytes).</li>
+ * </ol>
+ * The last sequence only has literals (it ends right after them).
+ * @author Kasra Faghihi
+ */
+public final class LzCompressionCodec implements CompressionCodec {
+
+    /**
+     * Codec identifier.
+     */
+    public static final int ID = 2;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+    private static final int RUN_MASK = 15;
+    // Each input byte can produce at most 255 bytes of output (an extra length byte of 255) -- anything claiming more is corrupt
+    private static final int MAX_EXPANSION = 255;
+    private static final int MAX_DECOMPRESSED_LENGTH = 1 << 30;
+
+    //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work, but this is designed for Java 1.4 (no annotations support)
+    public int getId() {
+        return ID;
+    }
+
+    public int getDictionaryVersion() {
+        return 0;
+    }
+
+    public byte[] compress(byte[] data) {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+
+        int length = data.length;
+        byte[] out = new byte[length + length / 255 + 16]; // worst case -- everything ends up as literals
+        int outPos = 0;
+
+        int[] table = new int[1 << HASH_BITS]; // 1 + position last seen at (0 means never seen)
+        int anchor = 0;
+        int pos = 0;
+        while (pos <= length - MIN_MATCH) {
+            int sequence = readInt(data, pos);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[hash] - 1;
+            table[hash] = pos + 1;
+
+            if (ref < 0 || pos - ref > MAX_OFFSET || readInt(data, ref) != sequence) {
+                pos++;
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (pos + matchLength < length && data[ref + matchLength] == data[pos + matchLength]) {
+                matchLength++;
+            }
+
+            outPos = writeSequence(out, outPos, data, anchor, pos - anchor, pos - ref, matchLength);
+            pos += matchLength;
+            anchor = pos;
+        }
+
+        outPos = writeLastSequence(out, outPos, data, anchor, length - anchor);
+        return Arrays.copyOf(out, outPos);
+    }
+
+    public byte[] decompress(byte[] data, int decompressedLength) throws IOException {
+        if (data == null) {
+            throw new NullPointerException();
+        }
+        if (decompressedLength < 0
+                || decompressedLength > MAX_DECOMPRESSED_LENGTH
+                || decompressedLength > (long) data.length * MAX_EXPANSION) {
+            throw new IOException("Bad decompressed length: " + decompressedLength);
+        }
+
+        byte[] out = new byte[decompressedLength];
+        int outPos = 0;
+        int inPos = 0;
+        while (true) {
+            if (inPos >= data.length) {
+                throw new IOException("Unexpected end of data");
+            }
+            int token = data[inPos++] & 0xFF;
+
+            int literalLength = token >>> 4;
+            if (literalLength == RUN_MASK) {
+                int extra;
+                do {
+                    if (inPos >= data.length) {
+                        throw new IOException("Unexpected end of data");
+                    }
+                    extra = data[inPos++] & 0xFF;
+                    literalLength += extra;
+                } while (extra == 255 && literalLength >= 0);
+            }
+            if (literalLength < 0 || literalLength > data.length - inPos || literalLength > out.length - outPos) {
+                throw new IOException("Bad literal length");
+            }
+            System.arraycopy(data, inPos, out, outPos, literalLength);
+            inPos += literalLength;
+            outPos += literalLength;
+
+            if (inPos == data.length) { // last sequence
+                break;
+            }
+
+            if (inPos + 2 > data.length) {
+                throw new IOException("Unexpected end of data");
+            }
+            int offset = (data[inPos] & 0xFF) | ((data[inPos + 1] & 0xFF) << 8);
+            inPos += 2;
+            if (offset == 0 || offset > outPos) {
+                throw new IOException("Bad offset");
+            }
+
+            int matchLength = token & RUN_MASK;
+            if (matchLength == RUN_MASK) {
+                int extra;
+                do {
+                    if (inPos >= data.length) {
+                        throw new IOException("Unexpected end of data");
+                    }
+                    extra = data[inPos++] & 0xFF;
+                    matchLength += extra;
+                } while (extra == 255 && matchLength >= 0);
+            }
+            matchLength += MIN_MATCH;
+            if (matchLength < MIN_MATCH || matchLength > out.length - outPos) {
+                throw new IOException("Bad match length");
+            }
+
+            // can't use System.arraycopy -- the match is allowed to overlap with the bytes it produces
+            int ref = outPos - offset;
+            for (int i = 0; i < matchLength; i++) {
+                out[outPos++] = out[ref++];
+            }
+        }
+
+        if (outPos != out.length) {
+            throw new IOException("Decompressed length mismatch");
+        }
+        return out;
+    }
+    //CHECKSTYLE.ON:JavadocMethod
+
+    private static int writeSequence(byte[] out, int outPos, byte[] data, int literalStart, int literalLength, int offset,
+            int matchLength) {
+        int extraMatchLength = matchLength - MIN_MATCH;
+        int tokenPos = outPos++;
+        int token = Math.min(extraMatchLength, RUN_MASK);
+        outPos = writeLiterals(out, outPos, tokenPos, token, data, literalStart, literalLength);
+
+        out[outPos++] = (byte) offset;
+        out[outPos++] = (byte) (offset >>> 8);
+
+        if (extraMatchLength >= RUN_MASK) {
+            outPos = writeRunLength(out, outPos, extraMatchLength - RUN_MASK);
+        }
+        return outPos;
+    }
+
+    private static int writeLastSequence(byte[] out, int outPos, byte[] data, int literalStart, int literalLength) {
+        int tokenPos = outPos++;
+        return writeLiterals(out, outPos, tokenPos, 0, data, literalStart, literalLength);
+    }
+
+    private static int writeLiterals(byte[] out, int outPos, int tokenPos, int token, byte[] data, int literalStart, int literalLength) {
+        out[tokenPos] = (byte) ((Math.min(literalLength, RUN_MASK) << 4) | token);
+        if (literalLength >= RUN_MASK) {
+            outPos = writeRunLength(out, outPos, literalLength - RUN_MASK);
+        }
+        System.arraycopy(data, literalStart, out, outPos, literalLength);
+        return outPos + literalLength;
+    }
+
+    private static int writeRunLength(byte[] out, int outPos, int remaining) {
+        while (remaining >= 255) {
+            out[outPos++] = (byte) 255;
+            remaining -= 255;
+        }
+        out[outPos++] = (byte) remaining;
+        return outPos;
+    }
+
+    private static int readInt(byte[] data, int pos) {
+        return (data[pos] & 0xFF)
+                | ((data[pos + 1] & 0xFF) << 8)
+                | ((data[pos + 2] & 0xFF) << 16)
+                | ((data[pos + 3] & 0xFF) << 24);
+    }
+}
@@ -25,7 +25,7 @@ import java.io.Serializable;
  * @author Kasra Faghihi
  */
 public final class MethodState implements Serializable {
-    private static final long serialVersionUID = 6L;
+    private static final long serialVersionUID = 7L;
 
     private final String className;
     private final int methodId;
@@ -33,9 +33,6 @@ public final class MethodState implements Serializable {
     private final Object[] data;
     private final LockState lockState;
 
-    private MethodState next;
-    private MethodState previous;
-
     /**
      * Do not use -- for internal use only.
      * <p>
@@ -114,61 +111,6 @@ public final class MethodState implements Serializable {
 
 
 
-    
-    
-    
-    
-    
-    
-    
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Get the next method state.
-     * @return next method state
-     */
-    MethodState getNext() {
-        return next;
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Set the next method state.
-     * @param next next method state
-     */
-    void setNext(MethodState next) {
-        this.next = next;
-        if (next != null) {
-            next.previous = this;
-        }
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Get the previous method state.
-     * @return previous method state
-     */
-    MethodState getPrevious() {
-        return previous;
-    }
-
-    /**
-     * Do not use -- for internal use only.
-     * <p>
-     * Set the previous method state.
-     * @param previous previous method state
-     */
-    void setPrevious(MethodState previous) {
-        this.previous = previous;
-        if (previous != null) {
-            previous.next = this;
-        }
-    }
-
-
-
 
 
     /**
@@ -193,6 +135,15 @@ public final class MethodState implements Serializable {
             throw new IllegalArgumentException();
         }
 
+        Class cls = FrameValidationCache.findClass(classLoader, className);
+        if (cls == null) {
+            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
+        }
+
+        return FrameValidationCache.hasIdentifyingField(cls, methodId, continuationPointId);
+    }
+
+    static Class loadClass(ClassLoader classLoader, String className) {
         Class cls = null;
         if (classLoader == null) {
             // Try to find the class from this object's classloader
@@ -202,10 +153,11 @@ public final class MethodState implements Serializable {
                 // do nothing
             }
             
-            // Try to find the class from this Thread's classloader
-            if (cls == null) {
+            // Try to find the class from this Thread's classloader (if it has one)
+            ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+            if (cls == null && contextClassLoader != null) {
                 try {
-                    cls = Thread.currentThread().getContextClassLoader().loadClass(className);
+                    cls = contextClassLoader.loadClass(className);
                 } catch (ClassNotFoundException cnfe) {
                     // do nothing
                 }
@@ -218,23 +170,7 @@ public final class MethodState implements Serializable {
                 // do nothing
             }
         }
-
-
-
-        if (cls == null) {
-            throw new IllegalStateException("Class this state is being deserialized for is missing: " + className);
-        }
-
-
-
-        String versionField = getIdentifyingFieldName(methodId, continuationPointId);
-        try {
-            cls.getDeclaredField(versionField);
-        } catch (NoSuchFieldException nsfe) {
-            return false;
-        }
-
-        return true;
+        return cls;
     }
 
     /**
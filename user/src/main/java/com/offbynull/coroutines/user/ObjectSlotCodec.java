@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+/**
+ * Encodes and decodes the objects referenced by a coroutine's state for {@link BinaryCoroutineSerializer} and
+ * {@link BinaryCoroutineDeserializer}.
+ * <p>
+ * The binary serializer collects every distinct (by identity) non-null object it encounters -- the coroutine, the context, and the
+ * object variables/operands of each frame -- into a single pool and hands that pool to this codec in one call. Implementations should
+ * preserve references shared between pooled objects (e.g. a field of the coroutine that's also on a frame's operand stack).
+ * @author Kasra Faghihi
+ */
+public interface ObjectSlotCodec {
+
+    /**
+     * Encodes a pool of objects.
+     * @param objects objects to encode (never contains {@code null})
+     * @return encoded objects
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to encode
+     */
+    byte[] encode(Object[] objects);
+
+    /**
+     * Decodes a pool of objects.
+     * @param data data to decode
+     * @return decoded objects, in the same order as they were passed in to {@link #encode(java.lang.Object[]) }
+     * @throws NullPointerException if any argument is {@code null}
+     * @throws IllegalArgumentException if failed to decode
+     */
+    Object[] decode(byte[] data);
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2018, Kasra Faghihi, All rights reserved.
+ * 
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 3.0 of the License, or (at your option) any later version.
+ * 
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library.
+ */
+package com.offbynull.coroutines.user;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs per-index work for batch reads/writes, either on an {@link ExecutorService} (e.g. a {@code ForkJoinPool}) or on the calling thread
+ * if no executor was supplied. Indexes are handed out in fixed-size chunks so that huge batches don't flood the executor with tiny
+ * tasks. Work writes its results to slots keyed by index, so output built from them is deterministic regardless of the order in which
+ * chunks complete.
+ * <p>
+ * Chunks run with the calling thread's context class loader -- work may need to look up classes (e.g. when validating method states
+ * on read), and the executor's threads may have been created with some other context class loader.
+ * @author Kasra Faghihi
+ */
+final class ParallelTasks {
+
+    private static final int CHUNK_SIZE = 64;
+
+    private ParallelTasks() {
+        // do nothing
+    }
+
+    static void forEachIndex(ExecutorService executor, int count, final IndexTask task) {
+        if (executor == null || count <= CHUNK_SIZE) {
+            for (int i = 0; i < count; i++) {
+                task.run(i);
+            }
+            return;
+        }
+
+        final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        List chunks = new ArrayList();
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            final int chunkStart = start;
+            final int chunkEnd = Math.min(start + CHUNK_SIZE, count);
+            chunks.add(new Callable() {
+                //CHECKSTYLE.OFF:JavadocMethod - Requires @Override annotation to work (designed for Java 1.4)
+                public Object call() {
+                    Thread thread = Thread.currentThread();
+                    ClassLoader oldContextClassLoader = thread.getContextClassLoader();
+                    thread.setContextClassLoader(contextClassLoader);
+                    try {
+                        for (int i = chunkStart; i < chunkEnd; i++) {
+                            task.run(i);
+                        }
+                    } finally {
+                        thread.setContextClassLoader(oldContextClassLoader);
+                    }
+                    return null;
+                }
+                //CHECKSTYLE.ON:JavadocMethod
+            });
+        }
+
+        List futures;
+        try {
+            futures = executor.invokeAll(chunks); // waits for all chunks to finish
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(ie);
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                ((Future) futures.get(i)).get();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(ie);
+            } catch (ExecutionException ee) {
+                Throwable cause = ee.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                } else if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause); // should never happen -- IndexTask can't throw checked exceptions
+            }
+        }
+    }
+
+    interface IndexTask {
+        void run(int idx);
+    }
+}
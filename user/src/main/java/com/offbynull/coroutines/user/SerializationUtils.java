@@ -21,9 +21,8 @@ import com.offbynull.coroutines.user.SerializedState.FrameInterceptPoint;
 import com.offbynull.coroutines.user.SerializedState.FrameModifier;
 import com.offbynull.coroutines.user.SerializedState.FrameUpdatePoint;
 import com.offbynull.coroutines.user.SerializedState.VersionedFrame;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
 import java.util.Map;
 import java.util.Set;
 
@@ -52,43 +51,26 @@ final class SerializationUtils {
         return null;
     }
 
-    private static Frame findUpdatableFrame(Map frameUpdaterMap, VersionedFrame versionedFrame) {
-        Iterator entryIt = frameUpdaterMap.entrySet().iterator();
-        while (entryIt.hasNext()) {
-            Map.Entry entry = (Map.Entry) entryIt.next();
-            FrameUpdatePointKey key = (FrameUpdatePointKey) entry.getKey();
-            FrameUpdatePointValue value = (FrameUpdatePointValue) entry.getValue();
-
-            Frame[] possibleFrames = versionedFrame.getFrames();
-            for (int i = 0; i < possibleFrames.length; i++) {
-                Frame frame = possibleFrames[i];
-
-                String className = frame.getClassName();
-                int methodId = frame.getMethodId();
-                int continuationPointId = frame.getContinuationPointId();
+    private static Frame findUpdatableFrame(Map transitionsMap, VersionedFrame versionedFrame) {
+        Frame[] possibleFrames = versionedFrame.getFrames();
+        for (int i = 0; i < possibleFrames.length; i++) {
+            Frame frame = possibleFrames[i];
 
-                if (methodId == key.methodId && continuationPointId == key.continuationPointId && className.equals(key.className)) {
-                    return frame;
-                }
+            FrameTransition transition = (FrameTransition) transitionsMap.get(new FrameUpdatePointKey(frame));
+            if (transition != null && transition.updater != null) {
+                return frame;
             }
         }
 
         return null;
     }
 
-    private static Frame applyIntercept(Map interceptersMap, Frame frame, int mode) {
-        String className = frame.getClassName();
-        int methodId = frame.getMethodId();
-        int continuationPointId = frame.getContinuationPointId();
-
-        FrameUpdatePointKey key = new FrameUpdatePointKey(className, methodId, continuationPointId);
-        FrameUpdatePointValue val = (FrameUpdatePointValue) interceptersMap.get(key);
-
-        if (val == null) {
+    private static Frame applyIntercept(FrameUpdatePointKey key, FrameTransition transition, Frame frame, int mode) {
+        if (transition == null || transition.interceptor == null) {
             return frame;
         }
 
-        frame = val.frameModifier.modifyFrame(frame, mode);
+        frame = transition.interceptor.frameModifier.modifyFrame(frame, mode);
         if (frame == null) {
             throw new IllegalStateException("Intercept frame modifier returned null");
         }
@@ -105,19 +87,12 @@ final class SerializationUtils {
         return frame;
     }
 
-    private static Frame applyUpdate(Map updatersMap, Frame frame, int mode) {
-        String className = frame.getClassName();
-        int methodId = frame.getMethodId();
-        int continuationPointId = frame.getContinuationPointId();
-
-        FrameUpdatePointKey key = new FrameUpdatePointKey(className, methodId, continuationPointId);
-        FrameUpdatePointValue val = (FrameUpdatePointValue) updatersMap.get(key);
-
-        if (val == null) {
+    private static Frame applyUpdate(FrameUpdatePointKey key, FrameTransition transition, Frame frame, int mode) {
+        if (transition == null || transition.updater == null) {
             return frame;
         }
 
-        frame = val.frameModifier.modifyFrame(frame, mode);
+        frame = transition.updater.frameModifier.modifyFrame(frame, mode);
         if (frame == null) {
             throw new IllegalStateException("Update frame modifier returned null");
         }
@@ -134,14 +109,23 @@ final class SerializationUtils {
         return frame;
     }
 
-    private static Frame[] chainUpdatesOnFrame(Map updatersMap, Map interceptersMap, Frame frame, int mode) {
-        LinkedHashSet ret = new LinkedHashSet(); // ordered and unique
+    private static Frame[] chainUpdatesOnFrame(Map transitionsMap, Frame frame, int mode) {
+        FrameChain ret = new FrameChain(); // ordered and unique
 
         while (true) {
             Frame start = frame;
 
-            Frame intercepted = applyIntercept(interceptersMap, start, mode); // will return input if no intercepter
-            Frame updated = applyUpdate(updatersMap, intercepted, mode);      // will return input if no updater
+            // Intercepting never changes the frame key, so a single lookup covers both the intercepter and the updater for this step.
+            FrameUpdatePointKey key = new FrameUpdatePointKey(start);
+            FrameTransition transition = (FrameTransition) transitionsMap.get(key);
+            if (transition == null) {
+                // no intercepter or updater for this frame key -- there's no where else to go from here so add it and break out of loop
+                ret.add(start);
+                break;
+            }
+
+            Frame intercepted = applyIntercept(key, transition, start, mode); // will return input if no intercepter
+            Frame updated = applyUpdate(key, transition, intercepted, mode);   // will return input if no updater
             
             // The following cases have been explicitly written out and documented because this it will be confusing when you come back to
             // this in the future.
@@ -149,7 +133,7 @@ final class SerializationUtils {
             if (intercepted == start           /* no intercept */
                     && updated == start        /* no update */) {
                 // no modifications took place -- there's no where else to go from here so add it and break out of loop
-                ret.add(start); // add the original, if alreayd exists it won't be duplicated because this is a linked hash set
+                ret.add(start); // add the original, if already exists it won't be duplicated (see FrameChain)
                 break;
             } else if (intercepted != start    /* yes intercept */
                     && updated == intercepted  /* no update */) {
@@ -165,7 +149,7 @@ final class SerializationUtils {
                 // this new frame key
                 ret.add(start); // add the frame prior to updating -- Need this because if this is the first update, the version before the
                                 // update needs to be added first. But, if this isn't the first update, it's fine because we're using a
-                                // LinkedHashSet which maintains order but discards duplicates.
+                                // FrameChain which maintains order but discards duplicates.
                 ret.add(updated); // add the updated
                 frame = updated;  // continue from the latest save
                 continue;
@@ -177,17 +161,14 @@ final class SerializationUtils {
                 ret.add(intercepted); // add the frame before the updating... but since we intercepted before we updated, add "intercepted"
                                       // instead of "started" -- Need this because if this is the first update, the version before the
                                       // update needs to be added first. But, if this isn't the first update, it's fine because we're using
-                                      // a LinkedHashSet which maintains order but discards duplicates.
+                                      // a FrameChain which maintains order but discards duplicates.
                 ret.add(updated); // add the updated
                 frame = updated;  // continue from the latest save
                 continue;
             }
         }
         
-        Frame[] retArray = new Frame[ret.size()];
-        ret.toArray(retArray);
-        
-        return retArray;
+        return ret.toArray();
     }
 
 
@@ -198,10 +179,9 @@ final class SerializationUtils {
 
 
 
-    static Frame calculateCorrectFrameVersion(ClassLoader classLoader, Map updatersMap, Map interceptersMap,
-            VersionedFrame versionedFrame) {
+    static Frame calculateCorrectFrameVersion(ClassLoader classLoader, Map transitionsMap, VersionedFrame versionedFrame) {
         Frame loadableFrame = SerializationUtils.findLoadableFrame(classLoader, versionedFrame);
-        Frame updatableFrame = findUpdatableFrame(updatersMap, versionedFrame);
+        Frame updatableFrame = findUpdatableFrame(transitionsMap, versionedFrame);
 
         if (loadableFrame != null && updatableFrame != null) {
             throw new IllegalStateException("Loadable frame detected, but updatable frame also exists");
@@ -215,7 +195,7 @@ final class SerializationUtils {
 
 
         // Call any interceptors andd updaters on frame to get the final loadable frame.
-        Frame[] frameUpdateChain = chainUpdatesOnFrame(updatersMap, interceptersMap, frame, FrameModifier.READ);
+        Frame[] frameUpdateChain = chainUpdatesOnFrame(transitionsMap, frame, FrameModifier.READ);
         frame = frameUpdateChain[frameUpdateChain.length - 1]; // get last (there will always be atleast 1 frame in here)
 
 
@@ -237,7 +217,7 @@ final class SerializationUtils {
         return frame;
     }
 
-    static VersionedFrame calculateAllPossibleFrameVersions(ClassLoader classLoader, Map updatersMap, Map interceptersMap, Frame frame) {
+    static VersionedFrame calculateAllPossibleFrameVersions(ClassLoader classLoader, Map transitionsMap, Frame frame) {
         // Ensure frame is for a method that we can save (sanity check)
         boolean found = MethodState.isValid(
                 classLoader,
@@ -253,7 +233,7 @@ final class SerializationUtils {
         
         
         // We found an updatable frame. Chain updates to get it to a final loadable state.
-        Frame[] frameUpdateChain = chainUpdatesOnFrame(updatersMap, interceptersMap, frame, FrameModifier.WRITE);
+        Frame[] frameUpdateChain = chainUpdatesOnFrame(transitionsMap, frame, FrameModifier.WRITE);
         return new VersionedFrame(frameUpdateChain);
     }
 
@@ -330,23 +310,23 @@ final class SerializationUtils {
     
     
     
-    static void populateUpdatesMapAndInterceptsMap(
-            Map updatersMap, FrameUpdatePoint[] frameUpdatePoints,
-            Map interceptersMap, FrameInterceptPoint[] frameInterceptPoints) {
+    // Compiles the update points and intercept points into a single hashed table of frame key -> FrameTransition, so that each step of a
+    // frame's update chain takes a single lookup.
+    static Map compileTransitionsMap(FrameUpdatePoint[] frameUpdatePoints, FrameInterceptPoint[] frameInterceptPoints) {
+        Map transitionsMap = new HashMap();
+
         for (int i = 0; i < frameUpdatePoints.length; i++) {
             FrameUpdatePoint frameUpdatePoint = frameUpdatePoints[i];
             if (frameUpdatePoint == null) {
                 throw new NullPointerException();
             }
 
-            FrameUpdatePointKey key = frameUpdatePoint.toKey();
-            FrameUpdatePointValue value = frameUpdatePoint.toValue();
-            
-            Object oldKey = updatersMap.put(key, value);
-            if (oldKey != null) {
+            FrameTransition transition = getOrCreateTransition(transitionsMap, frameUpdatePoint.toKey());
+            if (transition.updater != null) {
                 throw new IllegalArgumentException("Frame update point for identifier already exists: "
                         + frameUpdatePoint.toString());
             }
+            transition.updater = frameUpdatePoint.toValue();
         }
 
         for (int i = 0; i < frameInterceptPoints.length; i++) {
@@ -355,15 +335,24 @@ final class SerializationUtils {
                 throw new NullPointerException();
             }
 
-            FrameUpdatePointKey key = frameInterceptPoint.toKey();
-            FrameUpdatePointValue value = frameInterceptPoint.toValue();
-            
-            Object oldKey = interceptersMap.put(key, value);
-            if (oldKey != null) {
+            FrameTransition transition = getOrCreateTransition(transitionsMap, frameInterceptPoint.toKey());
+            if (transition.interceptor != null) {
                 throw new IllegalArgumentException("Frame intercept point for identifier already exists: "
                         + frameInterceptPoint.toString());
             }
+            transition.interceptor = frameInterceptPoint.toValue();
         }
+
+        return transitionsMap;
+    }
+
+    private static FrameTransition getOrCreateTransition(Map transitionsMap, FrameUpdatePointKey key) {
+        FrameTransition transition = (FrameTransition) transitionsMap.get(key);
+        if (transition == null) {
+            transition = new FrameTransition();
+            transitionsMap.put(key, transition);
+        }
+        return transition;
     }
 
     static final class FrameUpdatePointKey {
@@ -382,6 +371,10 @@ final class SerializationUtils {
             this.continuationPointId = continuationPointId;
         }
 
+        FrameUpdatePointKey(Frame frame) {
+            this(frame.getClassName(), frame.getMethodId(), frame.getContinuationPointId());
+        }
+
         public int hashCode() {
             int hash = 7;
             hash = 71 * hash + (this.className != null ? this.className.hashCode() : 0);
@@ -424,4 +417,35 @@ final class SerializationUtils {
             this.frameModifier = frameModifier;
         }        
     }
+
+    private static final class FrameTransition {
+        private FrameUpdatePointValue interceptor; // null if no intercept point for this frame key
+        private FrameUpdatePointValue updater;     // null if no update point for this frame key
+    }
+
+    // Ordered list of frames that discards a frame if it's the same as the last frame added. When chaining updates, a frame only ever
+    // gets re-added right after it was added (the frame updated to in one step is the frame started from in the next step), so this is
+    // enough to keep the chain unique.
+    private static final class FrameChain {
+        private Frame[] frames = new Frame[4];
+        private int size;
+
+        void add(Frame frame) {
+            if (size > 0 && frames[size - 1] == frame) {
+                return;
+            }
+            if (size == frames.length) {
+                Frame[] newFrames = new Frame[size * 2];
+                System.arraycopy(frames, 0, newFrames, 0, size);
+                frames = newFrames;
+            }
+            frames[size++] = frame;
+        }
+
+        Frame[] toArray() {
+            Frame[] ret = new Frame[size];
+            System.arraycopy(frames, 0, ret, 0, size);
+            return ret;
+        }
+    }
 }